@@ -5,19 +5,41 @@
 public class TransactionalCacheManager {
   //keyΪcache,valueΪTransactionalCache,TransactionalCache¼ÿcacheҪcommitʱ,ҪعʱҪƳ.
   private Map<Cache, TransactionalCache> transactionalCaches = new HashMap<Cache, TransactionalCache>();
+  private InvalidationBus invalidationBus;
+
+  public TransactionalCacheManager() {
+    this(null);
+  }
+
+  public TransactionalCacheManager(InvalidationBus invalidationBus) {
+    this.invalidationBus = invalidationBus;
+  }
 
   public void clear(Cache cache) {
     getTransactionalCache(cache).clear();
   }
 
+  public boolean isCleared(Cache cache) {
+    TransactionalCache txCache = transactionalCaches.get(cache);
+    return txCache != null && txCache.isCleared();
+  }
+
   public Object getObject(Cache cache, CacheKey key) {
     return getTransactionalCache(cache).getObject(key);
   }
+
+  public Object getObject(Cache cache, CacheKey key, CacheLoader loader) throws SQLException {
+    return getTransactionalCache(cache).getObject(key, loader);
+  }
   
   public void putObject(Cache cache, CacheKey key, Object value) {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  public void removeObject(Cache cache, CacheKey key) {
+    getTransactionalCache(cache).removeObject(key);
+  }
+
   public void commit() {
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.commit();
@@ -33,7 +55,7 @@ public class TransactionalCacheManager {
   private TransactionalCache getTransactionalCache(Cache cache) {
     TransactionalCache txCache = transactionalCaches.get(cache);
     if (txCache == null) {
-      txCache = new TransactionalCache(cache);
+      txCache = new TransactionalCache(cache, invalidationBus);
       transactionalCaches.put(cache, txCache);
     }
     return txCache;
@@ -40,5 +40,11 @@ public @interface CacheNamespace {
   boolean readWrite() default true;
   
   boolean blocking() default false;
+
+  boolean loading() default false;
+
+  long ttl() default 0;
+
+  long refreshAfter() default 0;
   
 }
@@ -0,0 +1,175 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.bench;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
+import org.apache.ibatis.scripting.xmltags.ExpressionEngine;
+import org.apache.ibatis.scripting.xmltags.FastExpressionEngine;
+import org.apache.ibatis.scripting.xmltags.OgnlExpressionEngine;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 表达式引擎的基准测试,比较OGNL和FAST在典型mapper表达式上的耗时
+ * 表达式都是<if test>,<when test>,<foreach collection>里常见的写法,参数分Map参数和Bean参数两种
+ * 计时前先确认两个引擎的结果一样;每个表达式跑若干次,输出平均每次的纳秒数
+ * 运行:java -cp mybatis.jar:ognl.jar:javassist.jar:bench org.apache.ibatis.bench.ExpressionBenchmark [次数] [轮数]
+ * JDK9以上要加--add-opens java.base/java.util=ALL-UNNAMED --add-opens java.base/java.lang=ALL-UNNAMED,原因见ExpressionEquivalence
+ * 前几轮是预热,看后面几轮的数字
+ */
+public class ExpressionBenchmark {
+
+  private static final String[] EXPRESSIONS = {
+      "name != null",
+      "name != null and name != ''",
+      "name != null and name.trim().length() > 0",
+      "status == 'ACTIVE'",
+      "age >= 18 and age < 60",
+      "ids != null and ids.size() > 0",
+      "!ids.isEmpty()",
+      "deleted == false or deleted == null",
+      "user != null and user.name != null",
+      "ids",
+      "_parameter != null",
+      "orderBy != null and (orderBy == 'name' or orderBy == 'age')" };
+
+  private final ExpressionEngine ognl = new OgnlExpressionEngine();
+  private final ExpressionEngine fast = new FastExpressionEngine();
+  private final Map<String, Object> mapBindings;
+  private final Map<String, Object> beanBindings;
+  private final int iterations;
+
+  //防止JIT把循环整个优化掉
+  private int blackhole;
+
+  public ExpressionBenchmark(int iterations) {
+    this.iterations = iterations;
+    Configuration configuration = new Configuration();
+    Query query = new Query();
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("name", query.getName());
+    parameter.put("status", query.getStatus());
+    parameter.put("age", query.getAge());
+    parameter.put("ids", query.getIds());
+    parameter.put("deleted", query.getDeleted());
+    parameter.put("user", query.getUser());
+    parameter.put("orderBy", query.getOrderBy());
+    this.mapBindings = new DynamicContext(configuration, parameter).getBindings();
+    this.beanBindings = new DynamicContext(configuration, query).getBindings();
+  }
+
+  public static void main(String[] args) {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    ExpressionBenchmark benchmark = new ExpressionBenchmark(iterations);
+    benchmark.verify();
+    System.out.println(EXPRESSIONS.length + " expressions x " + iterations + " iterations, " + rounds + " rounds, ns/op");
+    for (int round = 1; round <= rounds; round++) {
+      System.out.println("round " + round);
+      System.out.println(String.format("  %-60s %10s %10s %10s %10s", "expression", "OGNL map", "FAST map", "OGNL bean", "FAST bean"));
+      for (String expression : EXPRESSIONS) {
+        System.out.println(String.format("  %-60s %10d %10d %10d %10d", expression,
+            benchmark.nanosPerOp(benchmark.ognl, expression, benchmark.mapBindings),
+            benchmark.nanosPerOp(benchmark.fast, expression, benchmark.mapBindings),
+            benchmark.nanosPerOp(benchmark.ognl, expression, benchmark.beanBindings),
+            benchmark.nanosPerOp(benchmark.fast, expression, benchmark.beanBindings)));
+      }
+    }
+    if (benchmark.blackhole == 42) {
+      System.out.println();
+    }
+  }
+
+  //两个引擎的结果要一样,否则数字没有意义;更完整的对比见ExpressionEquivalence
+  private void verify() {
+    for (String expression : EXPRESSIONS) {
+      for (Map<String, Object> bindings : Arrays.asList(mapBindings, beanBindings)) {
+        Object expected = ognl.getValue(expression, bindings);
+        Object actual = fast.getValue(expression, bindings);
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+          throw new IllegalStateException("Expression '" + expression + "' differs: OGNL " + expected + ", FAST " + actual);
+        }
+      }
+    }
+  }
+
+  private long nanosPerOp(ExpressionEngine engine, String expression, Map<String, Object> bindings) {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      Object value = engine.getValue(expression, bindings);
+      if (value != null) {
+        blackhole += value.hashCode();
+      }
+    }
+    return (System.nanoTime() - start) / iterations;
+  }
+
+  //典型的查询条件对象
+  public static class Query {
+    private String name = "mybatis";
+    private String status = "ACTIVE";
+    private Integer age = 30;
+    private List<Integer> ids = Arrays.asList(1, 2, 3);
+    private Boolean deleted = Boolean.FALSE;
+    private Owner user = new Owner("admin");
+    private String orderBy = "age";
+
+    public String getName() {
+      return name;
+    }
+
+    public String getStatus() {
+      return status;
+    }
+
+    public Integer getAge() {
+      return age;
+    }
+
+    public List<Integer> getIds() {
+      return ids;
+    }
+
+    public Boolean getDeleted() {
+      return deleted;
+    }
+
+    public Owner getUser() {
+      return user;
+    }
+
+    public String getOrderBy() {
+      return orderBy;
+    }
+  }
+
+  public static class Owner {
+    private final String name;
+
+    public Owner(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+}
@@ -0,0 +1,275 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.bench;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.ibatis.scripting.xmltags.DynamicContext;
+import org.apache.ibatis.scripting.xmltags.ExpressionEngine;
+import org.apache.ibatis.scripting.xmltags.FastExpressionEngine;
+import org.apache.ibatis.scripting.xmltags.OgnlExpressionEngine;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * FastExpressionEngine和OGNL的对比检查
+ * 把支持的语法(属性路径,各种字面量,方法调用,比较,逻辑运算,取反,括号)两两组合成表达式,再加上随机嵌套的表达式,
+ * 分别用FAST和OGNL在几组参数(Map参数,值不同的Map参数,Bean参数)上求值,结果(值和类型,或者都出错)必须一样
+ * FAST回退到OGNL的结果本来就是OGNL的,所以只比较FAST自己算出来的结果,另外单独检查两种情况:
+ * 1.FAST自己算的结果和OGNL不一样
+ * 2.FAST求值时抛了非预期的异常,而OGNL能算出结果,这种错误平时被回退掩盖了
+ * 有任何一种就以状态1退出
+ * 运行:java -cp mybatis.jar:ognl.jar:javassist.jar:bench org.apache.ibatis.bench.ExpressionEquivalence [随机表达式个数]
+ * JDK9以上OGNL要反射调用java.util里非public的集合类,需要加--add-opens java.base/java.util=ALL-UNNAMED --add-opens java.base/java.lang=ALL-UNNAMED
+ */
+public class ExpressionEquivalence {
+
+  private static final String[] OPERANDS = {
+      "name", "blank", "empty", "age", "count", "score", "amount", "big", "active", "flag", "ch", "nul",
+      "list", "emptyList", "map", "map.key", "map.missing", "user", "user.name", "user.age", "user.nul", "nul.name", "_parameter",
+      "list.size()", "emptyList.isEmpty()", "map.size()", "map.isEmpty()", "name.length()", "blank.trim()", "name.trim().length()",
+      "name.isEmpty()", "name.equals('abc')", "age.equals(18)",
+      "null", "true", "false", "0", "1", "18", "1.5", "1.50", "'a'", "'abc'", "\"abc\"", "''", "007", "10L" };
+
+  private static final String[] BINARY_OPERATORS = {
+      "==", "!=", "<", ">", "<=", ">=", "eq", "neq", "lt", "gt", "lte", "gte", "and", "or", "&&", "||" };
+
+  private static final int MAX_REPORTED = 20;
+
+  private final ExpressionEngine ognl = new OgnlExpressionEngine();
+  private final RecordingEngine fast = new RecordingEngine();
+  private final List<Map<String, Object>> bindings = new ArrayList<Map<String, Object>>();
+  private final List<String> bindingNames = new ArrayList<String>();
+
+  private int evaluations;
+  private int fastEvaluations;
+  private int fallbacks;
+  private final List<String> mismatches = new ArrayList<String>();
+  private final List<String> hiddenFailures = new ArrayList<String>();
+
+  public ExpressionEquivalence() {
+    Configuration configuration = new Configuration();
+    addBindings("map parameter", new DynamicContext(configuration, mapParameter(false)).getBindings());
+    addBindings("second map parameter", new DynamicContext(configuration, mapParameter(true)).getBindings());
+    addBindings("bean parameter", new DynamicContext(configuration, new User("abc", 18)).getBindings());
+  }
+
+  private void addBindings(String name, Map<String, Object> root) {
+    bindingNames.add(name);
+    bindings.add(root);
+  }
+
+  public static void main(String[] args) {
+    int randomExpressions = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    ExpressionEquivalence check = new ExpressionEquivalence();
+    Set<String> expressions = expressions(randomExpressions);
+    for (String expression : expressions) {
+      check.check(expression);
+    }
+    System.out.println(expressions.size() + " expressions, " + check.evaluations + " evaluations");
+    System.out.println("answered by FAST: " + check.fastEvaluations + ", fell back to OGNL: " + check.fallbacks);
+    check.report("Mismatches", check.mismatches);
+    check.report("Exceptions hidden by fallback", check.hiddenFailures);
+    if (!check.mismatches.isEmpty() || !check.hiddenFailures.isEmpty()) {
+      System.exit(1);
+    }
+  }
+
+  //单个操作数,取反,两两组合,再加上固定种子生成的随机嵌套表达式
+  private static Set<String> expressions(int randomExpressions) {
+    Set<String> expressions = new LinkedHashSet<String>();
+    for (String operand : OPERANDS) {
+      expressions.add(operand);
+      expressions.add("!" + operand);
+      expressions.add("not " + operand);
+      expressions.add("(" + operand + ")");
+    }
+    for (String left : OPERANDS) {
+      for (String operator : BINARY_OPERATORS) {
+        for (String right : OPERANDS) {
+          expressions.add(left + " " + operator + " " + right);
+        }
+      }
+    }
+    Random random = new Random(42);
+    while (randomExpressions-- > 0) {
+      expressions.add(randomExpression(random, 3));
+    }
+    return expressions;
+  }
+
+  private static String randomExpression(Random random, int depth) {
+    if (depth == 0 || random.nextInt(3) == 0) {
+      String operand = OPERANDS[random.nextInt(OPERANDS.length)];
+      return random.nextInt(6) == 0 ? "!" + operand : operand;
+    }
+    switch (random.nextInt(4)) {
+      case 0:
+        return "!(" + randomExpression(random, depth - 1) + ")";
+      case 1:
+        return "(" + randomExpression(random, depth - 1) + ")";
+      default:
+        return randomExpression(random, depth - 1) + " " + BINARY_OPERATORS[random.nextInt(BINARY_OPERATORS.length)] + " "
+            + randomExpression(random, depth - 1);
+    }
+  }
+
+  private void check(String expression) {
+    for (int i = 0; i < bindings.size(); i++) {
+      Map<String, Object> root = bindings.get(i);
+      String on = expression + " on " + bindingNames.get(i);
+      evaluations++;
+      Outcome expected = evaluate(ognl, expression, root);
+      fast.reset();
+      Outcome actual = evaluate(fast, expression, root);
+      if (fast.fellBack) {
+        fallbacks++;
+        if (fast.cause != null && expected.error == null) {
+          hiddenFailures.add(on + ": " + fast.cause);
+        }
+      } else {
+        fastEvaluations++;
+        if (!expected.matches(actual)) {
+          mismatches.add(on + ": OGNL " + expected + ", FAST " + actual);
+        }
+      }
+    }
+  }
+
+  private static Outcome evaluate(ExpressionEngine engine, String expression, Object root) {
+    try {
+      return new Outcome(engine.getValue(expression, root), null);
+    } catch (RuntimeException e) {
+      return new Outcome(null, e);
+    }
+  }
+
+  private void report(String title, List<String> problems) {
+    System.out.println(title + ": " + problems.size());
+    for (String problem : problems.subList(0, Math.min(MAX_REPORTED, problems.size()))) {
+      System.out.println("  " + problem);
+    }
+  }
+
+  //second为true时换一组值,让比较和逻辑运算走到另一边
+  private static Map<String, Object> mapParameter(boolean second) {
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("name", second ? "" : "abc");
+    parameter.put("blank", second ? "x" : "  ");
+    parameter.put("empty", "");
+    parameter.put("age", second ? 0 : 18);
+    parameter.put("count", second ? 18L : 3L);
+    parameter.put("score", second ? 18.0d : 1.5d);
+    parameter.put("amount", second ? new BigDecimal("18") : new BigDecimal("1.50"));
+    parameter.put("big", second ? BigInteger.ZERO : BigInteger.valueOf(18));
+    parameter.put("active", !second);
+    parameter.put("flag", second);
+    parameter.put("ch", second ? 'b' : 'a');
+    parameter.put("nul", null);
+    parameter.put("list", second ? Arrays.asList(1) : Arrays.asList(1, 2));
+    parameter.put("emptyList", Collections.emptyList());
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("key", second ? "abc" : "v");
+    map.put("size", 1);
+    parameter.put("map", map);
+    parameter.put("user", second ? new User("", 0) : new User("abc", 18));
+    return parameter;
+  }
+
+  //FAST自己放弃(cause为null)或者出错(cause非null)回退到OGNL时记下来
+  private static class RecordingEngine extends FastExpressionEngine {
+    private boolean fellBack;
+    private Exception cause;
+
+    void reset() {
+      fellBack = false;
+      cause = null;
+    }
+
+    @Override
+    protected Object fallback(String expression, Object root, Exception cause) {
+      this.fellBack = true;
+      this.cause = cause;
+      return super.fallback(expression, root, cause);
+    }
+  }
+
+  //求值结果:值和类型一样,或者两边都出错,才算一致
+  private static class Outcome {
+    private final Object value;
+    private final RuntimeException error;
+
+    Outcome(Object value, RuntimeException error) {
+      this.value = value;
+      this.error = error;
+    }
+
+    boolean matches(Outcome other) {
+      if (error != null || other.error != null) {
+        return error != null && other.error != null;
+      }
+      if (value == null || other.value == null) {
+        return value == other.value;
+      }
+      return value.getClass() == other.value.getClass() && value.equals(other.value);
+    }
+
+    @Override
+    public String toString() {
+      if (error != null) {
+        return "error " + error.getClass().getSimpleName();
+      }
+      return value == null ? "null" : value + " (" + value.getClass().getSimpleName() + ")";
+    }
+  }
+
+  public static class User {
+    private final String name;
+    private final Integer age;
+
+    public User(String name, Integer age) {
+      this.name = name;
+      this.age = age;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Integer getAge() {
+      return age;
+    }
+
+    public Object getNul() {
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "User(" + name + ", " + age + ")";
+    }
+  }
+
+}
@@ -0,0 +1,226 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.bench;
+
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.wrapper.BytecodeObjectWrapperFactory;
+import org.apache.ibatis.reflection.wrapper.DefaultObjectWrapperFactory;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
+import org.apache.ibatis.reflection.wrapper.PropertyAccessor;
+
+/**
+ * 属性读写的基准测试,比较BeanWrapper(反射)和BytecodeObjectWrapperFactory生成的访问器
+ * 分三种情况:
+ * 1.按属性id直接调用:Reflector的Invoker对比PropertyAccessor.get/set,不经过MetaObject
+ * 2.同一个MetaObject反复setValue/getValue:属性名解析和包装器的开销都算在里面
+ * 3.每行新建对象和MetaObject再赋值:和结果映射一样,包装器的创建也算在里面
+ * 运行:java -cp mybatis.jar:javassist.jar:bench org.apache.ibatis.bench.ReflectionBenchmark [行数] [轮数]
+ * JDK9以上Javassist要用ClassLoader.defineClass,需要加--add-opens java.base/java.lang=ALL-UNNAMED
+ * 前几轮是预热,看后面几轮的数字
+ */
+public class ReflectionBenchmark {
+
+  private static final String[] PROPERTIES = { "id", "name", "createdAt", "score", "active", "remark" };
+
+  private final ObjectFactory objectFactory = new DefaultObjectFactory();
+  private final ObjectWrapperFactory reflectionFactory = new DefaultObjectWrapperFactory();
+  private final BytecodeObjectWrapperFactory bytecodeFactory = new BytecodeObjectWrapperFactory();
+  private final int rows;
+
+  //防止JIT把循环整个优化掉
+  private long blackhole;
+
+  public ReflectionBenchmark(int rows) {
+    this.rows = rows;
+  }
+
+  public static void main(String[] args) throws Throwable {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    ReflectionBenchmark benchmark = new ReflectionBenchmark(rows);
+    benchmark.verify();
+    System.out.println(rows + " rows x " + PROPERTIES.length + " properties, " + rounds + " rounds");
+    System.out.println(String.format("%-6s %-24s %12s %12s", "round", "case", "BeanWrapper", "bytecode"));
+    for (int round = 1; round <= rounds; round++) {
+      benchmark.print(round, "invoker/accessor by id", benchmark.invokerById(), benchmark.accessorById());
+      benchmark.print(round, "MetaObject reused", benchmark.metaObjectReused(benchmark.reflectionFactory), benchmark.metaObjectReused(benchmark.bytecodeFactory));
+      benchmark.print(round, "MetaObject per row", benchmark.metaObjectPerRow(benchmark.reflectionFactory), benchmark.metaObjectPerRow(benchmark.bytecodeFactory));
+    }
+    if (benchmark.blackhole == 42) {
+      System.out.println();
+    }
+  }
+
+  private void print(int round, String name, long reflectionMillis, long bytecodeMillis) {
+    System.out.println(String.format("%-6d %-24s %10d ms %10d ms", round, name, reflectionMillis, bytecodeMillis));
+  }
+
+  //两种包装器读写的结果要一样,否则数字没有意义
+  private void verify() {
+    Bean bean = new Bean();
+    MetaObject metaObject = MetaObject.forObject(bean, objectFactory, bytecodeFactory);
+    fill(metaObject, 7);
+    MetaObject reflection = MetaObject.forObject(bean, objectFactory, reflectionFactory);
+    for (String property : PROPERTIES) {
+      Object expected = reflection.getValue(property);
+      Object actual = metaObject.getValue(property);
+      if (expected == null ? actual != null : !expected.equals(actual)) {
+        throw new IllegalStateException("Property '" + property + "' differs: " + expected + " vs " + actual);
+      }
+    }
+    if (bytecodeFactory.getAccessor(Bean.class) == null) {
+      throw new IllegalStateException("No PropertyAccessor generated for " + Bean.class.getName());
+    }
+  }
+
+  private long invokerById() throws Throwable {
+    Reflector reflector = Reflector.forClass(Bean.class);
+    Invoker[] setters = new Invoker[PROPERTIES.length];
+    for (int i = 0; i < PROPERTIES.length; i++) {
+      setters[i] = reflector.getSetInvoker(PROPERTIES[i]);
+    }
+    Invoker getId = reflector.getGetInvoker("id");
+    Object[] noArgs = new Object[0];
+    Bean bean = new Bean();
+    long start = System.nanoTime();
+    for (int row = 0; row < rows; row++) {
+      setters[0].invoke(bean, new Object[] { row });
+      setters[1].invoke(bean, new Object[] { "name" });
+      setters[2].invoke(bean, new Object[] { 5L });
+      setters[3].invoke(bean, new Object[] { 1.5d });
+      setters[4].invoke(bean, new Object[] { Boolean.TRUE });
+      setters[5].invoke(bean, new Object[] { null });
+      blackhole += (Integer) getId.invoke(bean, noArgs);
+    }
+    return elapsedMillis(start);
+  }
+
+  private long accessorById() {
+    PropertyAccessor accessor = bytecodeFactory.getAccessor(Bean.class);
+    int[] ids = new int[PROPERTIES.length];
+    for (int i = 0; i < PROPERTIES.length; i++) {
+      ids[i] = accessor.indexOf(PROPERTIES[i]);
+    }
+    Bean bean = new Bean();
+    long start = System.nanoTime();
+    for (int row = 0; row < rows; row++) {
+      accessor.set(bean, ids[0], row);
+      accessor.set(bean, ids[1], "name");
+      accessor.set(bean, ids[2], 5L);
+      accessor.set(bean, ids[3], 1.5d);
+      accessor.set(bean, ids[4], Boolean.TRUE);
+      accessor.set(bean, ids[5], null);
+      blackhole += (Integer) accessor.get(bean, ids[0]);
+    }
+    return elapsedMillis(start);
+  }
+
+  private long metaObjectReused(ObjectWrapperFactory wrapperFactory) {
+    MetaObject metaObject = MetaObject.forObject(new Bean(), objectFactory, wrapperFactory);
+    long start = System.nanoTime();
+    for (int row = 0; row < rows; row++) {
+      fill(metaObject, row);
+      blackhole += (Integer) metaObject.getValue("id");
+    }
+    return elapsedMillis(start);
+  }
+
+  private long metaObjectPerRow(ObjectWrapperFactory wrapperFactory) {
+    long start = System.nanoTime();
+    for (int row = 0; row < rows; row++) {
+      MetaObject metaObject = MetaObject.forObject(new Bean(), objectFactory, wrapperFactory);
+      fill(metaObject, row);
+      blackhole += (Integer) metaObject.getValue("id");
+    }
+    return elapsedMillis(start);
+  }
+
+  private static void fill(MetaObject metaObject, int row) {
+    metaObject.setValue("id", row);
+    metaObject.setValue("name", "name");
+    metaObject.setValue("createdAt", 5L);
+    metaObject.setValue("score", 1.5d);
+    metaObject.setValue("active", Boolean.TRUE);
+    metaObject.setValue("remark", null);
+  }
+
+  private static long elapsedMillis(long start) {
+    return (System.nanoTime() - start) / 1000000L;
+  }
+
+  //典型的结果对象:基本类型,包装类型,字符串
+  public static class Bean {
+    private int id;
+    private String name;
+    private long createdAt;
+    private Double score;
+    private boolean active;
+    private String remark;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public long getCreatedAt() {
+      return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+      this.createdAt = createdAt;
+    }
+
+    public Double getScore() {
+      return score;
+    }
+
+    public void setScore(Double score) {
+      this.score = score;
+    }
+
+    public boolean isActive() {
+      return active;
+    }
+
+    public void setActive(boolean active) {
+      this.active = active;
+    }
+
+    public String getRemark() {
+      return remark;
+    }
+
+    public void setRemark(String remark) {
+      this.remark = remark;
+    }
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.binding;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+
+/**
+ * 异步映射器方法的执行器
+ * 返回Future的映射器方法交给这里的线程池执行,每次调用在工作线程里开一个自己的SqlSession(自己的连接和事务),
+ * 成功以后提交,最后关闭。SqlSession不是线程安全的,调用方的会话和事务不能带到别的线程里去,
+ * 所以异步方法看不到调用方还没提交的修改,异步的增删改也不会跟着调用方回滚
+ * 用信号量限制同时在执行的语句数(一个Configuration只有一个数据源),线程池是共用的大池子时也不会一下占满连接池
+ */
+public class AsyncMapperExecutor {
+
+  private final SqlSessionFactory sqlSessionFactory;
+  private final ExecutorService executorService;
+  //null表示不限制
+  private final Semaphore inFlight;
+
+  public AsyncMapperExecutor(Configuration configuration, ExecutorService executorService, int maxInFlight) {
+    this.sqlSessionFactory = new DefaultSqlSessionFactory(configuration);
+    this.executorService = executorService;
+    this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight, true) : null;
+  }
+
+  //默认的线程池,后台线程,不会挡住JVM退出
+  public static ExecutorService newDefaultExecutorService(int threads) {
+    return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private int count;
+
+      @Override
+      public synchronized Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "mybatis-async-" + (++count));
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  public ExecutorService getExecutorService() {
+    return executorService;
+  }
+
+  public Future<Object> submit(final MapperMethod mapperMethod, final Object[] args) {
+    return executorService.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        //在工作线程里等,调用方不会被挡住
+        if (inFlight != null) {
+          inFlight.acquire();
+        }
+        try {
+          SqlSession sqlSession = sqlSessionFactory.openSession();
+          try {
+            Object result = mapperMethod.executeInSession(sqlSession, args);
+            sqlSession.commit();
+            return result;
+          } finally {
+            sqlSession.close();
+          }
+        } finally {
+          if (inFlight != null) {
+            inFlight.release();
+          }
+        }
+      }
+    });
+  }
+
+}
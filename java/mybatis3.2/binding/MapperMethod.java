@@ -19,6 +19,14 @@ public class MapperMethod {
 
   //ִ
   public Object execute(SqlSession sqlSession, Object[] args) {
+    if (method.returnsFuture()) {
+      //Futureķ첽ִԼSqlSessionִ
+      return sqlSession.getConfiguration().getAsyncMapperExecutor().submit(this, args);
+    }
+    return executeInSession(sqlSession, args);
+  }
+
+  Object executeInSession(SqlSession sqlSession, Object[] args) {
     Object result;
     //4insert|update|delete|selectֱSqlSession4෽
     if (SqlCommandType.INSERT == command.getType()) {
@@ -41,6 +49,9 @@ public class MapperMethod {
       } else if (method.returnsMap()) {
         //map
         result = executeForMap(sqlSession, args);
+      } else if (method.returnsCursor()) {
+        //α
+        result = executeForCursor(sqlSession, args);
       } else {
         //һ¼
         Object param = method.convertArgsToSqlCommandParam(args);
@@ -129,6 +140,19 @@ public class MapperMethod {
     return array;
   }
 
+  //α,ڵʱŴResultSetȡ
+  private <T> Cursor<T> executeForCursor(SqlSession sqlSession, Object[] args) {
+    Cursor<T> result;
+    Object param = method.convertArgsToSqlCommandParam(args);
+    if (method.hasRowBounds()) {
+      RowBounds rowBounds = method.extractRowBounds(args);
+      result = sqlSession.<T>selectCursor(command.getName(), param, rowBounds);
+    } else {
+      result = sqlSession.<T>selectCursor(command.getName(), param);
+    }
+    return result;
+  }
+
   private <K, V> Map<K, V> executeForMap(SqlSession sqlSession, Object[] args) {
     Map<K, V> result;
     Object param = method.convertArgsToSqlCommandParam(args);
@@ -199,6 +223,9 @@ public class MapperMethod {
     private final boolean returnsMany;
     private final boolean returnsMap;
     private final boolean returnsVoid;
+    private final boolean returnsCursor;
+    private final boolean returnsFuture;
+    //Future<T>ʱT
     private final Class<?> returnType;
     private final String mapKey;
     private final Integer resultHandlerIndex;
@@ -207,9 +234,15 @@ public class MapperMethod {
     private final boolean hasNamedParameters;
 
     public MethodSignature(Configuration configuration, Method method) {
-      this.returnType = method.getReturnType();
-      this.returnsVoid = void.class.equals(this.returnType);
+      this.returnsFuture = Future.class.equals(method.getReturnType());
+      this.returnType = returnsFuture ? getFutureResultType(method) : method.getReturnType();
+      this.returnsVoid = void.class.equals(this.returnType) || (returnsFuture && Void.class.equals(this.returnType));
       this.returnsMany = (configuration.getObjectFactory().isCollection(this.returnType) || this.returnType.isArray());
+      this.returnsCursor = Cursor.class.equals(this.returnType);
+      if (returnsFuture && returnsCursor) {
+        //α첽ִеSqlSessionرʱ͹
+        throw new BindingException(method.getName() + " cannot return a Future of a Cursor");
+      }
       this.mapKey = getMapKey(method);
       this.returnsMap = (this.mapKey != null);
       this.hasNamedParameters = hasNamedParams(method);
@@ -287,6 +320,32 @@ public class MapperMethod {
       return returnsVoid;
     }
 
+    public boolean returnsCursor() {
+      return returnsCursor;
+    }
+
+    public boolean returnsFuture() {
+      return returnsFuture;
+    }
+
+    //Future<T>T,T(List<User>)ʱȡԭʼ
+    private Class<?> getFutureResultType(Method method) {
+      Type genericReturnType = method.getGenericReturnType();
+      if (genericReturnType instanceof ParameterizedType) {
+        Type resultType = ((ParameterizedType) genericReturnType).getActualTypeArguments()[0];
+        if (resultType instanceof ParameterizedType) {
+          resultType = ((ParameterizedType) resultType).getRawType();
+        }
+        if (resultType instanceof Class) {
+          return (Class<?>) resultType;
+        }
+        if (resultType instanceof GenericArrayType) {
+          return Object[].class;
+        }
+      }
+      return Object.class;
+    }
+
     private Integer getUniqueParamIndex(Method method, Class<?> paramType) {
       Integer index = null;
       final Class<?>[] argTypes = method.getParameterTypes();
@@ -304,7 +363,7 @@ public class MapperMethod {
 
     private String getMapKey(Method method) {
       String mapKey = null;
-      if (Map.class.isAssignableFrom(method.getReturnType())) {
+      if (Map.class.isAssignableFrom(returnType)) {
         //map͵ģ鿴methodǷMapKeyע⡣ע⣬עֵΪmapkey
         final MapKey mapKeyAnnotation = method.getAnnotation(MapKey.class);
         if (mapKeyAnnotation != null) {
@@ -31,6 +31,7 @@ import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.DataSourceRoute;
 import org.apache.ibatis.mapping.Discriminator;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMap;
@@ -58,6 +59,9 @@ import org.apache.ibatis.type.TypeHandler;
  */
 public class MapperBuilderAssistant extends BaseBuilder {
 
+  //批量加载每批默认最多的key数
+  private static final int DEFAULT_BATCH_SIZE = 100;
+
   //每个助手都有1个namespace,resource,cache
   private String currentNamespace;
   private String resource;
@@ -134,6 +138,20 @@ public class MapperBuilderAssistant extends BaseBuilder {
       boolean readWrite,
       boolean blocking,
       Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, false, null, null, props);
+  }
+
+  //loading:加载模式,ttl和refreshAfter只在加载模式下起作用
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      boolean loading,
+      Long ttl,
+      Long refreshAfter,
+      Properties props) {
       //这里面又判断了一下是否为null就用默认值，有点和XMLMapperBuilder.cacheElement逻辑重复了
     typeClass = valueOrDefault(typeClass, PerpetualCache.class);
     evictionClass = valueOrDefault(evictionClass, LruCache.class);
@@ -145,6 +163,9 @@ public class MapperBuilderAssistant extends BaseBuilder {
         .size(size)
         .readWrite(readWrite)
         .blocking(blocking)
+        .loading(loading)
+        .ttl(ttl)
+        .refreshAfter(refreshAfter)
         .properties(props)
         .build();
     //加入缓存
@@ -284,6 +305,38 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String databaseId,
       LanguageDriver lang,
       String resultSets) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, null, null);
+  }
+
+  //route:读写分离时语句走主库还是从库,null表示DEFAULT
+  //tables:语句读写的表(逗号分隔),按表失效二级缓存时用,null表示从SQL里推断
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      DataSourceRoute route,
+      String tables) {
     
     if (unresolvedCacheRef) {
       throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -306,6 +359,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
     statementBuilder.lang(lang);
     statementBuilder.resultOrdered(resultOrdered);
     statementBuilder.resulSets(resultSets);
+    statementBuilder.route(route);
+    statementBuilder.tables(tables);
     setStatementTimeout(timeout, statementBuilder);
 
     //1.参数映射
@@ -423,6 +478,29 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String resultSet,
       String foreignColumn, 
       boolean lazy) {
+    return buildResultMapping(resultType, property, column, javaType, jdbcType, nestedSelect, nestedResultMap, notNullColumn,
+        columnPrefix, typeHandler, flags, resultSet, foreignColumn, lazy, null, null, null);
+  }
+
+  //带批量加载设置的result map
+  public ResultMapping buildResultMapping(
+      Class<?> resultType,
+      String property,
+      String column,
+      Class<?> javaType,
+      JdbcType jdbcType,
+      String nestedSelect,
+      String nestedResultMap,
+      String notNullColumn,
+      String columnPrefix,
+      Class<? extends TypeHandler<?>> typeHandler,
+      List<ResultFlag> flags,
+      String resultSet,
+      String foreignColumn,
+      boolean lazy,
+      String batchSelect,
+      String batchKey,
+      Integer batchSize) {
     Class<?> javaTypeClass = resolveResultJavaType(resultType, property, javaType);
     TypeHandler<?> typeHandlerInstance = resolveTypeHandler(javaTypeClass, typeHandler);
     //解析复合的列名,一般用不到，返回的是空
@@ -443,9 +521,25 @@ public class MapperBuilderAssistant extends BaseBuilder {
     builder.columnPrefix(columnPrefix);
     builder.foreignColumn(foreignColumn);
     builder.lazy(lazy);
+    builder.batchQueryId(applyCurrentNamespace(batchSelect, true));
+    builder.batchKeyProperties(parseBatchKeyProperties(batchKey));
+    builder.batchSize(batchSize == null ? DEFAULT_BATCH_SIZE : batchSize);
     return builder.build();
   }
 
+  //批量加载的key属性,复合key时用逗号分隔,顺序和column里的复合列一致
+  private List<String> parseBatchKeyProperties(String batchKey) {
+    if (batchKey == null) {
+      return null;
+    }
+    List<String> properties = new ArrayList<String>();
+    StringTokenizer parser = new StringTokenizer(batchKey, ", ", false);
+    while (parser.hasMoreTokens()) {
+      properties.add(parser.nextToken());
+    }
+    return properties;
+  }
+
   private Set<String> parseMultipleColumnNames(String columnName) {
     Set<String> columns = new HashSet<String>();
     if (columnName != null) {
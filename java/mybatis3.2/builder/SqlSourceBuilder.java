@@ -44,7 +44,13 @@ public class SqlSourceBuilder extends BaseBuilder {
   }
 
   public SqlSource parse(String originalSql, Class<?> parameterType, Map<String, Object> additionalParameters) {
-    ParameterMappingTokenHandler handler = new ParameterMappingTokenHandler(configuration, parameterType, additionalParameters);
+    return parse(originalSql, parameterType, additionalParameters, null);
+  }
+
+  //bindingTypes不为null时,按顺序记下每个参数从附加参数里取到的类型(不是从附加参数取的记null)
+  //同样的SQL和参数类型,只要这些类型不变,解析的结果就一样,DynamicSqlSource用它来判断能不能重用解析结果
+  public SqlSource parse(String originalSql, Class<?> parameterType, Map<String, Object> additionalParameters, List<Class<?>> bindingTypes) {
+    ParameterMappingTokenHandler handler = new ParameterMappingTokenHandler(configuration, parameterType, additionalParameters, bindingTypes);
     //替换#{}中间的部分,如何替换，逻辑在ParameterMappingTokenHandler
     GenericTokenParser parser = new GenericTokenParser("#{", "}", handler);
     String sql = parser.parse(originalSql);
@@ -52,17 +58,24 @@ public class SqlSourceBuilder extends BaseBuilder {
     return new StaticSqlSource(configuration, sql, handler.getParameterMappings());
   }
 
+  //参数的类型从附加参数里取时返回取到的类型,否则返回null
+  public static Class<?> bindingTypeOf(MetaObject metaParameters, String property) {
+    return metaParameters.hasGetter(property) ? metaParameters.getGetterType(property) : null;
+  }
+
   //参数映射记号处理器，静态内部类
   private static class ParameterMappingTokenHandler extends BaseBuilder implements TokenHandler {
 
     private List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
     private Class<?> parameterType;
     private MetaObject metaParameters;
+    private List<Class<?>> bindingTypes;
 
-    public ParameterMappingTokenHandler(Configuration configuration, Class<?> parameterType, Map<String, Object> additionalParameters) {
+    public ParameterMappingTokenHandler(Configuration configuration, Class<?> parameterType, Map<String, Object> additionalParameters, List<Class<?>> bindingTypes) {
       super(configuration);
       this.parameterType = parameterType;
       this.metaParameters = configuration.newMetaObject(additionalParameters);
+      this.bindingTypes = bindingTypes;
     }
 
     public List<ParameterMapping> getParameterMappings() {
@@ -84,9 +97,13 @@ public class SqlSourceBuilder extends BaseBuilder {
       Map<String, String> propertiesMap = parseParameterMapping(content);
       String property = propertiesMap.get("property");
       Class<?> propertyType;
+      Class<?> bindingType = bindingTypeOf(metaParameters, property);
+      if (bindingTypes != null) {
+        bindingTypes.add(bindingType);
+      }
       //这里分支比较多，需要逐个理解
-      if (metaParameters.hasGetter(property)) { // issue #448 get type from additional params
-        propertyType = metaParameters.getGetterType(property);
+      if (bindingType != null) { // issue #448 get type from additional params
+        propertyType = bindingType;
       } else if (typeHandlerRegistry.hasTypeHandler(parameterType)) {
         propertyType = parameterType;
       } else if (JdbcType.CURSOR.name().equals(propertiesMap.get("jdbcType"))) {
@@ -66,6 +66,7 @@ import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
 import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.DataSourceRoute;
 import org.apache.ibatis.mapping.Discriminator;
 import org.apache.ibatis.mapping.FetchType;
 import org.apache.ibatis.mapping.MappedStatement;
@@ -177,7 +178,10 @@ public class MapperAnnotationBuilder {
     if (cacheDomain != null) {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), null);
+      Long ttl = cacheDomain.ttl() == 0 ? null : cacheDomain.ttl();
+      Long refreshAfter = cacheDomain.refreshAfter() == 0 ? null : cacheDomain.refreshAfter();
+      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(),
+          cacheDomain.loading(), ttl, refreshAfter, null);
     }
   }
 
@@ -267,6 +271,8 @@ public class MapperAnnotationBuilder {
       boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
       boolean flushCache = !isSelect;
       boolean useCache = isSelect;
+      DataSourceRoute route = DataSourceRoute.DEFAULT;
+      String tables = null;
 
       KeyGenerator keyGenerator;
       String keyProperty = "id";
@@ -295,6 +301,17 @@ public class MapperAnnotationBuilder {
         timeout = options.timeout() > -1 ? options.timeout() : null;
         statementType = options.statementType();
         resultSetType = options.resultSetType();
+        route = options.route();
+        if (options.tables().length > 0) {
+          StringBuilder sb = new StringBuilder();
+          for (String table : options.tables()) {
+            if (sb.length() > 0) {
+              sb.append(",");
+            }
+            sb.append(table);
+          }
+          tables = sb.toString();
+        }
       }
 
       String resultMapId = null;
@@ -337,7 +354,9 @@ public class MapperAnnotationBuilder {
           null,
           languageDriver,
           // ResultSets
-          null);
+          null,
+          route,
+          tables);
     }
   }
   
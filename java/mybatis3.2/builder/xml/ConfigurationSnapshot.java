@@ -0,0 +1,384 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.builder.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.parsing.XNode;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 配置快照
+ * 把解析配置得到的结果存成一个紧凑的二进制文件,下次启动时用内存映射读进来,跳过包扫描和mapper XML的解析(DTD校验,XPath,#{}解析):
+ * 1.typeAliases和typeHandlers里按package扫描出来的类
+ * 2.静态mapper的结果映射和语句(见MapperSnapshot)
+ * 在properties里设置mybatis.configurationSnapshot指定快照文件,文件不存在或者过期时,照常解析完会自动(重新)生成,
+ * 所以在构建时跑一遍启动就能把快照打进发布包
+ * 每个mapper都记了源文件内容连同databaseId和properties变量的SHA-1,对不上的照常解析;
+ * 按package扫描出来的类不做校验,包下加了新类要删掉快照重新生成
+ */
+public class ConfigurationSnapshot {
+
+  public static final String SNAPSHOT_FILE_PROPERTY = "mybatis.configurationSnapshot";
+
+  private static final Log log = LogFactory.getLog(ConfigurationSnapshot.class);
+
+  //文件头,"MBSS"
+  private static final int MAGIC = 0x4d425353;
+  private static final int VERSION = 3;
+
+  private final Configuration configuration;
+  private final File file;
+  private final MapperSnapshot mapperSnapshot;
+  //解析后的配置文件内容和选用的环境,设置、别名、类型处理器等变了快照就作废
+  private final String configSource;
+
+  //从快照文件读进来的内容,mapper的内容是映射文件的一段,恢复时才解码
+  private final Map<String, List<String>> aliasPackages = new HashMap<String, List<String>>();
+  private final Map<String, List<String>> handlerPackages = new HashMap<String, List<String>>();
+  private final Map<String, byte[]> mapperHashes = new HashMap<String, byte[]>();
+  private final Map<String, ByteBuffer> mapperBodies = new HashMap<String, ByteBuffer>();
+
+  //这次启动用到的内容,重新生成快照时按这个顺序写
+  private final Map<String, List<String>> usedAliasPackages = new LinkedHashMap<String, List<String>>();
+  private final Map<String, List<String>> usedHandlerPackages = new LinkedHashMap<String, List<String>>();
+  private final Map<String, byte[]> usedMappers = new LinkedHashMap<String, byte[]>();
+
+  private byte[] context;
+  //快照文件不存在,读不了或者和这次启动的内容对不上
+  private boolean stale;
+
+  private ConfigurationSnapshot(Configuration configuration, File file, String configSource) {
+    this.configuration = configuration;
+    this.file = file;
+    this.configSource = configSource;
+    this.mapperSnapshot = new MapperSnapshot(configuration);
+  }
+
+  //没有设置快照文件时返回null
+  public static ConfigurationSnapshot open(Configuration configuration, String environment, XNode configRoot) {
+    Properties variables = configuration.getVariables();
+    String path = variables == null ? null : variables.getProperty(SNAPSHOT_FILE_PROPERTY);
+    if (path == null) {
+      return null;
+    }
+    ConfigurationSnapshot snapshot = new ConfigurationSnapshot(configuration, new File(path), environment + "\n" + configRoot);
+    snapshot.load();
+    return snapshot;
+  }
+
+  private void load() {
+    if (!file.isFile()) {
+      stale = true;
+      return;
+    }
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      MappedByteBuffer buffer;
+      try {
+        //映射以后关掉文件也没关系,映射一直有效到buffer被回收
+        FileChannel channel = raf.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        raf.close();
+      }
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IOException("not a snapshot file of this version");
+      }
+      readPackages(buffer, aliasPackages);
+      readPackages(buffer, handlerPackages);
+      int mapperCount = buffer.getInt();
+      for (int i = 0; i < mapperCount; i++) {
+        String location = readString(buffer);
+        byte[] hash = new byte[buffer.getInt()];
+        buffer.get(hash);
+        mapperHashes.put(location, hash);
+        int length = buffer.getInt();
+        if (length >= 0) {
+          ByteBuffer body = buffer.slice();
+          body.limit(length);
+          buffer.position(buffer.position() + length);
+          mapperBodies.put(location, body);
+        }
+      }
+    } catch (Exception e) {
+      log.warn("Could not read configuration snapshot " + file + ", it will be rebuilt. Cause: " + e);
+      aliasPackages.clear();
+      handlerPackages.clear();
+      mapperHashes.clear();
+      mapperBodies.clear();
+      stale = true;
+    }
+  }
+
+  //注册包下所有类的别名,快照里有就不用扫描了
+  public void registerAliases(String packageName) {
+    List<String> typeNames = aliasPackages.get(packageName);
+    List<Class<?>> types = typeNames == null ? null : classesForNames(typeNames);
+    if (types == null) {
+      stale = true;
+      types = new ArrayList<Class<?>>(configuration.getTypeAliasRegistry().findAliasTypes(packageName, Object.class));
+      typeNames = namesOf(types);
+    }
+    usedAliasPackages.put(packageName, typeNames);
+    for (Class<?> type : types) {
+      configuration.getTypeAliasRegistry().registerAlias(type);
+    }
+  }
+
+  //注册包下所有的类型处理器,快照里有就不用扫描了
+  public void registerTypeHandlers(String packageName) {
+    List<String> typeNames = handlerPackages.get(packageName);
+    List<Class<?>> types = typeNames == null ? null : classesForNames(typeNames);
+    if (types == null) {
+      stale = true;
+      types = new ArrayList<Class<?>>(configuration.getTypeHandlerRegistry().findTypeHandlerTypes(packageName));
+      typeNames = namesOf(types);
+    }
+    usedHandlerPackages.put(packageName, typeNames);
+    for (Class<?> type : types) {
+      configuration.getTypeHandlerRegistry().register(type);
+    }
+  }
+
+  //快照里有这个mapper的内容(还没校验),并行预解析时可以跳过它
+  public boolean hasMapper(String location) {
+    return mapperBodies.containsKey(location);
+  }
+
+  //校验mapper源文件并从快照恢复,恢复不了返回false,这时要照常解析源文件
+  public boolean restoreMapper(String location, byte[] source) {
+    byte[] hash = hash(source);
+    usedMappers.put(location, hash);
+    if (!Arrays.equals(hash, mapperHashes.get(location))) {
+      stale = true;
+      return false;
+    }
+    ByteBuffer body = mapperBodies.get(location);
+    if (body == null) {
+      //这个mapper不能放进快照
+      return false;
+    }
+    try {
+      mapperSnapshot.restore(location, body.duplicate());
+      return true;
+    } catch (RuntimeException e) {
+      //比如用到的类改名了,先全部解码完才加到Configuration里,所以这里照常解析就行
+      log.warn("Could not restore mapper " + location + " from configuration snapshot, parsing it instead. Cause: " + e);
+      stale = true;
+      return false;
+    }
+  }
+
+  //所有mapper都加载完以后调用,处理引用了后面mapper结果映射的语句,快照过期了就重新生成
+  public void finish() {
+    mapperSnapshot.restorePendingStatements();
+    mapperBodies.clear();
+    if (stale) {
+      try {
+        write();
+      } catch (Exception e) {
+        //快照只是为了启动快,写不了不影响这次启动
+        log.warn("Could not write configuration snapshot " + file + ". Cause: " + e);
+      }
+    }
+  }
+
+  private void write() throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writePackages(out, usedAliasPackages);
+      writePackages(out, usedHandlerPackages);
+      out.writeInt(usedMappers.size());
+      for (Map.Entry<String, byte[]> entry : usedMappers.entrySet()) {
+        writeString(out, entry.getKey());
+        out.writeInt(entry.getValue().length);
+        out.write(entry.getValue());
+        byte[] body = mapperSnapshot.capture(entry.getKey());
+        if (body == null) {
+          out.writeInt(-1);
+        } else {
+          out.writeInt(body.length);
+          out.write(body);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    //先写临时文件再改名,别的进程不会读到写了一半的快照
+    if (!tmp.renameTo(file)) {
+      file.delete();
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Could not rename " + tmp + " to " + file);
+      }
+    }
+  }
+
+  //源文件内容,databaseId,properties变量和配置文件本身都会影响解析结果
+  private byte[] hash(byte[] source) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(source);
+      digest.update(context());
+      return digest.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new BuilderException("Error computing configuration snapshot hash. Cause: " + e, e);
+    }
+  }
+
+  private byte[] context() {
+    if (context == null) {
+      StringBuilder builder = new StringBuilder();
+      builder.append(configSource).append('\n');
+      builder.append(configuration.getDatabaseId()).append('\n');
+      Properties variables = configuration.getVariables();
+      if (variables != null) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (String name : variables.stringPropertyNames()) {
+          if (!SNAPSHOT_FILE_PROPERTY.equals(name)) {
+            sorted.put(name, variables.getProperty(name));
+          }
+        }
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+          builder.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+      }
+      context = toBytes(builder.toString());
+    }
+    return context;
+  }
+
+  //有类找不到时返回null,这时重新扫描
+  private List<Class<?>> classesForNames(List<String> typeNames) {
+    List<Class<?>> types = new ArrayList<Class<?>>(typeNames.size());
+    for (String typeName : typeNames) {
+      try {
+        types.add(Resources.classForName(typeName));
+      } catch (ClassNotFoundException e) {
+        return null;
+      }
+    }
+    return types;
+  }
+
+  private static List<String> namesOf(List<Class<?>> types) {
+    List<String> names = new ArrayList<String>(types.size());
+    for (Class<?> type : types) {
+      names.add(type.getName());
+    }
+    return names;
+  }
+
+  private static void readPackages(ByteBuffer in, Map<String, List<String>> packages) {
+    int count = in.getInt();
+    for (int i = 0; i < count; i++) {
+      String packageName = readString(in);
+      int typeCount = in.getInt();
+      List<String> typeNames = new ArrayList<String>(typeCount);
+      for (int j = 0; j < typeCount; j++) {
+        typeNames.add(readString(in));
+      }
+      packages.put(packageName, typeNames);
+    }
+  }
+
+  private static void writePackages(DataOutputStream out, Map<String, List<String>> packages) throws IOException {
+    out.writeInt(packages.size());
+    for (Map.Entry<String, List<String>> entry : packages.entrySet()) {
+      writeString(out, entry.getKey());
+      out.writeInt(entry.getValue().size());
+      for (String typeName : entry.getValue()) {
+        writeString(out, typeName);
+      }
+    }
+  }
+
+  //读出mapper源文件的全部内容,校验和解析都用它
+  public static byte[] readSource(InputStream inputStream) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = inputStream.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  //字符串按长度加UTF-8写,null写成-1(DataOutput.writeUTF有64K的限制,放不下长SQL)
+  static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = toBytes(value);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    try {
+      return new String(bytes, "UTF-8");
+    } catch (IOException e) {
+      throw new BuilderException("Error reading configuration snapshot. Cause: " + e, e);
+    }
+  }
+
+  private static byte[] toBytes(String value) {
+    try {
+      return value.getBytes("UTF-8");
+    } catch (IOException e) {
+      throw new BuilderException("Error writing configuration snapshot. Cause: " + e, e);
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.builder.xml;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.IncompleteElementException;
+
+/**
+ * 延迟构建的语句
+ * lazyStatementLoading打开时,mapper XML里的select|insert|update|delete启动时只登记id和databaseId,
+ * 第一次通过Configuration.getMappedStatement用到时才解析<include>,动态SQL,<selectKey>,构建MappedStatement
+ * 构建由Configuration加锁串行化
+ */
+public class LazyStatement {
+
+  private final String id;
+  private final String databaseId;
+  //构建以后置为null,不再占着XML节点
+  private volatile XMLStatementBuilder statementBuilder;
+
+  public LazyStatement(String id, String databaseId, XMLStatementBuilder statementBuilder) {
+    this.id = id;
+    this.databaseId = databaseId;
+    this.statementBuilder = statementBuilder;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getDatabaseId() {
+    return databaseId;
+  }
+
+  public boolean isBuilt() {
+    return statementBuilder == null;
+  }
+
+  public void build() {
+    XMLStatementBuilder builder = statementBuilder;
+    if (builder == null) {
+      return;
+    }
+    try {
+      builder.parseStatementNode();
+    } catch (IncompleteElementException e) {
+      //所有mapper都已经加载完了,还缺东西就是真的缺
+      throw new BuilderException("Error building lazily loaded statement " + id + ". Cause: " + e, e);
+    }
+    statementBuilder = null;
+  }
+
+}
@@ -0,0 +1,535 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.builder.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.ibatis.builder.BaseBuilder;
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.DataSourceRoute;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMap;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.scripting.LanguageDriver;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.UnknownTypeHandler;
+
+/**
+ * 一个mapper在配置快照里的内容:命名空间下的结果映射和这个mapper文件里的语句
+ * 只有启动时就能完全确定的静态mapper才能放进快照,用到动态SQL,缓存,selectKey,鉴别器,
+ * sql片段(可能被别的mapper include)或者parameterMap的mapper每次都照常解析
+ * 语句的SQL存的是解析完#{}以后的结果,恢复时直接建StaticSqlSource
+ */
+class MapperSnapshot extends BaseBuilder {
+
+  private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<String, Class<?>>();
+
+  static {
+    Class<?>[] primitives = { boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class };
+    for (Class<?> primitive : primitives) {
+      PRIMITIVE_TYPES.put(primitive.getName(), primitive);
+    }
+  }
+
+  //引用了还没加载的结果映射的语句,等所有mapper都加载完再加
+  private final List<PendingStatement> pendingStatements = new ArrayList<PendingStatement>();
+
+  MapperSnapshot(Configuration configuration) {
+    super(configuration);
+  }
+
+  //把一个mapper文件解析出来的内容编码,不能放进快照时返回null
+  byte[] capture(String location) throws IOException {
+    List<MappedStatement> statements = new ArrayList<MappedStatement>();
+    //名字里不带点的是短名字,可能有歧义
+    for (String name : new TreeSet<String>(configuration.getMappedStatementNames())) {
+      if (name.indexOf('.') > 0) {
+        MappedStatement ms = configuration.getMappedStatement(name);
+        if (location.equals(ms.getResource())) {
+          statements.add(ms);
+        }
+      }
+    }
+    if (statements.isEmpty()) {
+      return null;
+    }
+    String namespace = namespaceOf(statements.get(0).getId());
+    if (configuration.hasCache(namespace)
+        || inNamespace(configuration.getSqlFragments().keySet(), namespace)
+        || inNamespace(configuration.getParameterMapNames(), namespace)) {
+      return null;
+    }
+    List<ResultMap> resultMaps = new ArrayList<ResultMap>();
+    for (String name : new TreeSet<String>(configuration.getResultMapNames())) {
+      if (isInNamespace(name, namespace)) {
+        ResultMap resultMap = configuration.getResultMap(name);
+        if (resultMap.getDiscriminator() != null) {
+          return null;
+        }
+        resultMaps.add(resultMap);
+      }
+    }
+    for (MappedStatement ms : statements) {
+      if (!namespace.equals(namespaceOf(ms.getId())) || !isStatic(ms)) {
+        return null;
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    writeString(out, namespace);
+    out.writeInt(resultMaps.size());
+    for (ResultMap resultMap : resultMaps) {
+      writeResultMap(out, resultMap);
+    }
+    out.writeInt(statements.size());
+    for (MappedStatement ms : statements) {
+      writeStatement(out, ms);
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  //解码一个mapper并加到Configuration里,全部解码成功以后才修改Configuration
+  void restore(String location, ByteBuffer in) {
+    if (configuration.isResourceLoaded(location)) {
+      return;
+    }
+    String namespace = readString(in);
+    int resultMapCount = in.getInt();
+    List<ResultMap> resultMaps = new ArrayList<ResultMap>(resultMapCount);
+    for (int i = 0; i < resultMapCount; i++) {
+      resultMaps.add(readResultMap(in));
+    }
+    int statementCount = in.getInt();
+    List<PendingStatement> statements = new ArrayList<PendingStatement>(statementCount);
+    for (int i = 0; i < statementCount; i++) {
+      statements.add(readStatement(location, in));
+    }
+
+    for (ResultMap resultMap : resultMaps) {
+      configuration.addResultMap(resultMap);
+    }
+    for (PendingStatement statement : statements) {
+      if (!statement.add()) {
+        pendingStatements.add(statement);
+      }
+    }
+    configuration.addLoadedResource(location);
+    bindMapperForNamespace(namespace);
+  }
+
+  void restorePendingStatements() {
+    for (PendingStatement statement : pendingStatements) {
+      if (!statement.add()) {
+        throw new BuilderException("Could not find result map referenced by statement " + statement.builder.id());
+      }
+    }
+    pendingStatements.clear();
+  }
+
+  //和XMLMapperBuilder.bindMapperForNamespace一样
+  private void bindMapperForNamespace(String namespace) {
+    Class<?> boundType = null;
+    try {
+      boundType = Resources.classForName(namespace);
+    } catch (ClassNotFoundException e) {
+      //ignore, bound type is not required
+    }
+    if (boundType != null && !configuration.hasMapper(boundType)) {
+      configuration.addLoadedResource("namespace:" + namespace);
+      configuration.addMapper(boundType);
+    }
+  }
+
+  private boolean isStatic(MappedStatement ms) {
+    Class<?> sqlSourceType = ms.getSqlSource().getClass();
+    Class<?> keyGeneratorType = ms.getKeyGenerator() == null ? null : ms.getKeyGenerator().getClass();
+    ParameterMap parameterMap = ms.getParameterMap();
+    if (ms.getCache() != null
+        || (sqlSourceType != RawSqlSource.class && sqlSourceType != StaticSqlSource.class)
+        || (keyGeneratorType != NoKeyGenerator.class && keyGeneratorType != Jdbc3KeyGenerator.class)
+        || !parameterMap.getParameterMappings().isEmpty()
+        || (!"defaultParameterMap".equals(parameterMap.getId()) && !(ms.getId() + "-Inline").equals(parameterMap.getId()))) {
+      return false;
+    }
+    for (ResultMap resultMap : ms.getResultMaps()) {
+      if (resultMap.getDiscriminator() != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String namespaceOf(String id) {
+    return id.substring(0, id.lastIndexOf('.'));
+  }
+
+  //嵌套的结果映射也是登记在命名空间下的,但要排除下一级命名空间里的
+  private static boolean isInNamespace(String name, String namespace) {
+    return name.startsWith(namespace + ".") && name.indexOf('.', namespace.length() + 1) < 0;
+  }
+
+  private static boolean inNamespace(Collection<String> names, String namespace) {
+    for (String name : names) {
+      if (isInNamespace(name, namespace)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void writeStatement(DataOutputStream out, MappedStatement ms) throws IOException {
+    BoundSql boundSql = ms.getSqlSource().getBoundSql(null);
+    writeString(out, ms.getId());
+    writeString(out, ms.getSqlCommandType().name());
+    writeString(out, boundSql.getSql());
+    out.writeInt(boundSql.getParameterMappings().size());
+    for (ParameterMapping mapping : boundSql.getParameterMappings()) {
+      writeParameterMapping(out, mapping);
+    }
+    writeString(out, ms.getParameterMap().getId());
+    writeType(out, ms.getParameterMap().getType());
+    out.writeInt(ms.getResultMaps().size());
+    for (ResultMap resultMap : ms.getResultMaps()) {
+      //登记过的按id引用,resultType生成的内联结果映射整个写进去
+      boolean registered = configuration.hasResultMap(resultMap.getId()) && configuration.getResultMap(resultMap.getId()) == resultMap;
+      out.writeBoolean(registered);
+      if (registered) {
+        writeString(out, resultMap.getId());
+      } else {
+        writeResultMap(out, resultMap);
+      }
+    }
+    writeString(out, ms.getStatementType().name());
+    writeString(out, ms.getResultSetType() == null ? null : ms.getResultSetType().name());
+    writeInteger(out, ms.getFetchSize());
+    writeInteger(out, ms.getTimeout());
+    out.writeBoolean(ms.isFlushCacheRequired());
+    out.writeBoolean(ms.isUseCache());
+    out.writeBoolean(ms.isResultOrdered());
+    out.writeBoolean(ms.getKeyGenerator() instanceof Jdbc3KeyGenerator);
+    writeString(out, join(ms.getKeyProperties()));
+    writeString(out, join(ms.getKeyColumns()));
+    writeString(out, ms.getDatabaseId());
+    writeType(out, ms.getLang().getClass());
+    writeString(out, join(ms.getResulSets()));
+    writeString(out, ms.getRoute().name());
+    writeString(out, join(ms.getTables()));
+  }
+
+  private PendingStatement readStatement(String location, ByteBuffer in) {
+    String id = readString(in);
+    SqlCommandType sqlCommandType = SqlCommandType.valueOf(readString(in));
+    String sql = readString(in);
+    int parameterMappingCount = in.getInt();
+    List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>(parameterMappingCount);
+    for (int i = 0; i < parameterMappingCount; i++) {
+      parameterMappings.add(readParameterMapping(in));
+    }
+    MappedStatement.Builder builder = new MappedStatement.Builder(configuration, id, new StaticSqlSource(configuration, sql, parameterMappings), sqlCommandType);
+    builder.resource(location);
+    String parameterMapId = readString(in);
+    builder.parameterMap(new ParameterMap.Builder(configuration, parameterMapId, readType(in), new ArrayList<ParameterMapping>()).build());
+    int resultMapCount = in.getInt();
+    List<Object> resultMaps = new ArrayList<Object>(resultMapCount);
+    for (int i = 0; i < resultMapCount; i++) {
+      resultMaps.add(in.get() != 0 ? readString(in) : readResultMap(in));
+    }
+    builder.statementType(StatementType.valueOf(readString(in)));
+    String resultSetType = readString(in);
+    builder.resultSetType(resultSetType == null ? null : ResultSetType.valueOf(resultSetType));
+    builder.fetchSize(readInteger(in));
+    builder.timeout(readInteger(in));
+    builder.flushCacheRequired(in.get() != 0);
+    builder.useCache(in.get() != 0);
+    builder.resultOrdered(in.get() != 0);
+    KeyGenerator keyGenerator = in.get() != 0 ? new Jdbc3KeyGenerator() : new NoKeyGenerator();
+    builder.keyGenerator(keyGenerator);
+    builder.keyProperty(readString(in));
+    builder.keyColumn(readString(in));
+    builder.databaseId(readString(in));
+    builder.lang(languageDriver(readType(in)));
+    builder.resulSets(readString(in));
+    builder.route(DataSourceRoute.valueOf(readString(in)));
+    builder.tables(readString(in));
+    return new PendingStatement(builder, resultMaps);
+  }
+
+  private void writeParameterMapping(DataOutputStream out, ParameterMapping mapping) throws IOException {
+    writeString(out, mapping.getProperty());
+    writeString(out, mapping.getMode() == null ? null : mapping.getMode().name());
+    writeType(out, mapping.getJavaType());
+    writeString(out, mapping.getJdbcType() == null ? null : mapping.getJdbcType().name());
+    writeInteger(out, mapping.getNumericScale());
+    writeType(out, mapping.getTypeHandler() == null ? null : mapping.getTypeHandler().getClass());
+    writeString(out, mapping.getResultMapId());
+    writeString(out, mapping.getJdbcTypeName());
+    writeString(out, mapping.getExpression());
+  }
+
+  private ParameterMapping readParameterMapping(ByteBuffer in) {
+    String property = readString(in);
+    String mode = readString(in);
+    Class<?> javaType = readType(in);
+    String jdbcTypeName = readString(in);
+    JdbcType jdbcType = jdbcTypeName == null ? null : JdbcType.valueOf(jdbcTypeName);
+    ParameterMapping.Builder builder = new ParameterMapping.Builder(configuration, property, javaType);
+    builder.mode(mode == null ? null : ParameterMode.valueOf(mode));
+    builder.jdbcType(jdbcType);
+    builder.numericScale(readInteger(in));
+    builder.typeHandler(typeHandler(javaType, jdbcType, readType(in)));
+    builder.resultMapId(readString(in));
+    builder.jdbcTypeName(readString(in));
+    builder.expression(readString(in));
+    return builder.build();
+  }
+
+  private void writeResultMap(DataOutputStream out, ResultMap resultMap) throws IOException {
+    writeString(out, resultMap.getId());
+    writeType(out, resultMap.getType());
+    Boolean autoMapping = resultMap.getAutoMapping();
+    out.writeByte(autoMapping == null ? -1 : autoMapping ? 1 : 0);
+    writeResultMappings(out, resultMap.getResultMappings());
+  }
+
+  private ResultMap readResultMap(ByteBuffer in) {
+    String id = readString(in);
+    Class<?> type = readType(in);
+    byte autoMapping = in.get();
+    List<ResultMapping> resultMappings = readResultMappings(in);
+    return new ResultMap.Builder(configuration, id, type, resultMappings, autoMapping < 0 ? null : autoMapping != 0).build();
+  }
+
+  private void writeResultMappings(DataOutputStream out, List<ResultMapping> resultMappings) throws IOException {
+    out.writeInt(resultMappings.size());
+    for (ResultMapping mapping : resultMappings) {
+      writeString(out, mapping.getProperty());
+      writeString(out, mapping.getColumn());
+      writeType(out, mapping.getJavaType());
+      writeString(out, mapping.getJdbcType() == null ? null : mapping.getJdbcType().name());
+      writeType(out, mapping.getTypeHandler() == null ? null : mapping.getTypeHandler().getClass());
+      writeString(out, mapping.getNestedResultMapId());
+      writeString(out, mapping.getNestedQueryId());
+      writeStrings(out, mapping.getNotNullColumns());
+      writeString(out, mapping.getColumnPrefix());
+      out.writeInt(mapping.getFlags().size());
+      for (ResultFlag flag : mapping.getFlags()) {
+        writeString(out, flag.name());
+      }
+      writeResultMappings(out, mapping.getComposites());
+      writeString(out, mapping.getResultSet());
+      writeString(out, mapping.getForeignColumn());
+      out.writeBoolean(mapping.isLazy());
+      writeString(out, mapping.getBatchQueryId());
+      writeStrings(out, mapping.getBatchKeyProperties());
+      out.writeInt(mapping.getBatchSize());
+    }
+  }
+
+  private List<ResultMapping> readResultMappings(ByteBuffer in) {
+    int count = in.getInt();
+    List<ResultMapping> resultMappings = new ArrayList<ResultMapping>(count);
+    for (int i = 0; i < count; i++) {
+      String property = readString(in);
+      String column = readString(in);
+      Class<?> javaType = readType(in);
+      String jdbcTypeName = readString(in);
+      JdbcType jdbcType = jdbcTypeName == null ? null : JdbcType.valueOf(jdbcTypeName);
+      ResultMapping.Builder builder = new ResultMapping.Builder(configuration, property, column, javaType);
+      builder.jdbcType(jdbcType);
+      builder.typeHandler(typeHandler(javaType, jdbcType, readType(in)));
+      builder.nestedResultMapId(readString(in));
+      builder.nestedQueryId(readString(in));
+      List<String> notNullColumns = readStrings(in);
+      builder.notNullColumns(notNullColumns == null ? null : new HashSet<String>(notNullColumns));
+      builder.columnPrefix(readString(in));
+      int flagCount = in.getInt();
+      List<ResultFlag> flags = new ArrayList<ResultFlag>(flagCount);
+      for (int j = 0; j < flagCount; j++) {
+        flags.add(ResultFlag.valueOf(readString(in)));
+      }
+      builder.flags(flags);
+      builder.composites(readResultMappings(in));
+      builder.resultSet(readString(in));
+      builder.foreignColumn(readString(in));
+      builder.lazy(in.get() != 0);
+      builder.batchQueryId(readString(in));
+      builder.batchKeyProperties(readStrings(in));
+      builder.batchSize(in.getInt());
+      resultMappings.add(builder.build());
+    }
+    return resultMappings;
+  }
+
+  //注册表里按javaType和jdbcType能查到同一个类的处理器就用那个实例,和解析XML时拿到的一样
+  private TypeHandler<?> typeHandler(Class<?> javaType, JdbcType jdbcType, Class<?> handlerType) {
+    if (handlerType == null) {
+      return null;
+    }
+    if (javaType != null) {
+      TypeHandler<?> registered = typeHandlerRegistry.getTypeHandler(javaType, jdbcType);
+      if (registered != null && registered.getClass() == handlerType) {
+        return registered;
+      }
+    }
+    if (handlerType == UnknownTypeHandler.class) {
+      return typeHandlerRegistry.getUnknownTypeHandler();
+    }
+    @SuppressWarnings("unchecked")
+    Class<? extends TypeHandler<?>> typeHandlerType = (Class<? extends TypeHandler<?>>) handlerType;
+    return resolveTypeHandler(javaType, typeHandlerType);
+  }
+
+  private LanguageDriver languageDriver(Class<?> driverType) {
+    LanguageDriver driver = configuration.getLanguageRegistry().getDriver(driverType);
+    if (driver == null) {
+      configuration.getLanguageRegistry().register(driverType);
+      driver = configuration.getLanguageRegistry().getDriver(driverType);
+    }
+    return driver;
+  }
+
+  private static void writeType(DataOutputStream out, Class<?> type) throws IOException {
+    writeString(out, type == null ? null : type.getName());
+  }
+
+  private static Class<?> readType(ByteBuffer in) {
+    String name = readString(in);
+    if (name == null) {
+      return null;
+    }
+    Class<?> primitive = PRIMITIVE_TYPES.get(name);
+    if (primitive != null) {
+      return primitive;
+    }
+    try {
+      return Resources.classForName(name);
+    } catch (ClassNotFoundException e) {
+      throw new BuilderException("Error restoring configuration snapshot. Cause: " + e, e);
+    }
+  }
+
+  private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeInt(value);
+    }
+  }
+
+  private static Integer readInteger(ByteBuffer in) {
+    return in.get() != 0 ? in.getInt() : null;
+  }
+
+  private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+    if (values == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(values.size());
+    for (String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  private static List<String> readStrings(ByteBuffer in) {
+    int count = in.getInt();
+    if (count < 0) {
+      return null;
+    }
+    List<String> values = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      values.add(readString(in));
+    }
+    return values;
+  }
+
+  private static String join(String[] values) {
+    if (values == null) {
+      return null;
+    }
+    StringBuilder builder = new StringBuilder();
+    for (String value : values) {
+      if (builder.length() > 0) {
+        builder.append(',');
+      }
+      builder.append(value);
+    }
+    return builder.toString();
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    ConfigurationSnapshot.writeString(out, value);
+  }
+
+  private static String readString(ByteBuffer in) {
+    return ConfigurationSnapshot.readString(in);
+  }
+
+  private class PendingStatement {
+    private final MappedStatement.Builder builder;
+    //内联的是ResultMap,引用的是结果映射的id
+    private final List<Object> resultMaps;
+
+    PendingStatement(MappedStatement.Builder builder, List<Object> resultMaps) {
+      this.builder = builder;
+      this.resultMaps = resultMaps;
+    }
+
+    //引用的结果映射都在了才加到Configuration里
+    boolean add() {
+      List<ResultMap> resolved = new ArrayList<ResultMap>(resultMaps.size());
+      for (Object resultMap : resultMaps) {
+        if (resultMap instanceof ResultMap) {
+          resolved.add((ResultMap) resultMap);
+        } else if (configuration.hasResultMap((String) resultMap)) {
+          resolved.add(configuration.getResultMap((String) resultMap));
+        } else {
+          return false;
+        }
+      }
+      configuration.addMappedStatement(builder.resultMaps(resolved).build());
+      return true;
+    }
+  }
+
+}
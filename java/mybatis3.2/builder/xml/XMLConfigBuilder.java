@@ -15,14 +15,24 @@
  */
 package org.apache.ibatis.builder.xml;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.sql.DataSource;
 
 import org.apache.ibatis.builder.BaseBuilder;
 import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.cache.InvalidationChannel;
 import org.apache.ibatis.datasource.DataSourceFactory;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.loader.ProxyFactory;
@@ -35,6 +45,7 @@ import org.apache.ibatis.plugin.Interceptor;
 import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
+import org.apache.ibatis.scripting.xmltags.ExpressionEngine;
 import org.apache.ibatis.session.AutoMappingBehavior;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
@@ -55,6 +66,8 @@ public class XMLConfigBuilder extends BaseBuilder {
   private boolean parsed;
   private XPathParser parser;
   private String environment;
+  //配置快照,没有设置快照文件时为null
+  private ConfigurationSnapshot snapshot;
 
   //以下3个一组
   public XMLConfigBuilder(Reader reader) {
@@ -136,6 +149,8 @@ public class XMLConfigBuilder extends BaseBuilder {
       //issue #117 read properties first
       //1.properties
       propertiesElement(root.evalNode("properties"));
+      //1.1配置快照,要在类型别名前面打开
+      snapshot = ConfigurationSnapshot.open(configuration, environment, root);
       //2.类型别名
       typeAliasesElement(root.evalNode("typeAliases"));
       //3.插件
@@ -155,6 +170,9 @@ public class XMLConfigBuilder extends BaseBuilder {
       typeHandlerElement(root.evalNode("typeHandlers"));
       //10.映射器
       mapperElement(root.evalNode("mappers"));
+      if (snapshot != null) {
+        snapshot.finish();
+      }
     } catch (Exception e) {
       throw new BuilderException("Error parsing SQL Mapper Configuration. Cause: " + e, e);
     }
@@ -180,7 +198,11 @@ public class XMLConfigBuilder extends BaseBuilder {
           //如果是package
           String typeAliasPackage = child.getStringAttribute("name");
           //（一）调用TypeAliasRegistry.registerAliases，去包下找所有类,然后注册别名(有@Alias注解则用，没有则取类的simpleName)
-          configuration.getTypeAliasRegistry().registerAliases(typeAliasPackage);
+          if (snapshot != null) {
+            snapshot.registerAliases(typeAliasPackage);
+          } else {
+            configuration.getTypeAliasRegistry().registerAliases(typeAliasPackage);
+          }
         } else {
           //如果是typeAlias
           String alias = child.getStringAttribute("alias");
@@ -287,6 +309,9 @@ public class XMLConfigBuilder extends BaseBuilder {
   //这些是极其重要的调整, 它们会修改 MyBatis 在运行时的行为方式
 //<settings>
 //  <setting name="cacheEnabled" value="true"/>
+//  <setting name="cacheInvalidationByTable" value="false"/>
+//  <setting name="cacheInvalidationChannel" value="FILE_CHANNEL"/>
+//  <setting name="cacheInvalidationInterval" value="100"/>
 //  <setting name="lazyLoadingEnabled" value="true"/>
 //  <setting name="multipleResultSetsEnabled" value="true"/>
 //  <setting name="useColumnLabel" value="true"/>
@@ -294,6 +319,18 @@ public class XMLConfigBuilder extends BaseBuilder {
 //  <setting name="enhancementEnabled" value="false"/>
 //  <setting name="defaultExecutorType" value="SIMPLE"/>
 //  <setting name="defaultStatementTimeout" value="25000"/>
+//  <setting name="defaultFetchSize" value="100"/>
+//  <setting name="batchGroupingEnabled" value="false"/>
+//  <setting name="batchFlushRows" value="1000"/>
+//  <setting name="batchFlushBytes" value="8388608"/>
+//  <setting name="batchAsyncFlush" value="false"/>
+//  <setting name="dynamicSqlCacheSize" value="64"/>
+//  <setting name="expressionEngine" value="OGNL"/>
+//  <setting name="mapperLoadingThreads" value="1"/>
+//  <setting name="lazyStatementLoading" value="false"/>
+//  <setting name="asyncMapperThreads" value="4"/>
+//  <setting name="asyncMaxInFlight" value="0"/>
+//  <setting name="composedInterceptors" value="false"/>
 //  <setting name="safeRowBoundsEnabled" value="false"/>
 //  <setting name="mapUnderscoreToCamelCase" value="false"/>
 //  <setting name="localCacheScope" value="SESSION"/>
@@ -317,6 +354,15 @@ public class XMLConfigBuilder extends BaseBuilder {
       configuration.setAutoMappingBehavior(AutoMappingBehavior.valueOf(props.getProperty("autoMappingBehavior", "PARTIAL")));
       //缓存
       configuration.setCacheEnabled(booleanValueOf(props.getProperty("cacheEnabled"), true));
+      //写语句按表失效二级缓存
+      configuration.setCacheInvalidationByTable(booleanValueOf(props.getProperty("cacheInvalidationByTable"), false));
+      //多节点二级缓存:失效事件批量发布的间隔,失效通道(从<properties>的变量里取自己的参数)
+      configuration.setCacheInvalidationInterval(longValueOf(props.getProperty("cacheInvalidationInterval"), 100L));
+      InvalidationChannel invalidationChannel = (InvalidationChannel) createInstance(props.getProperty("cacheInvalidationChannel"));
+      if (invalidationChannel != null) {
+        invalidationChannel.setProperties(configuration.getVariables());
+        configuration.setCacheInvalidationChannel(invalidationChannel);
+      }
       //proxyFactory (CGLIB | JAVASSIST)
       //延迟加载的核心技术就是用代理模式，CGLIB/JAVASSIST两者选一
       configuration.setProxyFactory((ProxyFactory) createInstance(props.getProperty("proxyFactory")));
@@ -334,6 +380,25 @@ public class XMLConfigBuilder extends BaseBuilder {
       configuration.setDefaultExecutorType(ExecutorType.valueOf(props.getProperty("defaultExecutorType", "SIMPLE")));
       //超时时间
       configuration.setDefaultStatementTimeout(integerValueOf(props.getProperty("defaultStatementTimeout"), null));
+      //默认的fetchSize,游标查询大结果集时用来控制每次从数据库取多少行
+      configuration.setDefaultFetchSize(integerValueOf(props.getProperty("defaultFetchSize"), null));
+      //BATCH执行器:相同SQL跨交替合并批次,自动刷新的行数/字节数,是否在另一个连接上异步刷新
+      configuration.setBatchGroupingEnabled(booleanValueOf(props.getProperty("batchGroupingEnabled"), false));
+      configuration.setBatchFlushRows(integerValueOf(props.getProperty("batchFlushRows"), null));
+      configuration.setBatchFlushBytes(longValueOf(props.getProperty("batchFlushBytes"), null));
+      configuration.setBatchAsyncFlush(booleanValueOf(props.getProperty("batchAsyncFlush"), false));
+      //动态SQL:每个语句缓存多少种生成的SQL的解析结果
+      configuration.setDynamicSqlCacheSize(integerValueOf(props.getProperty("dynamicSqlCacheSize"), 64));
+      //动态SQL表达式引擎 (OGNL | FAST)
+      configuration.setExpressionEngine((ExpressionEngine) createInstance(props.getProperty("expressionEngine")));
+      //启动:并行解析mapper XML的线程数,语句是否第一次用到时才构建
+      configuration.setMapperLoadingThreads(integerValueOf(props.getProperty("mapperLoadingThreads"), 1));
+      configuration.setLazyStatementLoading(booleanValueOf(props.getProperty("lazyStatementLoading"), false));
+      //返回Future的映射器方法:线程数,同时执行的语句数上限
+      configuration.setAsyncMapperThreads(integerValueOf(props.getProperty("asyncMapperThreads"), 4));
+      configuration.setAsyncMaxInFlight(integerValueOf(props.getProperty("asyncMaxInFlight"), 0));
+      //所有插件合成一个代理,还是每个插件一层代理
+      configuration.setComposedInterceptors(booleanValueOf(props.getProperty("composedInterceptors"), false));
       //是否将DB字段自动映射到驼峰式Java属性（A_COLUMN-->aColumn）
       configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
       //嵌套语句上使用RowBounds
@@ -478,7 +543,11 @@ public class XMLConfigBuilder extends BaseBuilder {
         if ("package".equals(child.getName())) {
           String typeHandlerPackage = child.getStringAttribute("name");
           //（一）调用TypeHandlerRegistry.register，去包下找所有类
-          typeHandlerRegistry.register(typeHandlerPackage);
+          if (snapshot != null) {
+            snapshot.registerTypeHandlers(typeHandlerPackage);
+          } else {
+            typeHandlerRegistry.register(typeHandlerPackage);
+          }
         } else {
           //如果是typeHandler
           String javaTypeName = child.getStringAttribute("javaType");
@@ -530,7 +599,11 @@ public class XMLConfigBuilder extends BaseBuilder {
 //	</mappers>
   private void mapperElement(XNode parent) throws Exception {
     if (parent != null) {
-      for (XNode child : parent.getChildren()) {
+      List<XNode> children = parent.getChildren();
+      //mapperLoadingThreads大于1时,先在线程池里把mapper XML都解析成DOM,下面再按顺序一个一个加到Configuration里
+      List<Future<XPathParser>> documents = parseMapperDocuments(children);
+      for (int i = 0; i < children.size(); i++) {
+        XNode child = children.get(i);
         if ("package".equals(child.getName())) {
           //10.4自动扫描包下所有映射器
           String mapperPackage = child.getStringAttribute("name");
@@ -542,17 +615,42 @@ public class XMLConfigBuilder extends BaseBuilder {
           if (resource != null && url == null && mapperClass == null) {
             //10.1使用类路径
             ErrorContext.instance().resource(resource);
-            InputStream inputStream = Resources.getResourceAsStream(resource);
             //映射器比较复杂，调用XMLMapperBuilder
             //注意在for循环里每个mapper都重新new一个XMLMapperBuilder，来解析
-            XMLMapperBuilder mapperParser = new XMLMapperBuilder(inputStream, configuration, resource, configuration.getSqlFragments());
+            XMLMapperBuilder mapperParser;
+            if (documents.get(i) != null) {
+              mapperParser = new XMLMapperBuilder(getDocument(documents.get(i)), configuration, resource, configuration.getSqlFragments());
+            } else {
+              InputStream inputStream = Resources.getResourceAsStream(resource);
+              if (snapshot != null) {
+                //能从快照恢复就不用解析了
+                byte[] source = ConfigurationSnapshot.readSource(inputStream);
+                if (snapshot.restoreMapper(resource, source)) {
+                  continue;
+                }
+                inputStream = new ByteArrayInputStream(source);
+              }
+              mapperParser = new XMLMapperBuilder(inputStream, configuration, resource, configuration.getSqlFragments());
+            }
             mapperParser.parse();
           } else if (resource == null && url != null && mapperClass == null) {
             //10.2使用绝对url路径
             ErrorContext.instance().resource(url);
-            InputStream inputStream = Resources.getUrlAsStream(url);
             //映射器比较复杂，调用XMLMapperBuilder
-            XMLMapperBuilder mapperParser = new XMLMapperBuilder(inputStream, configuration, url, configuration.getSqlFragments());
+            XMLMapperBuilder mapperParser;
+            if (documents.get(i) != null) {
+              mapperParser = new XMLMapperBuilder(getDocument(documents.get(i)), configuration, url, configuration.getSqlFragments());
+            } else {
+              InputStream inputStream = Resources.getUrlAsStream(url);
+              if (snapshot != null) {
+                byte[] source = ConfigurationSnapshot.readSource(inputStream);
+                if (snapshot.restoreMapper(url, source)) {
+                  continue;
+                }
+                inputStream = new ByteArrayInputStream(source);
+              }
+              mapperParser = new XMLMapperBuilder(inputStream, configuration, url, configuration.getSqlFragments());
+            }
             mapperParser.parse();
           } else if (resource == null && url == null && mapperClass != null) {
             //10.3使用java类名
@@ -567,6 +665,79 @@ public class XMLConfigBuilder extends BaseBuilder {
     }
   }
 
+  //并行解析mapper XML文档,返回的列表和children一一对应,不是XML mapper或者不并行时为null
+  //只有解析XML(包括DTD校验)在线程池里做,合并到Configuration还是在当前线程里按顺序做,所以不需要加锁,未完成元素的处理也和原来一样
+  private List<Future<XPathParser>> parseMapperDocuments(List<XNode> children) {
+    List<Future<XPathParser>> documents = new ArrayList<Future<XPathParser>>(children.size());
+    int threads = configuration.getMapperLoadingThreads();
+    ExecutorService loader = null;
+    try {
+      for (XNode child : children) {
+        String resource = child.getStringAttribute("resource");
+        String url = child.getStringAttribute("url");
+        String mapperClass = child.getStringAttribute("class");
+        boolean xmlMapper = !"package".equals(child.getName()) && mapperClass == null && (resource == null) != (url == null);
+        //配置了快照时不预解析,源文件要先读出来校验,能从快照恢复的就不用解析了
+        if (threads <= 1 || !xmlMapper || snapshot != null) {
+          documents.add(null);
+          continue;
+        }
+        if (loader == null) {
+          loader = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "mybatis-mapper-loader-" + (++count));
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+        }
+        documents.add(loader.submit(new MapperDocumentParser(resource, url, configuration.getVariables())));
+      }
+    } finally {
+      //已经提交的会继续执行完
+      if (loader != null) {
+        loader.shutdown();
+      }
+    }
+    return documents;
+  }
+
+  private XPathParser getDocument(Future<XPathParser> document) throws Exception {
+    try {
+      return document.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static class MapperDocumentParser implements Callable<XPathParser> {
+    private final String resource;
+    private final String url;
+    private final Properties variables;
+
+    MapperDocumentParser(String resource, String url, Properties variables) {
+      this.resource = resource;
+      this.url = url;
+      this.variables = variables;
+    }
+
+    @Override
+    public XPathParser call() throws Exception {
+      InputStream inputStream = resource != null ? Resources.getResourceAsStream(resource) : Resources.getUrlAsStream(url);
+      try {
+        return new XPathParser(inputStream, true, variables, new XMLMapperEntityResolver());
+      } finally {
+        inputStream.close();
+      }
+    }
+  }
+
 	//比较id和environment是否相等
   private boolean isSpecifiedEnvironment(String id) {
     if (environment == null) {
@@ -85,7 +85,8 @@ public class XMLMapperBuilder extends BaseBuilder {
         configuration, resource, sqlFragments);
   }
 
-  private XMLMapperBuilder(XPathParser parser, Configuration configuration, String resource, Map<String, XNode> sqlFragments) {
+  //XMLConfigBuilder并行解析好的文档用这个构造
+  XMLMapperBuilder(XPathParser parser, Configuration configuration, String resource, Map<String, XNode> sqlFragments) {
     super(configuration);
     this.builderAssistant = new MapperBuilderAssistant(configuration, resource);
     this.parser = parser;
@@ -161,6 +162,11 @@ public class XMLMapperBuilder extends BaseBuilder {
       //构建所有语句,一个mapper下可以有很多select
       //语句比较复杂，核心都在这里面，所以调用XMLStatementBuilder
       final XMLStatementBuilder statementParser = new XMLStatementBuilder(configuration, builderAssistant, context, requiredDatabaseId);
+      if (configuration.isLazyStatementLoading()) {
+        //延迟加载模式只登记id,不完整的元素到第一次用到时都已经加载好了
+        statementParser.registerStatementNode();
+        continue;
+      }
       try {
           //核心XMLStatementBuilder.parseStatementNode
         statementParser.parseStatementNode();
@@ -247,13 +253,17 @@ public class XMLMapperBuilder extends BaseBuilder {
       Integer size = context.getIntAttribute("size");
       boolean readWrite = !context.getBooleanAttribute("readOnly", false);
       boolean blocking = context.getBooleanAttribute("blocking", false);
+      //加载模式:<cache loading="true" ttl="600000" refreshAfter="480000"/>
+      boolean loading = context.getBooleanAttribute("loading", false);
+      Long ttl = context.getLongAttribute("ttl");
+      Long refreshAfter = context.getLongAttribute("refreshAfter");
       //读入额外的配置信息，易于第三方的缓存扩展,例:
 //    <cache type="com.domain.something.MyCustomCache">
 //      <property name="cacheFile" value="/tmp/my-custom-cache.tmp"/>
 //    </cache>
       Properties props = context.getChildrenAsProperties();
       //调用builderAssistant.useNewCache
-      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props);
+      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, loading, ttl, refreshAfter, props);
     }
   }
 
@@ -461,12 +471,17 @@ public class XMLMapperBuilder extends BaseBuilder {
     String resulSet = context.getStringAttribute("resultSet");
     String foreignColumn = context.getStringAttribute("foreignColumn");
     boolean lazy = "lazy".equals(context.getStringAttribute("fetchType", configuration.isLazyLoadingEnabled() ? "lazy" : "eager"));
+    //批量加载:batchSelect一次查多个key,batchKey是结果里对应父对象key的属性
+    String batchSelect = context.getStringAttribute("batchSelect");
+    String batchKey = context.getStringAttribute("batchKey");
+    Integer batchSize = context.getIntAttribute("batchSize");
     Class<?> javaTypeClass = resolveClass(javaType);
     @SuppressWarnings("unchecked")
     Class<? extends TypeHandler<?>> typeHandlerClass = (Class<? extends TypeHandler<?>>) resolveClass(typeHandler);
     JdbcType jdbcTypeEnum = resolveJdbcType(jdbcType);
     //又去调builderAssistant.buildResultMapping
-    return builderAssistant.buildResultMapping(resultType, property, column, javaTypeClass, jdbcTypeEnum, nestedSelect, nestedResultMap, notNullColumn, columnPrefix, typeHandlerClass, flags, resulSet, foreignColumn, lazy);
+    return builderAssistant.buildResultMapping(resultType, property, column, javaTypeClass, jdbcTypeEnum, nestedSelect, nestedResultMap, notNullColumn, columnPrefix, typeHandlerClass, flags, resulSet, foreignColumn, lazy,
+        batchSelect, batchKey, batchSize);
   }
   
   //5.1.1.1 处理嵌套的result map
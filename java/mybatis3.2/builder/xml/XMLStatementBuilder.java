@@ -24,6 +24,7 @@ import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.mapping.DataSourceRoute;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultSetType;
 import org.apache.ibatis.mapping.SqlCommandType;
@@ -45,6 +46,8 @@ public class XMLStatementBuilder extends BaseBuilder {
   private MapperBuilderAssistant builderAssistant;
   private XNode context;
   private String requiredDatabaseId;
+  //延迟加载时登记的时候已经检查过databaseId
+  private boolean databaseIdChecked;
 
   public XMLStatementBuilder(Configuration configuration, MapperBuilderAssistant builderAssistant, XNode context) {
     this(configuration, builderAssistant, context, null);
@@ -69,7 +72,9 @@ public class XMLStatementBuilder extends BaseBuilder {
 //  timeout="10000"
 //  fetchSize="256"
 //  statementType="PREPARED"
-//  resultSetType="FORWARD_ONLY">
+//  resultSetType="FORWARD_ONLY"
+//  route="REPLICA"
+//  tables="PERSON">
 //  SELECT * FROM PERSON WHERE ID = #{id}
 //</select>
   public void parseStatementNode() {
@@ -77,7 +82,7 @@ public class XMLStatementBuilder extends BaseBuilder {
     String databaseId = context.getStringAttribute("databaseId");
 
     //如果databaseId不匹配，退出
-    if (!databaseIdMatchesCurrent(id, databaseId, this.requiredDatabaseId)) {
+    if (!databaseIdChecked && !databaseIdMatchesCurrent(id, databaseId, this.requiredDatabaseId)) {
       return;
     }
 
@@ -105,6 +110,8 @@ public class XMLStatementBuilder extends BaseBuilder {
     //语句类型, STATEMENT|PREPARED|CALLABLE 的一种
     StatementType statementType = StatementType.valueOf(context.getStringAttribute("statementType", StatementType.PREPARED.toString()));
     ResultSetType resultSetTypeEnum = resolveResultSetType(resultSetType);
+    //读写分离:DEFAULT|PRIMARY|REPLICA
+    DataSourceRoute route = DataSourceRoute.valueOf(context.getStringAttribute("route", DataSourceRoute.DEFAULT.toString()));
 
     //获取命令类型(select|insert|update|delete)
     String nodeName = context.getNode().getNodeName();
@@ -134,6 +141,8 @@ public class XMLStatementBuilder extends BaseBuilder {
     String keyProperty = context.getStringAttribute("keyProperty");
     //(仅对 insert 有用) 标记一个属性, MyBatis 会通过 getGeneratedKeys 或者通过 insert 语句的 selectKey 子元素设置它的值
     String keyColumn = context.getStringAttribute("keyColumn");
+    //语句读写的表,按表失效二级缓存时用,不写就从SQL里推断
+    String tables = context.getStringAttribute("tables");
     KeyGenerator keyGenerator;
     String keyStatementId = id + SelectKeyGenerator.SELECT_KEY_SUFFIX;
     keyStatementId = builderAssistant.applyCurrentNamespace(keyStatementId, true);
@@ -149,7 +158,7 @@ public class XMLStatementBuilder extends BaseBuilder {
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered, 
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, route, tables);
   }
 
   private void processSelectKeyNodes(String id, Class<?> parameterTypeClass, LanguageDriver langDriver) {
@@ -210,6 +219,17 @@ public class XMLStatementBuilder extends BaseBuilder {
     }
   }
 
+  //延迟加载模式:只检查databaseId并登记语句id,第一次用到时再由LazyStatement调用parseStatementNode
+  public void registerStatementNode() {
+    String id = context.getStringAttribute("id");
+    String databaseId = context.getStringAttribute("databaseId");
+    if (!databaseIdMatchesCurrent(id, databaseId, this.requiredDatabaseId)) {
+      return;
+    }
+    databaseIdChecked = true;
+    configuration.addLazyStatement(new LazyStatement(builderAssistant.applyCurrentNamespace(id, false), databaseId, this));
+  }
+
   private boolean databaseIdMatchesCurrent(String id, String databaseId, String requiredDatabaseId) {
     if (requiredDatabaseId != null) {
       if (!requiredDatabaseId.equals(databaseId)) {
@@ -221,7 +241,12 @@ public class XMLStatementBuilder extends BaseBuilder {
       }
       // skip this statement if there is a previous one with a not null databaseId
       id = builderAssistant.applyCurrentNamespace(id, false);
-      if (this.configuration.hasStatement(id, false)) {
+      //延迟登记的语句不用构建就知道databaseId
+      if (this.configuration.hasLazyStatement(id)) {
+        if (this.configuration.getLazyStatement(id).getDatabaseId() != null) {
+          return false;
+        }
+      } else if (this.configuration.hasStatement(id, false)) {
         MappedStatement previous = this.configuration.getMappedStatement(id, false); // issue #2
         if (previous.getDatabaseId() != null) {
           return false;
@@ -0,0 +1,238 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * 二级缓存的表依赖
+ * 每个缓存项登记在它读的表下面,写语句提交时只失效依赖被写的表的缓存项,不管它们在哪个命名空间。
+ * 一个configuration一个实例,被CachingExecutor使用。
+ */
+public class CacheDependencies {
+
+  //读的表认不出来的缓存项登记在这里,任何按表失效都会失效它们
+  public static final String ANY_TABLE = "*";
+
+  private static final int MAX_MEMOIZED_SQL = 1024;
+
+  //每张表最多记录多少个缓存项,超过就退回到失效时清空整个缓存
+  private final int maxEntriesPerTable;
+  private final ConcurrentMap<String, Dependents> dependents = new ConcurrentHashMap<String, Dependents>();
+  //每次按表失效加一;每张表记下最后一次失效时的版本,用来判断查询之后它读的表有没有被失效过
+  private final AtomicLong version = new AtomicLong();
+  private final ConcurrentMap<String, AtomicLong> invalidatedAt = new ConcurrentHashMap<String, AtomicLong>();
+  //同一条SQL不用每次都扫描
+  private final Map<String, String[]> readTables = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+      return size() > MAX_MEMOIZED_SQL;
+    }
+  };
+  private final Map<String, String[]> writtenTables = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+      return size() > MAX_MEMOIZED_SQL;
+    }
+  };
+
+  public CacheDependencies() {
+    this(10000);
+  }
+
+  public CacheDependencies(int maxEntriesPerTable) {
+    this.maxEntriesPerTable = maxEntriesPerTable;
+  }
+
+  //查询读的表:优先用语句上声明的tables,没有就从SQL里推断,都没有就是ANY_TABLE
+  public String[] getReadTables(MappedStatement ms, BoundSql boundSql) {
+    if (ms.getTables() != null) {
+      return normalize(ms.getTables());
+    }
+    String sql = boundSql.getSql();
+    synchronized (readTables) {
+      String[] tables = readTables.get(sql);
+      if (tables == null) {
+        Set<String> extracted = TableExtractor.extractReadTables(sql);
+        tables = extracted.isEmpty() ? new String[] { ANY_TABLE } : extracted.toArray(new String[extracted.size()]);
+        readTables.put(sql, tables);
+      }
+      return tables;
+    }
+  }
+
+  //写语句写的表,认不出来返回null,调用方退回到清空整个命名空间的缓存
+  public String[] getWrittenTables(MappedStatement ms, Object parameterObject) {
+    SqlCommandType type = ms.getSqlCommandType();
+    if (type != SqlCommandType.INSERT && type != SqlCommandType.UPDATE && type != SqlCommandType.DELETE) {
+      return null;
+    }
+    if (ms.getTables() != null) {
+      return normalize(ms.getTables());
+    }
+    String sql = ms.getBoundSql(parameterObject).getSql();
+    synchronized (writtenTables) {
+      String[] tables = writtenTables.get(sql);
+      if (tables == null) {
+        Set<String> extracted = TableExtractor.extractWrittenTables(sql);
+        tables = extracted.toArray(new String[extracted.size()]);
+        writtenTables.put(sql, tables);
+      }
+      return tables.length == 0 ? null : tables;
+    }
+  }
+
+  //查询之前取版本,登记时带上
+  public long getVersion() {
+    return version.get();
+  }
+
+  //缓存项已经进了缓存之后登记,queryVersion是查询之前的getVersion()
+  //并发的失效如果在登记之前摘掉了依赖,它看不到这个缓存项;这时它读的表的版本一定比queryVersion新,由这里自己移除
+  public void register(Cache cache, Object key, String[] tables, long queryVersion) {
+    for (String table : tables) {
+      //拿到的Dependents可能正好被并发的失效摘掉了,这时重新取一个
+      boolean added = false;
+      while (!added) {
+        Dependents tableDependents = dependents.get(table);
+        if (tableDependents == null) {
+          tableDependents = new Dependents();
+          Dependents existing = dependents.putIfAbsent(table, tableDependents);
+          if (existing != null) {
+            tableDependents = existing;
+          }
+        }
+        added = tableDependents.add(cache, key, maxEntriesPerTable);
+      }
+    }
+    if (isInvalidatedSince(tables, queryVersion)) {
+      cache.removeObject(key);
+    }
+  }
+
+  private boolean isInvalidatedSince(String[] tables, long queryVersion) {
+    for (String table : tables) {
+      AtomicLong tableVersion = invalidatedAt.get(table);
+      if (tableVersion != null && tableVersion.get() > queryVersion) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  //失效依赖这些表的缓存项,还有读的表认不出来的缓存项
+  public void invalidate(Collection<String> tables) {
+    if (tables.isEmpty()) {
+      return;
+    }
+    invalidate(ANY_TABLE);
+    for (String table : tables) {
+      invalidate(table);
+    }
+  }
+
+  //先更新表的版本再摘依赖,和register的先登记再检查版本配对
+  private void invalidate(String table) {
+    long current = version.incrementAndGet();
+    AtomicLong tableVersion = invalidatedAt.get(table);
+    if (tableVersion == null) {
+      tableVersion = new AtomicLong();
+      AtomicLong existing = invalidatedAt.putIfAbsent(table, tableVersion);
+      if (existing != null) {
+        tableVersion = existing;
+      }
+    }
+    //并发失效时版本只能往大里改
+    long previous = tableVersion.get();
+    while (previous < current && !tableVersion.compareAndSet(previous, current)) {
+      previous = tableVersion.get();
+    }
+    Dependents tableDependents = dependents.remove(table);
+    if (tableDependents != null) {
+      tableDependents.invalidate();
+    }
+  }
+
+  //表名小写,去掉schema前缀,和TableExtractor的结果一致
+  private static String[] normalize(String[] tables) {
+    String[] normalized = new String[tables.length];
+    for (int i = 0; i < tables.length; i++) {
+      String table = tables[i].trim().toLowerCase(Locale.ENGLISH);
+      normalized[i] = table.substring(table.lastIndexOf('.') + 1);
+    }
+    return normalized;
+  }
+
+  //依赖某张表的缓存项,按缓存分组
+  private static class Dependents {
+    private final Map<Cache, Set<Object>> keys = new HashMap<Cache, Set<Object>>();
+    //缓存项太多时只记缓存,失效时整个清空
+    private final Set<Cache> overflowed = new HashSet<Cache>();
+    private int size;
+    private boolean invalidated;
+
+    synchronized boolean add(Cache cache, Object key, int maxEntries) {
+      if (invalidated) {
+        return false;
+      }
+      if (overflowed.contains(cache)) {
+        return true;
+      }
+      Set<Object> cacheKeys = keys.get(cache);
+      if (cacheKeys == null) {
+        cacheKeys = new HashSet<Object>();
+        keys.put(cache, cacheKeys);
+      }
+      if (cacheKeys.add(key) && ++size > maxEntries) {
+        overflowed.add(cache);
+        size -= cacheKeys.size();
+        keys.remove(cache);
+      }
+      return true;
+    }
+
+    synchronized void invalidate() {
+      invalidated = true;
+      for (Map.Entry<Cache, Set<Object>> entry : keys.entrySet()) {
+        Cache cache = entry.getKey();
+        for (Object key : entry.getValue()) {
+          cache.removeObject(key);
+        }
+      }
+      for (Cache cache : overflowed) {
+        cache.clear();
+      }
+    }
+  }
+
+}
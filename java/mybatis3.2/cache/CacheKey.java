@@ -17,8 +17,7 @@ package org.apache.ibatis.cache;
 
 import java.io.Serializable;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * @author Clinton Begin
@@ -27,27 +26,38 @@ import java.util.List;
  * 缓存key
  * 一般缓存框架的数据结构基本上都是 Key-Value 方式存储，
  * MyBatis 对于其 Key 的生成采取规则为：[mappedStementId + offset + limit + SQL + queryParams + environment]生成一个哈希码
+ * 组成部分直接放在数组里(不用ArrayList),int/long走专门的update方法,不装箱
+ * 另外维护一个64位的hash,equals先比它,不相等的key基本上不用逐个比较组成部分
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  private static final long serialVersionUID = -3295839386516563925L;
 
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
   private static final int DEFAULT_MULTIPLYER = 37;
   private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
+
+  private static final long HASH64_SEED = 0xcbf29ce484222325L;
+  private static final long HASH64_MULTIPLIER = 0x9e3779b97f4a7c15L;
 
   private int multiplier;
   private int hashcode;
   private long checksum;
+  private long hash64;
   private int count;
-  private List<Object> updateList;
+  //组成部分,基本类型的位置上放PRIMITIVE标记,值在primitives的同一位置
+  private Object[] components;
+  //有基本类型组成部分时才分配
+  private long[] primitives;
 
   public CacheKey() {
     this.hashcode = DEFAULT_HASHCODE;
     this.multiplier = DEFAULT_MULTIPLYER;
+    this.hash64 = HASH64_SEED;
     this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this.components = new Object[DEFAULT_CAPACITY];
   }
 
   //传入一个Object数组，更新hashcode和效验码
@@ -57,7 +67,7 @@ public class CacheKey implements Cloneable, Serializable {
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   public void update(Object object) {
@@ -74,18 +84,73 @@ public class CacheKey implements Cloneable, Serializable {
     }
   }
 
+  //int不装箱,hash和Integer.valueOf(value)一样,但两者不相等(组成部分的类型不同)
+  public void update(int value) {
+    doUpdate(value, value);
+  }
+
+  //long不装箱,hash和Long.valueOf(value)一样
+  public void update(long value) {
+    doUpdate((int) (value ^ (value >>> 32)), value);
+  }
+
+  //把另一个key的组成部分复制进来(前面加上它的组成部分个数作为分界),不保留对它的引用
+  //这样被复制的key之后可以重用,不会影响这个key
+  public void update(CacheKey cacheKey) {
+    update(cacheKey.count);
+    for (int i = 0; i < cacheKey.count; i++) {
+      Object object = cacheKey.components[i];
+      if (object == Marker.PRIMITIVE) {
+        long value = cacheKey.primitives[i];
+        doUpdate((int) (value ^ (value >>> 32)), value);
+      } else {
+        doUpdate(object);
+      }
+    }
+  }
+
   private void doUpdate(Object object) {
     //计算hash值，校验码
     int baseHashCode = object == null ? 1 : object.hashCode();
+    updateHash(baseHashCode, 0);
+
+    //同时将对象加入数组，这样万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
+    ensureCapacity();
+    components[count - 1] = object;
+  }
+
+  private void doUpdate(int baseHashCode, long value) {
+    updateHash(baseHashCode, value ^ HASH64_MULTIPLIER);
+
+    ensureCapacity();
+    if (primitives == null) {
+      primitives = new long[components.length];
+    }
+    components[count - 1] = Marker.PRIMITIVE;
+    primitives[count - 1] = value;
+  }
 
+  private void updateHash(int baseHashCode, long extra) {
     count++;
     checksum += baseHashCode;
-    baseHashCode *= count;
-
-    hashcode = multiplier * hashcode + baseHashCode;
+    hashcode = multiplier * hashcode + baseHashCode * count;
+
+    //64位hash:把组成部分的hash,位置,基本类型的值混合进去
+    long h = ((long) baseHashCode << 32 | count) ^ extra;
+    h *= HASH64_MULTIPLIER;
+    h ^= h >>> 29;
+    hash64 = (hash64 ^ h) * HASH64_MULTIPLIER;
+    hash64 ^= hash64 >>> 32;
+  }
 
-    //同时将对象加入列表，这样万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-    updateList.add(object);
+  private void ensureCapacity() {
+    if (count > components.length) {
+      int capacity = components.length << 1;
+      components = Arrays.copyOf(components, capacity);
+      if (primitives != null) {
+        primitives = Arrays.copyOf(primitives, capacity);
+      }
+    }
   }
 
   public void updateAll(Object[] objects) {
@@ -94,6 +159,15 @@ public class CacheKey implements Cloneable, Serializable {
     }
   }
 
+  //清空,以便重用这个对象(已经放进Map的key不能重用)
+  public void reset() {
+    Arrays.fill(components, 0, count, null);
+    hashcode = DEFAULT_HASHCODE;
+    checksum = 0;
+    hash64 = HASH64_SEED;
+    count = 0;
+  }
+
   @Override
   public boolean equals(Object object) {
     if (this == object) {
@@ -105,7 +179,10 @@ public class CacheKey implements Cloneable, Serializable {
 
     final CacheKey cacheKey = (CacheKey) object;
 
-    //先比hashcode，checksum，count，理论上可以快速比出来
+    //先比64位hash，hashcode，checksum，count，理论上可以快速比出来
+    if (hash64 != cacheKey.hash64) {
+      return false;
+    }
     if (hashcode != cacheKey.hashcode) {
       return false;
     }
@@ -117,14 +194,17 @@ public class CacheKey implements Cloneable, Serializable {
     }
 
     //万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-    //这里两个list的size没比是否相等，其实前面count相等就已经保证了
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
+    for (int i = 0; i < count; i++) {
+      Object thisObject = components[i];
+      Object thatObject = cacheKey.components[i];
       if (thisObject == null) {
         if (thatObject != null) {
           return false;
         }
+      } else if (thisObject == Marker.PRIMITIVE) {
+        if (thatObject != Marker.PRIMITIVE || primitives[i] != cacheKey.primitives[i]) {
+          return false;
+        }
       } else {
         if (!thisObject.equals(thatObject)) {
           return false;
@@ -142,8 +222,13 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public String toString() {
     StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (int i = 0; i < updateList.size(); i++) {
-      returnValue.append(':').append(updateList.get(i));
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':');
+      if (components[i] == Marker.PRIMITIVE) {
+        returnValue.append(primitives[i]);
+      } else {
+        returnValue.append(components[i]);
+      }
     }
 
     return returnValue.toString();
@@ -152,8 +237,16 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    clonedCacheKey.components = components.clone();
+    if (primitives != null) {
+      clonedCacheKey.primitives = primitives.clone();
+    }
     return clonedCacheKey;
   }
 
+  //基本类型组成部分的占位标记,用枚举保证反序列化后还是同一个对象
+  private enum Marker {
+    PRIMITIVE
+  }
+
 }
@@ -0,0 +1,35 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.sql.SQLException;
+
+/**
+ * 缓存加载器
+ * 二级缓存未命中时由LoadingCache调用,并发的未命中只有一个线程真正加载
+ */
+public interface CacheLoader {
+
+  //在调用线程里(当前会话)加载
+  Object load() throws SQLException;
+
+  //后台刷新时调用,发起查询的会话可能已经关闭,要自己取连接
+  Object reload() throws SQLException;
+
+  //load或reload的结果放进缓存之后调用,没有放进缓存(比如加载期间缓存被清空)时不调用
+  void loaded(Object value);
+
+}
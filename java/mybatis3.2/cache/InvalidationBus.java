@@ -0,0 +1,185 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 多节点二级缓存的失效总线,一个configuration一个实例
+ * 本节点提交时的清空和按表失效先攒起来,同一个缓存、同一张表只记一次,每隔interval毫秒批量发布到通道;
+ * 收到别的节点的事件就清空或失效本节点对应的缓存。别的节点上的旧数据最多再存活interval加上通道的延迟。
+ * 用完调用close(Configuration.setCacheInvalidationChannel(null)),停掉发布和通道的线程;
+ * 没有调用时JVM退出前由shutdown hook关闭,把还没发布的事件发出去。
+ */
+public class InvalidationBus implements InvalidationListener {
+
+  private static final Log log = LogFactory.getLog(InvalidationBus.class);
+
+  private final Configuration configuration;
+  private final InvalidationChannel channel;
+  private final String nodeId = UUID.randomUUID().toString();
+  //小于等于0表示不攒,每次提交马上发布
+  private final long interval;
+  private ScheduledExecutorService publisher;
+  private Thread shutdownHook;
+
+  //还没发布的事件
+  private Set<String> flushedCaches = new LinkedHashSet<String>();
+  private Set<String> evictedTables = new LinkedHashSet<String>();
+
+  public InvalidationBus(Configuration configuration, InvalidationChannel channel, long interval) {
+    this.configuration = configuration;
+    this.channel = channel;
+    this.interval = interval;
+    channel.open(nodeId, this);
+    if (interval > 0) {
+      publisher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "mybatis-invalidation-bus");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      publisher.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          publishPending();
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    shutdownHook = new Thread("mybatis-invalidation-shutdown") {
+      @Override
+      public void run() {
+        close();
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  //本节点清空了某个命名空间的缓存
+  public void flush(String cacheId) {
+    synchronized (this) {
+      flushedCaches.add(cacheId);
+    }
+    if (interval <= 0) {
+      publishPending();
+    }
+  }
+
+  //本节点失效了依赖这些表的缓存项
+  public void evict(Collection<String> tables) {
+    if (tables.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      evictedTables.addAll(tables);
+    }
+    if (interval <= 0) {
+      publishPending();
+    }
+  }
+
+  public void publishPending() {
+    Set<String> caches;
+    Set<String> tables;
+    synchronized (this) {
+      if (flushedCaches.isEmpty() && evictedTables.isEmpty()) {
+        return;
+      }
+      caches = flushedCaches;
+      tables = evictedTables;
+      flushedCaches = new LinkedHashSet<String>();
+      evictedTables = new LinkedHashSet<String>();
+    }
+    List<InvalidationEvent> events = new ArrayList<InvalidationEvent>(caches.size() + 1);
+    for (String cacheId : caches) {
+      events.add(InvalidationEvent.flush(cacheId));
+    }
+    if (!tables.isEmpty()) {
+      events.add(InvalidationEvent.evict(tables.toArray(new String[tables.size()])));
+    }
+    try {
+      channel.publish(events);
+    } catch (RuntimeException e) {
+      //放回去下次再发,合并后的事件数量不会无限增长
+      log.warn("Error publishing cache invalidation events, will retry.  Cause: " + e);
+      synchronized (this) {
+        flushedCaches.addAll(caches);
+        evictedTables.addAll(tables);
+      }
+    }
+  }
+
+  //别的节点发来的事件,直接作用在共享的缓存上,不会再发布出去
+  @Override
+  public void onEvents(List<InvalidationEvent> events) {
+    for (InvalidationEvent event : events) {
+      if (event.getType() == InvalidationEvent.Type.FLUSH) {
+        if (configuration.hasCache(event.getCacheId())) {
+          configuration.getCache(event.getCacheId()).clear();
+        }
+      } else if (configuration.isCacheInvalidationByTable()) {
+        configuration.getCacheDependencies().invalidate(Arrays.asList(event.getTables()));
+      } else {
+        //本节点没有按表登记缓存项,不知道哪些依赖这些表,只能全部清空
+        //短名冲突的位置上放的是Ambiguity占位对象
+        for (Object cache : configuration.getCaches()) {
+          if (cache instanceof Cache) {
+            ((Cache) cache).clear();
+          }
+        }
+      }
+    }
+  }
+
+  //停止定时发布,把还没发的事件发掉,关闭通道
+  public synchronized void close() {
+    if (shutdownHook != null) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        //JVM正在退出,hook已经在调用或者马上会调用close
+      }
+      shutdownHook = null;
+    }
+    if (publisher != null) {
+      publisher.shutdownNow();
+      publisher = null;
+    }
+    publishPending();
+    channel.close();
+  }
+
+}
@@ -0,0 +1,38 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 失效事件的通道,多个节点通过它互相通知二级缓存的清空和失效
+ * 可以用消息队列、数据库表等实现,自带LoopbackInvalidationChannel和FileInvalidationChannel
+ */
+public interface InvalidationChannel {
+
+  //配置里<properties>定义的变量
+  void setProperties(Properties properties);
+
+  //开始接收别的节点发布的事件,nodeId用来认出本节点自己发布的事件
+  void open(String nodeId, InvalidationListener listener);
+
+  //发布失败抛CacheException,事件会留到下次再发
+  void publish(List<InvalidationEvent> events);
+
+  void close();
+
+}
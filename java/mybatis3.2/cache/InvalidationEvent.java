@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * 二级缓存失效事件,多节点时由InvalidationBus发给别的节点
+ * FLUSH:清空某个命名空间的缓存;EVICT:失效依赖某些表的缓存项(按表失效时)
+ */
+public class InvalidationEvent implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public enum Type {
+    FLUSH, EVICT
+  }
+
+  private final Type type;
+  private final String cacheId;
+  private final String[] tables;
+
+  private InvalidationEvent(Type type, String cacheId, String[] tables) {
+    this.type = type;
+    this.cacheId = cacheId;
+    this.tables = tables;
+  }
+
+  public static InvalidationEvent flush(String cacheId) {
+    return new InvalidationEvent(Type.FLUSH, cacheId, null);
+  }
+
+  public static InvalidationEvent evict(String[] tables) {
+    return new InvalidationEvent(Type.EVICT, null, tables);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getCacheId() {
+    return cacheId;
+  }
+
+  public String[] getTables() {
+    return tables;
+  }
+
+  @Override
+  public String toString() {
+    return type == Type.FLUSH ? "FLUSH " + cacheId : "EVICT " + Arrays.toString(tables);
+  }
+
+}
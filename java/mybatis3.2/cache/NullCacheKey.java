@@ -40,4 +40,24 @@ public final class NullCacheKey extends CacheKey {
   public void updateAll(Object[] objects) {
     throw new CacheException("Not allowed to update a NullCacheKey instance.");
   }
+
+  @Override
+  public void update(int value) {
+    throw new CacheException("Not allowed to update a NullCacheKey instance.");
+  }
+
+  @Override
+  public void update(long value) {
+    throw new CacheException("Not allowed to update a NullCacheKey instance.");
+  }
+
+  @Override
+  public void update(CacheKey cacheKey) {
+    throw new CacheException("Not allowed to update a NullCacheKey instance.");
+  }
+
+  @Override
+  public void reset() {
+    throw new CacheException("Not allowed to update a NullCacheKey instance.");
+  }
 }
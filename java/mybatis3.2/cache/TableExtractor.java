@@ -0,0 +1,262 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 从SQL里找出语句读写的表,按表失效二级缓存时用
+ * 只是个词法扫描,不做完整的语法分析:去掉注释和字符串常量后,
+ * FROM/JOIN后面的是读的表,INSERT INTO/UPDATE/DELETE FROM/MERGE INTO/REPLACE INTO后面的是写的表。
+ * 表名转成小写并去掉schema前缀。认不出来的时候返回空集合,由调用方按保守的方式处理。
+ */
+public final class TableExtractor {
+
+  //表名后面出现这些词说明不是别名
+  private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(new String[] {
+      "select", "from", "where", "on", "using", "join", "inner", "left", "right", "full", "outer", "cross",
+      "natural", "straight_join", "group", "order", "having", "limit", "offset", "fetch", "for", "union",
+      "intersect", "except", "minus", "set", "values", "value", "as", "with", "lateral", "into", "partition",
+      "use", "force", "ignore", "window", "connect", "start", "returning", "default", "tablesample" }));
+
+  private TableExtractor() {
+    // Prevent Instantiation of Static Class
+  }
+
+  //查询读的表,包括子查询和JOIN的表
+  public static Set<String> extractReadTables(String sql) {
+    List<String> tokens = tokenize(sql);
+    Set<String> tables = new LinkedHashSet<String>();
+    for (int i = 0; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+      if ("from".equals(token)) {
+        readTableList(tokens, i + 1, tables, true);
+      } else if ("join".equals(token) || "straight_join".equals(token)) {
+        readTableList(tokens, i + 1, tables, false);
+      }
+    }
+    return tables;
+  }
+
+  //INSERT/UPDATE/DELETE/MERGE写的表
+  public static Set<String> extractWrittenTables(String sql) {
+    List<String> tokens = tokenize(sql);
+    Set<String> tables = new LinkedHashSet<String>();
+    int i = skipWithClause(tokens, 0);
+    if (i >= tokens.size()) {
+      return tables;
+    }
+    String command = tokens.get(i);
+    if ("insert".equals(command) || "replace".equals(command) || "merge".equals(command)) {
+      //INSERT [IGNORE] INTO t (列...),后面的括号是列名不是表函数
+      int into = tokens.indexOf("into");
+      if (into > i && into + 1 < tokens.size() && isIdentifier(tokens.get(into + 1))) {
+        tables.add(normalize(tokens.get(into + 1)));
+      }
+    } else if ("update".equals(command)) {
+      //UPDATE t1 [JOIN t2] SET ...,多表更新时两张表都算
+      int j = readTableList(tokens, skipModifiers(tokens, i + 1), tables, true);
+      while (j < tokens.size() && !"set".equals(tokens.get(j))) {
+        if ("join".equals(tokens.get(j))) {
+          j = readTableList(tokens, j + 1, tables, false);
+        } else {
+          j++;
+        }
+      }
+    } else if ("delete".equals(command)) {
+      int j = skipModifiers(tokens, i + 1);
+      if (j < tokens.size() && !"from".equals(tokens.get(j))) {
+        //DELETE t1, t2 FROM t1 JOIN t2 ...
+        readTableList(tokens, j, tables, true);
+      } else {
+        readTableList(tokens, j + 1, tables, true);
+      }
+    } else if ("truncate".equals(command)) {
+      int j = i + 1;
+      if (j < tokens.size() && "table".equals(tokens.get(j))) {
+        j++;
+      }
+      readTableList(tokens, j, tables, true);
+    }
+    return tables;
+  }
+
+  //从position开始读一个表名列表,返回列表后面第一个token的位置
+  private static int readTableList(List<String> tokens, int position, Set<String> tables, boolean commaList) {
+    int i = position;
+    while (i < tokens.size()) {
+      String token = tokens.get(i);
+      if ("(".equals(token)) {
+        //子查询或派生表,里面的FROM由外层循环处理,这里跳过
+        i = skipParens(tokens, i);
+      } else if (isIdentifier(token)) {
+        i++;
+        if (i < tokens.size() && "(".equals(tokens.get(i))) {
+          //表函数,不是表
+          i = skipParens(tokens, i);
+        } else {
+          tables.add(normalize(token));
+        }
+      } else {
+        return i;
+      }
+      //别名
+      if (i < tokens.size() && "as".equals(tokens.get(i))) {
+        i++;
+      }
+      if (i < tokens.size() && isIdentifier(tokens.get(i))) {
+        i++;
+      }
+      if (commaList && i < tokens.size() && ",".equals(tokens.get(i))) {
+        i++;
+      } else {
+        return i;
+      }
+    }
+    return i;
+  }
+
+  private static int skipParens(List<String> tokens, int position) {
+    int depth = 0;
+    for (int i = position; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+      if ("(".equals(token)) {
+        depth++;
+      } else if (")".equals(token) && --depth == 0) {
+        return i + 1;
+      }
+    }
+    return tokens.size();
+  }
+
+  //WITH x AS (...) 后面才是真正的语句
+  private static int skipWithClause(List<String> tokens, int position) {
+    int i = position;
+    if (i < tokens.size() && "with".equals(tokens.get(i))) {
+      i++;
+      while (i < tokens.size()) {
+        String token = tokens.get(i);
+        if ("(".equals(token)) {
+          i = skipParens(tokens, i);
+        } else if ("select".equals(token) || "insert".equals(token) || "update".equals(token)
+            || "delete".equals(token) || "merge".equals(token)) {
+          return i;
+        } else {
+          i++;
+        }
+      }
+    }
+    return i;
+  }
+
+  //UPDATE LOW_PRIORITY IGNORE t, DELETE QUICK FROM t 之类
+  private static int skipModifiers(List<String> tokens, int position) {
+    int i = position;
+    while (i < tokens.size()) {
+      String token = tokens.get(i);
+      if ("low_priority".equals(token) || "quick".equals(token) || "ignore".equals(token) || "only".equals(token)) {
+        i++;
+      } else {
+        return i;
+      }
+    }
+    return i;
+  }
+
+  private static boolean isIdentifier(String token) {
+    return token.length() > 0 && !KEYWORDS.contains(token)
+        && (Character.isLetter(token.charAt(0)) || token.charAt(0) == '_');
+  }
+
+  //小写,去掉schema前缀
+  private static String normalize(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? name : name.substring(dot + 1);
+  }
+
+  //切成小写的单词和 ( ) , 三种符号,注释、字符串常量和其它符号都丢掉,带引号的标识符去掉引号
+  private static List<String> tokenize(String sql) {
+    List<String> tokens = new ArrayList<String>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        while (i < length && sql.charAt(i) != '\n') {
+          i++;
+        }
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (c == '\'') {
+        i++;
+        while (i < length) {
+          if (sql.charAt(i) == '\'') {
+            if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+              i += 2;
+              continue;
+            }
+            break;
+          }
+          i++;
+        }
+        i++;
+        tokens.add("?");
+      } else if (c == '(' || c == ')' || c == ',') {
+        tokens.add(String.valueOf(c));
+        i++;
+      } else if (isWordPart(c) || c == '"' || c == '`' || c == '[') {
+        //schema.table 和带引号的部分连成一个词
+        StringBuilder word = new StringBuilder();
+        while (i < length) {
+          c = sql.charAt(i);
+          if (c == '"' || c == '`' || c == '[') {
+            char close = c == '[' ? ']' : c;
+            int end = sql.indexOf(close, i + 1);
+            if (end < 0) {
+              end = length;
+            }
+            word.append(sql, i + 1, end);
+            i = end + 1;
+          } else if (isWordPart(c) || c == '.') {
+            word.append(c);
+            i++;
+          } else {
+            break;
+          }
+        }
+        tokens.add(word.toString().toLowerCase(Locale.ENGLISH));
+      } else {
+        if (!Character.isWhitespace(c)) {
+          tokens.add("?");
+        }
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  private static boolean isWordPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+  }
+
+}
@@ -0,0 +1,245 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.channel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.InvalidationChannel;
+import org.apache.ibatis.cache.InvalidationEvent;
+import org.apache.ibatis.cache.InvalidationListener;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * 基于共享目录的失效通道,用于测试和没有消息中间件的小集群
+ * 每次发布写一个文件(先写临时文件再改名),各节点每隔pollInterval毫秒扫描目录,处理别的节点新写的文件,
+ * 超过retention毫秒的文件删掉。变量:cacheInvalidation.directory(必须设置,只让本集群的节点能写),
+ * cacheInvalidation.pollInterval(默认200),cacheInvalidation.retention(默认60000)。
+ * 文件是UTF-8文本,一行一个事件,字段用制表符分开:FLUSH 缓存id 或 EVICT 表名...,认不出来的行跳过,
+ * 不用Java序列化,目录里被放了别的文件也只是多清几次缓存。
+ */
+public class FileInvalidationChannel implements InvalidationChannel {
+
+  private static final Log log = LogFactory.getLog(FileInvalidationChannel.class);
+
+  private static final String SUFFIX = ".evt";
+  private static final String ENCODING = "UTF-8";
+  private static final String SEPARATOR = "\t";
+
+  private File directory;
+  private long pollInterval = 200;
+  private long retention = 60000;
+
+  private String nodeId;
+  private InvalidationListener listener;
+  private final AtomicLong sequence = new AtomicLong();
+  //已经处理过的文件,文件删掉后也从这里去掉
+  private final Set<String> seen = new HashSet<String>();
+  private ScheduledExecutorService poller;
+
+  @Override
+  public void setProperties(Properties properties) {
+    String value = properties.getProperty("cacheInvalidation.directory");
+    if (value != null) {
+      directory = new File(value);
+    }
+    value = properties.getProperty("cacheInvalidation.pollInterval");
+    if (value != null) {
+      pollInterval = Long.parseLong(value);
+    }
+    value = properties.getProperty("cacheInvalidation.retention");
+    if (value != null) {
+      retention = Long.parseLong(value);
+    }
+  }
+
+  @Override
+  public synchronized void open(String nodeId, InvalidationListener listener) {
+    //不用默认的临时目录,那里谁都能放文件
+    if (directory == null) {
+      throw new CacheException("FileInvalidationChannel requires the cacheInvalidation.directory property, a directory shared only by the nodes of this cluster");
+    }
+    this.nodeId = nodeId;
+    this.listener = listener;
+    if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new CacheException("Cannot create cache invalidation directory " + directory);
+    }
+    //启动前的事件不用处理,本节点的缓存还是空的
+    seen.addAll(Arrays.asList(listEventFiles()));
+    poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "mybatis-invalidation-poll");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    poller.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        poll();
+      }
+    }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void publish(List<InvalidationEvent> events) {
+    //文件名按时间排序,带上节点id好认出自己的文件
+    String name = System.currentTimeMillis() + "-" + nodeId + "-" + sequence.incrementAndGet() + SUFFIX;
+    File temp = new File(directory, name + ".tmp");
+    try {
+      Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), ENCODING));
+      try {
+        for (InvalidationEvent event : events) {
+          out.write(format(event));
+          out.write('\n');
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      temp.delete();
+      throw new CacheException("Error writing cache invalidation events to " + temp + ".  Cause: " + e, e);
+    }
+    if (!temp.renameTo(new File(directory, name))) {
+      temp.delete();
+      throw new CacheException("Error renaming cache invalidation file " + temp);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (poller != null) {
+      poller.shutdownNow();
+      poller = null;
+    }
+  }
+
+  private synchronized void poll() {
+    try {
+      String[] names = listEventFiles();
+      Arrays.sort(names);
+      long now = System.currentTimeMillis();
+      for (String name : names) {
+        File file = new File(directory, name);
+        if (!seen.contains(name) && !name.contains("-" + nodeId + "-")) {
+          List<InvalidationEvent> events = read(file);
+          if (events != null) {
+            listener.onEvents(events);
+          }
+        }
+        seen.add(name);
+        if (now - file.lastModified() > retention) {
+          file.delete();
+        }
+      }
+      seen.retainAll(Arrays.asList(names));
+    } catch (RuntimeException e) {
+      //不能让异常停掉定时任务
+      log.warn("Error polling cache invalidation directory " + directory + ".  Cause: " + e);
+    }
+  }
+
+  private static String format(InvalidationEvent event) {
+    StringBuilder line = new StringBuilder(event.getType().name());
+    if (event.getType() == InvalidationEvent.Type.FLUSH) {
+      line.append(SEPARATOR).append(event.getCacheId());
+    } else {
+      for (String table : event.getTables()) {
+        line.append(SEPARATOR).append(table);
+      }
+    }
+    return line.toString();
+  }
+
+  //认不出来的行返回null
+  private static InvalidationEvent parse(String line) {
+    String[] fields = line.split(SEPARATOR);
+    if (fields.length < 2) {
+      return null;
+    }
+    if (InvalidationEvent.Type.FLUSH.name().equals(fields[0]) && fields.length == 2) {
+      return InvalidationEvent.flush(fields[1]);
+    }
+    if (InvalidationEvent.Type.EVICT.name().equals(fields[0])) {
+      return InvalidationEvent.evict(Arrays.copyOfRange(fields, 1, fields.length));
+    }
+    return null;
+  }
+
+  private List<InvalidationEvent> read(File file) {
+    try {
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+      try {
+        List<InvalidationEvent> events = new ArrayList<InvalidationEvent>();
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.length() == 0) {
+            continue;
+          }
+          InvalidationEvent event = parse(line);
+          if (event != null) {
+            events.add(event);
+          } else {
+            log.warn("Ignoring unrecognized cache invalidation event '" + line + "' in " + file);
+          }
+        }
+        return events;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      //可能已经被别的节点按retention删掉了
+      log.warn("Error reading cache invalidation file " + file + ".  Cause: " + e);
+      return null;
+    }
+  }
+
+  private String[] listEventFiles() {
+    String[] names = directory.list();
+    if (names == null) {
+      return new String[0];
+    }
+    List<String> eventFiles = new ArrayList<String>();
+    for (String name : names) {
+      if (name.endsWith(SUFFIX)) {
+        eventFiles.add(name);
+      }
+    }
+    return eventFiles.toArray(new String[eventFiles.size()]);
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.channel;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.cache.InvalidationChannel;
+import org.apache.ibatis.cache.InvalidationEvent;
+import org.apache.ibatis.cache.InvalidationListener;
+
+/**
+ * 同一个JVM里的失效通道,用于测试
+ * 同一组(变量cacheInvalidation.group,默认default)的多个SqlSessionFactory当作多个节点,
+ * 发布时在发布线程里直接通知组里的其它节点。
+ */
+public class LoopbackInvalidationChannel implements InvalidationChannel {
+
+  private static final ConcurrentMap<String, List<LoopbackInvalidationChannel>> groups = new ConcurrentHashMap<String, List<LoopbackInvalidationChannel>>();
+
+  private String group = "default";
+  private String nodeId;
+  private InvalidationListener listener;
+
+  @Override
+  public void setProperties(Properties properties) {
+    group = properties.getProperty("cacheInvalidation.group", group);
+  }
+
+  @Override
+  public void open(String nodeId, InvalidationListener listener) {
+    this.nodeId = nodeId;
+    this.listener = listener;
+    List<LoopbackInvalidationChannel> members = groups.get(group);
+    if (members == null) {
+      members = new CopyOnWriteArrayList<LoopbackInvalidationChannel>();
+      List<LoopbackInvalidationChannel> existing = groups.putIfAbsent(group, members);
+      if (existing != null) {
+        members = existing;
+      }
+    }
+    members.add(this);
+  }
+
+  @Override
+  public void publish(List<InvalidationEvent> events) {
+    List<LoopbackInvalidationChannel> members = groups.get(group);
+    if (members == null) {
+      return;
+    }
+    for (LoopbackInvalidationChannel member : members) {
+      if (!member.nodeId.equals(nodeId)) {
+        member.listener.onEvents(events);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    List<LoopbackInvalidationChannel> members = groups.get(group);
+    if (members != null) {
+      members.remove(this);
+    }
+  }
+
+}
@@ -0,0 +1,278 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * 分段并发LRU缓存
+ * LruCache要靠外面的SynchronizedCache加一把全局锁,热点namespace上所有的读都在抢这把锁
+ * 这里数据放在ConcurrentHashMap里,读不加锁
+ * LRU顺序按key的hash分成若干段,每段一把锁,读的时候tryLock,抢不到就不更新顺序(近似LRU)
+ * 写的时候锁住所在的段,超过容量(条数或权重)就淘汰本段最久未访问的
+ * 容量是按段平分的(向上取整),所以总条数是近似的上限
+ * 自己保存数据,不再使用被装饰的PerpetualCache,CacheBuilder也不会再套SynchronizedCache
+ * 配置方法: <cache eviction="CONCURRENT_LRU" size="1024"/> 或 @CacheNamespace(eviction = ConcurrentLruCache.class)
+ * 额外属性: segments(段数,默认16), maxWeight(总权重上限,值为集合时权重是集合大小,否则为1,默认不限)
+ */
+public class ConcurrentLruCache implements Cache {
+
+  private static final int DEFAULT_SIZE = 1024;
+  private static final int DEFAULT_SEGMENTS = 16;
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, Object> data = new ConcurrentHashMap<Object, Object>();
+  private volatile Segment[] segments;
+  private int size = DEFAULT_SIZE;
+  private int segmentCount = DEFAULT_SEGMENTS;
+  private long maxWeight;
+
+  public ConcurrentLruCache(Cache delegate) {
+    this.delegate = delegate;
+    initSegments();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return data.size();
+  }
+
+  //以下setter只在构建缓存时调用,会清空缓存
+  public void setSize(int size) {
+    this.size = size;
+    initSegments();
+  }
+
+  public void setSegments(int segments) {
+    this.segmentCount = segments;
+    initSegments();
+  }
+
+  public void setMaxWeight(long maxWeight) {
+    this.maxWeight = maxWeight;
+    initSegments();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    //TransactionalCache提交时对未命中的key放null,ConcurrentHashMap不能存null,当作删除
+    if (value == null) {
+      removeObject(key);
+      return;
+    }
+    Segment segment = segmentFor(key);
+    segment.lock.lock();
+    try {
+      Object old = data.put(key, value);
+      if (old != null) {
+        segment.weight -= weigh(old);
+      }
+      segment.order.put(key, Boolean.TRUE);
+      segment.weight += weigh(value);
+      evictIfNeeded(segment);
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Segment segment = segmentFor(key);
+    Object value = data.get(key);
+    if (value == null) {
+      segment.misses.incrementAndGet();
+      return null;
+    }
+    segment.hits.incrementAndGet();
+    //抢不到锁就不更新访问顺序,读永远不会阻塞
+    if (segment.lock.tryLock()) {
+      try {
+        segment.order.get(key); //touch
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Segment segment = segmentFor(key);
+    segment.lock.lock();
+    try {
+      Object value = data.remove(key);
+      if (value != null) {
+        segment.order.remove(key);
+        segment.weight -= weigh(value);
+      }
+      return value;
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    Segment[] current = segments;
+    //按顺序锁住所有段,避免和put交错
+    for (Segment segment : current) {
+      segment.lock.lock();
+    }
+    try {
+      data.clear();
+      for (Segment segment : current) {
+        segment.order.clear();
+        segment.weight = 0;
+      }
+    } finally {
+      for (Segment segment : current) {
+        segment.lock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  //----------以下是统计信息----------
+
+  public long getHitCount() {
+    long count = 0;
+    for (Segment segment : segments) {
+      count += segment.hits.get();
+    }
+    return count;
+  }
+
+  public long getMissCount() {
+    long count = 0;
+    for (Segment segment : segments) {
+      count += segment.misses.get();
+    }
+    return count;
+  }
+
+  public long getEvictionCount() {
+    long count = 0;
+    for (Segment segment : segments) {
+      count += segment.evictions.get();
+    }
+    return count;
+  }
+
+  public double getHitRatio() {
+    long hits = getHitCount();
+    long requests = hits + getMissCount();
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+
+  public long getWeight() {
+    long weight = 0;
+    for (Segment segment : segments) {
+      segment.lock.lock();
+      try {
+        weight += segment.weight;
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return weight;
+  }
+
+  private void initSegments() {
+    if (size <= 0 || segmentCount <= 0) {
+      throw new IllegalArgumentException("Cache size and segments must be positive, got size " + size + " and segments " + segmentCount);
+    }
+    //段数取2的幂,方便用hash取模;段数不超过容量,免得每段容量为0
+    int count = 1;
+    while (count < segmentCount && count < size) {
+      count <<= 1;
+    }
+    int maxEntries = (size + count - 1) / count;
+    long segmentMaxWeight = maxWeight > 0 ? Math.max(1, (maxWeight + count - 1) / count) : 0;
+    Segment[] newSegments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      newSegments[i] = new Segment(maxEntries, segmentMaxWeight);
+    }
+    data.clear();
+    segments = newSegments;
+  }
+
+  private Segment segmentFor(Object key) {
+    Segment[] current = segments;
+    //再散列一次,CacheKey的hashCode低位不一定分散
+    int h = key.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return current[h & (current.length - 1)];
+  }
+
+  //淘汰本段最久未访问的,直到条数和权重都不超限(至少留下刚放进去的一条)
+  private void evictIfNeeded(Segment segment) {
+    Iterator<Object> iterator = segment.order.keySet().iterator();
+    while (segment.order.size() > 1
+        && (segment.order.size() > segment.maxEntries || (segment.maxWeight > 0 && segment.weight > segment.maxWeight))) {
+      Object eldestKey = iterator.next();
+      iterator.remove();
+      Object value = data.remove(eldestKey);
+      if (value != null) {
+        segment.weight -= weigh(value);
+      }
+      segment.evictions.incrementAndGet();
+    }
+  }
+
+  private static long weigh(Object value) {
+    if (value instanceof Collection) {
+      return Math.max(1, ((Collection<?>) value).size());
+    }
+    return 1;
+  }
+
+  private static class Segment {
+    private final ReentrantLock lock = new ReentrantLock();
+    //访问顺序的LinkedHashMap,只记key,最前面的是最久未访问的
+    private final Map<Object, Object> order = new LinkedHashMap<Object, Object>(16, .75F, true);
+    private final int maxEntries;
+    private final long maxWeight;
+    private long weight;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    Segment(int maxEntries, long maxWeight) {
+      this.maxEntries = maxEntries;
+      this.maxWeight = maxWeight;
+    }
+  }
+
+}
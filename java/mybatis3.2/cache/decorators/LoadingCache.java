@@ -0,0 +1,287 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheLoader;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * 加载缓存
+ * 同一个key并发的未命中共用一次数据库加载(FutureTask),加载中的key加载完就移除,不会像BlockingCache的锁一样一直留着
+ * ttl:每个条目的存活时间(毫秒),过期后下一次读取重新加载,0表示不过期
+ * refreshAfter:条目加载超过这个时间(毫秒)后,读取时在后台线程里提前刷新,刷新完成前仍然返回旧值,0表示不刷新
+ * 代替ScheduledCache按时间整体清空,避免清空后所有key同时回源
+ * <cache loading="true" ttl="600000" refreshAfter="480000"/>
+ */
+public class LoadingCache implements Cache {
+
+  private static final Log log = LogFactory.getLog(LoadingCache.class);
+
+  private static ExecutorService defaultRefreshExecutor;
+
+  private final Cache delegate;
+  //正在加载的key,加载完成就移除
+  private final ConcurrentMap<Object, FutureTask<Object>> loads = new ConcurrentHashMap<Object, FutureTask<Object>>();
+  //clear一次加一,clear之前开始的加载不再写进缓存
+  private final AtomicLong generation = new AtomicLong();
+  private long ttl;
+  private long refreshAfter;
+  private ExecutorService refreshExecutor;
+
+  public LoadingCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    //TransactionalCache为了给BlockingCache解锁会放null,这里没有锁,不用存
+    if (value != null) {
+      delegate.putObject(key, new Entry(value, System.currentTimeMillis()));
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Entry entry = getEntry(key, System.currentTimeMillis());
+    return entry == null ? null : entry.value;
+  }
+
+  //命中直接返回(需要时在后台刷新),未命中或过期时同一个key只有一个线程调用loader,其他线程等它的结果
+  public Object getObject(Object key, CacheLoader loader) throws SQLException {
+    long now = System.currentTimeMillis();
+    Entry entry = getEntry(key, now);
+    if (entry != null) {
+      if (refreshAfter > 0 && now - entry.loadedAt >= refreshAfter) {
+        refresh(key, loader);
+      }
+      return entry.value;
+    }
+    FutureTask<Object> task = newLoadTask(key, loader, false);
+    FutureTask<Object> existing = loads.putIfAbsent(key, task);
+    if (existing == null) {
+      try {
+        task.run();
+      } finally {
+        loads.remove(key, task);
+      }
+      return waitFor(task);
+    }
+    return copyForWaiter(key, waitFor(existing));
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Object entry = delegate.removeObject(key);
+    return entry instanceof Entry ? ((Entry) entry).value : entry;
+  }
+
+  @Override
+  public void clear() {
+    generation.incrementAndGet();
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private Entry getEntry(Object key, long now) {
+    Object value = delegate.getObject(key);
+    if (!(value instanceof Entry)) {
+      return null;
+    }
+    Entry entry = (Entry) value;
+    if (ttl > 0 && now - entry.loadedAt >= ttl) {
+      return null;
+    }
+    return entry;
+  }
+
+  private void refresh(final Object key, CacheLoader loader) {
+    if (loads.containsKey(key)) {
+      return;
+    }
+    final FutureTask<Object> task = newLoadTask(key, loader, true);
+    if (loads.putIfAbsent(key, task) != null) {
+      return;
+    }
+    try {
+      getRefreshExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            loads.remove(key, task);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      loads.remove(key, task);
+    }
+  }
+
+  private FutureTask<Object> newLoadTask(final Object key, final CacheLoader loader, final boolean reload) {
+    final long startGeneration = generation.get();
+    return new FutureTask<Object>(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        Object value;
+        try {
+          value = reload ? loader.reload() : loader.load();
+        } catch (SQLException e) {
+          if (reload) {
+            log.warn("Refreshing cache entry " + key + " in cache " + getId() + " failed, keeping the old value. Cause: " + e);
+          }
+          throw e;
+        }
+        if (value != null && generation.get() == startGeneration) {
+          delegate.putObject(key, new Entry(value, System.currentTimeMillis()));
+          loader.loaded(value);
+        }
+        return value;
+      }
+    });
+  }
+
+  private Object waitFor(FutureTask<Object> task) throws SQLException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof SQLException) {
+            throw (SQLException) cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new CacheException("Error loading cache entry in cache " + getId() + ". Cause: " + cause, cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  //等别的线程加载的调用方不能和加载的线程拿同一个对象:从缓存里重新取一次(readWrite的缓存取到的是反序列化的拷贝),
+  //取不到或者取到的还是同一个对象时至少拷贝一份List
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private Object copyForWaiter(Object key, Object value) {
+    if (value == null) {
+      return null;
+    }
+    Entry entry = getEntry(key, System.currentTimeMillis());
+    if (entry != null && entry.value != value) {
+      return entry.value;
+    }
+    return value instanceof List ? new ArrayList((List) value) : value;
+  }
+
+  private ExecutorService getRefreshExecutor() {
+    if (refreshExecutor != null) {
+      return refreshExecutor;
+    }
+    synchronized (LoadingCache.class) {
+      if (defaultRefreshExecutor == null) {
+        defaultRefreshExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+          private final AtomicInteger counter = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "mybatis-cache-refresh-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
+      return defaultRefreshExecutor;
+    }
+  }
+
+  public long getTtl() {
+    return ttl;
+  }
+
+  public void setTtl(long ttl) {
+    this.ttl = ttl;
+  }
+
+  public long getRefreshAfter() {
+    return refreshAfter;
+  }
+
+  public void setRefreshAfter(long refreshAfter) {
+    this.refreshAfter = refreshAfter;
+  }
+
+  //不设置就用所有LoadingCache共用的两个守护线程
+  public void setRefreshExecutor(ExecutorService refreshExecutor) {
+    this.refreshExecutor = refreshExecutor;
+  }
+
+  //缓存里存的值,带上加载时间;readOnly=false时会被SerializedCache序列化
+  private static class Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Object value;
+    private final long loadedAt;
+
+    Entry(Object value, long loadedAt) {
+      this.value = value;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+}
@@ -18,9 +18,15 @@ public class TransactionalCache implements Cache {
   private boolean clearOnCommit;//commitʱǷ建
   private Map<Object, Object> entriesToAddOnCommit;//commitʱҪdelegate.
   private Set<Object> entriesMissedInCache;//
+  private InvalidationBus invalidationBus;//ڵʱ֪ͨĽڵ,ڵΪnull
 
   public TransactionalCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  public TransactionalCache(Cache delegate, InvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.invalidationBus = invalidationBus;
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<Object, Object>();
     this.entriesMissedInCache = new HashSet<Object>();
@@ -51,6 +57,17 @@ public class TransactionalCache implements Cache {
     }
   }
 
+  //ģʽ:LoadingCache,δйһμ,ؽֱӽ
+  //д(isCleared)ʱ÷,վgetObject/putObject,ѯcommitʱٷŽ
+  public Object getObject(Object key, CacheLoader loader) throws SQLException {
+    return ((LoadingCache) delegate).getObject(key, loader);
+  }
+
+  //ִйflushCache,commitʱջ
+  public boolean isCleared() {
+    return clearOnCommit;
+  }
+
   @Override
   public ReadWriteLock getReadWriteLock() {
     return null;
@@ -61,9 +78,10 @@ public class TransactionalCache implements Cache {
     entriesToAddOnCommit.put(key, object);
   }
 
+  //ֻﻹûύĻ
   @Override
   public Object removeObject(Object key) {
-    return null;
+    return entriesToAddOnCommit.remove(key);
   }
 
   @Override
@@ -75,6 +93,9 @@ public class TransactionalCache implements Cache {
   public void commit() {
     if (clearOnCommit) {
       delegate.clear();
+      if (invalidationBus != null) {
+        invalidationBus.flush(getId());
+      }
     }
     flushPendingEntries();
     reset();
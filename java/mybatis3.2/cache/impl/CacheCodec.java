@@ -0,0 +1,31 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+/**
+ * 缓存编解码器
+ * OffHeapCache把值编码成字节存到堆外,取出时再解码
+ * 解码出来的是新对象,所以堆外缓存天然是可读写的(相当于SerializedCache)
+ */
+public interface CacheCodec {
+
+  //编码
+  byte[] encode(Object value);
+
+  //解码
+  Object decode(byte[] bytes);
+
+}
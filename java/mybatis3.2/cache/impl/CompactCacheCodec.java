@@ -0,0 +1,272 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * 紧凑编解码器
+ * 查询结果里常见的类型(基本类型包装类,String,BigDecimal,日期,byte[],ArrayList,HashMap)用一个字节的标记加上原始数据写出
+ * 没有类描述符,比ObjectOutputStream小得多也快得多,resultType="map"这类结果基本全部走这条路
+ * 其他对象(一般是JavaBean)收集起来,最后用一个ObjectOutputStream统一序列化,类描述符只写一次
+ * 格式: [结构部分长度][结构部分][其他对象的Java序列化(可选)]
+ */
+public class CompactCacheCodec implements CacheCodec {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INTEGER = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte FLOAT = 5;
+  private static final byte SHORT = 6;
+  private static final byte BYTE = 7;
+  private static final byte BOOLEAN = 8;
+  private static final byte CHARACTER = 9;
+  private static final byte BIG_DECIMAL = 10;
+  private static final byte BIG_INTEGER = 11;
+  private static final byte DATE = 12;
+  private static final byte SQL_DATE = 13;
+  private static final byte TIME = 14;
+  private static final byte TIMESTAMP = 15;
+  private static final byte BYTES = 16;
+  private static final byte ARRAY_LIST = 17;
+  private static final byte HASH_MAP = 18;
+  private static final byte LINKED_HASH_MAP = 19;
+  //其他对象,后面跟的是在others里的下标
+  private static final byte OTHER = 20;
+
+  private final SerializationCacheCodec serializationCodec = new SerializationCacheCodec();
+
+  @Override
+  public byte[] encode(Object value) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bos);
+      List<Object> others = new ArrayList<Object>();
+      write(out, value, others);
+      out.flush();
+      byte[] structure = bos.toByteArray();
+
+      ByteArrayOutputStream result = new ByteArrayOutputStream(structure.length + 4);
+      DataOutputStream resultOut = new DataOutputStream(result);
+      resultOut.writeInt(structure.length);
+      resultOut.write(structure);
+      if (!others.isEmpty()) {
+        resultOut.write(serializationCodec.encode(others.toArray()));
+      }
+      resultOut.flush();
+      return result.toByteArray();
+    } catch (IOException e) {
+      throw new CacheException("Error encoding object.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public Object decode(byte[] bytes) {
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      int structureLength = in.readInt();
+      Object[] others = null;
+      if (bytes.length > structureLength + 4) {
+        byte[] serialized = new byte[bytes.length - structureLength - 4];
+        System.arraycopy(bytes, structureLength + 4, serialized, 0, serialized.length);
+        others = (Object[]) serializationCodec.decode(serialized);
+      }
+      return read(in, others);
+    } catch (IOException e) {
+      throw new CacheException("Error decoding object.  Cause: " + e, e);
+    }
+  }
+
+  private void write(DataOutputStream out, Object value, List<Object> others) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+      return;
+    }
+    //按类精确匹配,子类(比如延迟加载代理,自定义的List)都交给Java序列化
+    Class<?> type = value.getClass();
+    if (type == String.class) {
+      out.writeByte(STRING);
+      writeBytes(out, ((String) value).getBytes(UTF8));
+    } else if (type == Integer.class) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer) value);
+    } else if (type == Long.class) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (type == Double.class) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (type == Float.class) {
+      out.writeByte(FLOAT);
+      out.writeFloat((Float) value);
+    } else if (type == Short.class) {
+      out.writeByte(SHORT);
+      out.writeShort((Short) value);
+    } else if (type == Byte.class) {
+      out.writeByte(BYTE);
+      out.writeByte((Byte) value);
+    } else if (type == Boolean.class) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (type == Character.class) {
+      out.writeByte(CHARACTER);
+      out.writeChar((Character) value);
+    } else if (type == BigDecimal.class) {
+      BigDecimal decimal = (BigDecimal) value;
+      out.writeByte(BIG_DECIMAL);
+      out.writeInt(decimal.scale());
+      writeBytes(out, decimal.unscaledValue().toByteArray());
+    } else if (type == BigInteger.class) {
+      out.writeByte(BIG_INTEGER);
+      writeBytes(out, ((BigInteger) value).toByteArray());
+    } else if (type == Date.class) {
+      out.writeByte(DATE);
+      out.writeLong(((Date) value).getTime());
+    } else if (type == java.sql.Date.class) {
+      out.writeByte(SQL_DATE);
+      out.writeLong(((Date) value).getTime());
+    } else if (type == Time.class) {
+      out.writeByte(TIME);
+      out.writeLong(((Date) value).getTime());
+    } else if (type == Timestamp.class) {
+      Timestamp timestamp = (Timestamp) value;
+      out.writeByte(TIMESTAMP);
+      out.writeLong(timestamp.getTime());
+      out.writeInt(timestamp.getNanos());
+    } else if (type == byte[].class) {
+      out.writeByte(BYTES);
+      writeBytes(out, (byte[]) value);
+    } else if (type == ArrayList.class) {
+      List<?> list = (List<?>) value;
+      out.writeByte(ARRAY_LIST);
+      out.writeInt(list.size());
+      for (Object element : list) {
+        write(out, element, others);
+      }
+    } else if (type == HashMap.class || type == LinkedHashMap.class) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      out.writeByte(type == HashMap.class ? HASH_MAP : LINKED_HASH_MAP);
+      out.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        write(out, entry.getKey(), others);
+        write(out, entry.getValue(), others);
+      }
+    } else if (value instanceof Serializable) {
+      out.writeByte(OTHER);
+      out.writeInt(others.size());
+      others.add(value);
+    } else {
+      throw new CacheException("CompactCacheCodec failed to encode a non-serializable object: " + value);
+    }
+  }
+
+  private Object read(DataInputStream in, Object[] others) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case STRING:
+        return new String(readBytes(in), UTF8);
+      case INTEGER:
+        return in.readInt();
+      case LONG:
+        return in.readLong();
+      case DOUBLE:
+        return in.readDouble();
+      case FLOAT:
+        return in.readFloat();
+      case SHORT:
+        return in.readShort();
+      case BYTE:
+        return in.readByte();
+      case BOOLEAN:
+        return in.readBoolean();
+      case CHARACTER:
+        return in.readChar();
+      case BIG_DECIMAL:
+        int scale = in.readInt();
+        return new BigDecimal(new BigInteger(readBytes(in)), scale);
+      case BIG_INTEGER:
+        return new BigInteger(readBytes(in));
+      case DATE:
+        return new Date(in.readLong());
+      case SQL_DATE:
+        return new java.sql.Date(in.readLong());
+      case TIME:
+        return new Time(in.readLong());
+      case TIMESTAMP:
+        Timestamp timestamp = new Timestamp(in.readLong());
+        timestamp.setNanos(in.readInt());
+        return timestamp;
+      case BYTES:
+        return readBytes(in);
+      case ARRAY_LIST:
+        int size = in.readInt();
+        List<Object> list = new ArrayList<Object>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(read(in, others));
+        }
+        return list;
+      case HASH_MAP:
+      case LINKED_HASH_MAP:
+        int entries = in.readInt();
+        Map<Object, Object> map = tag == HASH_MAP ? new HashMap<Object, Object>() : new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < entries; i++) {
+          Object key = read(in, others);
+          map.put(key, read(in, others));
+        }
+        return map;
+      case OTHER:
+        return others[in.readInt()];
+      default:
+        throw new CacheException("Unknown type tag " + tag + " while decoding cached object.");
+    }
+  }
+
+  private void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+}
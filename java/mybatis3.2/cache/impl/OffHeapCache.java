@@ -0,0 +1,277 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * 堆外缓存
+ * 值用CacheCodec编码以后放在堆外的direct ByteBuffer里(一块块的slab),堆上只留key和位置信息
+ * 大的namespace缓存不再占用老年代,也不会拉长GC停顿
+ * slab按环形顺序写,总内存达到maxMemory以后复用最老的slab,上面的条目全部淘汰(按slab的FIFO)
+ * 取值时在锁内把字节拷出来,在锁外解码,每次取到的都是新对象
+ * 这是一个基础缓存实现(和PerpetualCache同级),CacheBuilder不会给它加装饰者,所以自己保证线程安全
+ * 配置方法:
+ * <cache type="OFF_HEAP">
+ *   <property name="maxMemory" value="1073741824"/>
+ *   <property name="slabSize" value="8388608"/>
+ *   <property name="codec" value="org.apache.ibatis.cache.impl.CompactCacheCodec"/>
+ * </cache>
+ */
+public class OffHeapCache implements Cache {
+
+  private static final long DEFAULT_MAX_MEMORY = 64L * 1024 * 1024;
+  private static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+  private final String id;
+  private long maxMemory = DEFAULT_MAX_MEMORY;
+  private int slabSize = DEFAULT_SLAB_SIZE;
+  private CacheCodec codec = new CompactCacheCodec();
+
+  private final Map<Object, Entry> index = new HashMap<Object, Entry>();
+  private final List<Slab> slabs = new ArrayList<Slab>();
+  //正在写的slab的下标
+  private int current = -1;
+
+  //----------以下是统计信息----------
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public synchronized int getSize() {
+    return index.size();
+  }
+
+  //以下setter只在构建缓存时调用
+  public synchronized void setMaxMemory(long maxMemory) {
+    this.maxMemory = maxMemory;
+    reset();
+  }
+
+  public synchronized void setSlabSize(int slabSize) {
+    this.slabSize = slabSize;
+    reset();
+  }
+
+  public synchronized void setCodec(String codecType) {
+    try {
+      this.codec = (CacheCodec) Resources.classForName(codecType).newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error creating cache codec '" + codecType + "'.  Cause: " + e, e);
+    }
+    reset();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    //编码在锁外做
+    byte[] bytes = codec.encode(value);
+    synchronized (this) {
+      index.remove(key);
+      //比一块slab还大的值不缓存
+      if (bytes.length > slabSize) {
+        return;
+      }
+      Slab slab = slabFor(bytes.length);
+      ByteBuffer buffer = slab.buffer.duplicate();
+      buffer.position(slab.used);
+      buffer.put(bytes);
+      index.put(key, new Entry(slab, slab.used, bytes.length));
+      slab.keys.add(key);
+      slab.used += bytes.length;
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    byte[] bytes;
+    synchronized (this) {
+      Entry entry = index.get(key);
+      if (entry == null) {
+        misses++;
+        return null;
+      }
+      hits++;
+      bytes = new byte[entry.length];
+      ByteBuffer buffer = entry.slab.buffer.duplicate();
+      buffer.position(entry.offset);
+      buffer.get(bytes);
+    }
+    //解码在锁外做
+    return codec.decode(bytes);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    byte[] bytes;
+    synchronized (this) {
+      Entry entry = index.remove(key);
+      if (entry == null) {
+        return null;
+      }
+      bytes = new byte[entry.length];
+      ByteBuffer buffer = entry.slab.buffer.duplicate();
+      buffer.position(entry.offset);
+      buffer.get(bytes);
+    }
+    return codec.decode(bytes);
+  }
+
+  @Override
+  public synchronized void clear() {
+    index.clear();
+    //slab留着复用,只是从头开始写
+    for (Slab slab : slabs) {
+      slab.reset();
+    }
+    current = slabs.isEmpty() ? -1 : 0;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  //已经分配的堆外内存
+  public synchronized long getAllocatedMemory() {
+    return (long) slabs.size() * slabSize;
+  }
+
+  //找一块放得下的slab,当前的满了就换下一块;没达到内存上限就新分配,否则复用最老的一块
+  private Slab slabFor(int length) {
+    if (current >= 0 && slabs.get(current).remaining() >= length) {
+      return slabs.get(current);
+    }
+    int maxSlabs = (int) Math.max(1, maxMemory / slabSize);
+    if (slabs.size() < maxSlabs) {
+      slabs.add(new Slab(ByteBuffer.allocateDirect(slabSize)));
+      current = slabs.size() - 1;
+    } else {
+      current = (current + 1) % slabs.size();
+      evict(slabs.get(current));
+    }
+    return slabs.get(current);
+  }
+
+  //淘汰一块slab上的所有条目
+  private void evict(Slab slab) {
+    for (Object key : slab.keys) {
+      Entry entry = index.get(key);
+      //同一个key后来可能写到了别的slab上,只删指向这块slab的
+      if (entry != null && entry.slab == slab) {
+        index.remove(key);
+        evictions++;
+      }
+    }
+    slab.reset();
+  }
+
+  //重新设置内存参数时,已分配的slab全部丢掉
+  private void reset() {
+    index.clear();
+    slabs.clear();
+    current = -1;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private static class Slab {
+    private final ByteBuffer buffer;
+    //已经写到的位置
+    private int used;
+    //写在这块slab上的key(可能已经被覆盖或删除)
+    private final List<Object> keys = new ArrayList<Object>();
+
+    Slab(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    int remaining() {
+      return buffer.capacity() - used;
+    }
+
+    void reset() {
+      used = 0;
+      keys.clear();
+    }
+  }
+
+  private static class Entry {
+    private final Slab slab;
+    private final int offset;
+    private final int length;
+
+    Entry(Slab slab, int offset, int length) {
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+}
@@ -0,0 +1,221 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor.defaults;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetWrapper;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * This is the default implementation of a MyBatis Cursor.
+ * This implementation is not thread safe.
+ */
+/**
+ * 默认的游标
+ * 每次next都让DefaultResultSetHandler往下处理,处理出一个对象就停下来(ResultContext.stop)
+ * 嵌套结果映射时,一个父对象要等到它的那组行结束(下一个父对象开始)才会返回
+ * 游标关闭时同时关闭ResultSet和Statement
+ */
+public class DefaultCursor<T> implements Cursor<T> {
+
+  // ResultSetHandler stuff
+  private final DefaultResultSetHandler resultSetHandler;
+  private final ResultMap resultMap;
+  private final ResultSetWrapper rsw;
+  private final RowBounds rowBounds;
+  private final ObjectWrapperResultHandler<T> objectWrapperResultHandler = new ObjectWrapperResultHandler<T>();
+
+  private final CursorIterator cursorIterator = new CursorIterator();
+  private boolean iteratorRetrieved;
+
+  private CursorStatus status = CursorStatus.CREATED;
+  //已经取出的对象的下标
+  private int indexWithRowBound = -1;
+
+  private enum CursorStatus {
+
+    /**
+     * A freshly created cursor, database ResultSet consuming has not started
+     */
+    CREATED,
+    /**
+     * A cursor currently in use, database ResultSet consuming has started
+     */
+    OPEN,
+    /**
+     * A closed cursor, not fully consumed
+     */
+    CLOSED,
+    /**
+     * A fully consumed cursor, a consumed cursor is always closed
+     */
+    CONSUMED
+  }
+
+  //RowBounds的offset在创建游标之前已经跳过了,这里只需要处理limit
+  public DefaultCursor(DefaultResultSetHandler resultSetHandler, ResultMap resultMap, ResultSetWrapper rsw, RowBounds rowBounds) {
+    this.resultSetHandler = resultSetHandler;
+    this.resultMap = resultMap;
+    this.rsw = rsw;
+    this.rowBounds = rowBounds;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return status == CursorStatus.OPEN;
+  }
+
+  @Override
+  public boolean isConsumed() {
+    return status == CursorStatus.CONSUMED;
+  }
+
+  @Override
+  public int getCurrentIndex() {
+    return indexWithRowBound;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    //只能取一次迭代器,因为背后的ResultSet只能往前走
+    if (iteratorRetrieved) {
+      throw new IllegalStateException("Cannot open more than one iterator on a Cursor");
+    }
+    if (isClosed()) {
+      throw new IllegalStateException("A Cursor is already closed.");
+    }
+    iteratorRetrieved = true;
+    return cursorIterator;
+  }
+
+  @Override
+  public void close() {
+    if (isClosed()) {
+      return;
+    }
+    status = CursorStatus.CLOSED;
+    if (rsw == null) {
+      return;
+    }
+    ResultSet rs = rsw.getResultSet();
+    try {
+      Statement statement = rs.getStatement();
+      rs.close();
+      if (statement != null) {
+        statement.close();
+      }
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  protected T fetchNextObjectFromDatabase() {
+    if (isClosed()) {
+      return null;
+    }
+    if (rsw == null || indexWithRowBound + 1 >= rowBounds.getLimit()) {
+      close();
+      status = CursorStatus.CONSUMED;
+      return null;
+    }
+    try {
+      status = CursorStatus.OPEN;
+      resultSetHandler.handleRowValues(rsw, resultMap, objectWrapperResultHandler, RowBounds.DEFAULT, null);
+    } catch (SQLException e) {
+      throw new ExecutorException("Error fetching next object from cursor.  Cause: " + e, e);
+    }
+
+    T next = objectWrapperResultHandler.result;
+    boolean fetched = objectWrapperResultHandler.fetched;
+    objectWrapperResultHandler.result = null;
+    objectWrapperResultHandler.fetched = false;
+    if (fetched) {
+      indexWithRowBound++;
+    } else {
+      //ResultSet已经读完了
+      close();
+      status = CursorStatus.CONSUMED;
+    }
+    return next;
+  }
+
+  private boolean isClosed() {
+    return status == CursorStatus.CLOSED || status == CursorStatus.CONSUMED;
+  }
+
+  //每处理出一个对象就停下来,把对象交给游标
+  private static class ObjectWrapperResultHandler<T> implements ResultHandler {
+
+    private T result;
+    private boolean fetched;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void handleResult(ResultContext context) {
+      this.result = (T) context.getResultObject();
+      this.fetched = true;
+      context.stop();
+    }
+  }
+
+  private class CursorIterator implements Iterator<T> {
+
+    /**
+     * Holder for the next object to be returned
+     */
+    private T object;
+    //object里是否已经预取了一个对象(对象本身可能是null)
+    private boolean prefetched;
+
+    @Override
+    public boolean hasNext() {
+      if (!prefetched && !isClosed()) {
+        object = fetchNextObjectFromDatabase();
+        //取到对象时游标仍然是OPEN状态,读完了则变成CONSUMED
+        prefetched = !isClosed();
+      }
+      return prefetched;
+    }
+
+    @Override
+    public T next() {
+      if (hasNext()) {
+        T next = object;
+        object = null;
+        prefetched = false;
+        return next;
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Cannot remove element from Cursor");
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁连接池的池状态
+ * 统计信息都换成了原子计数器,读取时不需要拿PoolState的锁
+ * idleConnections和activeConnections两个列表在这里不使用,连接数由计数器维护
+ */
+public class ConcurrentPoolState extends PoolState {
+
+  //空闲连接数
+  protected final AtomicInteger idleConnectionCount = new AtomicInteger();
+  //活动连接数
+  protected final AtomicInteger activeConnectionCount = new AtomicInteger();
+  //----------以下是一些统计信息----------
+  protected final AtomicLong requestCounter = new AtomicLong();
+  protected final AtomicLong accumulatedRequestTimeCounter = new AtomicLong();
+  protected final AtomicLong accumulatedCheckoutTimeCounter = new AtomicLong();
+  protected final AtomicLong claimedOverdueConnectionCounter = new AtomicLong();
+  protected final AtomicLong accumulatedCheckoutTimeOfOverdueConnectionsCounter = new AtomicLong();
+  protected final AtomicLong accumulatedWaitTimeCounter = new AtomicLong();
+  protected final AtomicLong hadToWaitCounter = new AtomicLong();
+  protected final AtomicLong badConnectionCounter = new AtomicLong();
+
+  public ConcurrentPoolState(PooledDataSource dataSource) {
+    super(dataSource);
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requestCounter.get();
+  }
+
+  @Override
+  public long getAverageRequestTime() {
+    long count = requestCounter.get();
+    return count == 0 ? 0 : accumulatedRequestTimeCounter.get() / count;
+  }
+
+  @Override
+  public long getAverageWaitTime() {
+    long count = hadToWaitCounter.get();
+    return count == 0 ? 0 : accumulatedWaitTimeCounter.get() / count;
+  }
+
+  @Override
+  public long getHadToWaitCount() {
+    return hadToWaitCounter.get();
+  }
+
+  @Override
+  public long getBadConnectionCount() {
+    return badConnectionCounter.get();
+  }
+
+  @Override
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCounter.get();
+  }
+
+  @Override
+  public long getAverageOverdueCheckoutTime() {
+    long count = claimedOverdueConnectionCounter.get();
+    return count == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnectionsCounter.get() / count;
+  }
+
+  @Override
+  public long getAverageCheckoutTime() {
+    long count = requestCounter.get();
+    return count == 0 ? 0 : accumulatedCheckoutTimeCounter.get() / count;
+  }
+
+  @Override
+  public int getIdleConnectionCount() {
+    return idleConnectionCount.get();
+  }
+
+  @Override
+  public int getActiveConnectionCount() {
+    return activeConnectionCount.get();
+  }
+
+}
@@ -0,0 +1,472 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * 无锁的连接池
+ * PooledDataSource的pop/push都在synchronized (state)上串行,并发高时这个锁竞争很厉害
+ * 这里换成了一个并发的连接袋(bag):
+ * 1.每个线程先从自己最近归还的连接里拿(线程亲和,基本不会冲突)
+ * 2.再扫描所有连接,用CAS抢一个空闲的
+ * 3.都没有就新建,或者回收超时的连接,再不行就在SynchronousQueue上排队等待
+ * 归还时先放回空闲状态,如果有人在等,再把连接交给等待最久的线程(公平交接),不会被新来的线程插队
+ * 配置方式:<dataSource type="POOLED"><property name="poolType" value="CONCURRENT"/>...
+ */
+public class ConcurrentPooledDataSource extends PooledDataSource {
+
+  private static final Log log = LogFactory.getLog(ConcurrentPooledDataSource.class);
+
+  private static final int STATE_REMOVED = -1;
+  private static final int STATE_NOT_IN_USE = 0;
+  private static final int STATE_IN_USE = 1;
+
+  //每个线程最多记住几个最近归还的连接
+  private static final int MAX_THREAD_LOCAL_ENTRIES = 16;
+  //归还连接时等待交接,每自旋256次park一下的时间
+  private static final long HANDOFF_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+  private final ConcurrentPoolState state = new ConcurrentPoolState(this);
+
+  //池里所有的连接(空闲的和活动的),读多写少,用CopyOnWriteArrayList
+  private final CopyOnWriteArrayList<PoolEntry> sharedList = new CopyOnWriteArrayList<PoolEntry>();
+  //真正的连接 -> PoolEntry,归还时用来找到对应的entry
+  private final ConcurrentHashMap<Connection, PoolEntry> entries = new ConcurrentHashMap<Connection, PoolEntry>();
+  //当前线程最近归还的连接
+  private final ThreadLocal<List<PoolEntry>> threadList = new ThreadLocal<List<PoolEntry>>() {
+    @Override
+    protected List<PoolEntry> initialValue() {
+      return new ArrayList<PoolEntry>(MAX_THREAD_LOCAL_ENTRIES);
+    }
+  };
+  //公平模式的SynchronousQueue,等待的线程按先来后到拿到归还的连接
+  private final SynchronousQueue<PoolEntry> handoffQueue = new SynchronousQueue<PoolEntry>(true);
+  //正在等待的线程数
+  private final AtomicInteger waiters = new AtomicInteger();
+  //总连接数(空闲+活动),用来限制poolMaximumActiveConnections
+  private final AtomicInteger totalConnections = new AtomicInteger();
+
+  public ConcurrentPooledDataSource() {
+    super();
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, String username, String password) {
+    super(driver, url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, Properties driverProperties) {
+    super(driver, url, driverProperties);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, String username, String password) {
+    super(driverClassLoader, driver, url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, Properties driverProperties) {
+    super(driverClassLoader, driver, url, driverProperties);
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return popConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return popConnection(username, password).getProxyConnection();
+  }
+
+  @Override
+  public PoolState getPoolState() {
+    return state;
+  }
+
+  /*
+   * Closes all active and idle connections in the pool
+   */
+  @Override
+  public void forceCloseAll() {
+    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    for (PoolEntry entry : sharedList) {
+      removeEntry(entry);
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("ConcurrentPooledDataSource forcefully closed/removed all connections.");
+    }
+  }
+
+  @Override
+  protected void pushConnection(PooledConnection conn) throws SQLException {
+    PoolEntry entry = entries.get(conn.getRealConnection());
+    //entry不在了(forceCloseAll)或者连接已经被别人回收(overdue),都当作坏连接
+    if (entry == null || !entry.borrowed.compareAndSet(conn, null)) {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCounter.incrementAndGet();
+      return;
+    }
+    state.activeConnectionCount.decrementAndGet();
+    if (!conn.isValid()) {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCounter.incrementAndGet();
+      removeEntry(entry);
+      return;
+    }
+    state.accumulatedCheckoutTimeCounter.addAndGet(conn.getCheckoutTime());
+    try {
+      if (!conn.getRealConnection().getAutoCommit()) {
+        conn.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      removeEntry(entry);
+      throw e;
+    }
+    entry.lastUsedTimestamp = conn.getLastUsedTimestamp();
+    conn.invalidate();
+    if (conn.getConnectionTypeCode() != expectedConnectionTypeCode) {
+      removeEntry(entry);
+      if (log.isDebugEnabled()) {
+        log.debug("Closed connection " + conn.getRealHashCode() + ".");
+      }
+      return;
+    }
+    if (reserveIdleSlot()) {
+      //先放回空闲状态再看有没有线程在等:等待的线程排上队以后会再扫一遍,这样不会两边都错过
+      entry.state.set(STATE_NOT_IN_USE);
+      if (handOff(entry)) {
+        if (log.isDebugEnabled()) {
+          log.debug("Handed off connection " + conn.getRealHashCode() + " to a waiting thread.");
+        }
+        return;
+      }
+      rememberInThread(entry);
+      if (log.isDebugEnabled()) {
+        log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
+      }
+    } else {
+      //空闲的连接已经足够了,关掉
+      removeEntry(entry);
+      if (log.isDebugEnabled()) {
+        log.debug("Closed connection " + conn.getRealHashCode() + ".");
+      }
+    }
+  }
+
+  private PooledConnection popConnection(String username, String password) throws SQLException {
+    boolean countedWait = false;
+    long t = System.currentTimeMillis();
+    int localBadConnectionCount = 0;
+
+    while (true) {
+      PooledConnection conn = null;
+      PoolEntry entry = reserveIdleEntry();
+      if (entry != null) {
+        conn = entry.newPooledConnection(this);
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+        }
+      } else if ((entry = createEntry()) != null) {
+        conn = entry.newPooledConnection(this);
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + conn.getRealHashCode() + ".");
+        }
+      } else if ((entry = claimOverdueEntry()) != null) {
+        conn = entry.newPooledConnection(this);
+        if (log.isDebugEnabled()) {
+          log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+        }
+      } else {
+        // Must wait
+        if (!countedWait) {
+          state.hadToWaitCounter.incrementAndGet();
+          countedWait = true;
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+        }
+        long wt = System.currentTimeMillis();
+        waiters.incrementAndGet();
+        try {
+          //排上队以后再扫一遍,防止在排队前刚好有连接被放回了空闲状态
+          entry = reserveSharedEntry();
+          long remaining = poolTimeToWait;
+          while (entry == null && remaining > 0) {
+            PoolEntry offered = handoffQueue.poll(remaining, TimeUnit.MILLISECONDS);
+            if (offered == null) {
+              break;
+            }
+            //交过来的连接是空闲状态,可能已经被别的线程抢走了,抢不到就接着等
+            if (reserve(offered)) {
+              entry = offered;
+            } else {
+              remaining = poolTimeToWait - (System.currentTimeMillis() - wt);
+            }
+          }
+        } catch (InterruptedException e) {
+          break;
+        } finally {
+          waiters.decrementAndGet();
+          state.accumulatedWaitTimeCounter.addAndGet(System.currentTimeMillis() - wt);
+        }
+        if (entry == null) {
+          //等超时了,再从头试一遍(可能可以回收超时的连接了)
+          continue;
+        }
+        conn = entry.newPooledConnection(this);
+      }
+
+      if (conn.isValid()) {
+        try {
+          if (!conn.getRealConnection().getAutoCommit()) {
+            conn.getRealConnection().rollback();
+          }
+        } catch (SQLException e) {
+          removeEntry(entry);
+          throw e;
+        }
+        conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+        conn.setCheckoutTimestamp(System.currentTimeMillis());
+        conn.setLastUsedTimestamp(System.currentTimeMillis());
+        entry.borrowed.set(conn);
+        state.activeConnectionCount.incrementAndGet();
+        state.requestCounter.incrementAndGet();
+        state.accumulatedRequestTimeCounter.addAndGet(System.currentTimeMillis() - t);
+        return conn;
+      }
+
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+      }
+      state.badConnectionCounter.incrementAndGet();
+      localBadConnectionCount++;
+      removeEntry(entry);
+      if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+        if (log.isDebugEnabled()) {
+          log.debug("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+        }
+        throw new SQLException("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+      }
+    }
+
+    if (log.isDebugEnabled()) {
+      log.debug("ConcurrentPooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    }
+    throw new SQLException("ConcurrentPooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+  }
+
+  //先找本线程最近用过的连接,再扫描整个池,CAS抢到一个空闲连接
+  private PoolEntry reserveIdleEntry() {
+    List<PoolEntry> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) {
+      PoolEntry entry = list.remove(i);
+      if (reserve(entry)) {
+        return entry;
+      }
+    }
+    //有线程在排队时,新来的线程不从共享列表里抢,保证等待的线程公平
+    if (waiters.get() > 0) {
+      return null;
+    }
+    return reserveSharedEntry();
+  }
+
+  private PoolEntry reserveSharedEntry() {
+    for (PoolEntry entry : sharedList) {
+      if (reserve(entry)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  //CAS把空闲连接改成IN_USE,抢到的线程负责减空闲数
+  private boolean reserve(PoolEntry entry) {
+    if (entry.state.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+      state.idleConnectionCount.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  //空闲连接数没到上限时占一个名额
+  private boolean reserveIdleSlot() {
+    while (true) {
+      int idle = state.idleConnectionCount.get();
+      if (idle >= poolMaximumIdleConnections) {
+        return false;
+      }
+      if (state.idleConnectionCount.compareAndSet(idle, idle + 1)) {
+        return true;
+      }
+    }
+  }
+
+  //把已经放回空闲状态的连接交给等待的线程,只要还有线程在等,就一直交到连接被拿走(交接成功或被别的线程抢走)
+  //等待者从waiters+1到开始poll之间有一个很短的窗口,这里让出CPU等它就位,等得久了就短暂park
+  private boolean handOff(PoolEntry entry) {
+    for (int i = 0; waiters.get() > 0; i++) {
+      if (entry.state.get() != STATE_NOT_IN_USE || handoffQueue.offer(entry)) {
+        return true;
+      }
+      if ((i & 0xff) == 0xff) {
+        LockSupport.parkNanos(HANDOFF_PARK_NANOS);
+      } else {
+        Thread.yield();
+      }
+    }
+    return false;
+  }
+
+  //连接数还没到上限,新建一个连接
+  private PoolEntry createEntry() throws SQLException {
+    while (true) {
+      int total = totalConnections.get();
+      if (total >= poolMaximumActiveConnections) {
+        return null;
+      }
+      if (totalConnections.compareAndSet(total, total + 1)) {
+        break;
+      }
+    }
+    Connection realConnection;
+    try {
+      realConnection = dataSource.getConnection();
+    } catch (SQLException e) {
+      totalConnections.decrementAndGet();
+      throw e;
+    } catch (RuntimeException e) {
+      totalConnections.decrementAndGet();
+      throw e;
+    }
+    PoolEntry entry = new PoolEntry(realConnection, newStatementCache(realConnection));
+    entries.put(realConnection, entry);
+    sharedList.add(entry);
+    return entry;
+  }
+
+  //找一个checkout时间过长的连接,强制回收
+  private PoolEntry claimOverdueEntry() throws SQLException {
+    for (PoolEntry entry : sharedList) {
+      PooledConnection oldest = entry.borrowed.get();
+      if (oldest == null) {
+        continue;
+      }
+      long longestCheckoutTime = oldest.getCheckoutTime();
+      if (longestCheckoutTime > poolMaximumCheckoutTime && entry.borrowed.compareAndSet(oldest, null)) {
+        state.activeConnectionCount.decrementAndGet();
+        state.claimedOverdueConnectionCounter.incrementAndGet();
+        state.accumulatedCheckoutTimeOfOverdueConnectionsCounter.addAndGet(longestCheckoutTime);
+        state.accumulatedCheckoutTimeCounter.addAndGet(longestCheckoutTime);
+        oldest.invalidate();
+        try {
+          if (!entry.realConnection.getAutoCommit()) {
+            entry.realConnection.rollback();
+          }
+        } catch (SQLException e) {
+          removeEntry(entry);
+          throw e;
+        }
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private void rememberInThread(PoolEntry entry) {
+    List<PoolEntry> list = threadList.get();
+    if (list.size() >= MAX_THREAD_LOCAL_ENTRIES) {
+      list.remove(0);
+    }
+    list.add(entry);
+  }
+
+  //把连接从池中移除并关闭
+  private void removeEntry(PoolEntry entry) {
+    int previous = entry.state.getAndSet(STATE_REMOVED);
+    if (previous == STATE_REMOVED) {
+      return;
+    }
+    if (previous == STATE_NOT_IN_USE) {
+      state.idleConnectionCount.decrementAndGet();
+    }
+    sharedList.remove(entry);
+    entries.remove(entry.realConnection, entry);
+    totalConnections.decrementAndGet();
+    PooledConnection borrowed = entry.borrowed.getAndSet(null);
+    if (borrowed != null) {
+      borrowed.invalidate();
+      state.activeConnectionCount.decrementAndGet();
+    }
+    try {
+      Connection realConn = entry.realConnection;
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
+  /**
+   * 池中的一个真正的连接
+   * 每次借出都会new一个PooledConnection包装它,这样归还后旧的代理就失效了(和PooledDataSource一样)
+   */
+  private static class PoolEntry {
+
+    private final Connection realConnection;
+    private final AtomicInteger state = new AtomicInteger(STATE_IN_USE);
+    //当前借出的PooledConnection,没借出时为null
+    private final AtomicReference<PooledConnection> borrowed = new AtomicReference<PooledConnection>();
+    private final long createdTimestamp;
+    private volatile long lastUsedTimestamp;
+    //跟着真正的连接走的语句缓存
+    private final StatementCache statementCache;
+
+    PoolEntry(Connection realConnection, StatementCache statementCache) {
+      this.realConnection = realConnection;
+      this.statementCache = statementCache;
+      this.createdTimestamp = System.currentTimeMillis();
+      this.lastUsedTimestamp = createdTimestamp;
+    }
+
+    PooledConnection newPooledConnection(PooledDataSource dataSource) {
+      PooledConnection conn = new PooledConnection(realConnection, dataSource, statementCache);
+      conn.setCreatedTimestamp(createdTimestamp);
+      conn.setLastUsedTimestamp(lastUsedTimestamp);
+      return conn;
+    }
+  }
+
+}
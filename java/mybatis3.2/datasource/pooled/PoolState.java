@@ -17,6 +17,7 @@ package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Clinton Begin
@@ -46,6 +47,9 @@ public class PoolState {
   protected long hadToWaitCount = 0;
   //坏的连接次数
   protected long badConnectionCount = 0;
+  //预编译语句缓存的命中/未命中次数,在连接上prepare时更新,不拿PoolState的锁
+  protected final AtomicLong statementCacheHitCounter = new AtomicLong();
+  protected final AtomicLong statementCacheMissCounter = new AtomicLong();
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
@@ -85,6 +89,14 @@ public class PoolState {
   }
 
 
+  public long getStatementCacheHitCount() {
+    return statementCacheHitCounter.get();
+  }
+
+  public long getStatementCacheMissCount() {
+    return statementCacheMissCounter.get();
+  }
+
   public synchronized int getIdleConnectionCount() {
     return idleConnections.size();
   }
@@ -109,6 +121,7 @@ public class PoolState {
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolStatementCacheSize         ").append(dataSource.poolStatementCacheSize);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
@@ -120,6 +133,8 @@ public class PoolState {
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n statementCacheHits             ").append(getStatementCacheHitCount());
+    builder.append("\n statementCacheMisses           ").append(getStatementCacheMissCount());
     builder.append("\n===============================================================");
     return builder.toString();
   }
@@ -32,6 +32,8 @@ import org.apache.ibatis.reflection.ExceptionUtil;
 class PooledConnection implements InvocationHandler {
 
   private static final String CLOSE = "close";
+  private static final String PREPARE_STATEMENT = "prepareStatement";
+  private static final String PREPARE_CALL = "prepareCall";
   private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
 
   private int hashCode = 0;
@@ -45,6 +47,8 @@ class PooledConnection implements InvocationHandler {
   private long lastUsedTimestamp;
   private int connectionTypeCode;
   private boolean valid;
+  //真正的连接上的预编译语句缓存,没开启时为null
+  private final StatementCache statementCache;
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -53,6 +57,19 @@ class PooledConnection implements InvocationHandler {
    * @param dataSource - the dataSource that the connection is from
    */
   public PooledConnection(Connection connection, PooledDataSource dataSource) {
+    this(connection, dataSource, dataSource.newStatementCache(connection));
+  }
+
+  /*
+   * Constructor that keeps using the statement cache of a previous PooledConnection
+   * that wrapped the same real connection
+   *
+   * @param connection - the connection that is to be presented as a pooled connection
+   * @param dataSource - the dataSource that the connection is from
+   * @param statementCache - the statement cache of the real connection (may be null)
+   */
+  public PooledConnection(Connection connection, PooledDataSource dataSource, StatementCache statementCache) {
+    this.statementCache = statementCache;
     this.hashCode = connection.hashCode();
     this.realConnection = connection;
     this.dataSource = dataSource;
@@ -96,6 +113,15 @@ class PooledConnection implements InvocationHandler {
     return proxyConnection;
   }
 
+  /*
+   * Getter for the statement cache of the real connection
+   *
+   * @return The statement cache (or null if statement caching is disabled)
+   */
+  public StatementCache getStatementCache() {
+    return statementCache;
+  }
+
   /*
    * Gets the hashcode of the real connection (or 0 if it is null)
    *
@@ -248,6 +274,10 @@ class PooledConnection implements InvocationHandler {
           // throw an SQLException instead of a Runtime
         	//除了toString()方法，其他方法调用之前要检查connection是否还是合法的,不合法要抛出SQLException
           checkConnection();
+          //prepareStatement/prepareCall先找语句缓存
+          if (statementCache != null && (PREPARE_STATEMENT.equals(methodName) || PREPARE_CALL.equals(methodName))) {
+            return statementCache.prepare(this, method, args);
+          }
         }
         //其他的方法，则交给真正的connection去调用
         return method.invoke(realConnection, args);
@@ -52,7 +52,7 @@ public class PooledDataSource implements DataSource {
   private final PoolState state = new PoolState(this);
 
   //里面有一个UnpooledDataSource
-  private final UnpooledDataSource dataSource;
+  protected final UnpooledDataSource dataSource;
 
   // OPTIONAL CONFIGURATION FIELDS
   //正在使用连接的数量
@@ -69,8 +69,10 @@ public class PooledDataSource implements DataSource {
   protected boolean poolPingEnabled = false;
   //用来配置 poolPingQuery 多次时间被用一次
   protected int poolPingConnectionsNotUsedFor = 0;
+  //每个连接最多缓存多少个预编译语句,0表示不缓存
+  protected int poolStatementCacheSize = 0;
 
-  private int expectedConnectionTypeCode;
+  protected int expectedConnectionTypeCode;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -234,6 +236,26 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * The maximum number of prepared statements cached per connection.
+   * Cached statements live as long as the real connection, across sessions.
+   *
+   * @param poolStatementCacheSize the number of statements, 0 disables caching
+   */
+  public void setPoolStatementCacheSize(int poolStatementCacheSize) {
+    this.poolStatementCacheSize = poolStatementCacheSize;
+    forceCloseAll();
+  }
+
+  public int getPoolStatementCacheSize() {
+    return poolStatementCacheSize;
+  }
+
+  //给一个新的真正的连接建语句缓存
+  protected StatementCache newStatementCache(Connection realConnection) {
+    return poolStatementCacheSize > 0 ? new StatementCache(realConnection, poolStatementCacheSize, getPoolState()) : null;
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -335,7 +357,7 @@ public class PooledDataSource implements DataSource {
     return state;
   }
 
-  private int assembleConnectionTypeCode(String url, String username, String password) {
+  protected int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
 
@@ -352,7 +374,7 @@ public class PooledDataSource implements DataSource {
             conn.getRealConnection().rollback();
           }
           //new一个新的Connection，加入到idle列表
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this, conn.getStatementCache());
           state.idleConnections.add(newConn);
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
           newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
@@ -428,7 +450,7 @@ public class PooledDataSource implements DataSource {
                 oldestActiveConnection.getRealConnection().rollback();
               }
               //删掉最老的连接，然后再new一个新连接
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this, oldestActiveConnection.getStatementCache());
               oldestActiveConnection.invalidate();
               if (log.isDebugEnabled()) {
                 log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
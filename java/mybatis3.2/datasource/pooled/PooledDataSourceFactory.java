@@ -15,6 +15,9 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
+import java.util.Properties;
+
+import org.apache.ibatis.datasource.DataSourceException;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 
 /**
@@ -26,9 +29,30 @@ import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
  */
 public class PooledDataSourceFactory extends UnpooledDataSourceFactory {
 
+  //连接池的实现,默认是PooledDataSource(一把大锁),CONCURRENT是无锁的ConcurrentPooledDataSource
+  private static final String POOL_TYPE_PROPERTY = "poolType";
+
   //数据源换成了PooledDataSource
   public PooledDataSourceFactory() {
     this.dataSource = new PooledDataSource();
   }
 
+  @Override
+  public void setProperties(Properties properties) {
+    Properties poolProperties = properties;
+    String poolType = properties.getProperty(POOL_TYPE_PROPERTY);
+    if (poolType != null) {
+      if ("CONCURRENT".equalsIgnoreCase(poolType)) {
+        this.dataSource = new ConcurrentPooledDataSource();
+      } else if (!"DEFAULT".equalsIgnoreCase(poolType)) {
+        throw new DataSourceException("Unknown pool type: " + poolType + ". Supported types are DEFAULT and CONCURRENT.");
+      }
+      //poolType不是数据源的属性,拿掉以后再交给父类设置
+      poolProperties = new Properties();
+      poolProperties.putAll(properties);
+      poolProperties.remove(POOL_TYPE_PROPERTY);
+    }
+    super.setProperties(poolProperties);
+  }
+
 }
@@ -0,0 +1,300 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * 预编译语句缓存
+ * 每个真正的连接一个,跟着连接在池里流转(连接归还时new出来的PooledConnection会接着用同一个缓存),
+ * 所以SqlSession关闭以后语句还在,下一个拿到这个连接的会话再prepare同样的SQL时直接复用
+ * prepareStatement/prepareCall返回的是一个代理,close()时不真正关闭,而是清掉参数放回缓存
+ * 按LRU淘汰,同一条语句正在被用时再次prepare会新建一个不缓存的语句
+ */
+class StatementCache {
+
+  private static final String CLOSE = "close";
+  private static final String IS_CLOSED = "isClosed";
+  private static final String GET_CONNECTION = "getConnection";
+  private static final String GET_STATEMENT = "getStatement";
+
+  private static final Constructor<?> PREPARED_STATEMENT_PROXY = proxyConstructor(PreparedStatement.class);
+  private static final Constructor<?> CALLABLE_STATEMENT_PROXY = proxyConstructor(CallableStatement.class);
+  private static final Constructor<?> RESULT_SET_PROXY = proxyConstructor(ResultSet.class);
+
+  private final Connection realConnection;
+  private final int maxSize;
+  private final PoolState poolState;
+  //访问顺序的LinkedHashMap,最前面的是最久未使用的
+  private final Map<StatementKey, CachedStatement> statements = new LinkedHashMap<StatementKey, CachedStatement>(16, .75F, true);
+
+  StatementCache(Connection realConnection, int maxSize, PoolState poolState) {
+    this.realConnection = realConnection;
+    this.maxSize = maxSize;
+    this.poolState = poolState;
+  }
+
+  //method是Connection.prepareStatement或prepareCall的某个重载
+  Statement prepare(PooledConnection owner, Method method, Object[] args) throws Throwable {
+    StatementKey key = new StatementKey(method.getName(), args);
+    CachedStatement cached;
+    synchronized (this) {
+      cached = statements.get(key);
+      if (cached != null && !cached.inUse) {
+        cached.inUse = true;
+        poolState.statementCacheHitCounter.incrementAndGet();
+        return cached.newHandle(owner);
+      }
+    }
+    poolState.statementCacheMissCounter.incrementAndGet();
+    Statement statement = (Statement) invoke(realConnection, method, args);
+    if (cached != null) {
+      //正在被用,这次不缓存
+      return statement;
+    }
+    try {
+      cached = new CachedStatement(key, statement, statement instanceof CallableStatement);
+    } catch (SQLException e) {
+      //取不到语句的初始设置,就不缓存了
+      return statement;
+    }
+    synchronized (this) {
+      if (statements.containsKey(key)) {
+        return statement;
+      }
+      statements.put(key, cached);
+      evictIfNeeded();
+      return cached.newHandle(owner);
+    }
+  }
+
+  int size() {
+    synchronized (this) {
+      return statements.size();
+    }
+  }
+
+  //淘汰最久未使用的,正在用的先标记,还回来时再关闭
+  private void evictIfNeeded() {
+    Iterator<CachedStatement> iterator = statements.values().iterator();
+    while (statements.size() > maxSize && iterator.hasNext()) {
+      CachedStatement eldest = iterator.next();
+      iterator.remove();
+      eldest.evicted = true;
+      if (!eldest.inUse) {
+        eldest.closeQuietly();
+      }
+    }
+  }
+
+  private void release(CachedStatement cached) {
+    boolean reusable = !cached.evicted;
+    if (reusable) {
+      try {
+        cached.reset();
+      } catch (SQLException e) {
+        reusable = false;
+      }
+    }
+    synchronized (this) {
+      cached.inUse = false;
+      if (!reusable && statements.get(cached.key) == cached) {
+        statements.remove(cached.key);
+      }
+    }
+    if (!reusable) {
+      cached.closeQuietly();
+    }
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+  private static Constructor<?> proxyConstructor(Class<?> type) {
+    try {
+      return Proxy.getProxyClass(type.getClassLoader(), type).getConstructor(InvocationHandler.class);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException("Cannot create statement proxy class for " + type.getName(), e);
+    }
+  }
+
+  /**
+   * 缓存的key: 方法名加上全部参数(SQL,结果集类型,自动生成键的列等)
+   */
+  private static class StatementKey {
+    private final String methodName;
+    private final Object[] args;
+    private final int hashCode;
+
+    StatementKey(String methodName, Object[] args) {
+      this.methodName = methodName;
+      this.args = args;
+      this.hashCode = 31 * methodName.hashCode() + Arrays.deepHashCode(args);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof StatementKey)) {
+        return false;
+      }
+      StatementKey other = (StatementKey) obj;
+      return hashCode == other.hashCode && methodName.equals(other.methodName) && Arrays.deepEquals(args, other.args);
+    }
+  }
+
+  /**
+   * 一个缓存的语句,记下prepare时的fetchSize,超时和最大行数,放回缓存时恢复
+   */
+  private class CachedStatement {
+    private final StatementKey key;
+    private final Statement statement;
+    private final boolean callable;
+    private final int fetchSize;
+    private final int queryTimeout;
+    private final int maxRows;
+    private boolean inUse = true;
+    private boolean evicted;
+
+    CachedStatement(StatementKey key, Statement statement, boolean callable) throws SQLException {
+      this.key = key;
+      this.statement = statement;
+      this.callable = callable;
+      this.fetchSize = statement.getFetchSize();
+      this.queryTimeout = statement.getQueryTimeout();
+      this.maxRows = statement.getMaxRows();
+    }
+
+    Statement newHandle(PooledConnection owner) throws Exception {
+      Constructor<?> constructor = callable ? CALLABLE_STATEMENT_PROXY : PREPARED_STATEMENT_PROXY;
+      return (Statement) constructor.newInstance(new StatementHandle(this, owner));
+    }
+
+    void reset() throws SQLException {
+      PreparedStatement preparedStatement = (PreparedStatement) statement;
+      preparedStatement.clearParameters();
+      preparedStatement.clearBatch();
+      preparedStatement.clearWarnings();
+      preparedStatement.setFetchSize(fetchSize);
+      preparedStatement.setQueryTimeout(queryTimeout);
+      preparedStatement.setMaxRows(maxRows);
+    }
+
+    void closeQuietly() {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * 交给调用者的语句代理,每次借出一个,close()以后就不能再用了
+   */
+  private class StatementHandle implements InvocationHandler {
+    private final CachedStatement cached;
+    private final PooledConnection owner;
+    private boolean closed;
+
+    StatementHandle(CachedStatement cached, PooledConnection owner) {
+      this.cached = cached;
+      this.owner = owner;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String methodName = method.getName();
+      if (Object.class.equals(method.getDeclaringClass())) {
+        return method.invoke(this, args);
+      }
+      if (CLOSE.equals(methodName)) {
+        if (!closed) {
+          closed = true;
+          release(cached);
+        }
+        return null;
+      }
+      if (IS_CLOSED.equals(methodName)) {
+        return closed;
+      }
+      if (closed) {
+        throw new SQLException("Statement is closed.");
+      }
+      if (GET_CONNECTION.equals(methodName)) {
+        return owner.getProxyConnection();
+      }
+      Object result = StatementCache.invoke(cached.statement, method, args);
+      if (result instanceof ResultSet) {
+        //结果集的getStatement()要返回这个代理,否则调用方(比如DefaultCursor)会关掉缓存里的真实语句
+        return RESULT_SET_PROXY.newInstance(new ResultSetHandle((ResultSet) result, (Statement) proxy));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * 从缓存的语句上拿到的结果集,只把getStatement()换成语句代理
+   */
+  private static class ResultSetHandle implements InvocationHandler {
+    private final ResultSet resultSet;
+    private final Statement statementProxy;
+
+    ResultSetHandle(ResultSet resultSet, Statement statementProxy) {
+      this.resultSet = resultSet;
+      this.statementProxy = statementProxy;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if (Object.class.equals(method.getDeclaringClass())) {
+        return method.invoke(this, args);
+      }
+      if (GET_STATEMENT.equals(method.getName())) {
+        return statementProxy;
+      }
+      return StatementCache.invoke(resultSet, method, args);
+    }
+  }
+
+}
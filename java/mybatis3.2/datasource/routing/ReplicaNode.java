@@ -0,0 +1,65 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import javax.sql.DataSource;
+
+/**
+ * 从库节点
+ * 权重决定分到的select比例,健康检查失败的节点不参与路由,直到再次检查通过
+ */
+public class ReplicaNode {
+
+  private final String name;
+  private final DataSource dataSource;
+  private final int weight;
+  private volatile boolean up = true;
+
+  public ReplicaNode(String name, DataSource dataSource, int weight) {
+    if (weight <= 0) {
+      throw new IllegalArgumentException("Replica weight must be positive: " + weight);
+    }
+    this.name = name;
+    this.dataSource = dataSource;
+    this.weight = weight;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  public boolean isUp() {
+    return up;
+  }
+
+  void setUp(boolean up) {
+    this.up = up;
+  }
+
+  @Override
+  public String toString() {
+    return name + "(weight=" + weight + (up ? ", up)" : ", down)");
+  }
+
+}
@@ -0,0 +1,207 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.mapping.DataSourceRoute;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * 路由连接
+ * 按当前RoutingContext把创建语句的调用交给主库或从库的物理连接,物理连接用到时才取,
+ * autoCommit,事务隔离级别,commit,rollback,close对已经取到的物理连接都生效
+ * 关闭autoCommit后执行过写语句,直到commit/rollback之前的select都走主库,保证读到自己写的数据
+ */
+class RoutingConnection implements InvocationHandler {
+
+  private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
+
+  private final RoutingDataSource dataSource;
+  private final String username;
+  private final String password;
+  private final Connection proxyConnection;
+
+  private Connection primary;
+  private Connection replica;
+  //JDBC默认是自动提交,物理连接取到以后跟这里保持一致
+  private boolean autoCommit = true;
+  private Integer transactionIsolation;
+  private boolean written;
+  private boolean closed;
+
+  RoutingConnection(RoutingDataSource dataSource, String username, String password) {
+    this.dataSource = dataSource;
+    this.username = username;
+    this.password = password;
+    this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
+  }
+
+  Connection getProxyConnection() {
+    return proxyConnection;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String methodName = method.getName();
+    if ("equals".equals(methodName)) {
+      return proxy == args[0];
+    } else if ("hashCode".equals(methodName)) {
+      return System.identityHashCode(proxy);
+    } else if ("toString".equals(methodName)) {
+      return "RoutingConnection@" + Integer.toHexString(System.identityHashCode(proxy));
+    } else if ("close".equals(methodName)) {
+      close();
+      return null;
+    } else if ("isClosed".equals(methodName)) {
+      return closed;
+    }
+    if (closed) {
+      throw new SQLException("Connection is closed.");
+    }
+    try {
+      if ("setAutoCommit".equals(methodName)) {
+        autoCommit = (Boolean) args[0];
+        if (autoCommit) {
+          written = false;
+        }
+        invokeOpened(method, args);
+        return null;
+      } else if ("getAutoCommit".equals(methodName)) {
+        return autoCommit;
+      } else if ("setTransactionIsolation".equals(methodName)) {
+        transactionIsolation = (Integer) args[0];
+        invokeOpened(method, args);
+        return null;
+      } else if (("commit".equals(methodName) || "rollback".equals(methodName)) && (args == null || args.length == 0)) {
+        written = false;
+        invokeOpened(method, args);
+        return null;
+      } else if ("prepareStatement".equals(methodName) || "prepareCall".equals(methodName) || "createStatement".equals(methodName)) {
+        return method.invoke(route(), args);
+      }
+      return method.invoke(getPrimary(), args);
+    } catch (Exception e) {
+      throw ExceptionUtil.unwrapThrowable(e);
+    }
+  }
+
+  private Connection route() throws SQLException {
+    RoutingContext context = RoutingContext.current();
+    if (context == null || context.getRoute() == DataSourceRoute.PRIMARY) {
+      if (context != null && context.isWrite() && !autoCommit) {
+        written = true;
+      }
+      return getPrimary();
+    }
+    if (context.getRoute() == DataSourceRoute.DEFAULT && written) {
+      return getPrimary();
+    }
+    Connection connection = getReplica();
+    return connection == null ? getPrimary() : connection;
+  }
+
+  private Connection getPrimary() throws SQLException {
+    if (primary == null) {
+      primary = prepare(open(dataSource.getPrimary()));
+    }
+    return primary;
+  }
+
+  //从库都不可用时返回null,由主库来执行
+  private Connection getReplica() {
+    while (replica == null) {
+      ReplicaNode node = dataSource.chooseReplica();
+      if (node == null) {
+        return null;
+      }
+      Connection connection = null;
+      try {
+        connection = open(node.getDataSource());
+        replica = prepare(connection);
+      } catch (SQLException e) {
+        closeQuietly(connection);
+        dataSource.markDown(node, e);
+        if (!node.isUp()) {
+          continue;
+        }
+        return null;
+      }
+    }
+    return replica;
+  }
+
+  private Connection open(DataSource target) throws SQLException {
+    return username == null ? target.getConnection() : target.getConnection(username, password);
+  }
+
+  private Connection prepare(Connection connection) throws SQLException {
+    if (transactionIsolation != null) {
+      connection.setTransactionIsolation(transactionIsolation);
+    }
+    if (connection.getAutoCommit() != autoCommit) {
+      connection.setAutoCommit(autoCommit);
+    }
+    return connection;
+  }
+
+  private void invokeOpened(Method method, Object[] args) throws Exception {
+    if (primary != null) {
+      method.invoke(primary, args);
+    }
+    if (replica != null) {
+      method.invoke(replica, args);
+    }
+  }
+
+  private void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (replica != null) {
+        replica.close();
+      }
+    } finally {
+      replica = null;
+      try {
+        if (primary != null) {
+          primary.close();
+        }
+      } finally {
+        primary = null;
+      }
+    }
+  }
+
+  private static void closeQuietly(Connection connection) {
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import org.apache.ibatis.mapping.DataSourceRoute;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * 路由上下文
+ * 执行器在执行语句前后进入/退出,RoutingDataSource的连接据此决定语句走主库还是从库
+ * 嵌套执行的语句(selectKey,嵌套查询)继承外层语句的主库路由
+ */
+public final class RoutingContext {
+
+  private static final ThreadLocal<RoutingContext> current = new ThreadLocal<RoutingContext>();
+
+  private final RoutingContext parent;
+  //PRIMARY,REPLICA或DEFAULT(select,事务里写过数据就走主库)
+  private final DataSourceRoute route;
+  private final boolean write;
+
+  private RoutingContext(RoutingContext parent, DataSourceRoute route, boolean write) {
+    this.parent = parent;
+    this.route = route;
+    this.write = write;
+  }
+
+  public static RoutingContext enter(MappedStatement ms) {
+    RoutingContext parent = current.get();
+    boolean write = ms.getSqlCommandType() != SqlCommandType.SELECT;
+    DataSourceRoute route;
+    if (write || (parent != null && parent.route == DataSourceRoute.PRIMARY)) {
+      route = DataSourceRoute.PRIMARY;
+    } else {
+      route = ms.getRoute();
+    }
+    RoutingContext context = new RoutingContext(parent, route, write || (parent != null && parent.write));
+    current.set(context);
+    return context;
+  }
+
+  public static void exit(RoutingContext context) {
+    if (context.parent == null) {
+      current.remove();
+    } else {
+      current.set(context.parent);
+    }
+  }
+
+  //没有使用RoutingDataSource或不在语句执行中时返回null
+  public static RoutingContext current() {
+    return current.get();
+  }
+
+  public DataSourceRoute getRoute() {
+    return route;
+  }
+
+  public boolean isWrite() {
+    return write;
+  }
+
+}
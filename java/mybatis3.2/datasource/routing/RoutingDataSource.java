@@ -0,0 +1,252 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * 读写分离的数据源
+ * 写语句和写过数据的事务里的select走主库,其他select按权重轮流分到健康的从库
+ * getConnection返回的连接在第一次创建语句时才从主库/从库取物理连接,
+ * 一个会话最多同时占用一个主库连接和一个从库连接
+ * 语句的路由由执行器通过RoutingContext告诉连接,可以用@Options(route=...)或XML的route属性单独指定
+ * 从库每healthCheckInterval毫秒用pingQuery检查一次,失败的从库暂时不参与路由,从库都不可用时select走主库
+ */
+public class RoutingDataSource implements DataSource {
+
+  private static final Log log = LogFactory.getLog(RoutingDataSource.class);
+
+  private DataSource primary;
+  private final List<ReplicaNode> replicas = new CopyOnWriteArrayList<ReplicaNode>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  //检查从库的语句,null表示只检查能否取到连接
+  private String pingQuery;
+  //检查间隔(毫秒),0表示不检查,这时取连接失败的从库也不会被摘掉
+  private long healthCheckInterval = 30000L;
+  private ScheduledExecutorService healthChecker;
+
+  public RoutingDataSource() {
+  }
+
+  public RoutingDataSource(DataSource primary) {
+    this.primary = primary;
+  }
+
+  public DataSource getPrimary() {
+    return primary;
+  }
+
+  public void setPrimary(DataSource primary) {
+    this.primary = primary;
+  }
+
+  public synchronized void addReplica(String name, DataSource dataSource, int weight) {
+    replicas.add(new ReplicaNode(name, dataSource, weight));
+    startHealthCheck();
+  }
+
+  public List<ReplicaNode> getReplicas() {
+    return Collections.unmodifiableList(replicas);
+  }
+
+  public String getPingQuery() {
+    return pingQuery;
+  }
+
+  public void setPingQuery(String pingQuery) {
+    this.pingQuery = pingQuery;
+  }
+
+  public long getHealthCheckInterval() {
+    return healthCheckInterval;
+  }
+
+  public synchronized void setHealthCheckInterval(long healthCheckInterval) {
+    this.healthCheckInterval = healthCheckInterval;
+    stopHealthCheck();
+    startHealthCheck();
+  }
+
+  //停掉健康检查线程,不关闭主库和从库的数据源
+  public synchronized void close() {
+    stopHealthCheck();
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return new RoutingConnection(this, null, null).getProxyConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return new RoutingConnection(this, username, password).getProxyConnection();
+  }
+
+  //按权重轮流选一个健康的从库,没有就返回null
+  ReplicaNode chooseReplica() {
+    int totalWeight = 0;
+    for (ReplicaNode replica : replicas) {
+      if (replica.isUp()) {
+        totalWeight += replica.getWeight();
+      }
+    }
+    if (totalWeight == 0) {
+      return null;
+    }
+    long point = (sequence.getAndIncrement() & Long.MAX_VALUE) % totalWeight;
+    for (ReplicaNode replica : replicas) {
+      if (replica.isUp()) {
+        point -= replica.getWeight();
+        if (point < 0) {
+          return replica;
+        }
+      }
+    }
+    return null;
+  }
+
+  //从库取连接失败,等下次健康检查通过再用
+  void markDown(ReplicaNode replica, Exception cause) {
+    if (healthCheckInterval > 0 && replica.isUp()) {
+      replica.setUp(false);
+      log.warn("Replica " + replica.getName() + " is down, routing its reads elsewhere. Cause: " + cause);
+    }
+  }
+
+  void checkReplicas() {
+    for (ReplicaNode replica : replicas) {
+      boolean up = ping(replica);
+      if (up != replica.isUp()) {
+        replica.setUp(up);
+        if (up) {
+          log.warn("Replica " + replica.getName() + " is up again.");
+        } else {
+          log.warn("Replica " + replica.getName() + " failed its health check and is down.");
+        }
+      }
+    }
+  }
+
+  private boolean ping(ReplicaNode replica) {
+    try {
+      Connection connection = replica.getDataSource().getConnection();
+      try {
+        if (pingQuery != null) {
+          Statement statement = connection.createStatement();
+          try {
+            ResultSet rs = statement.executeQuery(pingQuery);
+            rs.close();
+          } finally {
+            statement.close();
+          }
+          if (!connection.getAutoCommit()) {
+            connection.rollback();
+          }
+        }
+        return !connection.isClosed();
+      } finally {
+        connection.close();
+      }
+    } catch (Exception e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Health check of replica " + replica.getName() + " failed: " + e.getMessage());
+      }
+      return false;
+    }
+  }
+
+  private void startHealthCheck() {
+    if (healthChecker != null || healthCheckInterval <= 0 || replicas.isEmpty()) {
+      return;
+    }
+    healthChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "mybatis-replica-check");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    healthChecker.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        checkReplicas();
+      }
+    }, healthCheckInterval, healthCheckInterval, TimeUnit.MILLISECONDS);
+  }
+
+  private void stopHealthCheck() {
+    if (healthChecker != null) {
+      healthChecker.shutdownNow();
+      healthChecker = null;
+    }
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return primary.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    primary.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    primary.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return primary.getLoginTimeout();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException(getClass().getName() + " is not a wrapper.");
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return false;
+  }
+
+  // @Override only valid jdk7+
+  public Logger getParentLogger() {
+    return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+  }
+
+}
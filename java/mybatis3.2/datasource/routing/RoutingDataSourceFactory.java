@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+
+/**
+ * 读写分离数据源工厂
+ * 主库和每个从库都是一个PooledDataSource,属性加前缀区分:
+ * <dataSource type="ROUTING">
+ *   <property name="primary.driver" value="com.mysql.jdbc.Driver"/>
+ *   <property name="primary.url" value="jdbc:mysql://db-primary/app"/>
+ *   <property name="replica.r1.url" value="jdbc:mysql://db-replica1/app"/>
+ *   <property name="replica.r1.weight" value="2"/>
+ *   <property name="replica.r2.url" value="jdbc:mysql://db-replica2/app"/>
+ *   <property name="pingQuery" value="SELECT 1"/>
+ *   <property name="healthCheckInterval" value="30000"/>
+ * </dataSource>
+ * 从库没写的属性(driver,username,password,poolType等)沿用主库的
+ */
+public class RoutingDataSourceFactory implements DataSourceFactory {
+
+  private static final String PRIMARY_PREFIX = "primary.";
+  private static final String REPLICA_PREFIX = "replica.";
+  private static final String WEIGHT_PROPERTY = "weight";
+
+  private final RoutingDataSource dataSource = new RoutingDataSource();
+
+  @Override
+  public void setProperties(Properties properties) {
+    Properties primaryProperties = new Properties();
+    //按名字排序,路由顺序和配置无关
+    Map<String, Properties> replicaProperties = new TreeMap<String, Properties>();
+    for (String name : properties.stringPropertyNames()) {
+      String value = properties.getProperty(name);
+      if (name.startsWith(PRIMARY_PREFIX)) {
+        primaryProperties.setProperty(name.substring(PRIMARY_PREFIX.length()), value);
+      } else if (name.startsWith(REPLICA_PREFIX)) {
+        int dot = name.indexOf('.', REPLICA_PREFIX.length());
+        if (dot < 0) {
+          throw new DataSourceException("Replica property must look like replica.<name>.<property>: " + name);
+        }
+        String replica = name.substring(REPLICA_PREFIX.length(), dot);
+        Properties props = replicaProperties.get(replica);
+        if (props == null) {
+          props = new Properties();
+          replicaProperties.put(replica, props);
+        }
+        props.setProperty(name.substring(dot + 1), value);
+      } else if ("pingQuery".equals(name)) {
+        dataSource.setPingQuery(value);
+      } else if ("healthCheckInterval".equals(name)) {
+        dataSource.setHealthCheckInterval(Long.parseLong(value));
+      } else {
+        throw new DataSourceException("Unknown DataSource property: " + name);
+      }
+    }
+    dataSource.setPrimary(createPooledDataSource(primaryProperties));
+    for (Map.Entry<String, Properties> entry : replicaProperties.entrySet()) {
+      Properties props = new Properties();
+      props.putAll(primaryProperties);
+      props.putAll(entry.getValue());
+      String weight = (String) props.remove(WEIGHT_PROPERTY);
+      dataSource.addReplica(entry.getKey(), createPooledDataSource(props), weight == null ? 1 : Integer.parseInt(weight));
+    }
+  }
+
+  private DataSource createPooledDataSource(Properties properties) {
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(properties);
+    return factory.getDataSource();
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+}
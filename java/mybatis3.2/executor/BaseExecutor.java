@@ -9,12 +9,15 @@ public abstract class BaseExecutor implements Executor {
   protected Executor wrapper;
 
   protected ConcurrentLinkedQueue<DeferredLoad> deferredLoads;//ض
+  protected BatchLoader batchLoader;//,õʱŴ
   protected PerpetualCache localCache;//һ
   protected PerpetualCache localOutputParameterCache;
   protected Configuration configuration;
 
   protected int queryStack = 0;
   private boolean closed;
+  //õǶдԴʱ,ִǰҪ⻹Ǵӿ
+  private final boolean routing;
 
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
@@ -24,6 +27,7 @@ public abstract class BaseExecutor implements Executor {
     this.closed = false;
     this.configuration = configuration;
     this.wrapper = this;
+    this.routing = configuration.getEnvironment() != null && configuration.getEnvironment().getDataSource() instanceof RoutingDataSource;
   }
 
   @Override
@@ -50,6 +54,10 @@ public abstract class BaseExecutor implements Executor {
     } finally {
       transaction = null;
       deferredLoads = null;
+      if (batchLoader != null) {
+        batchLoader.clear();
+        batchLoader = null;
+      }
       localCache = null;
       localOutputParameterCache = null;
       closed = true;
@@ -68,7 +76,14 @@ public abstract class BaseExecutor implements Executor {
       throw new ExecutorException("Executor was closed.");
     }
     clearLocalCache();
-    return doUpdate(ms, parameter);
+    RoutingContext routingContext = routing ? RoutingContext.enter(ms) : null;
+    try {
+      return doUpdate(ms, parameter);
+    } finally {
+      if (routingContext != null) {
+        RoutingContext.exit(routingContext);
+      }
+    }
   }
 
   @Override
@@ -90,6 +105,24 @@ public abstract class BaseExecutor implements Executor {
     return query(ms, parameter, rowBounds, resultHandler, key, boundSql);
  }
 
+  //αѯ,һ(ְнŽڴ)
+  @Override
+  public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+    ErrorContext.instance().resource(ms.getResource()).activity("executing a cursor query").object(ms.getId());
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    BoundSql boundSql = ms.getBoundSql(parameter);
+    RoutingContext routingContext = routing ? RoutingContext.enter(ms) : null;
+    try {
+      return doQueryCursor(ms, parameter, rowBounds, boundSql);
+    } finally {
+      if (routingContext != null) {
+        RoutingContext.exit(routingContext);
+      }
+    }
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
@@ -113,6 +146,15 @@ public abstract class BaseExecutor implements Executor {
       queryStack--;
     }
     if (queryStack == 0) {
+      //,ڼִе䲻Ĳѯ
+      if (batchLoader != null && batchLoader.hasEagerLoads()) {
+        queryStack++;
+        try {
+          batchLoader.loadEager();
+        } finally {
+          queryStack--;
+        }
+      }
       for (DeferredLoad deferredLoad : deferredLoads) {
         deferredLoad.load();
       }
@@ -139,6 +181,17 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
+  @Override
+  public BatchLoader getBatchLoader() {
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    if (batchLoader == null) {
+      batchLoader = new BatchLoader(configuration);
+    }
+    return batchLoader;
+  }
+
   @Override
   public CacheKey createCacheKey(MappedStatement ms, Object parameterObject, RowBounds rowBounds, BoundSql boundSql) {
     if (closed) {
@@ -146,8 +199,8 @@ public abstract class BaseExecutor implements Executor {
     }
     CacheKey cacheKey = new CacheKey();
     cacheKey.update(ms.getId());
-    cacheKey.update(Integer.valueOf(rowBounds.getOffset()));
-    cacheKey.update(Integer.valueOf(rowBounds.getLimit()));
+    cacheKey.update(rowBounds.getOffset());
+    cacheKey.update(rowBounds.getLimit());
     cacheKey.update(boundSql.getSql());
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
@@ -188,6 +241,7 @@ public abstract class BaseExecutor implements Executor {
       throw new ExecutorException("Cannot commit, transaction is already closed");
     }
     clearLocalCache();
+    clearBatchLoader();
     flushStatements();
     if (required) {
       transaction.commit();
@@ -199,6 +253,7 @@ public abstract class BaseExecutor implements Executor {
     if (!closed) {
       try {
         clearLocalCache();
+        clearBatchLoader();
         flushStatements(true);
       } finally {
         if (required) {
@@ -216,6 +271,13 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
+  //Ժ,ûӳټزٴ
+  private void clearBatchLoader() {
+    if (batchLoader != null) {
+      batchLoader.clear();
+    }
+  }
+
   protected abstract int doUpdate(MappedStatement ms, Object parameter)
       throws SQLException;
 
@@ -225,6 +287,9 @@ public abstract class BaseExecutor implements Executor {
   protected abstract <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException;
 
+  protected abstract <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql)
+      throws SQLException;
+
   protected void closeStatement(Statement statement) {
     if (statement != null) {
       try {
@@ -255,9 +320,13 @@ public abstract class BaseExecutor implements Executor {
   private <E> List<E> queryFromDatabase(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
     List<E> list;
     localCache.putObject(key, EXECUTION_PLACEHOLDER);
+    RoutingContext routingContext = routing ? RoutingContext.enter(ms) : null;
     try {
       list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
     } finally {
+      if (routingContext != null) {
+        RoutingContext.exit(routingContext);
+      }
       localCache.removeObject(key);
     }
     localCache.putObject(key, list);
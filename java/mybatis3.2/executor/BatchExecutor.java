@@ -21,60 +21,145 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.type.TypeHandlerRegistry;
 
 /**
  * @author Jeff Butler 
  */
+/**
+ * 批处理执行器
+ * 默认只有和上一条SQL相同时才加到同一个批次里
+ * batchGroupingEnabled: 相同SQL(和MappedStatement)的语句不管中间穿插了什么,都加到第一次出现时的批次里,
+ *   刷新时按批次第一次出现的顺序执行(注意这会改变交替的insert/update/delete的执行顺序)
+ * batchFlushRows/batchFlushBytes: 缓冲的行数/参数的估算字节数达到上限时自动刷新,
+ *   自动刷新的结果在下一次flushStatements时一起返回,但不再持有参数对象
+ * batchAsyncFlush: 不在当前连接上批处理,而是把行缓冲起来,达到上限后交给后台线程在另一个连接上执行并提交,
+ *   这部分数据不属于当前事务,回滚不了,只适合大批量导入;参数对象交出去以后在刷新完成前不能再修改
+ */
 public class BatchExecutor extends BaseExecutor {
 
   public static final int BATCH_UPDATE_RETURN_VALUE = Integer.MIN_VALUE + 1002;
 
+  //异步刷新时最多有几批在排队或执行,再多就等前面的完成,免得缓冲的数据堆满内存
+  private static final int MAX_PENDING_FLUSHES = 2;
+
   private final List<Statement> statementList = new ArrayList<Statement>();
   private final List<BatchResult> batchResultList = new ArrayList<BatchResult>();
   private String currentSql;
   private MappedStatement currentStatement;
 
+  private final boolean grouping;
+  private final int flushRows;
+  private final long flushBytes;
+  private final boolean asyncFlush;
+  //分组模式下,每个SQL对应的批次下标
+  private final Map<String, Integer> batchIndexes = new HashMap<String, Integer>();
+  //自动刷新过的批次结果,下次flushStatements时一起返回
+  private final List<BatchResult> flushedResults = new ArrayList<BatchResult>();
+  private int pendingRows;
+  private long pendingBytes;
+
+  //----------以下只在异步刷新时使用----------
+  private List<PendingRow> bufferedRows = new ArrayList<PendingRow>();
+  private final List<Future<List<BatchResult>>> pendingFlushes = new ArrayList<Future<List<BatchResult>>>();
+  private ExecutorService flushService;
+  //后台连接上的执行器,只在后台线程里访问
+  private BatchExecutor flushExecutor;
+
   public BatchExecutor(Configuration configuration, Transaction transaction) {
+    this(configuration, transaction, configuration.isBatchAsyncFlush());
+  }
+
+  private BatchExecutor(Configuration configuration, Transaction transaction, boolean asyncFlush) {
     super(configuration, transaction);
+    Integer rows = configuration.getBatchFlushRows();
+    Long bytes = configuration.getBatchFlushBytes();
+    this.grouping = configuration.isBatchGroupingEnabled();
+    this.flushRows = rows == null ? 0 : rows;
+    this.flushBytes = bytes == null ? 0 : bytes;
+    this.asyncFlush = asyncFlush;
   }
 
   @Override
   public int doUpdate(MappedStatement ms, Object parameterObject) throws SQLException {
+    if (asyncFlush) {
+      bufferedRows.add(new PendingRow(ms, parameterObject));
+      if (reachedFlushThreshold(ms, parameterObject, null)) {
+        submitFlush();
+      }
+      return BATCH_UPDATE_RETURN_VALUE;
+    }
     final Configuration configuration = ms.getConfiguration();
     final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, null);
     final BoundSql boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
     final Statement stmt;
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
-      BatchResult batchResult = batchResultList.get(last);
+    int index = batchIndexOf(ms, sql);
+    if (index >= 0) {
+      stmt = statementList.get(index);
+      BatchResult batchResult = batchResultList.get(index);
       batchResult.addParameterObject(parameterObject);
     } else {
       Connection connection = getConnection(ms.getStatementLog());
       stmt = handler.prepare(connection);
       currentSql = sql;
       currentStatement = ms;
+      if (grouping) {
+        batchIndexes.put(sql, statementList.size());
+      }
       statementList.add(stmt);
       batchResultList.add(new BatchResult(ms, sql, parameterObject));
     }
     handler.parameterize(stmt);
     handler.batch(stmt);
+    if (reachedFlushThreshold(ms, parameterObject, boundSql)) {
+      int flushed = flushedResults.size();
+      executeBatches(flushedResults);
+      releaseParameterObjects(flushedResults, flushed);
+    }
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  //可以加到哪个已有的批次里,没有则返回-1
+  private int batchIndexOf(MappedStatement ms, String sql) {
+    if (grouping) {
+      Integer index = batchIndexes.get(sql);
+      if (index != null && ms.equals(batchResultList.get(index).getMappedStatement())) {
+        return index;
+      }
+      return -1;
+    }
+    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
+      return statementList.size() - 1;
+    }
+    return -1;
+  }
+
   @Override
   public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException {
@@ -92,18 +177,60 @@ public class BatchExecutor extends BaseExecutor {
     }
   }
 
+  @Override
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    flushStatements();
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    Connection connection = getConnection(ms.getStatementLog());
+    Statement stmt = handler.prepare(connection);
+    try {
+      handler.parameterize(stmt);
+      return handler.<E>queryCursor(stmt);
+    } catch (SQLException e) {
+      closeStatement(stmt);
+      throw e;
+    } catch (RuntimeException e) {
+      closeStatement(stmt);
+      throw e;
+    }
+  }
+
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
+    if (asyncFlush) {
+      return flushAsyncStatements(isRollback);
+    }
+    if (isRollback) {
+      closeStatements();
+      flushedResults.clear();
+      return Collections.emptyList();
+    }
+    List<BatchResult> results = new ArrayList<BatchResult>(flushedResults);
+    flushedResults.clear();
+    executeBatches(results);
+    return results;
+  }
+
+  @Override
+  public void close(boolean forceRollback) {
+    try {
+      super.close(forceRollback);
+    } finally {
+      shutdownFlushService();
+    }
+  }
+
+  //执行所有缓冲的批次,成功的结果加到results后面
+  private void executeBatches(List<BatchResult> results) throws SQLException {
     try {
-      List<BatchResult> results = new ArrayList<BatchResult>();
-      if (isRollback) {
-        return Collections.emptyList();
-      }
       for (int i = 0, n = statementList.size(); i < n; i++) {
         Statement stmt = statementList.get(i);
         BatchResult batchResult = batchResultList.get(i);
         try {
+          long start = System.nanoTime();
           batchResult.setUpdateCounts(stmt.executeBatch());
+          batchResult.setExecutionTime(System.nanoTime() - start);
           MappedStatement ms = batchResult.getMappedStatement();
           List<Object> parameterObjects = batchResult.getParameterObjects();
           KeyGenerator keyGenerator = ms.getKeyGenerator();
@@ -131,14 +258,228 @@ public class BatchExecutor extends BaseExecutor {
         }
         results.add(batchResult);
       }
+    } finally {
+      closeStatements();
+    }
+  }
+
+  private void closeStatements() {
+    for (Statement stmt : statementList) {
+      closeStatement(stmt);
+    }
+    currentSql = null;
+    currentStatement = null;
+    statementList.clear();
+    batchResultList.clear();
+    batchIndexes.clear();
+    pendingRows = 0;
+    pendingBytes = 0;
+  }
+
+  private void releaseParameterObjects(List<BatchResult> results, int fromIndex) {
+    for (int i = fromIndex; i < results.size(); i++) {
+      results.get(i).releaseParameterObjects();
+    }
+  }
+
+  //计入一行,返回是否达到自动刷新的上限
+  private boolean reachedFlushThreshold(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+    pendingRows++;
+    if (flushRows > 0 && pendingRows >= flushRows) {
+      return true;
+    }
+    if (flushBytes > 0) {
+      pendingBytes += estimateSize(ms, parameterObject, boundSql == null ? ms.getBoundSql(parameterObject) : boundSql);
+      return pendingBytes >= flushBytes;
+    }
+    return false;
+  }
+
+  //估算一行参数占用的字节数,只用来判断是否该自动刷新
+  // mimic DefaultParameterHandler logic
+  private long estimateSize(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+    long size = 0;
+    TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
+    MetaObject metaObject = null;
+    for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+      if (parameterMapping.getMode() == ParameterMode.OUT) {
+        continue;
+      }
+      Object value;
+      String propertyName = parameterMapping.getProperty();
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        value = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        value = null;
+      } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+        value = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        value = metaObject.getValue(propertyName);
+      }
+      size += sizeOf(value);
+    }
+    return size;
+  }
+
+  private static long sizeOf(Object value) {
+    if (value instanceof String) {
+      return 2L * ((String) value).length() + 16;
+    } else if (value instanceof byte[]) {
+      return ((byte[]) value).length + 16;
+    } else if (value instanceof char[]) {
+      return 2L * ((char[]) value).length + 16;
+    }
+    return 16;
+  }
+
+  //
+  // ASYNC FLUSH
+  //
+
+  private List<BatchResult> flushAsyncStatements(boolean isRollback) throws SQLException {
+    if (isRollback) {
+      //已经交给后台的批次已经提交,回滚不了,只能丢掉还没交出去的
+      bufferedRows = new ArrayList<PendingRow>();
+      pendingRows = 0;
+      pendingBytes = 0;
+      try {
+        waitForFlushes(pendingFlushes.size());
+      } catch (RuntimeException e) {
+        // Ignore.  Rolling back anyway.
+      } catch (SQLException e) {
+        // Ignore.  Rolling back anyway.
+      } finally {
+        flushedResults.clear();
+      }
+      return Collections.emptyList();
+    }
+    submitFlush();
+    try {
+      waitForFlushes(pendingFlushes.size());
+      return new ArrayList<BatchResult>(flushedResults);
+    } finally {
+      flushedResults.clear();
+    }
+  }
+
+  //把缓冲的行交给后台线程
+  private void submitFlush() throws SQLException {
+    if (bufferedRows.isEmpty()) {
+      return;
+    }
+    if (pendingFlushes.size() >= MAX_PENDING_FLUSHES) {
+      waitForFlushes(pendingFlushes.size() - MAX_PENDING_FLUSHES + 1);
+    }
+    final List<PendingRow> rows = bufferedRows;
+    bufferedRows = new ArrayList<PendingRow>();
+    pendingRows = 0;
+    pendingBytes = 0;
+    pendingFlushes.add(getFlushService().submit(new Callable<List<BatchResult>>() {
+      @Override
+      public List<BatchResult> call() throws Exception {
+        return flushOnSeparateConnection(rows);
+      }
+    }));
+  }
+
+  //等最早的count批完成,结果(不带参数对象)放到flushedResults;有失败的抛出第一个异常
+  private void waitForFlushes(int count) throws SQLException {
+    Throwable failure = null;
+    for (int i = 0; i < count; i++) {
+      Future<List<BatchResult>> future = pendingFlushes.remove(0);
+      try {
+        int flushed = flushedResults.size();
+        flushedResults.addAll(future.get());
+        releaseParameterObjects(flushedResults, flushed);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ExecutorException("Interrupted while waiting for an asynchronous batch flush.", e);
+      }
+    }
+    if (failure instanceof SQLException) {
+      throw (SQLException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure != null) {
+      throw new ExecutorException("Error flushing batch asynchronously.  Cause: " + failure, failure);
+    }
+  }
+
+  //在后台线程里执行:在自己的连接上批处理并提交
+  private List<BatchResult> flushOnSeparateConnection(List<PendingRow> rows) throws SQLException {
+    if (flushExecutor == null) {
+      Environment environment = configuration.getEnvironment();
+      if (environment == null) {
+        throw new ExecutorException("Asynchronous batch flush requires an environment with a DataSource.");
+      }
+      Transaction flushTransaction = environment.getTransactionFactory().newTransaction(environment.getDataSource(), null, false);
+      flushExecutor = new BatchExecutor(configuration, flushTransaction, false);
+    }
+    boolean success = false;
+    try {
+      for (PendingRow row : rows) {
+        flushExecutor.update(row.mappedStatement, row.parameterObject);
+      }
+      List<BatchResult> results = flushExecutor.flushStatements();
+      flushExecutor.commit(true);
+      success = true;
       return results;
     } finally {
-      for (Statement stmt : statementList) {
-        closeStatement(stmt);
+      if (!success) {
+        try {
+          flushExecutor.rollback(true);
+        } catch (SQLException e) {
+          // Ignore.  The original exception is more useful.
+        }
       }
-      currentSql = null;
-      statementList.clear();
-      batchResultList.clear();
+    }
+  }
+
+  private ExecutorService getFlushService() {
+    if (flushService == null) {
+      flushService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "mybatis-batch-flush");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return flushService;
+  }
+
+  private void shutdownFlushService() {
+    if (flushService != null) {
+      //后台连接也在后台线程里关闭
+      flushService.submit(new Runnable() {
+        @Override
+        public void run() {
+          if (flushExecutor != null) {
+            flushExecutor.close(false);
+            flushExecutor = null;
+          }
+        }
+      });
+      flushService.shutdown();
+      flushService = null;
+    }
+  }
+
+  private static class PendingRow {
+    private final MappedStatement mappedStatement;
+    private final Object parameterObject;
+
+    PendingRow(MappedStatement mappedStatement, Object parameterObject) {
+      this.mappedStatement = mappedStatement;
+      this.parameterObject = parameterObject;
     }
   }
 
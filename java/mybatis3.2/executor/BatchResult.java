@@ -30,6 +30,8 @@ public class BatchResult {
   private final List<Object> parameterObjects;
 
   private int[] updateCounts;
+  //executeBatch的耗时,单位纳秒
+  private long executionTime;
 
   public BatchResult(MappedStatement mappedStatement, String sql) {
     super();
@@ -68,8 +70,21 @@ public class BatchResult {
     this.updateCounts = updateCounts;
   }
 
+  public long getExecutionTime() {
+    return executionTime;
+  }
+
+  public void setExecutionTime(long executionTime) {
+    this.executionTime = executionTime;
+  }
+
   public void addParameterObject(Object parameterObject) {
     this.parameterObjects.add(parameterObject);
   }
 
+  //自动刷新过的批次不再持有参数对象,只保留更新条数和耗时
+  void releaseParameterObjects() {
+    this.parameterObjects.clear();
+  }
+
 }
@@ -6,10 +6,22 @@
 public class CachingExecutor implements Executor {
 
   private Executor delegate;//װģʽ
-  private TransactionalCacheManager tcm = new TransactionalCacheManager();//񻺴
+  private TransactionalCacheManager tcm;//񻺴
+  private CacheDependencies dependencies;//ʧЧʱnull
+  private InvalidationBus invalidationBus;//ڵʱʧЧ֪ͨĽڵ,ڵΪnull
+  private Set<String> invalidatedTables = new HashSet<String>();//дı,ύʱʧЧ
+  private List<PendingEntry> pendingEntries = new ArrayList<PendingEntry>();//Ž,ύǼ
+  private boolean uncommittedWrites;//ִйд,ύعλ
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null, null);
+  }
+
+  public CachingExecutor(Executor delegate, CacheDependencies dependencies, InvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.dependencies = dependencies;
+    this.invalidationBus = invalidationBus;
+    this.tcm = new TransactionalCacheManager(invalidationBus);
     delegate.setExecutorWrapper(this);
   }
 
@@ -23,9 +35,9 @@ public class CachingExecutor implements Executor {
     try {
       //issues #499, #524 and #573
       if (forceRollback) { 
-        tcm.rollback();
+        rollbackCache();
       } else {
-        tcm.commit();
+        commitCache();
       }
     } finally {
       delegate.close(forceRollback);
@@ -39,7 +51,8 @@ public class CachingExecutor implements Executor {
 
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
-    flushCacheIfRequired(ms);
+    uncommittedWrites = true;
+    flushCacheIfRequired(ms, parameterObject);
     return delegate.update(ms, parameterObject);
   }
 
@@ -55,14 +68,34 @@ public class CachingExecutor implements Executor {
       throws SQLException {
     Cache cache = ms.getCache();//ȡ
     if (cache != null) {
-      flushCacheIfRequired(ms);
+      flushCacheIfRequired(ms, parameterObject);
       if (ms.isUseCache() && resultHandler == null) {
         ensureNoOutParams(ms, parameterObject, boundSql);
+        String[] tables = null;
+        if (dependencies != null) {
+          tables = dependencies.getReadTables(ms, boundSql);
+          if (isInvalidated(tables)) {
+            //ĹЩ,Ǿ,ҲܸĻỰ
+            return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          }
+        }
+        //д(Ǳռ仹flushCache=false),Ľܰδύ,
+        //LoadingCacheֱӷŽĻ;ʱҲһ,·ύʱٷ
+        if (cache instanceof LoadingCache && !uncommittedWrites && !tcm.isCleared(cache)) {
+          @SuppressWarnings("unchecked")
+          List<E> list = (List<E>) tcm.getObject(cache, key, new StatementLoader(ms, parameterObject, rowBounds, key, boundSql, tables));
+          //ؽ֮StatementLoader.loadedǼ,е͵Ǽǹ
+          return list;
+        }
         @SuppressWarnings("unchecked")
         List<E> list = (List<E>) tcm.getObject(cache, key);
         if (list == null) {//治,һ
+          long version = tables != null ? dependencies.getVersion() : 0;
           list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
           tcm.putObject(cache, key, list); // issue #578 and #116
+          if (tables != null) {
+            pendingEntries.add(new PendingEntry(cache, key, tables, version));
+          }
         }
         return list;
       }
@@ -70,6 +103,13 @@ public class CachingExecutor implements Executor {
     return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  //αѯʹö,flushCacheҪ
+  @Override
+  public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+    flushCacheIfRequired(ms, parameter);
+    return delegate.queryCursor(ms, parameter, rowBounds);
+  }
+
   @Override
   public List<BatchResult> flushStatements() throws SQLException {
     return delegate.flushStatements();
@@ -78,7 +118,7 @@ public class CachingExecutor implements Executor {
   @Override
   public void commit(boolean required) throws SQLException {
     delegate.commit(required);
-    tcm.commit();
+    commitCache();
   }
 
   @Override
@@ -87,9 +127,34 @@ public class CachingExecutor implements Executor {
       delegate.rollback(required);
     } finally {
       if (required) {
-        tcm.rollback();
+        rollbackCache();
+      }
+    }
+  }
+
+  //ʧЧĻỰŽдıĻ,ύĻ,Ž֮Ǽ
+  //Ǽʱѯ֮ıĻỰʧЧĻᱻƳ,ΪʧЧ͵Ǽǽ¾
+  private void commitCache() {
+    if (dependencies != null) {
+      dependencies.invalidate(invalidatedTables);
+      if (invalidationBus != null) {
+        invalidationBus.evict(invalidatedTables);
       }
     }
+    tcm.commit();
+    for (PendingEntry entry : pendingEntries) {
+      dependencies.register(entry.cache, entry.key, entry.tables, entry.version);
+    }
+    invalidatedTables.clear();
+    pendingEntries.clear();
+    uncommittedWrites = false;
+  }
+
+  private void rollbackCache() {
+    tcm.rollback();
+    invalidatedTables.clear();
+    pendingEntries.clear();
+    uncommittedWrites = false;
   }
 
   private void ensureNoOutParams(MappedStatement ms, Object parameter, BoundSql boundSql) {
@@ -117,21 +182,126 @@ public class CachingExecutor implements Executor {
     delegate.deferLoad(ms, resultObject, property, key, targetType);
   }
 
+  @Override
+  public BatchLoader getBatchLoader() {
+    return delegate.getBatchLoader();
+  }
+
   @Override
   public void clearLocalCache() {
     delegate.clearLocalCache();
   }
 
-  private void flushCacheIfRequired(MappedStatement ms) {
+  private void flushCacheIfRequired(MappedStatement ms, Object parameterObject) {
     Cache cache = ms.getCache();
+    if (dependencies != null && ms.isFlushCacheRequired()) {
+      //ϵóдıֻʧЧЩĻ,ռ;ϲվձռĻ
+      String[] tables = dependencies.getWrittenTables(ms, parameterObject);
+      if (tables != null) {
+        invalidateTables(tables);
+        return;
+      }
+    }
     if (cache != null && ms.isFlushCacheRequired()) {      
       tcm.clear(cache);
     }
   }
 
+  private void invalidateTables(String[] tables) {
+    invalidatedTables.addAll(Arrays.asList(tables));
+    //ǰѯŽĻѾʱ,ύ
+    Iterator<PendingEntry> iterator = pendingEntries.iterator();
+    while (iterator.hasNext()) {
+      PendingEntry entry = iterator.next();
+      if (isInvalidated(entry.tables)) {
+        tcm.removeObject(entry.cache, entry.key);
+        iterator.remove();
+      }
+    }
+  }
+
+  private boolean isInvalidated(String[] tables) {
+    if (invalidatedTables.isEmpty()) {
+      return false;
+    }
+    for (String table : tables) {
+      if (CacheDependencies.ANY_TABLE.equals(table) || invalidatedTables.contains(table)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public void setExecutorWrapper(Executor executor) {
     throw new UnsupportedOperationException("This method should not be called");
   }
 
+  //LoadingCacheδʱڵǰỰѯ,̨ˢʱԼSimpleExecutorѯ
+  private class StatementLoader implements CacheLoader {
+    private final MappedStatement ms;
+    private final Object parameterObject;
+    private final RowBounds rowBounds;
+    private final CacheKey key;
+    private final BoundSql boundSql;
+    private final String[] tables;
+    //ѯ֮ǰ汾,loadedǼʱ;̨ˢµĲѯȡ
+    private volatile long version;
+
+    StatementLoader(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql, String[] tables) {
+      this.ms = ms;
+      this.parameterObject = parameterObject;
+      this.rowBounds = rowBounds;
+      this.key = key;
+      this.boundSql = boundSql;
+      this.tables = tables;
+    }
+
+    @Override
+    public Object load() throws SQLException {
+      if (tables != null) {
+        version = dependencies.getVersion();
+      }
+      return delegate.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+    }
+
+    @Override
+    public Object reload() throws SQLException {
+      Configuration configuration = ms.getConfiguration();
+      Environment environment = configuration.getEnvironment();
+      Transaction tx = environment.getTransactionFactory().newTransaction(environment.getDataSource(), null, true);
+      Executor executor = new SimpleExecutor(configuration, tx);
+      try {
+        if (tables != null) {
+          version = dependencies.getVersion();
+        }
+        return executor.query(ms, parameterObject, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+      } finally {
+        executor.close(false);
+      }
+    }
+
+    @Override
+    public void loaded(Object value) {
+      if (tables != null) {
+        dependencies.register(ms.getCache(), key, tables, version);
+      }
+    }
+  }
+
+  //Žı
+  private static class PendingEntry {
+    private final Cache cache;
+    private final CacheKey key;
+    private final String[] tables;
+    private final long version;
+
+    PendingEntry(Cache cache, CacheKey key, String[] tables, long version) {
+      this.cache = cache;
+      this.key = key;
+      this.tables = tables;
+      this.version = version;
+    }
+  }
+
 }
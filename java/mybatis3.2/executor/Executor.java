@@ -19,6 +19,8 @@ import java.sql.SQLException;
 import java.util.List;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.loader.BatchLoader;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.reflection.MetaObject;
@@ -47,6 +49,9 @@ public interface Executor {
   //查询，带分页
   <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException;
 
+  //查询，返回游标，不走一级/二级缓存
+  <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException;
+
   //刷新批处理语句
   List<BatchResult> flushStatements() throws SQLException;
 
@@ -67,6 +72,9 @@ public interface Executor {
   //延迟加载
   void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType);
 
+  //批量加载器,收集配置了batchSelect的嵌套查询
+  BatchLoader getBatchLoader();
+
   Transaction getTransaction();
 
   void close(boolean forceRollback);
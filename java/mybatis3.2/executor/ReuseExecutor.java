@@ -20,12 +20,16 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.routing.RoutingContext;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.DataSourceRoute;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
@@ -53,6 +57,17 @@ public class ReuseExecutor extends BaseExecutor {
     //和SimpleExecutor一样，新建一个StatementHandler
     //这里看到ResultHandler传入的是null
     StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, RowBounds.DEFAULT, null, null);
+    if (RoutingContext.current() != null) {
+      //读写分离:写过以后DEFAULT路由的查询要走主库,之前在从库上准备的语句不能再用
+      closeDefaultRouteStatements();
+      //RoutingConnection在准备语句时才记下事务里写过数据,重用缓存里的语句它就不知道了,所以写语句每次都重新准备
+      Statement stmt = prepareUncachedStatement(handler, ms.getStatementLog());
+      try {
+        return handler.update(stmt);
+      } finally {
+        closeStatement(stmt);
+      }
+    }
     //准备语句
     Statement stmt = prepareStatement(handler, ms.getStatementLog());
     return handler.update(stmt);
@@ -66,6 +81,25 @@ public class ReuseExecutor extends BaseExecutor {
     return handler.<E>query(stmt, resultHandler);
   }
 
+  //游标会一直占着Statement,关闭时还会把Statement关掉,所以不能放进缓存重用
+  @Override
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    Connection connection = getConnection(ms.getStatementLog());
+    Statement stmt = handler.prepare(connection);
+    try {
+      handler.parameterize(stmt);
+      return handler.<E>queryCursor(stmt);
+    } catch (SQLException e) {
+      closeStatement(stmt);
+      throw e;
+    } catch (RuntimeException e) {
+      closeStatement(stmt);
+      throw e;
+    }
+  }
+
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
     for (Statement stmt : statementMap.values()) {
@@ -79,7 +113,7 @@ public class ReuseExecutor extends BaseExecutor {
     Statement stmt;
     //得到绑定的SQL语句
     BoundSql boundSql = handler.getBoundSql();
-    String sql = boundSql.getSql();
+    String sql = statementKey(boundSql.getSql());
     //如果缓存中已经有了，直接得到Statement
     if (hasStatementFor(sql)) {
       stmt = getStatement(sql);
@@ -93,6 +127,40 @@ public class ReuseExecutor extends BaseExecutor {
     return stmt;
   }
 
+  private Statement prepareUncachedStatement(StatementHandler handler, Log statementLog) throws SQLException {
+    Connection connection = getConnection(statementLog);
+    Statement stmt = handler.prepare(connection);
+    try {
+      handler.parameterize(stmt);
+    } catch (SQLException e) {
+      closeStatement(stmt);
+      throw e;
+    }
+    return stmt;
+  }
+
+  //读写分离时同一条SQL在主库和从库上各有一个语句,key里带上路由
+  private String statementKey(String sql) {
+    RoutingContext context = RoutingContext.current();
+    return context == null ? sql : context.getRoute() + "\n" + sql;
+  }
+
+  private void closeDefaultRouteStatements() {
+    RoutingContext context = RoutingContext.current();
+    if (context == null) {
+      return;
+    }
+    String prefix = DataSourceRoute.DEFAULT + "\n";
+    Iterator<Map.Entry<String, Statement>> iterator = statementMap.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Statement> entry = iterator.next();
+      if (entry.getKey().startsWith(prefix)) {
+        closeStatement(entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
   private boolean hasStatementFor(String sql) {
     try {
       return statementMap.keySet().contains(sql) && !statementMap.get(sql).getConnection().isClosed();
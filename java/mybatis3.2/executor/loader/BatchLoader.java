@@ -0,0 +1,202 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 批量加载器
+ * 每个Executor(会话)一个,收集还没加载的BatchResultLoader,按ResultMapping分组
+ * 任何一个加载器要加载时,把同组里还没加载的key凑成一批(最多batchSize个不同的key),执行一次batchSelect
+ * batchSelect的参数是一个Map,"list"和"collection"都是这些key的参数对象,一般用<foreach>拼成IN (...)
+ * 结果按batchKey属性的值分组,分给各个加载器,这样N个父对象的嵌套查询从N次变成N/batchSize次
+ * 立即加载(fetchType="eager")的也先登记,在最外层查询结束时由BaseExecutor调用loadEager一起加载
+ */
+public class BatchLoader {
+
+  private final Configuration configuration;
+  //还没加载的加载器,按ResultMapping分组(不同的result map可能有同名属性,所以按对象本身区分)
+  private final Map<ResultMapping, LinkedList<BatchResultLoader>> pendingLoaders = new IdentityHashMap<ResultMapping, LinkedList<BatchResultLoader>>();
+  //立即加载的,加载完设到哪个对象的哪个属性
+  private final LinkedList<EagerTarget> eagerTargets = new LinkedList<EagerTarget>();
+
+  public BatchLoader(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  //登记一个延迟加载的
+  public void add(BatchResultLoader loader) {
+    LinkedList<BatchResultLoader> loaders = pendingLoaders.get(loader.getResultMapping());
+    if (loaders == null) {
+      loaders = new LinkedList<BatchResultLoader>();
+      pendingLoaders.put(loader.getResultMapping(), loaders);
+    }
+    loaders.add(loader);
+  }
+
+  //登记一个立即加载的
+  public void addEager(BatchResultLoader loader, MetaObject metaResultObject, String property) {
+    add(loader);
+    eagerTargets.add(new EagerTarget(loader, metaResultObject, property));
+  }
+
+  public boolean hasEagerLoads() {
+    return !eagerTargets.isEmpty();
+  }
+
+  //加载包含这个加载器的一批
+  public void load(BatchResultLoader trigger) throws SQLException {
+    List<BatchResultLoader> batch = new ArrayList<BatchResultLoader>();
+    batch.add(trigger);
+    LinkedList<BatchResultLoader> loaders = pendingLoaders.get(trigger.getResultMapping());
+    if (loaders != null) {
+      Set<Object> keys = new HashSet<Object>();
+      keys.add(trigger.getBatchKey());
+      int batchSize = trigger.getResultMapping().getBatchSize();
+      //先从待加载列表里拿出来再执行,执行时嵌套的查询可能又会调到这里
+      for (Iterator<BatchResultLoader> iterator = loaders.iterator(); iterator.hasNext();) {
+        BatchResultLoader loader = iterator.next();
+        if (loader == trigger || loader.isLoaded()) {
+          iterator.remove();
+        } else if (keys.contains(loader.getBatchKey()) || keys.size() < batchSize) {
+          //key相同的不占批次的名额
+          keys.add(loader.getBatchKey());
+          batch.add(loader);
+          iterator.remove();
+        }
+      }
+      if (loaders.isEmpty()) {
+        pendingLoaders.remove(trigger.getResultMapping());
+      }
+    }
+    execute(configuration, batch);
+  }
+
+  //加载所有立即加载的,并设到结果对象上
+  public void loadEager() throws SQLException {
+    EagerTarget target;
+    while ((target = eagerTargets.poll()) != null) {
+      if (!target.loader.isLoaded()) {
+        load(target.loader);
+      }
+      Object value = target.loader.getResultObject();
+      //和单个嵌套查询一样,没查到时不调setter
+      if (value != null) {
+        target.metaResultObject.setValue(target.property, value);
+      }
+    }
+  }
+
+  //会话提交,回滚,关闭时清掉,以后再触发的延迟加载就各查各的
+  public void clear() {
+    pendingLoaders.clear();
+    eagerTargets.clear();
+  }
+
+  //执行一批,同一批的加载器属于同一个ResultMapping
+  static void execute(Configuration configuration, List<BatchResultLoader> batch) throws SQLException {
+    final BatchResultLoader trigger = batch.get(0);
+    final ResultMapping resultMapping = trigger.getResultMapping();
+    final MappedStatement batchQuery = configuration.getMappedStatement(resultMapping.getBatchQueryId());
+    //同一个key只查一次
+    Map<Object, Object> parametersByKey = new LinkedHashMap<Object, Object>();
+    for (BatchResultLoader loader : batch) {
+      if (!parametersByKey.containsKey(loader.getBatchKey())) {
+        parametersByKey.put(loader.getBatchKey(), loader.getParameterObject());
+      }
+    }
+    List<Object> keyParameters = new ArrayList<Object>(parametersByKey.values());
+    Map<String, Object> parameterObject = new HashMap<String, Object>();
+    parameterObject.put("list", keyParameters);
+    parameterObject.put("collection", keyParameters);
+    List<Object> rows = trigger.selectBatch(batchQuery, parameterObject);
+
+    Map<Object, List<Object>> rowsByKey = new HashMap<Object, List<Object>>();
+    for (Object row : rows) {
+      if (row == null) {
+        continue;
+      }
+      Object key = keyOfRow(configuration, resultMapping, row);
+      List<Object> keyRows = rowsByKey.get(key);
+      if (keyRows == null) {
+        keyRows = new ArrayList<Object>();
+        rowsByKey.put(key, keyRows);
+      }
+      keyRows.add(row);
+    }
+    for (BatchResultLoader loader : batch) {
+      List<Object> keyRows = rowsByKey.get(loader.getBatchKey());
+      //每个加载器一个新的list,目标类型是List时不会共用同一个对象
+      loader.resolve(keyRows == null ? new ArrayList<Object>() : new ArrayList<Object>(keyRows));
+    }
+  }
+
+  private static Object keyOfRow(Configuration configuration, ResultMapping resultMapping, Object row) {
+    MetaObject metaRow = configuration.newMetaObject(row);
+    List<String> keyProperties = resultMapping.getBatchKeyProperties();
+    if (keyProperties.size() == 1) {
+      return normalizeKey(metaRow.getValue(keyProperties.get(0)));
+    }
+    List<Object> key = new ArrayList<Object>(keyProperties.size());
+    for (String keyProperty : keyProperties) {
+      key.add(normalizeKey(metaRow.getValue(keyProperty)));
+    }
+    return key;
+  }
+
+  //参数和结果里的key类型可能不一样(比如Integer和Long,BigDecimal),数字统一转成BigDecimal再比较
+  static Object normalizeKey(Object value) {
+    if (!(value instanceof Number)) {
+      return value;
+    }
+    if ((value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite()))
+        || (value instanceof Float && (((Float) value).isNaN() || ((Float) value).isInfinite()))) {
+      return value;
+    }
+    BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+    //0的stripTrailingZeros在老的JDK上去不掉尾部的0
+    return decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+  }
+
+  private static class EagerTarget {
+    private final BatchResultLoader loader;
+    private final MetaObject metaResultObject;
+    private final String property;
+
+    EagerTarget(BatchResultLoader loader, MetaObject metaResultObject, String property) {
+      this.loader = loader;
+      this.metaResultObject = metaResultObject;
+      this.property = property;
+    }
+  }
+
+}
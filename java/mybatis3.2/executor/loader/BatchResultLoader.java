@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * 批量结果加载器
+ * 嵌套查询配置了batchSelect时用它代替ResultLoader
+ * 加载时不单独执行嵌套查询,而是由BatchLoader把同一个会话里还没加载的key凑成一批,用batchSelect一次查出来再分给各个加载器
+ * 不在创建它的会话里加载时(换了线程或者executor已经关闭),只查自己这一个key
+ */
+public class BatchResultLoader extends ResultLoader {
+
+  private final ResultMapping resultMapping;
+  private final BatchLoader batchLoader;
+  //归一化以后的key,用来和批量查询结果里的batchKey属性比较
+  private final Object batchKey;
+
+  public BatchResultLoader(Configuration config, Executor executor, MappedStatement mappedStatement, Object parameterObject, Class<?> targetType,
+      ResultMapping resultMapping, BatchLoader batchLoader) {
+    super(config, executor, mappedStatement, parameterObject, targetType, null, null);
+    this.resultMapping = resultMapping;
+    this.batchLoader = batchLoader;
+    this.batchKey = keyOfParameter(config, resultMapping, parameterObject);
+  }
+
+  @Override
+  public Object loadResult() throws SQLException {
+    if (!loaded) {
+      if (isInCreatorSession()) {
+        batchLoader.load(this);
+      } else {
+        List<BatchResultLoader> self = new ArrayList<BatchResultLoader>(1);
+        self.add(this);
+        BatchLoader.execute(configuration, self);
+      }
+    }
+    return resultObject;
+  }
+
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  public Object getResultObject() {
+    return resultObject;
+  }
+
+  ResultMapping getResultMapping() {
+    return resultMapping;
+  }
+
+  Object getBatchKey() {
+    return batchKey;
+  }
+
+  Object getParameterObject() {
+    return parameterObject;
+  }
+
+  //执行批量语句,由BatchLoader调用
+  List<Object> selectBatch(MappedStatement batchQuery, Object parameter) throws SQLException {
+    return selectList(batchQuery, parameter, null, null);
+  }
+
+  //把这个key对应的那些行转成目标类型
+  void resolve(List<Object> rows) {
+    resultObject = resultExtractor.extractObjectFromList(rows, targetType);
+    loaded = true;
+  }
+
+  //单列key就是参数本身,复合key按复合列的顺序从参数对象里取
+  private static Object keyOfParameter(Configuration configuration, ResultMapping resultMapping, Object parameterObject) {
+    if (resultMapping.getComposites().isEmpty()) {
+      return BatchLoader.normalizeKey(parameterObject);
+    }
+    MetaObject metaParameter = configuration.newMetaObject(parameterObject);
+    List<Object> key = new ArrayList<Object>(resultMapping.getComposites().size());
+    for (ResultMapping composite : resultMapping.getComposites()) {
+      key.add(BatchLoader.normalizeKey(metaParameter.getValue(composite.getProperty())));
+    }
+    return key;
+  }
+
+}
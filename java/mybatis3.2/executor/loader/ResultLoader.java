@@ -80,14 +80,22 @@ public class ResultLoader {
   }
 
   private <E> List<E> selectList() throws SQLException {
+    return selectList(mappedStatement, parameterObject, cacheKey, boundSql);
+  }
+
+  //cacheKey为null时由Executor自己算BoundSql和CacheKey(批量加载用)
+  protected <E> List<E> selectList(MappedStatement ms, Object parameter, CacheKey key, BoundSql sql) throws SQLException {
     Executor localExecutor = executor;
     //如果executor已经被关闭了，则创建一个新的
-    if (Thread.currentThread().getId() != this.creatorThreadId || localExecutor.isClosed()) {
+    if (!isInCreatorSession()) {
       localExecutor = newExecutor();
     }
     try {
       //又调回Executor.query去了，比较巧妙
-      return localExecutor.<E> query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
+      if (key == null) {
+        return localExecutor.<E> query(ms, parameter, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      }
+      return localExecutor.<E> query(ms, parameter, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, key, sql);
     } finally {
       if (localExecutor != executor) {
         localExecutor.close(false);
@@ -95,6 +103,11 @@ public class ResultLoader {
     }
   }
 
+  //是否还在创建它的会话里(同一个线程,executor没有关闭)
+  protected boolean isInCreatorSession() {
+    return Thread.currentThread().getId() == this.creatorThreadId && !executor.isClosed();
+  }
+
   private Executor newExecutor() {
     final Environment environment = configuration.getEnvironment();
     if (environment == null) {
@@ -20,12 +20,21 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   // nested resultmaps
   private final Map<CacheKey, Object> nestedResultObjects = new HashMap<CacheKey, Object>();
   private final Map<CacheKey, Object> ancestorObjects = new HashMap<CacheKey, Object>();
+  //只用来查找的行key,每行重用,要放进Map时才复制一份
+  private final CacheKey rowKeyForLookup = new CacheKey();
+  private final CacheKey ancestorKeyForLookup = new CacheKey();
   private final Map<String, String> ancestorColumnPrefix = new HashMap<String, String>();
 
   // multiple resultsets
   private final Map<String, ResultMapping> nextResultMaps = new HashMap<String, ResultMapping>();
   private final Map<CacheKey, List<PendingRelation>> pendingRelations = new HashMap<CacheKey, List<PendingRelation>>();
 
+  // Cached between calls when the result handler stops in the middle of a nested (ordered) result map, see cursors
+  private Object previousRowValue;
+
+  //批量的立即加载要等最外层查询结束时才设值,有ResultHandler或游标时结果已经交出去了,只能逐个加载
+  private boolean batchEagerLoadEnabled;
+
   private static class PendingRelation {
     public MetaObject metaObject;
     public ResultMapping propertyMapping;
@@ -43,6 +52,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     this.objectFactory = configuration.getObjectFactory();
     this.reflectorFactory = configuration.getReflectorFactory();
     this.resultHandler = resultHandler;
+    this.batchEagerLoadEnabled = resultHandler == null;
   }
 
   //
@@ -96,6 +106,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     List<ResultMap> resultMaps = mappedStatement.getResultMaps();
     int resultMapCount = resultMaps.size();
     validateResultMapsCount(rsw, resultMapCount);
+    //结果集按父键排好序时,父子结果集同时打开,边读边关联
+    if (rsw != null && canStreamResultSets(stmt, resultMaps)) {
+      handleResultSetsStreaming(stmt, rsw, resultMaps.get(0), multipleResults);
+      return collapseSingleResultList(multipleResults);
+    }
     while (rsw != null && resultMapCount > resultSetCount) {
       ResultMap resultMap = resultMaps.get(resultSetCount);
       handleResultSet(rsw, resultMap, multipleResults, null);
@@ -122,6 +137,35 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return collapseSingleResultList(multipleResults);
   }
 
+  @Override
+  public <E> Cursor<E> handleCursorResultSets(Statement stmt) throws SQLException {
+    ErrorContext.instance().activity("handling cursor results").object(mappedStatement.getId());
+    batchEagerLoadEnabled = false;
+
+    ResultSetWrapper rsw = getFirstResultSet(stmt);
+
+    List<ResultMap> resultMaps = mappedStatement.getResultMaps();
+    int resultMapCount = resultMaps.size();
+    validateResultMapsCount(rsw, resultMapCount);
+    if (resultMapCount != 1) {
+      throw new ExecutorException("Cursor results cannot be mapped to multiple resultMaps");
+    }
+
+    ResultMap resultMap = resultMaps.get(0);
+    if (resultMap.hasNestedResultMaps() && !mappedStatement.isResultOrdered()) {
+      //只有数据按父对象排好序,才能在一组行结束时就把父对象交出去
+      throw new ExecutorException("Mapped Statements with nested result mappings can only be used with a Cursor "
+          + "if the statement returns ordered data and sets resultOrdered=true on it.");
+    }
+    if (rsw != null) {
+      if (resultMap.hasNestedResultMaps()) {
+        ensureNoRowBounds();
+      }
+      skipRows(rsw.getResultSet(), rowBounds);
+    }
+    return new DefaultCursor<E>(this, resultMap, rsw, rowBounds);
+  }
+
   private ResultSetWrapper getFirstResultSet(Statement stmt) throws SQLException {
     ResultSet rs = stmt.getResultSet();
     while (rs == null) {
@@ -168,6 +212,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private void cleanUpAfterHandlingResultSet() {
     nestedResultObjects.clear();
     ancestorColumnPrefix.clear();
+    previousRowValue = null;
   }
 
   private void validateResultMapsCount(ResultSetWrapper rsw, int resultMapCount) {
@@ -181,6 +226,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     try {
       if (parentMapping != null) {
         handleRowValues(rsw, resultMap, null, RowBounds.DEFAULT, parentMapping);
+      } else if (resultMap.getType() == ColumnarResult.class) {
+        handleColumnarResultSet(rsw, multipleResults);
       } else {
         if (resultHandler == null) {
           DefaultResultHandler defaultResultHandler = new DefaultResultHandler(objectFactory);
@@ -196,6 +243,34 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     }
   }
 
+  //列式结果:不建行对象,值直接读进数组;有ResultHandler时按fetchSize分批回调
+  private void handleColumnarResultSet(ResultSetWrapper rsw, List<Object> multipleResults) throws SQLException {
+    ResultSet rs = rsw.getResultSet();
+    boolean useColumnLabel = configuration.isUseColumnLabel();
+    skipRows(rs, rowBounds);
+    if (resultHandler == null) {
+      List<Object> resultList = new ArrayList<Object>(1);
+      resultList.add(ColumnarResult.read(rs, useColumnLabel, rowBounds.getLimit()));
+      multipleResults.add(resultList);
+      return;
+    }
+    Integer fetchSize = mappedStatement.getFetchSize();
+    int batchRows = fetchSize != null && fetchSize > 0 ? fetchSize : ColumnarResult.DEFAULT_BATCH_ROWS;
+    DefaultResultContext<Object> resultContext = new DefaultResultContext<Object>();
+    int remaining = rowBounds.getLimit();
+    while (remaining > 0 && !resultContext.isStopped()) {
+      int rows = Math.min(batchRows, remaining);
+      ColumnarResult batch = ColumnarResult.read(rs, useColumnLabel, rows);
+      if (batch.getRowCount() > 0) {
+        callResultHandler(resultHandler, resultContext, batch);
+      }
+      if (batch.getRowCount() < rows) {
+        break;
+      }
+      remaining -= rows;
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private List<Object> collapseSingleResultList(List<Object> multipleResults) {
     return multipleResults.size() == 1 ? (List<Object>) multipleResults.get(0) : multipleResults;
@@ -205,7 +280,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   // HANDLE ROWS FOR SIMPLE RESULTMAP
   //
 
-  private void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler<?> resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
+  public void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler<?> resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
     if (resultMap.hasNestedResultMaps()) {
       ensureNoRowBounds();
       checkResultHandler();
@@ -310,30 +385,28 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private boolean applyPropertyMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, ResultLoaderMap lazyLoader, String columnPrefix)
       throws SQLException {
-    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+    final RowMappingPlan plan = getRowMappingPlan(rsw, resultMap, metaObject, columnPrefix);
+    final ResultSet rs = rsw.getResultSet();
     boolean foundValues = false;
-    final List<ResultMapping> propertyMappings = resultMap.getPropertyResultMappings();
-    for (ResultMapping propertyMapping : propertyMappings) {
-      String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
-      if (propertyMapping.getNestedResultMapId() != null) {
-        // the user added a column attribute to a nested result map, ignore it
-        column = null;
+    for (RowMappingPlan.PropertyMapping mapping : plan.getPropertyMappings()) {
+      final ResultMapping propertyMapping = mapping.resultMapping;
+      final Object value;
+      if (mapping.columnIndex > 0) {
+        // plain column, read it by index with the type handler of the mapping
+        value = propertyMapping.getTypeHandler().getResult(rs, mapping.columnIndex);
+      } else {
+        value = getPropertyMappingValue(rs, metaObject, propertyMapping, lazyLoader, columnPrefix);
       }
-      if (propertyMapping.isCompositeResult()
-          || (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH)))
-          || propertyMapping.getResultSet() != null) {
-        Object value = getPropertyMappingValue(rsw.getResultSet(), metaObject, propertyMapping, lazyLoader, columnPrefix);
-        // issue #541 make property optional
-        final String property = propertyMapping.getProperty();
-        // issue #377, call setter on nulls
-        if (value != DEFERED
-            && property != null
-            && (value != null || (configuration.isCallSettersOnNulls() && !metaObject.getSetterType(property).isPrimitive()))) {
-          metaObject.setValue(property, value);
-        }
-        if (value != null || value == DEFERED) {
-          foundValues = true;
-        }
+      // issue #541 make property optional
+      final String property = propertyMapping.getProperty();
+      // issue #377, call setter on nulls
+      if (value != DEFERED
+          && property != null
+          && (value != null || (configuration.isCallSettersOnNulls() && !metaObject.getSetterType(property).isPrimitive()))) {
+        plan.setValue(metaObject, property, mapping.propertyId, value);
+      }
+      if (value != null || value == DEFERED) {
+        foundValues = true;
       }
     }
     return foundValues;
@@ -354,9 +427,50 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   }
 
   private boolean applyAutomaticMappings(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
-    final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
+    final RowMappingPlan plan = getRowMappingPlan(rsw, resultMap, metaObject, columnPrefix);
+    final ResultSet rs = rsw.getResultSet();
     boolean foundValues = false;
-    for (String columnName : unmappedColumnNames) {
+    for (RowMappingPlan.AutoMapping mapping : plan.getAutoMappings()) {
+      final Object value = mapping.typeHandler.getResult(rs, mapping.columnIndex);
+      // issue #377, call setter on nulls
+      if (value != null || configuration.isCallSettersOnNulls()) {
+        if (value != null || !mapping.primitive) {
+          plan.setValue(metaObject, mapping.property, mapping.propertyId, value);
+        }
+        foundValues = true;
+      }
+    }
+    return foundValues;
+  }
+
+  //
+  // ROW MAPPING PLANS
+  //
+
+  private RowMappingPlan getRowMappingPlan(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
+    final Class<?> type = metaObject.getOriginalObject().getClass();
+    RowMappingPlan plan = rsw.getRowMappingPlan(resultMap, columnPrefix);
+    if (plan == null || plan.getType() != type) {
+      final String key = resultMap.getId() + ":" + columnPrefix + ":" + type.getName() + ":" + rsw.getColumnSignature();
+      plan = configuration.getRowMappingPlan(key);
+      if (plan == null || plan.getType() != type) {
+        plan = createRowMappingPlan(rsw, resultMap, metaObject, columnPrefix);
+        configuration.addRowMappingPlan(key, plan);
+      }
+      rsw.putRowMappingPlan(resultMap, columnPrefix, plan);
+    }
+    return plan;
+  }
+
+  private RowMappingPlan createRowMappingPlan(ResultSetWrapper rsw, ResultMap resultMap, MetaObject metaObject, String columnPrefix) throws SQLException {
+    final ObjectWrapper objectWrapper = metaObject.getObjectWrapper();
+    final PropertyAccessor accessor = objectWrapper instanceof BytecodeBeanWrapper ? ((BytecodeBeanWrapper) objectWrapper).getAccessor() : null;
+
+    final List<RowMappingPlan.AutoMapping> autoMappings = new ArrayList<RowMappingPlan.AutoMapping>();
+    final List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
+    final int[] unmappedColumnIndexes = rsw.getUnmappedColumnIndexes(resultMap, columnPrefix);
+    for (int i = 0; i < unmappedColumnNames.size(); i++) {
+      final String columnName = unmappedColumnNames.get(i);
       String propertyName = columnName;
       if (columnPrefix != null && !columnPrefix.isEmpty()) {
         // When columnPrefix is specified,
@@ -371,19 +485,33 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       if (property != null && metaObject.hasSetter(property)) {
         final Class<?> propertyType = metaObject.getSetterType(property);
         if (typeHandlerRegistry.hasTypeHandler(propertyType)) {
-          final TypeHandler<?> typeHandler = rsw.getTypeHandler(propertyType, columnName);
-          final Object value = typeHandler.getResult(rsw.getResultSet(), columnName);
-          // issue #377, call setter on nulls
-          if (value != null || configuration.isCallSettersOnNulls()) {
-            if (value != null || !propertyType.isPrimitive()) {
-              metaObject.setValue(property, value);
-            }
-            foundValues = true;
-          }
+          final TypeHandler<?> typeHandler = rsw.getTypeHandler(propertyType, unmappedColumnIndexes[i]);
+          autoMappings.add(new RowMappingPlan.AutoMapping(unmappedColumnIndexes[i], property,
+              RowMappingPlan.propertyIdOf(accessor, property), typeHandler, propertyType.isPrimitive()));
         }
       }
     }
-    return foundValues;
+
+    final List<RowMappingPlan.PropertyMapping> propertyMappings = new ArrayList<RowMappingPlan.PropertyMapping>();
+    for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
+      String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
+      if (propertyMapping.getNestedResultMapId() != null) {
+        // the user added a column attribute to a nested result map, ignore it
+        column = null;
+      }
+      final int mappedColumnIndex = column != null ? rsw.getMappedColumnIndex(resultMap, columnPrefix, column) : 0;
+      if (propertyMapping.isCompositeResult()
+          || mappedColumnIndex > 0
+          || propertyMapping.getResultSet() != null) {
+        int columnIndex = 0;
+        if (column != null && propertyMapping.getNestedQueryId() == null && propertyMapping.getResultSet() == null) {
+          columnIndex = mappedColumnIndex;
+        }
+        propertyMappings.add(new RowMappingPlan.PropertyMapping(propertyMapping, columnIndex,
+            RowMappingPlan.propertyIdOf(accessor, propertyMapping.getProperty())));
+      }
+    }
+    return new RowMappingPlan(metaObject.getOriginalObject().getClass(), accessor, autoMappings, propertyMappings);
   }
 
   // MULTIPLE RESULT SETS
@@ -439,6 +567,253 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return cacheKey;
   }
 
+  // STREAMING MULTIPLE RESULT SETS
+  // resultOrdered=true的存储过程,所有结果集都按父键排序时,父结果集和子结果集同时打开(KEEP_CURRENT_RESULT),
+  // 每读一个父行就把子结果集里键相同的行关联上,然后交给ResultHandler,内存里只有当前的父对象
+  // 只支持主结果映射直接关联的子结果集(没有嵌套结果映射,鉴别器和孙结果集),其他情况还是先缓存再关联
+
+  private boolean canStreamResultSets(Statement stmt, List<ResultMap> resultMaps) {
+    String[] resultSets = mappedStatement.getResulSets();
+    if (!mappedStatement.isResultOrdered() || resultSets == null || resultSets.length < 2 || resultMaps.size() != 1) {
+      return false;
+    }
+    ResultMap resultMap = resultMaps.get(0);
+    if (!isStreamableResultMap(resultMap)) {
+      return false;
+    }
+    for (ResultMapping mapping : resultMap.getPropertyResultMappings()) {
+      if (mapping.getResultSet() != null) {
+        if (indexOfChildResultSet(resultSets, mapping.getResultSet()) < 0) {
+          return false;
+        }
+        ResultMap childResultMap = configuration.getResultMap(mapping.getNestedResultMapId());
+        if (!isStreamableResultMap(childResultMap)) {
+          return false;
+        }
+        for (ResultMapping childMapping : childResultMap.getPropertyResultMappings()) {
+          if (childMapping.getResultSet() != null) {
+            return false;
+          }
+        }
+      }
+    }
+    try {
+      return stmt.getConnection().getMetaData().supportsMultipleOpenResults();
+    } catch (Exception e) {
+      // Intentionally ignored.
+      return false;
+    }
+  }
+
+  private boolean isStreamableResultMap(ResultMap resultMap) {
+    return !resultMap.hasNestedResultMaps() && resultMap.getDiscriminator() == null;
+  }
+
+  private int indexOfChildResultSet(String[] resultSets, String name) {
+    for (int i = 1; i < resultSets.length; i++) {
+      if (resultSets[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void handleResultSetsStreaming(Statement stmt, ResultSetWrapper rsw, ResultMap resultMap, List<Object> multipleResults) throws SQLException {
+    String[] resultSets = mappedStatement.getResulSets();
+    List<ChildResultSet> children = new ArrayList<ChildResultSet>();
+    try {
+      for (int i = 1; i < resultSets.length; i++) {
+        ResultSetWrapper childRsw = getNextOpenResultSet(stmt);
+        if (childRsw == null) {
+          break;
+        }
+        for (ResultMapping mapping : resultMap.getPropertyResultMappings()) {
+          if (resultSets[i].equals(mapping.getResultSet())) {
+            children.add(new ChildResultSet(childRsw, mapping, configuration.getResultMap(mapping.getNestedResultMapId())));
+            childRsw = null;
+            break;
+          }
+        }
+        if (childRsw != null) {
+          //没有属性用到的结果集
+          closeResultSet(childRsw.getResultSet());
+        }
+      }
+      ResultHandler<?> handler = resultHandler;
+      DefaultResultHandler defaultResultHandler = null;
+      if (handler == null) {
+        defaultResultHandler = new DefaultResultHandler(objectFactory);
+        handler = defaultResultHandler;
+      }
+      DefaultResultContext<Object> resultContext = new DefaultResultContext<Object>();
+      ResultSet rs = rsw.getResultSet();
+      skipRows(rs, rowBounds);
+      while (shouldProcessMoreRows(resultContext, rowBounds) && rs.next()) {
+        Object rowValue = getRowValue(rsw, resultMap);
+        for (ChildResultSet child : children) {
+          linkChildRows(rs, child);
+        }
+        pendingRelations.clear();
+        callResultHandler(handler, resultContext, rowValue);
+      }
+      if (defaultResultHandler != null) {
+        multipleResults.add(defaultResultHandler.getResultList());
+      }
+    } finally {
+      closeResultSet(rsw.getResultSet());
+      for (ChildResultSet child : children) {
+        closeResultSet(child.rsw.getResultSet());
+      }
+      cleanUpAfterHandlingResultSet();
+    }
+  }
+
+  //把子结果集里关联键和当前父行相同的行关联到父对象上,键比父行小的是没有父行的子行,跳过
+  //合并关联靠的是数据库的排序和Java的比较一致,父键必须严格递增,子键不能递减,否则(比如排序规则不区分大小写)直接报错,不悄悄丢子行
+  private void linkChildRows(ResultSet parentRs, ChildResultSet child) throws SQLException {
+    Object[] parentKey = readRelationKey(parentRs, child.parentColumns);
+    if (hasNullKey(parentKey)) {
+      //关联键为null的父行没有子行
+      return;
+    }
+    if (child.previousParentKey != null && compareRelationKeys(parentKey, child.previousParentKey) <= 0) {
+      throw relationOrderException(child.parentColumns);
+    }
+    child.previousParentKey = parentKey;
+    List<PendingRelation> parents = new ArrayList<PendingRelation>();
+    for (List<PendingRelation> relations : pendingRelations.values()) {
+      for (PendingRelation relation : relations) {
+        if (relation.propertyMapping.equals(child.parentMapping)) {
+          parents.add(relation);
+        }
+      }
+    }
+    while (child.hasRow()) {
+      Object[] childKey = readRelationKey(child.rsw.getResultSet(), child.foreignColumns);
+      if (hasNullKey(childKey)) {
+        //关联键为null的子行没有父行,数据库把null排在前面还是后面都一样跳过
+        child.advance();
+        continue;
+      }
+      if (child.previousKey != null && compareRelationKeys(childKey, child.previousKey) < 0) {
+        throw relationOrderException(child.foreignColumns);
+      }
+      child.previousKey = childKey;
+      int comparison = compareRelationKeys(childKey, parentKey);
+      if (comparison > 0) {
+        break;
+      }
+      if (comparison == 0) {
+        Object rowValue = getRowValue(child.rsw, child.resultMap);
+        if (rowValue != null) {
+          for (PendingRelation parent : parents) {
+            linkObjects(parent.metaObject, parent.propertyMapping, rowValue);
+          }
+        }
+      }
+      child.advance();
+    }
+  }
+
+  private ExecutorException relationOrderException(String[] columns) {
+    return new ExecutorException("Result sets of '" + mappedStatement.getId() + "' are not ordered by " + Arrays.toString(columns)
+        + " the way Java compares the values (check NULL ordering and collation, e.g. case-insensitive or locale-specific ordering)."
+        + "  Order them by a binary collation or set resultOrdered=false so the result sets are buffered and joined by equality.");
+  }
+
+  private boolean hasNullKey(Object[] key) {
+    for (Object value : key) {
+      if (value == null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Object[] readRelationKey(ResultSet rs, String[] columns) throws SQLException {
+    Object[] key = new Object[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      key[i] = rs.getObject(columns[i]);
+    }
+    return key;
+  }
+
+  //<0:第一个键排在前面,0:相等,>0:第一个键排在后面,键里没有null
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private int compareRelationKeys(Object[] key, Object[] otherKey) {
+    for (int i = 0; i < key.length; i++) {
+      Object value = key[i];
+      Object other = otherKey[i];
+      int comparison;
+      if (value instanceof Number && other instanceof Number) {
+        comparison = new BigDecimal(value.toString()).compareTo(new BigDecimal(other.toString()));
+      } else if (value instanceof Comparable && value.getClass() == other.getClass()) {
+        comparison = ((Comparable) value).compareTo(other);
+      } else {
+        //类型不同没法比较大小,按字符串比,和数据库的顺序对不上时由调用方的检查报错
+        comparison = value.toString().compareTo(other.toString());
+      }
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return 0;
+  }
+
+  //取下一个结果集,之前的结果集保持打开
+  private ResultSetWrapper getNextOpenResultSet(Statement stmt) throws SQLException {
+    while (true) {
+      if (stmt.getMoreResults(Statement.KEEP_CURRENT_RESULT)) {
+        ResultSet rs = stmt.getResultSet();
+        return rs != null ? new ResultSetWrapper(rs, configuration) : null;
+      }
+      if (stmt.getUpdateCount() == -1) {
+        return null;
+      }
+    }
+  }
+
+  //流式关联时打开着的子结果集,当前行是还没关联的第一行
+  private static class ChildResultSet {
+    private final ResultSetWrapper rsw;
+    private final ResultMapping parentMapping;
+    private final ResultMap resultMap;
+    private final String[] parentColumns;
+    private final String[] foreignColumns;
+    private Boolean hasRow;
+    //上一个关联过的父键和读过的子键,用来检查顺序
+    private Object[] previousParentKey;
+    private Object[] previousKey;
+
+    ChildResultSet(ResultSetWrapper rsw, ResultMapping parentMapping, ResultMap resultMap) {
+      this.rsw = rsw;
+      this.parentMapping = parentMapping;
+      this.resultMap = resultMap;
+      this.parentColumns = splitColumns(parentMapping.getColumn());
+      this.foreignColumns = splitColumns(parentMapping.getForeignColumn());
+    }
+
+    //"a, b"这样带空格的写法也要认
+    private static String[] splitColumns(String columns) {
+      String[] names = columns.split(",");
+      for (int i = 0; i < names.length; i++) {
+        names[i] = names[i].trim();
+      }
+      return names;
+    }
+
+    boolean hasRow() throws SQLException {
+      if (hasRow == null) {
+        hasRow = rsw.getResultSet().next();
+      }
+      return hasRow;
+    }
+
+    void advance() throws SQLException {
+      hasRow = rsw.getResultSet().next();
+    }
+  }
+
   //
   // INSTANTIATION & CONSTRUCTOR MAPPING
   //
@@ -491,7 +866,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
           value = getRowValue(rsw, resultMap);
         } else {
           final TypeHandler<?> typeHandler = constructorMapping.getTypeHandler();
-          value = typeHandler.getResult(rsw.getResultSet(), prependPrefix(column, columnPrefix));
+          value = getColumnValue(rsw, typeHandler, prependPrefix(column, columnPrefix));
         }
       } catch (ResultMapException e) {
         throw new ExecutorException("Could not process result for mapping: " + constructorMapping, e);
@@ -514,7 +889,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
           Class<?> parameterType = constructor.getParameterTypes()[i];
           String columnName = rsw.getColumnNames().get(i);
           TypeHandler<?> typeHandler = rsw.getTypeHandler(parameterType, columnName);
-          Object value = typeHandler.getResult(rsw.getResultSet(), prependPrefix(columnName, columnPrefix));
+          Object value = getColumnValue(rsw, typeHandler, prependPrefix(columnName, columnPrefix));
           constructorArgTypes.add(parameterType);
           constructorArgs.add(value);
           foundValues = value != null || foundValues;
@@ -543,7 +918,20 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     } else {
       columnName = rsw.getColumnNames().get(0);
     }
-    final TypeHandler<?> typeHandler = rsw.getTypeHandler(resultType, columnName);
+    final int columnIndex = rsw.getColumnIndex(columnName);
+    final TypeHandler<?> typeHandler = rsw.getTypeHandler(resultType, columnIndex);
+    if (columnIndex > 0) {
+      return typeHandler.getResult(rsw.getResultSet(), columnIndex);
+    }
+    return typeHandler.getResult(rsw.getResultSet(), columnName);
+  }
+
+  //按下标取值,结果集里找不到这列时还是按列名取,让驱动报错
+  private Object getColumnValue(ResultSetWrapper rsw, TypeHandler<?> typeHandler, String columnName) throws SQLException {
+    final int columnIndex = rsw.getColumnIndex(columnName);
+    if (columnIndex > 0) {
+      return typeHandler.getResult(rsw.getResultSet(), columnIndex);
+    }
     return typeHandler.getResult(rsw.getResultSet(), columnName);
   }
 
@@ -582,6 +970,17 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       if (executor.isCached(nestedQuery, key)) {
         executor.deferLoad(nestedQuery, metaResultObject, property, key, targetType);
         value = DEFERED;
+      } else if (propertyMapping.getBatchQueryId() != null && (propertyMapping.isLazy() || batchEagerLoadEnabled)) {
+        //配置了batchSelect,先登记到批量加载器,用到时和其他key一起查
+        final BatchLoader batchLoader = executor.getBatchLoader();
+        final BatchResultLoader resultLoader = new BatchResultLoader(configuration, executor, nestedQuery, nestedQueryParameterObject, targetType, propertyMapping, batchLoader);
+        if (propertyMapping.isLazy()) {
+          batchLoader.add(resultLoader);
+          lazyLoader.addLoader(property, metaResultObject, resultLoader);
+        } else {
+          batchLoader.addEager(resultLoader, metaResultObject, property);
+        }
+        value = DEFERED;
       } else {
         final ResultLoader resultLoader = new ResultLoader(configuration, executor, nestedQuery, nestedQueryParameterObject, targetType, key, nestedBoundSql);
         if (propertyMapping.isLazy()) {
@@ -682,11 +1081,16 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private void handleRowValuesForNestedResultMap(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler<?> resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
     final DefaultResultContext<Object> resultContext = new DefaultResultContext<Object>();
     skipRows(rsw.getResultSet(), rowBounds);
-    Object rowValue = null;
+    //上次被stop打断时还没交出去的父对象,接着处理
+    Object rowValue = previousRowValue;
     while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
       final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
-      final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
+      CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null, rowKeyForLookup);
       Object partialObject = nestedResultObjects.get(rowKey);
+      if (partialObject == null) {
+        //新对象的key要放进nestedResultObjects,不能再重用
+        rowKey = copyKey(rowKey);
+      }
       // issue #577 && #542
       if (mappedStatement.isResultOrdered()) {
         if (partialObject == null && rowValue != null) {
@@ -703,6 +1107,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     }
     if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
       storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
+      previousRowValue = null;
+    } else if (rowValue != null) {
+      previousRowValue = rowValue;
     }
   }
 
@@ -763,7 +1170,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
           CacheKey rowKey = null;
           Object ancestorObject = null;
           if (ancestorColumnPrefix.containsKey(nestedResultMapId)) {
-            rowKey = createRowKey(nestedResultMap, rsw, ancestorColumnPrefix.get(nestedResultMapId));
+            rowKey = createRowKey(nestedResultMap, rsw, ancestorColumnPrefix.get(nestedResultMapId), ancestorKeyForLookup);
             ancestorObject = ancestorObjects.get(rowKey);
           }
           if (ancestorObject != null) {
@@ -829,7 +1236,12 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   //
 
   private CacheKey createRowKey(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix) throws SQLException {
-    final CacheKey cacheKey = new CacheKey();
+    return createRowKey(resultMap, rsw, columnPrefix, new CacheKey());
+  }
+
+  //把行key填到传入的cacheKey里(先清空)
+  private CacheKey createRowKey(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix, CacheKey cacheKey) throws SQLException {
+    cacheKey.reset();
     cacheKey.update(resultMap.getId());
     List<ResultMapping> resultMappings = getResultMappingsForRowKey(resultMap);
     if (resultMappings.size() == 0) {
@@ -846,18 +1258,22 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private CacheKey combineKeys(CacheKey rowKey, CacheKey parentRowKey) {
     if (rowKey.getUpdateCount() > 1 && parentRowKey.getUpdateCount() > 1) {
-      CacheKey combinedKey;
-      try {
-        combinedKey = rowKey.clone();
-      } catch (CloneNotSupportedException e) {
-        throw new ExecutorException("Error cloning cache key.  Cause: " + e, e);
-      }
+      CacheKey combinedKey = copyKey(rowKey);
+      //复制父key的组成部分,不引用父key本身(父key可能是重用的查找key)
       combinedKey.update(parentRowKey);
       return combinedKey;
     }
     return CacheKey.NULL_CACHE_KEY;
   }
 
+  private CacheKey copyKey(CacheKey cacheKey) {
+    try {
+      return cacheKey.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new ExecutorException("Error cloning cache key.  Cause: " + e, e);
+    }
+  }
+
   private List<ResultMapping> getResultMappingsForRowKey(ResultMap resultMap) {
     List<ResultMapping> resultMappings = resultMap.getIdResultMappings();
     if (resultMappings.size() == 0) {
@@ -876,10 +1292,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       } else if (resultMapping.getNestedQueryId() == null) {
         final String column = prependPrefix(resultMapping.getColumn(), columnPrefix);
         final TypeHandler<?> th = resultMapping.getTypeHandler();
-        List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
         // Issue #114
-        if (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
-          final Object value = th.getResult(rsw.getResultSet(), column);
+        final int columnIndex = column != null ? rsw.getMappedColumnIndex(resultMap, columnPrefix, column) : 0;
+        if (columnIndex > 0) {
+          final Object value = th.getResult(rsw.getResultSet(), columnIndex);
           if (value != null) {
             cacheKey.update(column);
             cacheKey.update(value);
@@ -892,7 +1308,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private void createRowKeyForUnmappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey cacheKey, String columnPrefix) throws SQLException {
     final MetaClass metaType = MetaClass.forClass(resultMap.getType(), reflectorFactory);
     List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
-    for (String column : unmappedColumnNames) {
+    int[] unmappedColumnIndexes = rsw.getUnmappedColumnIndexes(resultMap, columnPrefix);
+    for (int i = 0; i < unmappedColumnNames.size(); i++) {
+      String column = unmappedColumnNames.get(i);
       String property = column;
       if (columnPrefix != null && !columnPrefix.isEmpty()) {
         // When columnPrefix is specified, ignore columns without the prefix.
@@ -903,7 +1321,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
       if (metaType.findProperty(property, configuration.isMapUnderscoreToCamelCase()) != null) {
-        String value = rsw.getResultSet().getString(column);
+        String value = rsw.getResultSet().getString(unmappedColumnIndexes[i]);
         if (value != null) {
           cacheKey.update(column);
           cacheKey.update(value);
@@ -914,8 +1332,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private void createRowKeyForMap(ResultSetWrapper rsw, CacheKey cacheKey) throws SQLException {
     List<String> columnNames = rsw.getColumnNames();
-    for (String columnName : columnNames) {
-      final String value = rsw.getResultSet().getString(columnName);
+    for (int i = 0; i < columnNames.size(); i++) {
+      final String columnName = columnNames.get(i);
+      final String value = rsw.getResultSet().getString(rsw.getColumnIndex(columnName));
       if (value != null) {
         cacheKey.update(columnName);
         cacheKey.update(value);
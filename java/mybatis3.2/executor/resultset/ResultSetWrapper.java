@@ -21,7 +21,6 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -38,27 +37,50 @@ import org.apache.ibatis.type.UnknownTypeHandler;
 /**
  * @author Iwao AVE!
  */
-class ResultSetWrapper {
+public class ResultSetWrapper {
 
   private final ResultSet resultSet;
   private final TypeHandlerRegistry typeHandlerRegistry;
   private final List<String> columnNames = new ArrayList<String>();
   private final List<String> classNames = new ArrayList<String>();
   private final List<JdbcType> jdbcTypes = new ArrayList<JdbcType>();
-  private final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new HashMap<String, Map<Class<?>, TypeHandler<?>>>();
-  private Map<String, List<String>> mappedColumnNamesMap = new HashMap<String, List<String>>();
-  private Map<String, List<String>> unMappedColumnNamesMap = new HashMap<String, List<String>>();
+  //下面的数组都按列下标(从1开始)存,0号不用
+  private final String[] upperColumnNames;
+  //每列按属性类型缓存的TypeHandler
+  private final Map<Class<?>, TypeHandler<?>>[] typeHandlers;
+  //列名到下标的哈希表,同名的列取第一个,和ResultSet按列名取值一样忽略大小写
+  //先按原样查,查不到再按大写查,大多数情况下不用转大写
+  private final Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+  private final Map<String, Integer> upperColumnIndexes = new HashMap<String, Integer>();
+  //按ResultMap id和列前缀缓存的已映射/未映射列
+  private final Map<String, Map<String, ColumnView>> columnViews = new HashMap<String, Map<String, ColumnView>>();
+  //本结果集用到的行映射计划,最近一次用到的单独记下来,每行取计划时不用拼key
+  private final Map<String, RowMappingPlan> rowMappingPlans = new HashMap<String, RowMappingPlan>();
+  private ResultMap lastPlanResultMap;
+  private String lastPlanColumnPrefix;
+  private RowMappingPlan lastPlan;
+  private String columnSignature;
 
+  @SuppressWarnings("unchecked")
   public ResultSetWrapper(ResultSet rs, Configuration configuration) throws SQLException {
     super();
     this.typeHandlerRegistry = configuration.getTypeHandlerRegistry();
     this.resultSet = rs;
     final ResultSetMetaData metaData = rs.getMetaData();
     final int columnCount = metaData.getColumnCount();
+    upperColumnNames = new String[columnCount + 1];
+    typeHandlers = new Map[columnCount + 1];
     for (int i = 1; i <= columnCount; i++) {
-      columnNames.add(configuration.isUseColumnLabel() ? metaData.getColumnLabel(i) : metaData.getColumnName(i));
+      final String columnName = configuration.isUseColumnLabel() ? metaData.getColumnLabel(i) : metaData.getColumnName(i);
+      final String upperColumnName = columnName.toUpperCase(Locale.ENGLISH);
+      columnNames.add(columnName);
       jdbcTypes.add(JdbcType.forCode(metaData.getColumnType(i)));
       classNames.add(metaData.getColumnClassName(i));
+      upperColumnNames[i] = upperColumnName;
+      if (!upperColumnIndexes.containsKey(upperColumnName)) {
+        upperColumnIndexes.put(upperColumnName, i);
+        columnIndexes.put(columnName, i);
+      }
     }
   }
 
@@ -84,11 +106,16 @@ class ResultSetWrapper {
    * @return
    */
   public TypeHandler<?> getTypeHandler(Class<?> propertyType, String columnName) {
+    return getTypeHandler(propertyType, getColumnIndex(columnName));
+  }
+
+  //按列下标(从1开始)取TypeHandler,下标为0(结果集里没有这列)时不看列的元数据
+  public TypeHandler<?> getTypeHandler(Class<?> propertyType, int columnIndex) {
     TypeHandler<?> handler = null;
-    Map<Class<?>, TypeHandler<?>> columnHandlers = typeHandlerMap.get(columnName);
+    Map<Class<?>, TypeHandler<?>> columnHandlers = typeHandlers[columnIndex];
     if (columnHandlers == null) {
       columnHandlers = new HashMap<Class<?>, TypeHandler<?>>();
-      typeHandlerMap.put(columnName, columnHandlers);
+      typeHandlers[columnIndex] = columnHandlers;
     } else {
       handler = columnHandlers.get(propertyType);
     }
@@ -96,10 +123,9 @@ class ResultSetWrapper {
       handler = typeHandlerRegistry.getTypeHandler(propertyType);
       // Replicate logic of UnknownTypeHandler#resolveTypeHandler
       // See issue #59 comment 10
-      if (handler == null || handler instanceof UnknownTypeHandler) {
-        final int index = columnNames.indexOf(columnName);
-        final JdbcType jdbcType = jdbcTypes.get(index);
-        final Class<?> javaType = resolveClass(classNames.get(index));
+      if ((handler == null || handler instanceof UnknownTypeHandler) && columnIndex > 0) {
+        final JdbcType jdbcType = jdbcTypes.get(columnIndex - 1);
+        final Class<?> javaType = resolveClass(classNames.get(columnIndex - 1));
         if (javaType != null && jdbcType != null) {
           handler = typeHandlerRegistry.getTypeHandler(javaType, jdbcType);
         } else if (javaType != null) {
@@ -124,54 +150,127 @@ class ResultSetWrapper {
     }
   }
 
-  private void loadMappedAndUnmappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> mappedColumnNames = new ArrayList<String>();
-    List<String> unmappedColumnNames = new ArrayList<String>();
-    final String upperColumnPrefix = columnPrefix == null ? null : columnPrefix.toUpperCase(Locale.ENGLISH);
-    final Set<String> mappedColumns = prependPrefixes(resultMap.getMappedColumns(), upperColumnPrefix);
-    for (String columnName : columnNames) {
-      final String upperColumnName = columnName.toUpperCase(Locale.ENGLISH);
-      if (mappedColumns.contains(upperColumnName)) {
-        mappedColumnNames.add(upperColumnName);
-      } else {
-        unmappedColumnNames.add(columnName);
-      }
+  private ColumnView getColumnView(ResultMap resultMap, String columnPrefix) {
+    Map<String, ColumnView> prefixViews = columnViews.get(resultMap.getId());
+    if (prefixViews == null) {
+      prefixViews = new HashMap<String, ColumnView>();
+      columnViews.put(resultMap.getId(), prefixViews);
     }
-    mappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), mappedColumnNames);
-    unMappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), unmappedColumnNames);
+    ColumnView view = prefixViews.get(columnPrefix);
+    if (view == null) {
+      view = new ColumnView(resultMap, columnPrefix);
+      prefixViews.put(columnPrefix, view);
+    }
+    return view;
   }
 
   public List<String> getMappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> mappedColumnNames = mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    if (mappedColumnNames == null) {
-      loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
-      mappedColumnNames = mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    }
-    return mappedColumnNames;
+    return getColumnView(resultMap, columnPrefix).mappedColumnNames;
   }
 
   public List<String> getUnmappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> unMappedColumnNames = unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
-    if (unMappedColumnNames == null) {
-      loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
-      unMappedColumnNames = unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
+    return getColumnView(resultMap, columnPrefix).unmappedColumnNames;
+  }
+
+  //未映射列的下标,和getUnmappedColumnNames一一对应
+  public int[] getUnmappedColumnIndexes(ResultMap resultMap, String columnPrefix) throws SQLException {
+    return getColumnView(resultMap, columnPrefix).unmappedColumnIndexes;
+  }
+
+  //列(已经加了前缀)在这个ResultMap里映射了就返回它的下标,否则返回0
+  public int getMappedColumnIndex(ResultMap resultMap, String columnPrefix, String column) throws SQLException {
+    final ColumnView view = getColumnView(resultMap, columnPrefix);
+    Integer index = view.mappedColumnIndexes.get(column);
+    if (index == null) {
+      index = view.mappedColumnIndexes.get(column.toUpperCase(Locale.ENGLISH));
+    }
+    return index == null ? 0 : index;
+  }
+
+  //列名在结果集中的下标(从1开始),忽略大小写,和ResultSet按列名取值一样取第一个匹配的列,找不到返回0
+  public int getColumnIndex(String columnName) {
+    Integer index = columnIndexes.get(columnName);
+    if (index == null) {
+      index = upperColumnIndexes.get(columnName.toUpperCase(Locale.ENGLISH));
+    }
+    return index == null ? 0 : index;
+  }
+
+  //列名,JDBC类型,Java类名拼起来的签名,结果集元数据一样签名就一样,用作行映射计划缓存的key
+  public String getColumnSignature() {
+    if (columnSignature == null) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < columnNames.size(); i++) {
+        sb.append(columnNames.get(i)).append(':').append(jdbcTypes.get(i)).append(':').append(classNames.get(i)).append(',');
+      }
+      columnSignature = sb.toString();
     }
-    return unMappedColumnNames;
+    return columnSignature;
+  }
+
+  public RowMappingPlan getRowMappingPlan(ResultMap resultMap, String columnPrefix) {
+    if (resultMap == lastPlanResultMap && (columnPrefix == null ? lastPlanColumnPrefix == null : columnPrefix.equals(lastPlanColumnPrefix))) {
+      return lastPlan;
+    }
+    RowMappingPlan plan = rowMappingPlans.get(getMapKey(resultMap, columnPrefix));
+    if (plan != null) {
+      lastPlanResultMap = resultMap;
+      lastPlanColumnPrefix = columnPrefix;
+      lastPlan = plan;
+    }
+    return plan;
+  }
+
+  public void putRowMappingPlan(ResultMap resultMap, String columnPrefix, RowMappingPlan plan) {
+    rowMappingPlans.put(getMapKey(resultMap, columnPrefix), plan);
+    lastPlanResultMap = resultMap;
+    lastPlanColumnPrefix = columnPrefix;
+    lastPlan = plan;
   }
 
   private String getMapKey(ResultMap resultMap, String columnPrefix) {
     return resultMap.getId() + ":" + columnPrefix;
   }
 
-  private Set<String> prependPrefixes(Set<String> columnNames, String prefix) {
-    if (columnNames == null || columnNames.isEmpty() || prefix == null || prefix.length() == 0) {
-      return columnNames;
-    }
-    final Set<String> prefixed = new HashSet<String>();
-    for (String columnName : columnNames) {
-      prefixed.add(prefix + columnName);
+  /**
+   * 一个(ResultMap,列前缀)看到的结果集:哪些列映射了,哪些没有
+   * 列前缀不拼到ResultMap的每个列名上,而是看结果集的列名去掉前缀以后在不在映射的列里
+   */
+  private class ColumnView {
+    //已映射的列是大写的,和原来一样
+    private final List<String> mappedColumnNames = new ArrayList<String>();
+    private final Map<String, Integer> mappedColumnIndexes = new HashMap<String, Integer>();
+    private final List<String> unmappedColumnNames = new ArrayList<String>();
+    private final int[] unmappedColumnIndexes;
+
+    ColumnView(ResultMap resultMap, String columnPrefix) {
+      final String upperColumnPrefix = columnPrefix == null || columnPrefix.length() == 0 ? null : columnPrefix.toUpperCase(Locale.ENGLISH);
+      final Set<String> mappedColumns = resultMap.getMappedColumns();
+      final int[] unmapped = new int[columnNames.size()];
+      int unmappedCount = 0;
+      for (int i = 1; i < upperColumnNames.length; i++) {
+        final String upperColumnName = upperColumnNames[i];
+        final boolean mapped;
+        if (upperColumnPrefix == null) {
+          mapped = mappedColumns.contains(upperColumnName);
+        } else {
+          mapped = upperColumnName.startsWith(upperColumnPrefix) && mappedColumns.contains(upperColumnName.substring(upperColumnPrefix.length()));
+        }
+        //同名的列都按第一列的下标,和按列名取值一样
+        final int index = upperColumnIndexes.get(upperColumnName);
+        if (mapped) {
+          mappedColumnNames.add(upperColumnName);
+          if (!mappedColumnIndexes.containsKey(upperColumnName)) {
+            mappedColumnIndexes.put(upperColumnName, index);
+          }
+        } else {
+          unmappedColumnNames.add(columnNames.get(i - 1));
+          unmapped[unmappedCount++] = index;
+        }
+      }
+      unmappedColumnIndexes = new int[unmappedCount];
+      System.arraycopy(unmapped, 0, unmappedColumnIndexes, 0, unmappedCount);
     }
-    return prefixed;
   }
-  
+
 }
@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.util.List;
+
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.wrapper.BytecodeBeanWrapper;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapper;
+import org.apache.ibatis.reflection.wrapper.PropertyAccessor;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ * 行映射计划
+ * 对同一个(ResultMap,列前缀,结果类型,列集合)只算一次:
+ * 哪些列要自动映射,每列的下标,用哪个TypeHandler,设到哪个属性上
+ * 以后每一行就是按下标循环取值设值,不用再按列名查找,也不用再解析TypeHandler
+ * 计划是不可变的,由Configuration缓存,多线程共享
+ */
+public class RowMappingPlan {
+
+  private final Class<?> type;
+  //结果对象用字节码包装器时才有,设值时按属性id直接调用setter
+  private final PropertyAccessor accessor;
+  private final AutoMapping[] autoMappings;
+  private final PropertyMapping[] propertyMappings;
+
+  public RowMappingPlan(Class<?> type, PropertyAccessor accessor, List<AutoMapping> autoMappings, List<PropertyMapping> propertyMappings) {
+    this.type = type;
+    this.accessor = accessor;
+    this.autoMappings = autoMappings.toArray(new AutoMapping[autoMappings.size()]);
+    this.propertyMappings = propertyMappings.toArray(new PropertyMapping[propertyMappings.size()]);
+  }
+
+  public Class<?> getType() {
+    return type;
+  }
+
+  public AutoMapping[] getAutoMappings() {
+    return autoMappings;
+  }
+
+  public PropertyMapping[] getPropertyMappings() {
+    return propertyMappings;
+  }
+
+  //简单属性(没有.和[])且可写时返回属性id,否则返回-1
+  public static int propertyIdOf(PropertyAccessor accessor, String property) {
+    if (accessor == null || property == null || property.indexOf('.') > -1 || property.indexOf('[') > -1) {
+      return -1;
+    }
+    int id = accessor.indexOf(property);
+    return accessor.isWritable(id) ? id : -1;
+  }
+
+  //设值,能按属性id就按属性id,否则还是走MetaObject
+  public void setValue(MetaObject metaObject, String property, int propertyId, Object value) {
+    if (propertyId >= 0) {
+      ObjectWrapper wrapper = metaObject.getObjectWrapper();
+      //ObjectWrapperFactory可能中途换了,确认是同一个访问器才按id设值
+      if (wrapper instanceof BytecodeBeanWrapper && ((BytecodeBeanWrapper) wrapper).getAccessor() == accessor) {
+        Object object = metaObject.getOriginalObject();
+        try {
+          accessor.set(object, propertyId, value);
+        } catch (RuntimeException e) {
+          throw new ReflectionException("Could not set property '" + property + "' of '" + object.getClass() + "' with value '" + value + "' Cause: " + e.toString(), e);
+        }
+        return;
+      }
+    }
+    metaObject.setValue(property, value);
+  }
+
+  /**
+   * 一个自动映射的列
+   */
+  public static class AutoMapping {
+    //JDBC列下标,从1开始
+    public final int columnIndex;
+    public final String property;
+    public final int propertyId;
+    public final TypeHandler<?> typeHandler;
+    public final boolean primitive;
+
+    public AutoMapping(int columnIndex, String property, int propertyId, TypeHandler<?> typeHandler, boolean primitive) {
+      this.columnIndex = columnIndex;
+      this.property = property;
+      this.propertyId = propertyId;
+      this.typeHandler = typeHandler;
+      this.primitive = primitive;
+    }
+  }
+
+  /**
+   * 一个在结果集里出现的<result>映射
+   * columnIndex为0的(嵌套查询,多结果集,复合列)还是走原来的逻辑
+   */
+  public static class PropertyMapping {
+    public final ResultMapping resultMapping;
+    //JDBC列下标,从1开始,0表示不是简单列
+    public final int columnIndex;
+    public final int propertyId;
+
+    public PropertyMapping(ResultMapping resultMapping, int columnIndex, int propertyId) {
+      this.resultMapping = resultMapping;
+      this.columnIndex = columnIndex;
+      this.propertyId = propertyId;
+    }
+  }
+
+}
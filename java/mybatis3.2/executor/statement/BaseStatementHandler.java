@@ -45,6 +45,10 @@ public abstract class BaseStatementHandler implements StatementHandler {
     return parameterHandler;
   }
 
+  public MappedStatement getMappedStatement() {
+    return mappedStatement;
+  }
+
   @Override
   public Statement prepare(Connection connection) throws SQLException {
     ErrorContext.instance().sql(boundSql.getSql());
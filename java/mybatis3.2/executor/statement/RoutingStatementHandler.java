@@ -20,6 +20,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
@@ -38,8 +39,10 @@ import org.apache.ibatis.session.RowBounds;
 public class RoutingStatementHandler implements StatementHandler {
 
   private final StatementHandler delegate;
+  private final MappedStatement mappedStatement;
 
   public RoutingStatementHandler(Executor executor, MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql) {
+    this.mappedStatement = ms;
 
     //根据语句类型，委派到不同的语句处理器(STATEMENT|PREPARED|CALLABLE)
     switch (ms.getStatementType()) {
@@ -83,6 +86,11 @@ public class RoutingStatementHandler implements StatementHandler {
     return delegate.<E>query(statement, resultHandler);
   }
 
+  @Override
+  public <E> Cursor<E> queryCursor(Statement statement) throws SQLException {
+    return delegate.queryCursor(statement);
+  }
+
   @Override
   public BoundSql getBoundSql() {
     return delegate.getBoundSql();
@@ -92,4 +100,8 @@ public class RoutingStatementHandler implements StatementHandler {
   public ParameterHandler getParameterHandler() {
     return delegate.getParameterHandler();
   }
+
+  public MappedStatement getMappedStatement() {
+    return mappedStatement;
+  }
 }
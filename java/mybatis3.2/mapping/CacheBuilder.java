@@ -24,6 +24,8 @@ import java.util.Properties;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.LoadingCache;
+import org.apache.ibatis.cache.decorators.ConcurrentLruCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
@@ -49,6 +51,10 @@ public class CacheBuilder {
   private boolean readWrite;
   private Properties properties;
   private boolean blocking;
+  //加载模式:并发未命中共用一次加载,每个条目的存活时间和提前刷新时间
+  private boolean loading;
+  private Long ttl;
+  private Long refreshAfter;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -87,6 +93,21 @@ public class CacheBuilder {
     return this;
   }
   
+  public CacheBuilder loading(boolean loading) {
+    this.loading = loading;
+    return this;
+  }
+
+  public CacheBuilder ttl(Long ttl) {
+    this.ttl = ttl;
+    return this;
+  }
+
+  public CacheBuilder refreshAfter(Long refreshAfter) {
+    this.refreshAfter = refreshAfter;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -144,8 +165,20 @@ public class CacheBuilder {
       //日志缓存
       cache = new LoggingCache(cache);
       //同步缓存, 3.2.6以后这个类已经没用了，考虑到Hazelcast, EhCache已经有锁机制了，所以这个锁就画蛇添足了。
-      cache = new SynchronizedCache(cache);
-      if (blocking) {
+      //并发缓存自己处理并发,不再加全局锁
+      if (!isConcurrent()) {
+        cache = new SynchronizedCache(cache);
+      }
+      //加载模式本身就保证同一个key只加载一次,不再加BlockingCache
+      if (loading) {
+        cache = new LoadingCache(cache);
+        if (ttl != null) {
+          ((LoadingCache) cache).setTtl(ttl);
+        }
+        if (refreshAfter != null) {
+          ((LoadingCache) cache).setRefreshAfter(refreshAfter);
+        }
+      } else if (blocking) {
         cache = new BlockingCache(cache);
       }
       return cache;
@@ -154,6 +187,19 @@ public class CacheBuilder {
     }
   }
 
+  //所有装饰者都是并发安全的缓存时,不需要再套SynchronizedCache
+  private boolean isConcurrent() {
+    if (decorators.isEmpty()) {
+      return false;
+    }
+    for (Class<? extends Cache> decorator : decorators) {
+      if (!ConcurrentLruCache.class.isAssignableFrom(decorator)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private void setCacheProperties(Cache cache) {
     if (properties != null) {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
@@ -0,0 +1,26 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+/**
+ * 语句走哪个数据源,只在环境里配置了RoutingDataSource时起作用
+ * DEFAULT:select走从库(当前事务里写过数据后走主库),其他语句走主库
+ * PRIMARY:总是走主库
+ * REPLICA:select总是走从库,写语句不受影响仍然走主库
+ */
+public enum DataSourceRoute {
+  DEFAULT, PRIMARY, REPLICA
+}
@@ -61,6 +61,10 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  //读写分离时走主库还是从库
+  private DataSourceRoute route;
+  //语句读写的表,按表失效二级缓存时用,null表示从SQL里推断
+  private String[] tables;
 
   MappedStatement() {
     // constructor disabled
@@ -86,6 +90,7 @@ public final class MappedStatement {
       }
       mappedStatement.statementLog = LogFactory.getLog(logId);
       mappedStatement.lang = configuration.getDefaultScriptingLanuageInstance();
+      mappedStatement.route = DataSourceRoute.DEFAULT;
     }
 
     public Builder resource(String resource) {
@@ -180,6 +185,18 @@ public final class MappedStatement {
       return this;
     }
     
+    public Builder route(DataSourceRoute route) {
+      if (route != null) {
+        mappedStatement.route = route;
+      }
+      return this;
+    }
+
+    public Builder tables(String tables) {
+      mappedStatement.tables = delimitedStringtoArray(tables);
+      return this;
+    }
+
     public MappedStatement build() {
       assert mappedStatement.configuration != null;
       assert mappedStatement.id != null;
@@ -281,6 +298,14 @@ public final class MappedStatement {
   public String[] getResulSets() {
     return resultSets;
   }
+
+  public DataSourceRoute getRoute() {
+    return route;
+  }
+
+  public String[] getTables() {
+    return tables;
+  }
   
   public BoundSql getBoundSql(Object parameterObject) {
 	//其实就是调用sqlSource.getBoundSql
@@ -49,6 +49,10 @@ public class ResultMapping {
   private String resultSet;
   private String foreignColumn;
   private boolean lazy;
+  //批量加载:一次查出多个父对象的嵌套结果的语句,结果里对应父对象key的属性,每批最多几个key
+  private String batchQueryId;
+  private List<String> batchKeyProperties;
+  private int batchSize;
 
   ResultMapping() {
   }
@@ -136,11 +140,29 @@ public class ResultMapping {
       resultMapping.lazy = lazy;
       return this;
     }
+
+    public Builder batchQueryId(String batchQueryId) {
+      resultMapping.batchQueryId = batchQueryId;
+      return this;
+    }
+
+    public Builder batchKeyProperties(List<String> batchKeyProperties) {
+      resultMapping.batchKeyProperties = batchKeyProperties;
+      return this;
+    }
+
+    public Builder batchSize(int batchSize) {
+      resultMapping.batchSize = batchSize;
+      return this;
+    }
     
     public ResultMapping build() {
       // lock down collections
       resultMapping.flags = Collections.unmodifiableList(resultMapping.flags);
       resultMapping.composites = Collections.unmodifiableList(resultMapping.composites);
+      if (resultMapping.batchKeyProperties != null) {
+        resultMapping.batchKeyProperties = Collections.unmodifiableList(resultMapping.batchKeyProperties);
+      }
       resolveTypeHandler();
       validate();
       return resultMapping;
@@ -173,6 +195,15 @@ public class ResultMapping {
           throw new IllegalStateException("There should be the same number of columns and foreignColumns in property " + resultMapping.property);
         }
       }
+      if (resultMapping.batchQueryId != null) {
+        if (resultMapping.nestedQueryId == null) {
+          throw new IllegalStateException("Cannot define batchQueryId without nestedQueryId in property " + resultMapping.property);
+        }
+        int numKeys = resultMapping.composites.isEmpty() ? 1 : resultMapping.composites.size();
+        if (resultMapping.batchKeyProperties == null || resultMapping.batchKeyProperties.size() != numKeys) {
+          throw new IllegalStateException("There should be one batchKey property for each column in property " + resultMapping.property);
+        }
+      }
     }
     
     private void resolveTypeHandler() {
@@ -256,6 +287,18 @@ public class ResultMapping {
   public void setLazy(boolean lazy) {
     this.lazy = lazy;
   }
+
+  public String getBatchQueryId() {
+    return batchQueryId;
+  }
+
+  public List<String> getBatchKeyProperties() {
+    return batchKeyProperties;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
   
   @Override
   public boolean equals(Object o) {
@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图
+ * 按2的幂分桶(单位微秒):0号桶是小于1微秒的,第i个桶是[2^(i-1), 2^i)微秒,最后一个桶装下所有更慢的
+ * 记录只是几个原子加,不加锁,读的时候各个值之间不保证是同一时刻的
+ */
+public class LatencyHistogram {
+
+  public static final int BUCKET_COUNT = 32;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(bucketOf(nanos));
+    count.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+  }
+
+  private static int bucketOf(long nanos) {
+    long micros = nanos / 1000;
+    int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+    return bucket < BUCKET_COUNT ? bucket : BUCKET_COUNT - 1;
+  }
+
+  //第i个桶的上界(微秒)
+  public static long bucketUpperBoundMicros(int bucket) {
+    return 1L << bucket;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.get();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  public long getMeanNanos() {
+    long n = count.get();
+    return n == 0 ? 0 : totalNanos.get() / n;
+  }
+
+  public long[] getBucketCounts() {
+    long[] counts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+
+  //百分位数(0到100),返回所在桶的上界(微秒),没有记录时返回0
+  public long getPercentileMicros(double percentile) {
+    long[] counts = getBucketCounts();
+    long total = 0;
+    for (long c : counts) {
+      total += c;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= rank && counts[i] > 0) {
+        return bucketUpperBoundMicros(i);
+      }
+    }
+    return bucketUpperBoundMicros(BUCKET_COUNT - 1);
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + " mean=" + getMeanNanos() / 1000 + "us p50<=" + getPercentileMicros(50)
+        + "us p99<=" + getPercentileMicros(99) + "us max=" + getMaxNanos() / 1000 + "us";
+  }
+
+}
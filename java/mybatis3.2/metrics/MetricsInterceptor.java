@@ -0,0 +1,445 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.metrics;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.pooled.PoolState;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.executor.statement.BaseStatementHandler;
+import org.apache.ibatis.executor.statement.RoutingStatementHandler;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * 查询指标拦截器
+ * 按MappedStatement统计延迟直方图(总耗时,缓存命中,prepare,execute,结果映射),行数,出错和慢语句次数,
+ * 通过getStatementMetrics拉取,连接池的等待统计通过getPoolState拉取
+ * <plugins>
+ *   <plugin interceptor="org.apache.ibatis.metrics.MetricsInterceptor">
+ *     <property name="sampleRate" value="10"/>
+ *     <property name="slowThresholdMillis" value="500"/>
+ *   </plugin>
+ * </plugins>
+ * sampleRate=N表示每个线程每N次执行器调用采样一次(嵌套的JDBC语句跟着外层调用一起采样),
+ * 0表示关闭,这时plugin直接返回原对象,没有任何代理开销
+ * 行数:返回List的按List大小算,传了ResultHandler的按回调次数算,游标按迭代到的位置算(关闭或者取完时记一次)
+ * 不依赖logging/jdbc那套按JDBC对象逐个包装的反射代理
+ */
+@Intercepts({
+    @Signature(type = Executor.class, method = "update", args = { MappedStatement.class, Object.class }),
+    @Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }),
+    @Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class }),
+    @Signature(type = Executor.class, method = "queryCursor", args = { MappedStatement.class, Object.class, RowBounds.class }),
+    @Signature(type = StatementHandler.class, method = "prepare", args = { Connection.class }),
+    @Signature(type = StatementHandler.class, method = "query", args = { Statement.class, ResultHandler.class }),
+    @Signature(type = StatementHandler.class, method = "queryCursor", args = { Statement.class }),
+    @Signature(type = StatementHandler.class, method = "update", args = { Statement.class }),
+    @Signature(type = StatementHandler.class, method = "batch", args = { Statement.class }),
+    @Signature(type = ResultSetHandler.class, method = "handleResultSets", args = { Statement.class })
+})
+public class MetricsInterceptor implements Interceptor {
+
+  private static final Log log = LogFactory.getLog(MetricsInterceptor.class);
+
+  private final ConcurrentMap<String, StatementMetrics> statementMetrics = new ConcurrentHashMap<String, StatementMetrics>();
+  private final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+    @Override
+    protected Context initialValue() {
+      return new Context();
+    }
+  };
+
+  private int sampleRate = 1;
+  private long slowThresholdNanos;
+  private volatile PooledDataSource pooledDataSource;
+
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    Object target = invocation.getTarget();
+    if (target instanceof Executor) {
+      return interceptExecutor(invocation);
+    }
+    Context context = contexts.get();
+    if (context.executorFrame == null || !context.executorFrame.sampled) {
+      return invocation.proceed();
+    }
+    if (target instanceof StatementHandler) {
+      return interceptStatement(invocation, context);
+    }
+    return interceptResultSets(invocation, context);
+  }
+
+  private Object interceptExecutor(Invocation invocation) throws Throwable {
+    Context context = contexts.get();
+    boolean sampled = false;
+    if (++context.counter >= sampleRate) {
+      context.counter = 0;
+      sampled = true;
+    }
+    ExecutorFrame frame = new ExecutorFrame(context.executorFrame, sampled);
+    context.executorFrame = frame;
+    try {
+      if (!sampled) {
+        return invocation.proceed();
+      }
+      Object[] args = invocation.getArgs();
+      MappedStatement ms = (MappedStatement) args[0];
+      StatementMetrics metrics = getOrCreateMetrics(ms.getId());
+      if (pooledDataSource == null) {
+        findPooledDataSource(ms);
+      }
+      //结果交给ResultHandler时返回的List是空的,行数在回调里数
+      CountingResultHandler countingHandler = null;
+      if (args.length >= 4 && args[3] != null && !(args[3] instanceof CountingResultHandler)) {
+        countingHandler = new CountingResultHandler((ResultHandler) args[3]);
+        args[3] = countingHandler;
+      }
+      long start = System.nanoTime();
+      boolean success = false;
+      try {
+        Object result = invocation.proceed();
+        success = true;
+        if (result instanceof Cursor) {
+          return new CountingCursor<Object>((Cursor<?>) result, metrics);
+        }
+        return result;
+      } finally {
+        long elapsed = System.nanoTime() - start;
+        metrics.getTotal().record(elapsed);
+        if (countingHandler != null) {
+          metrics.addRows(countingHandler.count);
+        }
+        if (!success) {
+          metrics.addError();
+        } else if (!frame.executed && ms.getSqlCommandType() == SqlCommandType.SELECT) {
+          metrics.getCacheHit().record(elapsed);
+        }
+        if (slowThresholdNanos > 0 && elapsed >= slowThresholdNanos) {
+          metrics.addSlow();
+          log.warn("Slow statement " + ms.getId() + " took " + elapsed / 1000000 + " ms");
+        }
+      }
+    } finally {
+      context.executorFrame = frame.parent;
+      if (frame.parent == null) {
+        context.lastHandler = null;
+        context.lastMetrics = null;
+      }
+    }
+  }
+
+  private Object interceptStatement(Invocation invocation, Context context) throws Throwable {
+    StatementMetrics metrics = metricsOf((StatementHandler) invocation.getTarget(), context);
+    if (metrics == null) {
+      return invocation.proceed();
+    }
+    context.executorFrame.executed = true;
+    String method = invocation.getMethod().getName();
+    if ("prepare".equals(method)) {
+      long start = System.nanoTime();
+      try {
+        return invocation.proceed();
+      } finally {
+        metrics.getPrepare().record(System.nanoTime() - start);
+      }
+    }
+    StatementFrame frame = new StatementFrame(context.statementFrame, metrics);
+    context.statementFrame = frame;
+    long start = System.nanoTime();
+    try {
+      return invocation.proceed();
+    } finally {
+      context.statementFrame = frame.parent;
+      //结果映射的时间另外统计
+      metrics.getExecute().record(System.nanoTime() - start - frame.mappingNanos);
+    }
+  }
+
+  private Object interceptResultSets(Invocation invocation, Context context) throws Throwable {
+    StatementFrame frame = context.statementFrame;
+    if (frame == null) {
+      return invocation.proceed();
+    }
+    long start = System.nanoTime();
+    Object result = null;
+    try {
+      result = invocation.proceed();
+      return result;
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      frame.mappingNanos += elapsed;
+      frame.metrics.getResultMapping().record(elapsed);
+      if (result instanceof List) {
+        frame.metrics.addRows(((List<?>) result).size());
+      }
+    }
+  }
+
+  //同一个语句处理器的prepare,query/update是连着调的,记住上一个处理器的指标,不用每次都去找
+  private StatementMetrics metricsOf(StatementHandler handler, Context context) {
+    if (context.lastHandler != handler) {
+      MappedStatement ms = mappedStatementOf(handler);
+      context.lastHandler = handler;
+      context.lastMetrics = ms == null ? null : getOrCreateMetrics(ms.getId());
+    }
+    return context.lastMetrics;
+  }
+
+  //语句处理器里的MappedStatement,可能被别的插件代理过,也可能是RoutingStatementHandler
+  private MappedStatement mappedStatementOf(StatementHandler handler) {
+    if (handler instanceof RoutingStatementHandler) {
+      return ((RoutingStatementHandler) handler).getMappedStatement();
+    }
+    if (handler instanceof BaseStatementHandler) {
+      return ((BaseStatementHandler) handler).getMappedStatement();
+    }
+    MetaObject metaObject = SystemMetaObject.forObject(handler);
+    while (metaObject.hasGetter("h") && metaObject.hasGetter("h.target")) {
+      metaObject = SystemMetaObject.forObject(metaObject.getValue("h.target"));
+    }
+    if (metaObject.hasGetter("delegate")) {
+      metaObject = SystemMetaObject.forObject(metaObject.getValue("delegate"));
+    }
+    if (!metaObject.hasGetter("mappedStatement")) {
+      return null;
+    }
+    return (MappedStatement) metaObject.getValue("mappedStatement");
+  }
+
+  private StatementMetrics getOrCreateMetrics(String id) {
+    StatementMetrics metrics = statementMetrics.get(id);
+    if (metrics == null) {
+      metrics = new StatementMetrics(id);
+      StatementMetrics existing = statementMetrics.putIfAbsent(id, metrics);
+      if (existing != null) {
+        metrics = existing;
+      }
+    }
+    return metrics;
+  }
+
+  private void findPooledDataSource(MappedStatement ms) {
+    if (ms.getConfiguration().getEnvironment() != null) {
+      DataSource dataSource = ms.getConfiguration().getEnvironment().getDataSource();
+      if (dataSource instanceof PooledDataSource) {
+        pooledDataSource = (PooledDataSource) dataSource;
+      }
+    }
+  }
+
+  //所有语句的指标,key是MappedStatement的id
+  public Map<String, StatementMetrics> getStatementMetrics() {
+    return Collections.unmodifiableMap(statementMetrics);
+  }
+
+  public StatementMetrics getStatementMetrics(String id) {
+    return statementMetrics.get(id);
+  }
+
+  //连接池的统计(请求数,等待次数,平均等待时间等),不是PooledDataSource或者还没有采样过时返回null
+  public PoolState getPoolState() {
+    PooledDataSource dataSource = pooledDataSource;
+    return dataSource == null ? null : dataSource.getPoolState();
+  }
+
+  public void reset() {
+    statementMetrics.clear();
+  }
+
+  @Override
+  public Object plugin(Object target) {
+    if (sampleRate <= 0) {
+      return target;
+    }
+    return Plugin.wrap(target, this);
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+    String rate = properties.getProperty("sampleRate");
+    if (rate != null) {
+      sampleRate = Integer.parseInt(rate);
+    }
+    String slowThreshold = properties.getProperty("slowThresholdMillis");
+    if (slowThreshold != null) {
+      slowThresholdNanos = Long.parseLong(slowThreshold) * 1000000L;
+    }
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public void setSampleRate(int sampleRate) {
+    this.sampleRate = sampleRate;
+  }
+
+  public long getSlowThresholdMillis() {
+    return slowThresholdNanos / 1000000L;
+  }
+
+  public void setSlowThresholdMillis(long slowThresholdMillis) {
+    this.slowThresholdNanos = slowThresholdMillis * 1000000L;
+  }
+
+  //每个线程的采样计数和正在执行的调用
+  private static class Context {
+    private int counter;
+    private ExecutorFrame executorFrame;
+    private StatementFrame statementFrame;
+    private StatementHandler lastHandler;
+    private StatementMetrics lastMetrics;
+  }
+
+  private static class ExecutorFrame {
+    private final ExecutorFrame parent;
+    private final boolean sampled;
+    //这次调用里有没有执行JDBC语句,没有就是从缓存拿的
+    private boolean executed;
+
+    ExecutorFrame(ExecutorFrame parent, boolean sampled) {
+      this.parent = parent;
+      this.sampled = sampled;
+    }
+  }
+
+  private static class StatementFrame {
+    private final StatementFrame parent;
+    private final StatementMetrics metrics;
+    private long mappingNanos;
+
+    StatementFrame(StatementFrame parent, StatementMetrics metrics) {
+      this.parent = parent;
+      this.metrics = metrics;
+    }
+  }
+
+  //数一下ResultHandler收到了多少行
+  private static class CountingResultHandler implements ResultHandler {
+    private final ResultHandler delegate;
+    private int count;
+
+    CountingResultHandler(ResultHandler delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void handleResult(ResultContext context) {
+      count++;
+      delegate.handleResult(context);
+    }
+  }
+
+  //游标的行是调用方迭代时才取的,关闭或者取完时按当前下标记一次行数
+  private static class CountingCursor<T> implements Cursor<T> {
+    private final Cursor<T> delegate;
+    private final StatementMetrics metrics;
+    private boolean counted;
+
+    @SuppressWarnings("unchecked")
+    CountingCursor(Cursor<?> delegate, StatementMetrics metrics) {
+      this.delegate = (Cursor<T>) delegate;
+      this.metrics = metrics;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return delegate.isOpen();
+    }
+
+    @Override
+    public boolean isConsumed() {
+      return delegate.isConsumed();
+    }
+
+    @Override
+    public int getCurrentIndex() {
+      return delegate.getCurrentIndex();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      final Iterator<T> iterator = delegate.iterator();
+      return new Iterator<T>() {
+        @Override
+        public boolean hasNext() {
+          boolean hasNext = iterator.hasNext();
+          if (!hasNext) {
+            countRows();
+          }
+          return hasNext;
+        }
+
+        @Override
+        public T next() {
+          return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+          iterator.remove();
+        }
+      };
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        delegate.close();
+      } finally {
+        countRows();
+      }
+    }
+
+    private void countRows() {
+      if (!counted) {
+        counted = true;
+        metrics.addRows(delegate.getCurrentIndex() + 1);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,99 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个MappedStatement的执行指标
+ * total和cacheHit只统计通过SqlSession直接调用的语句(嵌套查询不经过执行器插件),
+ * prepare,execute,resultMapping按JDBC语句统计,嵌套查询也算在它自己的语句上
+ * execute不含结果映射的时间,resultMapping里含嵌套查询的时间
+ */
+public class StatementMetrics {
+
+  private final String id;
+  private final LatencyHistogram total = new LatencyHistogram();
+  private final LatencyHistogram cacheHit = new LatencyHistogram();
+  private final LatencyHistogram prepare = new LatencyHistogram();
+  private final LatencyHistogram execute = new LatencyHistogram();
+  private final LatencyHistogram resultMapping = new LatencyHistogram();
+  private final AtomicLong rows = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong slowCount = new AtomicLong();
+
+  public StatementMetrics(String id) {
+    this.id = id;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  //执行器上一次调用的总耗时
+  public LatencyHistogram getTotal() {
+    return total;
+  }
+
+  //从缓存(一级或二级)拿到结果,没有执行SQL的调用的耗时
+  public LatencyHistogram getCacheHit() {
+    return cacheHit;
+  }
+
+  public LatencyHistogram getPrepare() {
+    return prepare;
+  }
+
+  public LatencyHistogram getExecute() {
+    return execute;
+  }
+
+  public LatencyHistogram getResultMapping() {
+    return resultMapping;
+  }
+
+  //映射出来的行数
+  public long getRows() {
+    return rows.get();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  public long getSlowCount() {
+    return slowCount.get();
+  }
+
+  void addRows(int count) {
+    rows.addAndGet(count);
+  }
+
+  void addError() {
+    errors.incrementAndGet();
+  }
+
+  void addSlow() {
+    slowCount.incrementAndGet();
+  }
+
+  @Override
+  public String toString() {
+    return id + " {total: " + total + ", cacheHit: " + cacheHit + ", prepare: " + prepare + ", execute: " + execute
+        + ", resultMapping: " + resultMapping + ", rows=" + getRows() + ", errors=" + getErrors() + ", slow=" + getSlowCount() + "}";
+  }
+
+}
@@ -0,0 +1,57 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * 合成代理里的调用
+ * getTarget()是只经过更内层拦截器的视图,proceed交给链上的下一个拦截器,最后一个拦截器proceed时才真正调用目标对象
+ */
+class ChainedInvocation extends Invocation {
+
+  private final ComposedPlugin plugin;
+  private final ComposedPlugin.Chain chain;
+  //当前拦截器在链上的位置
+  private final int index;
+
+  ChainedInvocation(ComposedPlugin plugin, Method method, Object[] args, ComposedPlugin.Chain chain, int index) {
+    super(plugin.view(chain.levels[index]), method, args);
+    this.plugin = plugin;
+    this.chain = chain;
+    this.index = index;
+  }
+
+  @Override
+  public Object proceed() throws InvocationTargetException, IllegalAccessException {
+    int next = index + 1;
+    if (next >= chain.interceptors.length) {
+      return getMethod().invoke(plugin.getTarget(), getArgs());
+    }
+    try {
+      return chain.interceptors[next].intercept(new ChainedInvocation(plugin, getMethod(), getArgs(), chain, next));
+    } catch (Exception e) {
+      //和调用内层Plugin代理一样:拦截器抛出的异常先解包,再包在InvocationTargetException里
+      throw new InvocationTargetException(ExceptionUtil.unwrapThrowable(e));
+    } catch (Throwable t) {
+      throw new InvocationTargetException(t);
+    }
+  }
+
+}
@@ -0,0 +1,164 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.plugin;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * 合成的插件代理
+ * 一个目标对象上所有拦截器只生成一个JDK代理,每个方法要经过的拦截器事先链接成数组,
+ * 调用时按数组顺序把Invocation交给下一个拦截器,不再是代理的代理的代理,
+ * 也不用每层都去signatureMap里查方法
+ * 拦截器的顺序和一层层Plugin.wrap的一样:后加的拦截器在外层,先被调用
+ * 每个拦截器拿到的Invocation.getTarget()和一层层代理时一样是"内层"对象:只经过它里面的拦截器的视图代理,
+ * 分页插件之类直接拿target再调一次的时候,里面的拦截器照样会执行
+ */
+class ComposedPlugin implements InvocationHandler {
+
+  private final Object target;
+  private final Link link;
+  //只经过登记序号小于level的拦截器(也就是更内层的)
+  private final int level;
+  //按level缓存的视图代理,同一个目标对象上的视图共用
+  private final Object[] views;
+
+  private ComposedPlugin(Object target, Link link, int level, Object[] views) {
+    this.target = target;
+    this.link = link;
+    this.level = level;
+    this.views = views;
+  }
+
+  //interceptors是按加入顺序登记的拦截器,links缓存了(目标类,拦截器)对应的链接结果
+  static Object wrap(Object target, List<Interceptor> interceptors, ConcurrentMap<List<Object>, Link> links) {
+    if (interceptors.isEmpty()) {
+      return target;
+    }
+    Class<?> type = target.getClass();
+    //key:目标类 + 拦截器
+    List<Object> key = new ArrayList<Object>(interceptors.size() + 1);
+    key.add(type);
+    key.addAll(interceptors);
+    Link link = links.get(key);
+    if (link == null) {
+      link = link(type, interceptors);
+      links.put(key, link);
+    }
+    int level = interceptors.size();
+    return new ComposedPlugin(target, link, level, new Object[level + 1]).view(level);
+  }
+
+  private static Link link(Class<?> type, List<Interceptor> interceptors) {
+    Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+    for (Interceptor interceptor : interceptors) {
+      for (Class<?> c : Plugin.getAllInterfaces(type, Plugin.getSignatureMap(interceptor))) {
+        interfaces.add(c);
+      }
+    }
+    Map<Method, Chain> chains = new HashMap<Method, Chain>();
+    for (Class<?> c : interfaces) {
+      for (Method method : c.getMethods()) {
+        List<Interceptor> chain = new ArrayList<Interceptor>();
+        List<Integer> levels = new ArrayList<Integer>();
+        for (int i = interceptors.size() - 1; i >= 0; i--) {
+          Interceptor interceptor = interceptors.get(i);
+          Set<Method> methods = Plugin.getSignatureMap(interceptor).get(method.getDeclaringClass());
+          if (methods != null && methods.contains(method)) {
+            chain.add(interceptor);
+            levels.add(i);
+          }
+        }
+        if (!chain.isEmpty()) {
+          chains.put(method, new Chain(chain, levels));
+        }
+      }
+    }
+    return new Link(interfaces.toArray(new Class<?>[interfaces.size()]), chains);
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    try {
+      Chain chain = link.chains.get(method);
+      if (chain != null) {
+        //视图只经过更内层的拦截器,链是从外到内排的,跳过外层的
+        for (int i = 0; i < chain.interceptors.length; i++) {
+          if (chain.levels[i] < level) {
+            return chain.interceptors[i].intercept(new ChainedInvocation(this, method, args, chain, i));
+          }
+        }
+      }
+      return method.invoke(target, args);//没有拦截器的方法直接放行
+    } catch (Exception e) {
+      throw ExceptionUtil.unwrapThrowable(e);
+    }
+  }
+
+  //只经过序号小于level的拦截器的代理,level为0时就是目标对象本身
+  Object view(int level) {
+    if (level == 0) {
+      return target;
+    }
+    Object view = views[level];
+    if (view == null) {
+      //并发时可能多建几个,都是等价的
+      view = Proxy.newProxyInstance(target.getClass().getClassLoader(), link.interfaces, new ComposedPlugin(target, link, level, views));
+      views[level] = view;
+    }
+    return view;
+  }
+
+  Object getTarget() {
+    return target;
+  }
+
+  //链接结果:代理要实现的接口,每个方法的拦截器链
+  static class Link {
+    private final Class<?>[] interfaces;
+    private final Map<Method, Chain> chains;
+
+    Link(Class<?>[] interfaces, Map<Method, Chain> chains) {
+      this.interfaces = interfaces;
+      this.chains = chains;
+    }
+  }
+
+  //一个方法要经过的拦截器,从外到内,以及每个拦截器的登记序号
+  static class Chain {
+    final Interceptor[] interceptors;
+    final int[] levels;
+
+    Chain(List<Interceptor> interceptors, List<Integer> levels) {
+      this.interceptors = interceptors.toArray(new Interceptor[interceptors.size()]);
+      this.levels = new int[levels.size()];
+      for (int i = 0; i < this.levels.length; i++) {
+        this.levels[i] = levels.get(i);
+      }
+    }
+  }
+
+}
@@ -5,19 +5,55 @@
 public class InterceptorChain {
 
   private final List<Interceptor> interceptors = new ArrayList<Interceptor>();
+  //plugin()ﲻֱӷPlugin.wrap(ԼװĿ),֮ǰҪȰѵǼǵϳɴ
+  private final Set<Interceptor> customWrappers = Collections.newSetFromMap(new ConcurrentHashMap<Interceptor, Boolean>());
+  private final ConcurrentMap<List<Object>, ComposedPlugin.Link> links = new ConcurrentHashMap<List<Object>, ComposedPlugin.Link>();
+  //Ƿϳһ,Ĭϻÿһ
+  private boolean composed;
 
   //ÿһĿ඼һδ(ҲǻִĴĴ.....еֿ)
+  //composedʱPlugin.wrapֻǼ,ComposedPluginһ
   public Object pluginAll(Object target) {
+    if (!composed) {
+      for (Interceptor interceptor : interceptors) {
+        target = interceptor.plugin(target);
+      }
+      return target;
+    }
+    List<Interceptor> pending = new ArrayList<Interceptor>();
     for (Interceptor interceptor : interceptors) {
-      target = interceptor.plugin(target);
+      if (customWrappers.contains(interceptor)) {
+        target = ComposedPlugin.wrap(target, pending, links);
+        pending.clear();
+        target = Plugin.collect(target, interceptor, null);
+        continue;
+      }
+      int mark = pending.size();
+      Object wrapped = Plugin.collect(target, interceptor, pending);
+      if (wrapped != target) {
+        //һηԼװĿ:εĽ,Ⱥϳǰ,ٰԭķʽһ
+        customWrappers.add(interceptor);
+        pending.subList(mark, pending.size()).clear();
+        target = ComposedPlugin.wrap(target, pending, links);
+        pending.clear();
+        target = Plugin.collect(target, interceptor, null);
+      }
     }
-    return target;
+    return ComposedPlugin.wrap(target, pending, links);
   }
 
   public void addInterceptor(Interceptor interceptor) {
     interceptors.add(interceptor);
   }
   
+  public boolean isComposed() {
+    return composed;
+  }
+
+  public void setComposed(boolean composed) {
+    this.composed = composed;
+  }
+
   public List<Interceptor> getInterceptors() {
     return Collections.unmodifiableList(interceptors);
   }
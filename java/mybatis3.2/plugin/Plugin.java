@@ -11,6 +11,11 @@ public class Plugin implements InvocationHandler {
   //Map + Setݽṹ洢
   private Map<Class<?>, Set<Method>> signatureMap;//ÿ@signatureϢ
 
+  // -> @SignatureϢ,ÿδִ/䴦ʱٷע
+  private static final Map<Class<?>, Map<Class<?>, Set<Method>>> signatureMapCache = new ConcurrentHashMap<Class<?>, Map<Class<?>, Set<Method>>>();
+  //InterceptorChainϳɴʱ,wrapֻǵ,ComposedPluginһ
+  private static final ThreadLocal<List<Interceptor>> composing = new ThreadLocal<List<Interceptor>>();
+
   private Plugin(Object target, Interceptor interceptor, Map<Class<?>, Set<Method>> signatureMap) {
     this.target = target;
     this.interceptor = interceptor;
@@ -21,6 +26,13 @@ public class Plugin implements InvocationHandler {
     Map<Class<?>, Set<Method>> signatureMap = getSignatureMap(interceptor);//ȡϢ(Ҫصͷ)
     Class<?> type = target.getClass();
     Class<?>[] interfaces = getAllInterfaces(type, signatureMap);//Proxyֻܴӿ
+    List<Interceptor> pending = composing.get();
+    if (pending != null) {
+      if (interfaces.length > 0) {
+        pending.add(interceptor);
+      }
+      return target;
+    }
     if (interfaces.length > 0) {
       return Proxy.newProxyInstance(
           type.getClassLoader(),
@@ -45,7 +57,31 @@ public class Plugin implements InvocationHandler {
     }
   }
 
-  private static Map<Class<?>, Set<Method>> getSignatureMap(Interceptor interceptor) {
+  //interceptor.plugin,pendingΪnullʱеPlugin.wrapֻǼ,ɴ
+  static Object collect(Object target, Interceptor interceptor, List<Interceptor> pending) {
+    List<Interceptor> previous = composing.get();
+    composing.set(pending);
+    try {
+      return interceptor.plugin(target);
+    } finally {
+      if (previous == null) {
+        composing.remove();
+      } else {
+        composing.set(previous);
+      }
+    }
+  }
+
+  static Map<Class<?>, Set<Method>> getSignatureMap(Interceptor interceptor) {
+    Map<Class<?>, Set<Method>> signatureMap = signatureMapCache.get(interceptor.getClass());
+    if (signatureMap == null) {
+      signatureMap = resolveSignatureMap(interceptor);
+      signatureMapCache.put(interceptor.getClass(), signatureMap);
+    }
+    return signatureMap;
+  }
+
+  private static Map<Class<?>, Set<Method>> resolveSignatureMap(Interceptor interceptor) {
     Intercepts interceptsAnnotation = interceptor.getClass().getAnnotation(Intercepts.class);//ȡע@Signature
     // issue #251
     if (interceptsAnnotation == null) {
@@ -70,7 +106,7 @@ public class Plugin implements InvocationHandler {
     return signatureMap;
   }
 
-  private static Class<?>[] getAllInterfaces(Class<?> type, Map<Class<?>, Set<Method>> signatureMap) {
+  static Class<?>[] getAllInterfaces(Class<?> type, Map<Class<?>, Set<Method>> signatureMap) {
     Set<Class<?>> interfaces = new HashSet<Class<?>>();
     while (type != null) {
       for (Class<?> c : type.getInterfaces()) {
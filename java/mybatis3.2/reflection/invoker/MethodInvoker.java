@@ -51,4 +51,9 @@ public class MethodInvoker implements Invoker {
   public Class<?> getType() {
     return type;
   }
+
+  //取得背后的方法,生成字节码访问器时用来直接调用
+  public Method getMethod() {
+    return method;
+  }
 }
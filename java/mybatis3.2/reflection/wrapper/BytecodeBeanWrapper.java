@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection.wrapper;
+
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
+
+/**
+ * 字节码Bean包装器
+ * 简单属性通过生成的PropertyAccessor按属性id直接调用getter/setter
+ * 集合下标(list[0],map['key'])和找不到的属性仍然交给BeanWrapper处理
+ */
+public class BytecodeBeanWrapper extends BeanWrapper {
+
+  private final Object object;
+  private final PropertyAccessor accessor;
+
+  public BytecodeBeanWrapper(MetaObject metaObject, Object object, PropertyAccessor accessor) {
+    super(metaObject, object);
+    this.object = object;
+    this.accessor = accessor;
+  }
+
+  @Override
+  public Object get(PropertyTokenizer prop) {
+    if (prop.getIndex() != null) {
+      return super.get(prop);
+    }
+    int id = accessor.indexOf(prop.getName());
+    if (!accessor.isReadable(id)) {
+      //没有这个属性,让BeanWrapper抛出原来的异常
+      return super.get(prop);
+    }
+    try {
+      return accessor.get(object, id);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new ReflectionException("Could not get property '" + prop.getName() + "' from " + object.getClass() + ".  Cause: " + t.toString(), t);
+    }
+  }
+
+  @Override
+  public void set(PropertyTokenizer prop, Object value) {
+    if (prop.getIndex() != null) {
+      super.set(prop, value);
+      return;
+    }
+    int id = accessor.indexOf(prop.getName());
+    if (!accessor.isWritable(id)) {
+      super.set(prop, value);
+      return;
+    }
+    try {
+      accessor.set(object, id, value);
+    } catch (Throwable t) {
+      throw new ReflectionException("Could not set property '" + prop.getName() + "' of '" + object.getClass() + "' with value '" + value + "' Cause: " + t.toString(), t);
+    }
+  }
+
+  public PropertyAccessor getAccessor() {
+    return accessor;
+  }
+
+}
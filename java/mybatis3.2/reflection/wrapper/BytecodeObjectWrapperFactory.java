@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection.wrapper;
+
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+
+/**
+ * 字节码对象包装器工厂
+ * 为每个bean类生成一个PropertyAccessor,MetaObject取值/设值时不再走Method.invoke
+ * 配置方法: <objectWrapperFactory type="BYTECODE"/>
+ * 生成失败的类(非public类,延迟加载的代理类等)返回false,MetaObject照旧使用BeanWrapper
+ */
+public class BytecodeObjectWrapperFactory implements ObjectWrapperFactory {
+
+  private static final Log log = LogFactory.getLog(BytecodeObjectWrapperFactory.class);
+
+  private final ConcurrentMap<Class<?>, PropertyAccessor> accessors = new ConcurrentHashMap<Class<?>, PropertyAccessor>();
+  //生成失败的类,记下来免得每次都重新生成
+  private final Set<Class<?>> unsupportedTypes = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
+  public BytecodeObjectWrapperFactory() {
+    try {
+      //先检查是否有javassist
+      Resources.classForName("javassist.ClassPool");
+    } catch (Throwable e) {
+      throw new IllegalStateException("Cannot enable bytecode object wrappers because Javassist is not available. Add Javassist to your classpath.", e);
+    }
+  }
+
+  @Override
+  public boolean hasWrapperFor(Object object) {
+    //Map和Collection交给MetaObject自己处理
+    if (object instanceof Map || object instanceof Collection) {
+      return false;
+    }
+    return getAccessor(object.getClass()) != null;
+  }
+
+  @Override
+  public ObjectWrapper getWrapperFor(MetaObject metaObject, Object object) {
+    PropertyAccessor accessor = getAccessor(object.getClass());
+    if (accessor == null) {
+      throw new ReflectionException("No PropertyAccessor available for " + object.getClass().getName());
+    }
+    return new BytecodeBeanWrapper(metaObject, object, accessor);
+  }
+
+  public PropertyAccessor getAccessor(Class<?> type) {
+    PropertyAccessor accessor = accessors.get(type);
+    if (accessor != null) {
+      return accessor;
+    }
+    if (unsupportedTypes.contains(type) || !isSupported(type)) {
+      return null;
+    }
+    synchronized (this) {
+      accessor = accessors.get(type);
+      if (accessor == null && !unsupportedTypes.contains(type)) {
+        try {
+          accessor = PropertyAccessorGenerator.generate(Reflector.forClass(type));
+          accessors.put(type, accessor);
+        } catch (RuntimeException e) {
+          if (log.isDebugEnabled()) {
+            log.debug("Falling back to reflection for " + type.getName() + ".  Cause: " + e);
+          }
+          unsupportedTypes.add(type);
+        }
+      }
+    }
+    return accessor;
+  }
+
+  //JDK自己的类(ClassLoader为null),数组,非public类都不生成
+  private boolean isSupported(Class<?> type) {
+    return type.getClassLoader() != null
+        && !type.isArray()
+        && !type.isInterface()
+        && Modifier.isPublic(type.getModifiers());
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection.wrapper;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.invoker.Invoker;
+
+/**
+ * 属性访问器
+ * 一个类的所有属性按名字排好序,每个属性对应一个下标(属性id)
+ * 取值/设值时按属性id访问,子类(由PropertyAccessorGenerator生成)用switch直接调用getter/setter,不走Method.invoke
+ * 子类处理不了的属性(比如没有getter,只有private字段的)退回到Reflector里的Invoker
+ */
+public abstract class PropertyAccessor {
+
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+
+  protected final Class<?> type;
+  //按属性id排列的属性名
+  protected final String[] propertyNames;
+  //属性名->属性id
+  private final Map<String, Integer> propertyIds = new HashMap<String, Integer>();
+  //按属性id排列的Invoker,不可读/不可写的属性为null
+  private final Invoker[] getInvokers;
+  private final Invoker[] setInvokers;
+
+  protected PropertyAccessor(Reflector reflector) {
+    this.type = reflector.getType();
+    this.propertyNames = propertyNames(reflector);
+    this.getInvokers = new Invoker[propertyNames.length];
+    this.setInvokers = new Invoker[propertyNames.length];
+    for (int i = 0; i < propertyNames.length; i++) {
+      String name = propertyNames[i];
+      propertyIds.put(name, i);
+      if (reflector.hasGetter(name)) {
+        getInvokers[i] = reflector.getGetInvoker(name);
+      }
+      if (reflector.hasSetter(name)) {
+        setInvokers[i] = reflector.getSetInvoker(name);
+      }
+    }
+  }
+
+  //可读和可写属性的并集,排好序,下标即属性id
+  //生成子类时也用这个方法,保证两边的属性id一致
+  static String[] propertyNames(Reflector reflector) {
+    TreeSet<String> names = new TreeSet<String>();
+    names.addAll(Arrays.asList(reflector.getGetablePropertyNames()));
+    names.addAll(Arrays.asList(reflector.getSetablePropertyNames()));
+    return names.toArray(new String[names.size()]);
+  }
+
+  public Class<?> getType() {
+    return type;
+  }
+
+  //取得属性id,没有这个属性返回-1
+  public int indexOf(String propertyName) {
+    Integer id = propertyIds.get(propertyName);
+    return id == null ? -1 : id;
+  }
+
+  public String getPropertyName(int id) {
+    return propertyNames[id];
+  }
+
+  public boolean isReadable(int id) {
+    return id >= 0 && getInvokers[id] != null;
+  }
+
+  public boolean isWritable(int id) {
+    return id >= 0 && setInvokers[id] != null;
+  }
+
+  //按属性id取值
+  public abstract Object get(Object bean, int id);
+
+  //按属性id设值
+  public abstract void set(Object bean, int id, Object value);
+
+  //子类没有直接调用的属性,用反射取值
+  protected Object invokeGetter(Object bean, int id) {
+    Invoker invoker = id >= 0 && id < getInvokers.length ? getInvokers[id] : null;
+    if (invoker == null) {
+      throw new ReflectionException("There is no getter for property id " + id + " in '" + type + "'");
+    }
+    try {
+      return invoker.invoke(bean, NO_ARGUMENTS);
+    } catch (Throwable t) {
+      throw wrap(ExceptionUtil.unwrapThrowable(t));
+    }
+  }
+
+  //子类没有直接调用的属性,用反射设值
+  protected void invokeSetter(Object bean, int id, Object value) {
+    Invoker invoker = id >= 0 && id < setInvokers.length ? setInvokers[id] : null;
+    if (invoker == null) {
+      throw new ReflectionException("There is no setter for property id " + id + " in '" + type + "'");
+    }
+    try {
+      invoker.invoke(bean, new Object[] {value});
+    } catch (Throwable t) {
+      throw wrap(ExceptionUtil.unwrapThrowable(t));
+    }
+  }
+
+  private RuntimeException wrap(Throwable t) {
+    if (t instanceof RuntimeException) {
+      return (RuntimeException) t;
+    }
+    return new ReflectionException(t.toString(), t);
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2009-2012 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.reflection.wrapper;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.invoker.MethodInvoker;
+
+/**
+ * 属性访问器生成器
+ * 用javassist为每个类生成一个PropertyAccessor子类,get/set是一个按属性id的switch,每个分支直接调用getter/setter
+ * 基本类型在生成的代码里装箱/拆箱
+ * 非public的方法或者只有字段的属性不生成分支,运行时退回到反射
+ */
+public final class PropertyAccessorGenerator {
+
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  private PropertyAccessorGenerator() {
+    // Prevent Instantiation of Static Class
+  }
+
+  public static PropertyAccessor generate(Reflector reflector) {
+    Class<?> type = reflector.getType();
+    if (!Modifier.isPublic(type.getModifiers())) {
+      throw new ReflectionException("Cannot generate a PropertyAccessor for non public class " + type.getName());
+    }
+    String[] names = PropertyAccessor.propertyNames(reflector);
+    StringBuilder getBody = new StringBuilder("public Object get(Object bean, int id) { switch (id) {");
+    StringBuilder setBody = new StringBuilder("public void set(Object bean, int id, Object value) { switch (id) {");
+    String beanType = typeName(type);
+    for (int i = 0; i < names.length; i++) {
+      if (reflector.hasGetter(names[i])) {
+        Method getter = accessibleMethod(reflector.getGetInvoker(names[i]));
+        if (getter != null) {
+          //($w)是javassist的写法,基本类型会装箱,引用类型不变
+          getBody.append(" case ").append(i).append(": return ($w)((").append(beanType).append(") $1).")
+              .append(getter.getName()).append("();");
+        }
+      }
+      if (reflector.hasSetter(names[i])) {
+        Method setter = accessibleMethod(reflector.getSetInvoker(names[i]));
+        if (setter != null) {
+          setBody.append(" case ").append(i).append(": ((").append(beanType).append(") $1).")
+              .append(setter.getName()).append("(").append(unbox(setter.getParameterTypes()[0], "$3")).append("); return;");
+        }
+      }
+    }
+    //switch没有命中的属性退回到反射
+    getBody.append(" default: return invokeGetter($1, $2); } }");
+    setBody.append(" default: invokeSetter($1, $2, $3); return; } }");
+
+    ClassLoader classLoader = type.getClassLoader();
+    ClassPool pool = new ClassPool(true);
+    pool.insertClassPath(new ClassClassPath(PropertyAccessor.class));
+    if (classLoader != null) {
+      pool.insertClassPath(new LoaderClassPath(classLoader));
+    }
+    CtClass ctClass = pool.makeClass(type.getName() + "$$PropertyAccessor$$" + COUNTER.getAndIncrement());
+    try {
+      ctClass.setSuperclass(pool.get(PropertyAccessor.class.getName()));
+      CtConstructor constructor = new CtConstructor(new CtClass[] {pool.get(Reflector.class.getName())}, ctClass);
+      constructor.setBody("{ super($1); }");
+      ctClass.addConstructor(constructor);
+      ctClass.addMethod(CtNewMethod.make(getBody.toString(), ctClass));
+      ctClass.addMethod(CtNewMethod.make(setBody.toString(), ctClass));
+      //定义在bean自己的ClassLoader里,这样生成的类才能看到bean
+      Class<?> accessorClass = ctClass.toClass(classLoader, type.getProtectionDomain());
+      return (PropertyAccessor) accessorClass.getConstructor(Reflector.class).newInstance(reflector);
+    } catch (Exception e) {
+      throw new ReflectionException("Error generating PropertyAccessor for " + type.getName() + ".  Cause: " + e, e);
+    } finally {
+      ctClass.detach();
+    }
+  }
+
+  //只有public类里的public方法才能在生成的类里直接调用
+  private static Method accessibleMethod(Invoker invoker) {
+    if (!(invoker instanceof MethodInvoker)) {
+      return null;
+    }
+    Method method = ((MethodInvoker) invoker).getMethod();
+    if (Modifier.isPublic(method.getModifiers()) && Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+      return method;
+    }
+    return null;
+  }
+
+  private static String unbox(Class<?> type, String value) {
+    if (!type.isPrimitive()) {
+      return "(" + typeName(type) + ") " + value;
+    } else if (type == int.class) {
+      return "((java.lang.Integer) " + value + ").intValue()";
+    } else if (type == long.class) {
+      return "((java.lang.Long) " + value + ").longValue()";
+    } else if (type == boolean.class) {
+      return "((java.lang.Boolean) " + value + ").booleanValue()";
+    } else if (type == double.class) {
+      return "((java.lang.Double) " + value + ").doubleValue()";
+    } else if (type == float.class) {
+      return "((java.lang.Float) " + value + ").floatValue()";
+    } else if (type == short.class) {
+      return "((java.lang.Short) " + value + ").shortValue()";
+    } else if (type == byte.class) {
+      return "((java.lang.Byte) " + value + ").byteValue()";
+    } else {
+      return "((java.lang.Character) " + value + ").charValue()";
+    }
+  }
+
+  //数组要写成 java.lang.String[] 这种形式
+  private static String typeName(Class<?> type) {
+    if (type.isArray()) {
+      return typeName(type.getComponentType()) + "[]";
+    }
+    return type.getName();
+  }
+
+}
@@ -15,11 +15,17 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.ibatis.builder.SqlSourceBuilder;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 
 /**
@@ -27,12 +33,15 @@ import org.apache.ibatis.session.Configuration;
  */
 /**
  * 动态SQL源码
- * 
+ * SqlNode生成的SQL(还带着#{})按(SQL,参数类型)缓存解析结果,同一种分支结果以后不再用GenericTokenParser解析,
+ * 也不再构建ParameterMapping,只按下标对一下从附加参数里取类型的那些参数类型有没有变
+ * 每个语句最多缓存configuration.dynamicSqlCacheSize种,满了以后新的SQL照旧每次解析(${}拼出来的SQL可能无穷多种)
  */
 public class DynamicSqlSource implements SqlSource {
 
   private Configuration configuration;
   private SqlNode rootSqlNode;
+  private final ConcurrentMap<SqlShape, CompiledSql> compiledSqls = new ConcurrentHashMap<SqlShape, CompiledSql>();
 
   public DynamicSqlSource(Configuration configuration, SqlNode rootSqlNode) {
     this.configuration = configuration;
@@ -46,17 +55,94 @@ public class DynamicSqlSource implements SqlSource {
     DynamicContext context = new DynamicContext(configuration, parameterObject);
 	//这里SqlNode.apply只是将${}这种参数替换掉，并没有替换#{}这种参数
     rootSqlNode.apply(context);
-	//调用SqlSourceBuilder
-    SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
     Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
-	//SqlSourceBuilder.parse,注意这里返回的是StaticSqlSource,解析完了就把那些参数都替换成?了，也就是最基本的JDBC的SQL写法
-    SqlSource sqlSource = sqlSourceParser.parse(context.getSql(), parameterType, context.getBindings());
-	//看似是又去递归调用SqlSource.getBoundSql，其实因为是StaticSqlSource，所以没问题，不是递归调用
-    BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
+    //把#{}替换成?,同样的SQL和参数类型直接用上次的结果
+    CompiledSql compiledSql = compile(context.getSql(), parameterType, context.getBindings());
+    BoundSql boundSql = new BoundSql(configuration, compiledSql.sql, compiledSql.parameterMappings, parameterObject);
     for (Map.Entry<String, Object> entry : context.getBindings().entrySet()) {
       boundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
     }
     return boundSql;
   }
 
+  private CompiledSql compile(String originalSql, Class<?> parameterType, Map<String, Object> bindings) {
+    final int cacheSize = configuration.getDynamicSqlCacheSize();
+    SqlShape shape = null;
+    if (cacheSize > 0) {
+      shape = new SqlShape(originalSql, parameterType);
+      CompiledSql compiledSql = compiledSqls.get(shape);
+      if (compiledSql != null && compiledSql.matches(configuration.newMetaObject(bindings))) {
+        return compiledSql;
+      }
+    }
+	//调用SqlSourceBuilder.parse,解析完了就把那些参数都替换成?了，也就是最基本的JDBC的SQL写法
+    SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
+    List<Class<?>> bindingTypes = new ArrayList<Class<?>>();
+    BoundSql parsed = sqlSourceParser.parse(originalSql, parameterType, bindings, bindingTypes).getBoundSql(null);
+    CompiledSql compiledSql = new CompiledSql(parsed.getSql(), parsed.getParameterMappings(), bindingTypes);
+    //满了就不再放,已经缓存的是最早出现的那些,一般也是最常用的
+    if (shape != null && compiledSqls.size() < cacheSize) {
+      compiledSqls.put(shape, compiledSql);
+    }
+    return compiledSql;
+  }
+
+  //缓存的key:生成的SQL和参数类型
+  private static class SqlShape {
+    private final String sql;
+    private final Class<?> parameterType;
+    private final int hashCode;
+
+    SqlShape(String sql, Class<?> parameterType) {
+      this.sql = sql;
+      this.parameterType = parameterType;
+      this.hashCode = 31 * sql.hashCode() + parameterType.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof SqlShape)) {
+        return false;
+      }
+      SqlShape that = (SqlShape) o;
+      return hashCode == that.hashCode && parameterType == that.parameterType && sql.equals(that.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  //解析好的SQL和参数映射,多线程共享,不可变
+  private static class CompiledSql {
+    private final String sql;
+    private final List<ParameterMapping> parameterMappings;
+    private final String[] properties;
+    private final Class<?>[] bindingTypes;
+
+    CompiledSql(String sql, List<ParameterMapping> parameterMappings, List<Class<?>> bindingTypes) {
+      this.sql = sql;
+      this.parameterMappings = parameterMappings;
+      this.properties = new String[parameterMappings.size()];
+      for (int i = 0; i < properties.length; i++) {
+        properties[i] = parameterMappings.get(i).getProperty();
+      }
+      this.bindingTypes = bindingTypes.toArray(new Class<?>[bindingTypes.size()]);
+    }
+
+    //foreach的item,<bind>的变量等附加参数的类型每次可能不一样,类型一样才能重用
+    boolean matches(MetaObject metaBindings) {
+      for (int i = 0; i < properties.length; i++) {
+        if (SqlSourceBuilder.bindingTypeOf(metaBindings, properties[i]) != bindingTypes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
 }
@@ -0,0 +1,27 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+/**
+ * 表达式引擎
+ * <if test>,<when test>,<foreach collection>里的表达式都由它求值,root是DynamicContext的bindings
+ * 配置方法: <setting name="expressionEngine" value="FAST"/> (OGNL | FAST | 自定义类的全名)
+ */
+public interface ExpressionEngine {
+
+  Object getValue(String expression, Object root);
+
+}
@@ -32,10 +32,20 @@ import org.apache.ibatis.builder.BuilderException;
  */
 public class ExpressionEvaluator {
 
+  private final ExpressionEngine engine;
+
+  public ExpressionEvaluator() {
+    this(new OgnlExpressionEngine());
+  }
+
+  public ExpressionEvaluator(ExpressionEngine engine) {
+    this.engine = engine;
+  }
+
   //表达式求布尔值，比如username == 'cbegin'
   public boolean evaluateBoolean(String expression, Object parameterObject) {
-	//非常简单，就是调用ognl
-    Object value = OgnlCache.getValue(expression, parameterObject);
+	//非常简单，就是调用表达式引擎(默认是ognl)
+    Object value = engine.getValue(expression, parameterObject);
     if (value instanceof Boolean) {
       //如果是Boolean
       return (Boolean) value;
@@ -51,7 +61,7 @@ public class ExpressionEvaluator {
   //解析表达式到一个Iterable,核心是ognl
   public Iterable<?> evaluateIterable(String expression, Object parameterObject) {
 	//原生的ognl很强大，OgnlCache.getValue直接就可以返回一个Iterable型或数组型或Map型了
-    Object value = OgnlCache.getValue(expression, parameterObject);
+    Object value = engine.getValue(expression, parameterObject);
     if (value == null) {
       throw new BuilderException("The expression '" + expression + "' evaluated to a null value.");
     }
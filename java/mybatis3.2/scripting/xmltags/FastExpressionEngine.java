@@ -0,0 +1,613 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.reflection.Reflector;
+
+/**
+ * 快速表达式引擎
+ * 常见的简单表达式(x != null and x.size() > 0这类)第一次用到时编译成一棵节点树,以后取值直接用Reflector的getter,不再走OGNL
+ * 支持: and/or/not(&&,||,!), ==,!=,<,>,<=,>=(eq,neq,lt,gt,lte,gte), 括号, null/true/false, 整数和小数, 字符串,
+ * 属性路径a.b.c, 以及size(),isEmpty(),length(),trim(),equals(x)几个方法调用
+ * 编译不了的表达式,以及求值时遇到和OGNL语义可能不一样的情况(字符串和数字比较,BigInteger,单引号的单个字符等),都交给OGNL,
+ * 所以结果和OGNL一致,出错时报的也是OGNL原来的错误
+ */
+public class FastExpressionEngine implements ExpressionEngine {
+
+  //编译不了的表达式,直接走OGNL
+  private static final Node UNSUPPORTED = new Literal(null);
+  //语义不确定,交给OGNL;不需要堆栈,用同一个实例
+  private static final Fallback FALLBACK = new Fallback();
+
+  private final ConcurrentMap<String, Node> compiledExpressions = new ConcurrentHashMap<String, Node>();
+
+  @Override
+  public Object getValue(String expression, Object root) {
+    if (root instanceof DynamicContext.ContextMap) {
+      Node node = compiledExpressions.get(expression);
+      if (node == null) {
+        node = compile(expression);
+        compiledExpressions.put(expression, node);
+      }
+      if (node != UNSUPPORTED) {
+        try {
+          return node.eval((DynamicContext.ContextMap) root);
+        } catch (Fallback e) {
+          return fallback(expression, root, null);
+        } catch (Exception e) {
+          // fall back to OGNL, which also reports the original error if there is one
+          return fallback(expression, root, e);
+        }
+      }
+    }
+    return fallback(expression, root, null);
+  }
+
+  //交给OGNL求值,cause是快速求值时抛出的异常,编译不了或者引擎自己放弃时为null
+  //子类可以覆盖它来统计哪些表达式回退了(见bench/ExpressionEquivalence)
+  protected Object fallback(String expression, Object root, Exception cause) {
+    return OgnlCache.getValue(expression, root);
+  }
+
+  private static Node compile(String expression) {
+    try {
+      return new Parser(expression).parse();
+    } catch (Fallback e) {
+      return UNSUPPORTED;
+    }
+  }
+
+  //和OgnlOps.booleanValue一样
+  static boolean booleanValue(Object value) {
+    if (value == null) {
+      return false;
+    }
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    if (value instanceof Character) {
+      return (Character) value != 0;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue() != 0;
+    }
+    return true;
+  }
+
+  //和OgnlOps.equal一样,只是只处理结果确定的类型组合
+  static boolean equal(Object left, Object right) throws Fallback {
+    if (left == right) {
+      return true;
+    }
+    if (left == null || right == null) {
+      return false;
+    }
+    if ((left instanceof String && right instanceof String) || (left instanceof Boolean && right instanceof Boolean)) {
+      return left.equals(right);
+    }
+    if (left instanceof Number && right instanceof Number) {
+      return compare((Number) left, (Number) right) == 0;
+    }
+    throw FALLBACK;
+  }
+
+  //和OgnlOps.compareWithConversion一样:整数按long比,有BigDecimal按BigDecimal比,有浮点数按double比
+  static int compare(Number left, Number right) throws Fallback {
+    boolean leftIntegral = isIntegral(left);
+    boolean rightIntegral = isIntegral(right);
+    if (leftIntegral && rightIntegral) {
+      long l = left.longValue();
+      long r = right.longValue();
+      return l == r ? 0 : (l < r ? -1 : 1);
+    }
+    if ((leftIntegral || left instanceof BigDecimal) && (rightIntegral || right instanceof BigDecimal)) {
+      return toBigDecimal(left).compareTo(toBigDecimal(right));
+    }
+    if ((leftIntegral || isFloating(left)) && (rightIntegral || isFloating(right))) {
+      double l = left.doubleValue();
+      double r = right.doubleValue();
+      return l == r ? 0 : (l < r ? -1 : 1);
+    }
+    throw FALLBACK;
+  }
+
+  private static boolean isIntegral(Number value) {
+    return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+  }
+
+  private static boolean isFloating(Number value) {
+    return value instanceof Double || value instanceof Float;
+  }
+
+  private static BigDecimal toBigDecimal(Number value) {
+    return value instanceof BigDecimal ? (BigDecimal) value : BigDecimal.valueOf(value.longValue());
+  }
+
+  //
+  // NODES
+  //
+
+  abstract static class Node {
+    abstract Object eval(Map<String, Object> bindings) throws Exception;
+  }
+
+  static class Literal extends Node {
+    private final Object value;
+
+    Literal(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object eval(Map<String, Object> bindings) {
+      return value;
+    }
+  }
+
+  //第一段属性,和DynamicContext.ContextAccessor的取值方式一样
+  static class RootProperty extends Node {
+    private final String name;
+
+    RootProperty(String name) {
+      this.name = name;
+    }
+
+    @Override
+    Object eval(Map<String, Object> bindings) {
+      Object value = bindings.get(name);
+      if (value == null) {
+        Object parameterObject = bindings.get(DynamicContext.PARAMETER_OBJECT_KEY);
+        if (parameterObject instanceof Map) {
+          return ((Map<?, ?>) parameterObject).get(name);
+        }
+      }
+      return value;
+    }
+  }
+
+  static class Property extends Node {
+    private final Node target;
+    private final String name;
+
+    Property(Node target, String name) {
+      this.target = target;
+      this.name = name;
+    }
+
+    @Override
+    Object eval(Map<String, Object> bindings) throws Exception {
+      Object object = target.eval(bindings);
+      if (object == null) {
+        throw FALLBACK;
+      }
+      if (object instanceof Map) {
+        //OGNL对Map的size,keys,values,isEmpty等有特殊处理
+        if ("size".equals(name) || "keys".equals(name) || "keySet".equals(name) || "values".equals(name) || "isEmpty".equals(name)) {
+          throw FALLBACK;
+        }
+        return ((Map<?, ?>) object).get(name);
+      }
+      if (object instanceof Collection || object.getClass().isArray() || object instanceof CharSequence
+          || object instanceof Number || object instanceof Boolean || object instanceof Character) {
+        throw FALLBACK;
+      }
+      Reflector reflector = Reflector.forClass(object.getClass());
+      if (!reflector.hasGetter(name)) {
+        throw FALLBACK;
+      }
+      return reflector.getGetInvoker(name).invoke(object, null);
+    }
+  }
+
+  static class MethodCall extends Node {
+    private final Node target;
+    private final String name;
+    private final Node argument;
+
+    MethodCall(Node target, String name, Node argument) {
+      this.target = target;
+      this.name = name;
+      this.argument = argument;
+    }
+
+    @Override
+    Object eval(Map<String, Object> bindings) throws Exception {
+      Object object = target.eval(bindings);
+      if (object == null) {
+        throw FALLBACK;
+      }
+      if ("equals".equals(name)) {
+        return object.equals(argument.eval(bindings));
+      }
+      if ("size".equals(name)) {
+        if (object instanceof Collection) {
+          return ((Collection<?>) object).size();
+        }
+        if (object instanceof Map) {
+          return ((Map<?, ?>) object).size();
+        }
+      } else if ("isEmpty".equals(name)) {
+        if (object instanceof Collection) {
+          return ((Collection<?>) object).isEmpty();
+        }
+        if (object instanceof Map) {
+          return ((Map<?, ?>) object).isEmpty();
+        }
+        if (object instanceof String) {
+          return ((String) object).length() == 0;
+        }
+      } else if ("length".equals(name)) {
+        if (object instanceof String) {
+          return ((String) object).length();
+        }
+      } else if ("trim".equals(name)) {
+        if (object instanceof String) {
+          return ((String) object).trim();
+        }
+      }
+      throw FALLBACK;
+    }
+  }
+
+  static class Not extends Node {
+    private final Node operand;
+
+    Not(Node operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    Object eval(Map<String, Object> bindings) throws Exception {
+      return !booleanValue(operand.eval(bindings));
+    }
+  }
+
+  //和OGNL一样,and/or返回的是操作数本身,不一定是Boolean
+  static class Logical extends Node {
+    private final boolean and;
+    private final Node[] operands;
+
+    Logical(boolean and, List<Node> operands) {
+      this.and = and;
+      this.operands = operands.toArray(new Node[operands.size()]);
+    }
+
+    @Override
+    Object eval(Map<String, Object> bindings) throws Exception {
+      Object result = null;
+      for (int i = 0; i < operands.length; i++) {
+        result = operands[i].eval(bindings);
+        if (i < operands.length - 1 && booleanValue(result) != and) {
+          break;
+        }
+      }
+      return result;
+    }
+  }
+
+  static class Comparison extends Node {
+    private final String operator;
+    private final Node left;
+    private final Node right;
+
+    Comparison(String operator, Node left, Node right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object eval(Map<String, Object> bindings) throws Exception {
+      Object l = left.eval(bindings);
+      Object r = right.eval(bindings);
+      if ("==".equals(operator)) {
+        return equal(l, r);
+      }
+      if ("!=".equals(operator)) {
+        return !equal(l, r);
+      }
+      if (!(l instanceof Number) || !(r instanceof Number)) {
+        throw FALLBACK;
+      }
+      int result = compare((Number) l, (Number) r);
+      if ("<".equals(operator)) {
+        return result < 0;
+      } else if (">".equals(operator)) {
+        return result > 0;
+      } else if ("<=".equals(operator)) {
+        return result <= 0;
+      } else {
+        return result >= 0;
+      }
+    }
+  }
+
+  //
+  // PARSER
+  //
+
+  /**
+   * 递归下降解析,优先级和OGNL一样: or < and < ==,!= < <,>,<=,>= < !
+   * 遇到不支持的语法就抛Fallback
+   */
+  static class Parser {
+    private final String expression;
+    private final List<String> tokens = new ArrayList<String>();
+    private int position;
+
+    Parser(String expression) throws Fallback {
+      this.expression = expression;
+      tokenize();
+    }
+
+    Node parse() throws Fallback {
+      if (tokens.isEmpty()) {
+        throw FALLBACK;
+      }
+      Node node = parseOr();
+      if (position != tokens.size()) {
+        throw FALLBACK;
+      }
+      return node;
+    }
+
+    private Node parseOr() throws Fallback {
+      List<Node> operands = new ArrayList<Node>();
+      operands.add(parseAnd());
+      while (accept("||")) {
+        operands.add(parseAnd());
+      }
+      return operands.size() == 1 ? operands.get(0) : new Logical(false, operands);
+    }
+
+    private Node parseAnd() throws Fallback {
+      List<Node> operands = new ArrayList<Node>();
+      operands.add(parseEquality());
+      while (accept("&&")) {
+        operands.add(parseEquality());
+      }
+      return operands.size() == 1 ? operands.get(0) : new Logical(true, operands);
+    }
+
+    private Node parseEquality() throws Fallback {
+      Node node = parseRelational();
+      while ("==".equals(peek()) || "!=".equals(peek())) {
+        String operator = next();
+        node = new Comparison(operator, node, parseRelational());
+      }
+      return node;
+    }
+
+    private Node parseRelational() throws Fallback {
+      Node node = parseUnary();
+      while ("<".equals(peek()) || ">".equals(peek()) || "<=".equals(peek()) || ">=".equals(peek())) {
+        String operator = next();
+        node = new Comparison(operator, node, parseUnary());
+      }
+      return node;
+    }
+
+    private Node parseUnary() throws Fallback {
+      if (accept("!")) {
+        return new Not(parseUnary());
+      }
+      return parsePrimary();
+    }
+
+    private Node parsePrimary() throws Fallback {
+      String token = next();
+      if ("(".equals(token)) {
+        Node node = parseOr();
+        expect(")");
+        return node;
+      }
+      //字符串和数字在分词时已经加了前缀
+      if (token.charAt(0) == '"') {
+        return new Literal(token.substring(1));
+      }
+      if (token.charAt(0) == '#') {
+        return new Literal(parseNumber(token.substring(1)));
+      }
+      if ("null".equals(token)) {
+        return new Literal(null);
+      }
+      if ("true".equals(token)) {
+        return new Literal(Boolean.TRUE);
+      }
+      if ("false".equals(token)) {
+        return new Literal(Boolean.FALSE);
+      }
+      if (!isIdentifier(token) || "(".equals(peek())) {
+        throw FALLBACK;
+      }
+      Node node = new RootProperty(token);
+      while (accept(".")) {
+        String name = next();
+        if (!isIdentifier(name)) {
+          throw FALLBACK;
+        }
+        if (accept("(")) {
+          node = parseMethodCall(node, name);
+        } else {
+          node = new Property(node, name);
+        }
+      }
+      return node;
+    }
+
+    private Node parseMethodCall(Node target, String name) throws Fallback {
+      if ("equals".equals(name)) {
+        Node argument = parseOr();
+        expect(")");
+        return new MethodCall(target, name, argument);
+      }
+      if ("size".equals(name) || "isEmpty".equals(name) || "length".equals(name) || "trim".equals(name)) {
+        expect(")");
+        return new MethodCall(target, name, null);
+      }
+      throw FALLBACK;
+    }
+
+    //整数(int范围内,不能以0开头)为Integer,小数为Double,和OGNL一样;其他写法交给OGNL
+    private Object parseNumber(String text) throws Fallback {
+      if (text.length() > 1 && text.charAt(0) == '0' && text.charAt(1) != '.') {
+        throw FALLBACK;
+      }
+      try {
+        if (text.indexOf('.') > -1) {
+          return Double.valueOf(text);
+        }
+        return Integer.valueOf(text);
+      } catch (NumberFormatException e) {
+        throw FALLBACK;
+      }
+    }
+
+    private boolean isIdentifier(String token) {
+      return Character.isJavaIdentifierStart(token.charAt(0));
+    }
+
+    private String peek() {
+      return position < tokens.size() ? tokens.get(position) : null;
+    }
+
+    private String next() throws Fallback {
+      if (position >= tokens.size()) {
+        throw FALLBACK;
+      }
+      return tokens.get(position++);
+    }
+
+    private boolean accept(String token) {
+      if (token.equals(peek())) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(String token) throws Fallback {
+      if (!accept(token)) {
+        throw FALLBACK;
+      }
+    }
+
+    //分词,字符串加前缀",数字加前缀#,关键字换成对应的符号
+    private void tokenize() throws Fallback {
+      int i = 0;
+      final int length = expression.length();
+      while (i < length) {
+        char c = expression.charAt(i);
+        if (Character.isWhitespace(c)) {
+          i++;
+        } else if (Character.isJavaIdentifierStart(c)) {
+          int start = i;
+          while (i < length && Character.isJavaIdentifierPart(expression.charAt(i))) {
+            i++;
+          }
+          tokens.add(keyword(expression.substring(start, i)));
+        } else if (c >= '0' && c <= '9') {
+          int start = i;
+          while (i < length && ((expression.charAt(i) >= '0' && expression.charAt(i) <= '9') || expression.charAt(i) == '.')) {
+            i++;
+          }
+          //1L,1.5f,0x10这类带后缀的交给OGNL
+          if (i < length && Character.isJavaIdentifierPart(expression.charAt(i))) {
+            throw FALLBACK;
+          }
+          String number = expression.substring(start, i);
+          if (number.endsWith(".") || number.indexOf('.') != number.lastIndexOf('.')) {
+            throw FALLBACK;
+          }
+          tokens.add("#" + number);
+        } else if (c == '\'' || c == '"') {
+          int end = expression.indexOf(c, i + 1);
+          if (end < 0) {
+            throw FALLBACK;
+          }
+          String text = expression.substring(i + 1, end);
+          //OGNL里单引号的单个字符是Character;有转义的也交给OGNL
+          if ((c == '\'' && text.length() == 1) || text.indexOf('\\') > -1) {
+            throw FALLBACK;
+          }
+          tokens.add("\"" + text);
+          i = end + 1;
+        } else {
+          String operator = operatorAt(i);
+          tokens.add(operator);
+          i += operator.length();
+        }
+      }
+    }
+
+    private String operatorAt(int i) throws Fallback {
+      String two = i + 2 <= expression.length() ? expression.substring(i, i + 2) : "";
+      if ("==".equals(two) || "!=".equals(two) || "<=".equals(two) || ">=".equals(two) || "&&".equals(two) || "||".equals(two)) {
+        return two;
+      }
+      char c = expression.charAt(i);
+      if (c == '<' || c == '>' || c == '!' || c == '(' || c == ')' || c == '.') {
+        return String.valueOf(c);
+      }
+      //= & | + - [ ] # @ ? : , 等都交给OGNL
+      throw FALLBACK;
+    }
+
+    private String keyword(String word) throws Fallback {
+      if ("and".equals(word)) {
+        return "&&";
+      } else if ("or".equals(word)) {
+        return "||";
+      } else if ("not".equals(word)) {
+        return "!";
+      } else if ("eq".equals(word)) {
+        return "==";
+      } else if ("neq".equals(word)) {
+        return "!=";
+      } else if ("lt".equals(word)) {
+        return "<";
+      } else if ("gt".equals(word)) {
+        return ">";
+      } else if ("lte".equals(word)) {
+        return "<=";
+      } else if ("gte".equals(word)) {
+        return ">=";
+      } else if ("in".equals(word) || "instanceof".equals(word) || "new".equals(word) || "bor".equals(word) || "xor".equals(word)
+          || "band".equals(word) || "shl".equals(word) || "shr".equals(word) || "ushr".equals(word)) {
+        throw FALLBACK;
+      }
+      return word;
+    }
+  }
+
+  static class Fallback extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+}
@@ -15,6 +15,8 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import org.apache.ibatis.session.Configuration;
+
 /**
  * @author Clinton Begin
  */
@@ -28,9 +30,18 @@ public class IfSqlNode implements SqlNode {
   private SqlNode contents;
 
   public IfSqlNode(SqlNode contents, String test) {
+    this(contents, test, new ExpressionEvaluator());
+  }
+
+  //用配置的表达式引擎
+  public IfSqlNode(Configuration configuration, SqlNode contents, String test) {
+    this(contents, test, new ExpressionEvaluator(configuration.getExpressionEngine()));
+  }
+
+  private IfSqlNode(SqlNode contents, String test, ExpressionEvaluator evaluator) {
     this.test = test;
     this.contents = contents;
-    this.evaluator = new ExpressionEvaluator();
+    this.evaluator = evaluator;
   }
 
   @Override
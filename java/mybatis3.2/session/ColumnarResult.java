@@ -0,0 +1,320 @@
+/*
+ *    Copyright 2009-2013 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 列式结果
+ * resultType为ColumnarResult(别名columnar)的查询不为每行建对象,每一列的值直接从ResultSet读进一个数组:
+ * 整数列读进int[]或long[],浮点列读进double[],其它列用getObject读进Object[],基本类型列的NULL另外用BitSet记。
+ * 不经过TypeHandler,也不做自动映射。列下标从0开始。
+ * 查询带ResultHandler时按语句的fetchSize(默认8192行)分批回调,每批是一个ColumnarResult,内存里只有一批。
+ */
+public class ColumnarResult implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int DEFAULT_BATCH_ROWS = 8192;
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  public enum ColumnType {
+    INT, LONG, DOUBLE, OBJECT
+  }
+
+  private final String[] columnNames;
+  private final ColumnType[] columnTypes;
+  //每一列只有和它类型对应的那个数组非null
+  private final int[][] intColumns;
+  private final long[][] longColumns;
+  private final double[][] doubleColumns;
+  private final Object[][] objectColumns;
+  private final BitSet[] nulls;
+  private int rowCount;
+  private int capacity;
+
+  private ColumnarResult(String[] columnNames, ColumnType[] columnTypes, int capacity) {
+    int columnCount = columnNames.length;
+    this.columnNames = columnNames;
+    this.columnTypes = columnTypes;
+    this.intColumns = new int[columnCount][];
+    this.longColumns = new long[columnCount][];
+    this.doubleColumns = new double[columnCount][];
+    this.objectColumns = new Object[columnCount][];
+    this.nulls = new BitSet[columnCount];
+    this.capacity = capacity;
+    for (int i = 0; i < columnCount; i++) {
+      switch (columnTypes[i]) {
+        case INT:
+          intColumns[i] = new int[capacity];
+          break;
+        case LONG:
+          longColumns[i] = new long[capacity];
+          break;
+        case DOUBLE:
+          doubleColumns[i] = new double[capacity];
+          break;
+        default:
+          objectColumns[i] = new Object[capacity];
+      }
+      nulls[i] = new BitSet();
+    }
+  }
+
+  //从ResultSet当前位置往后最多读maxRows行
+  public static ColumnarResult read(ResultSet rs, boolean useColumnLabel, int maxRows) throws SQLException {
+    ResultSetMetaData metaData = rs.getMetaData();
+    int columnCount = metaData.getColumnCount();
+    String[] columnNames = new String[columnCount];
+    ColumnType[] columnTypes = new ColumnType[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      columnNames[i] = useColumnLabel ? metaData.getColumnLabel(i + 1) : metaData.getColumnName(i + 1);
+      columnTypes[i] = resolveColumnType(metaData, i + 1);
+    }
+    ColumnarResult result = new ColumnarResult(columnNames, columnTypes, Math.max(0, Math.min(maxRows, INITIAL_CAPACITY)));
+    while (result.rowCount < maxRows && rs.next()) {
+      result.readRow(rs);
+    }
+    result.trim();
+    return result;
+  }
+
+  //按JDBC类型决定用哪种数组,取值可能超出int/long范围的(无符号、精度太大)都当OBJECT
+  private static ColumnType resolveColumnType(ResultSetMetaData metaData, int column) throws SQLException {
+    switch (metaData.getColumnType(column)) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+        return ColumnType.INT;
+      case Types.INTEGER:
+        return metaData.isSigned(column) ? ColumnType.INT : ColumnType.LONG;
+      case Types.BIGINT:
+        return metaData.isSigned(column) ? ColumnType.LONG : ColumnType.OBJECT;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return ColumnType.DOUBLE;
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+        //Oracle的NUMBER(10)之类没有小数位的定点数
+        int precision = metaData.getPrecision(column);
+        if (metaData.getScale(column) == 0 && precision > 0) {
+          if (precision < 10) {
+            return ColumnType.INT;
+          } else if (precision < 19) {
+            return ColumnType.LONG;
+          }
+        }
+        return ColumnType.OBJECT;
+      default:
+        return ColumnType.OBJECT;
+    }
+  }
+
+  private void readRow(ResultSet rs) throws SQLException {
+    if (rowCount == capacity) {
+      grow();
+    }
+    int row = rowCount;
+    for (int i = 0; i < columnTypes.length; i++) {
+      switch (columnTypes[i]) {
+        case INT:
+          intColumns[i][row] = rs.getInt(i + 1);
+          break;
+        case LONG:
+          longColumns[i][row] = rs.getLong(i + 1);
+          break;
+        case DOUBLE:
+          doubleColumns[i][row] = rs.getDouble(i + 1);
+          break;
+        default:
+          objectColumns[i][row] = rs.getObject(i + 1);
+      }
+      if (rs.wasNull()) {
+        nulls[i].set(row);
+      }
+    }
+    rowCount++;
+  }
+
+  private void grow() {
+    int newCapacity = capacity < INITIAL_CAPACITY ? INITIAL_CAPACITY : capacity * 2;
+    resize(newCapacity);
+  }
+
+  //读完以后数组收缩到正好的行数,列数组可以直接交给调用方
+  private void trim() {
+    if (rowCount < capacity) {
+      resize(rowCount);
+    }
+  }
+
+  private void resize(int newCapacity) {
+    for (int i = 0; i < columnTypes.length; i++) {
+      switch (columnTypes[i]) {
+        case INT:
+          intColumns[i] = Arrays.copyOf(intColumns[i], newCapacity);
+          break;
+        case LONG:
+          longColumns[i] = Arrays.copyOf(longColumns[i], newCapacity);
+          break;
+        case DOUBLE:
+          doubleColumns[i] = Arrays.copyOf(doubleColumns[i], newCapacity);
+          break;
+        default:
+          objectColumns[i] = Arrays.copyOf(objectColumns[i], newCapacity);
+      }
+    }
+    capacity = newCapacity;
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getColumnCount() {
+    return columnNames.length;
+  }
+
+  public String getColumnName(int column) {
+    return columnNames[column];
+  }
+
+  public ColumnType getColumnType(int column) {
+    return columnTypes[column];
+  }
+
+  //不区分大小写,找不到返回-1
+  public int getColumnIndex(String columnName) {
+    for (int i = 0; i < columnNames.length; i++) {
+      if (columnNames[i].equalsIgnoreCase(columnName)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  //下面几个返回内部数组,不要修改;NULL的位置是0,用isNull区分
+  public int[] getIntColumn(int column) {
+    checkColumnType(column, ColumnType.INT);
+    return intColumns[column];
+  }
+
+  public long[] getLongColumn(int column) {
+    checkColumnType(column, ColumnType.LONG);
+    return longColumns[column];
+  }
+
+  public double[] getDoubleColumn(int column) {
+    checkColumnType(column, ColumnType.DOUBLE);
+    return doubleColumns[column];
+  }
+
+  public Object[] getObjectColumn(int column) {
+    checkColumnType(column, ColumnType.OBJECT);
+    return objectColumns[column];
+  }
+
+  public int[] getIntColumn(String columnName) {
+    return getIntColumn(requireColumnIndex(columnName));
+  }
+
+  public long[] getLongColumn(String columnName) {
+    return getLongColumn(requireColumnIndex(columnName));
+  }
+
+  public double[] getDoubleColumn(String columnName) {
+    return getDoubleColumn(requireColumnIndex(columnName));
+  }
+
+  public Object[] getObjectColumn(String columnName) {
+    return getObjectColumn(requireColumnIndex(columnName));
+  }
+
+  public boolean isNull(int row, int column) {
+    checkRow(row);
+    return nulls[column].get(row);
+  }
+
+  public int getInt(int row, int column) {
+    checkRow(row);
+    return getIntColumn(column)[row];
+  }
+
+  //INT列也可以按long取
+  public long getLong(int row, int column) {
+    checkRow(row);
+    return columnTypes[column] == ColumnType.INT ? intColumns[column][row] : getLongColumn(column)[row];
+  }
+
+  //INT,LONG列也可以按double取
+  public double getDouble(int row, int column) {
+    checkRow(row);
+    switch (columnTypes[column]) {
+      case INT:
+        return intColumns[column][row];
+      case LONG:
+        return longColumns[column][row];
+      default:
+        return getDoubleColumn(column)[row];
+    }
+  }
+
+  //任何列都可以按对象取,基本类型会装箱,NULL返回null
+  public Object getObject(int row, int column) {
+    checkRow(row);
+    if (nulls[column].get(row)) {
+      return null;
+    }
+    switch (columnTypes[column]) {
+      case INT:
+        return intColumns[column][row];
+      case LONG:
+        return longColumns[column][row];
+      case DOUBLE:
+        return doubleColumns[column][row];
+      default:
+        return objectColumns[column][row];
+    }
+  }
+
+  private int requireColumnIndex(String columnName) {
+    int column = getColumnIndex(columnName);
+    if (column < 0) {
+      throw new SqlSessionException("Column '" + columnName + "' not found in " + Arrays.toString(columnNames));
+    }
+    return column;
+  }
+
+  private void checkColumnType(int column, ColumnType expected) {
+    if (columnTypes[column] != expected) {
+      throw new SqlSessionException("Column '" + columnNames[column] + "' is " + columnTypes[column] + ", not " + expected);
+    }
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= rowCount) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of " + rowCount);
+    }
+  }
+
+}
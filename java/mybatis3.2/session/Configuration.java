@@ -13,6 +13,12 @@ public class Configuration {
   protected boolean useGeneratedKeys = false;
   protected boolean useColumnLabel = true;
   protected boolean cacheEnabled = true;
+  //:дֻʧЧдıĻ(ռ),ռĻ
+  protected boolean cacheInvalidationByTable = false;
+  protected final CacheDependencies cacheDependencies = new CacheDependencies();
+  //:ڵʱͨʧЧͨѱڵպʧЧ֪ͨĽڵ,¼ÿôһ
+  protected long cacheInvalidationInterval = 100;
+  protected InvalidationBus invalidationBus;
   protected boolean callSettersOnNulls = false;
 
   protected String logPrefix;
@@ -22,6 +28,27 @@ public class Configuration {
   protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList(new String[] { "equals", "clone", "hashCode", "toString" }));
   protected Integer defaultStatementTimeout;
   protected Integer defaultFetchSize;
+  //BATCHִ:ͬSQL罻ϲͬһ
+  protected boolean batchGroupingEnabled = false;
+  //BATCHִ:/ֽﵽֵԶˢ,nullʾ
+  protected Integer batchFlushRows;
+  protected Long batchFlushBytes;
+  //BATCHִ:Զˢһ첽
+  protected boolean batchAsyncFlush = false;
+  //̬SQL:ÿ໺ɵSQL#{},0ʾ
+  protected int dynamicSqlCacheSize = 64;
+  //̬SQL:<if test>,<foreach collection>ȱʽֵ
+  protected ExpressionEngine expressionEngine = new OgnlExpressionEngine();
+  //ʱнmapper XML߳,1ʾڵǰ߳˳
+  protected int mapperLoadingThreads = 1;
+  //mapper XMLʱֻǼid,һõʱŹMappedStatement
+  protected boolean lazyStatementLoading = false;
+  //Futureӳ:Ĭ̳߳ص߳,ͬʱִе(0ʾ)
+  protected int asyncMapperThreads = 4;
+  protected int asyncMaxInFlight = 0;
+  //þͰasyncMapperThreadsһĬ̳߳
+  protected ExecutorService asyncExecutorService;
+  protected AsyncMapperExecutor asyncMapperExecutor;
   protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
   protected AutoMappingBehavior autoMappingBehavior = AutoMappingBehavior.PARTIAL;
 
@@ -49,10 +76,16 @@ public class Configuration {
   protected final LanguageDriverRegistry languageRegistry = new LanguageDriverRegistry();
 
   protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
+  //ӳٹ(lazyStatementLoading),ԺҲ,ж϶Ƿ
+  protected final Map<String, LazyStatement> lazyStatements = new StrictMap<LazyStatement>("Lazy Statements collection");
+  //ӳٹid,ֻڳlazyStatementsʱ޸
+  protected String buildingLazyStatement;
   protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
   protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
   protected final Map<String, ParameterMap> parameterMaps = new StrictMap<ParameterMap>("Parameter Maps collection");
   protected final Map<String, KeyGenerator> keyGenerators = new StrictMap<KeyGenerator>("Key Generators collection");
+  //ӳƻ,keyResultMap id+ǰ׺++ǩ
+  protected final Map<String, RowMappingPlan> rowMappingPlans = new ConcurrentHashMap<String, RowMappingPlan>();
 
   protected final Set<String> loadedResources = new HashSet<String>();
   protected final Map<String, XNode> sqlFragments = new StrictMap<XNode>("XML fragments parsed from previous mappers");
@@ -81,18 +114,27 @@ public class Configuration {
     typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
     typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
+    typeAliasRegistry.registerAlias("ROUTING", RoutingDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+    typeAliasRegistry.registerAlias("OFF_HEAP", OffHeapCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("CONCURRENT_LRU", ConcurrentLruCache.class);
+
+    typeAliasRegistry.registerAlias("LOOPBACK_CHANNEL", LoopbackInvalidationChannel.class);
+    typeAliasRegistry.registerAlias("FILE_CHANNEL", FileInvalidationChannel.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
     typeAliasRegistry.registerAlias("XML", XMLLanguageDriver.class);
     typeAliasRegistry.registerAlias("RAW", RawLanguageDriver.class);
 
+    typeAliasRegistry.registerAlias("OGNL", OgnlExpressionEngine.class);
+    typeAliasRegistry.registerAlias("FAST", FastExpressionEngine.class);
+
     typeAliasRegistry.registerAlias("SLF4J", Slf4jImpl.class);
     typeAliasRegistry.registerAlias("COMMONS_LOGGING", JakartaCommonsLoggingImpl.class);
     typeAliasRegistry.registerAlias("LOG4J", Log4jImpl.class);
@@ -104,6 +146,8 @@ public class Configuration {
     typeAliasRegistry.registerAlias("CGLIB", CglibProxyFactory.class);
     typeAliasRegistry.registerAlias("JAVASSIST", JavassistProxyFactory.class);
 
+    typeAliasRegistry.registerAlias("BYTECODE", BytecodeObjectWrapperFactory.class);
+
     languageRegistry.setDefaultDriverClass(XMLLanguageDriver.class);
     languageRegistry.register(RawLanguageDriver.class);
   }
@@ -267,6 +311,39 @@ public class Configuration {
     this.cacheEnabled = cacheEnabled;
   }
 
+  public boolean isCacheInvalidationByTable() {
+    return cacheInvalidationByTable;
+  }
+
+  public void setCacheInvalidationByTable(boolean cacheInvalidationByTable) {
+    this.cacheInvalidationByTable = cacheInvalidationByTable;
+  }
+
+  public CacheDependencies getCacheDependencies() {
+    return cacheDependencies;
+  }
+
+  public long getCacheInvalidationInterval() {
+    return cacheInvalidationInterval;
+  }
+
+  //setCacheInvalidationChannel֮ǰòЧ
+  public void setCacheInvalidationInterval(long cacheInvalidationInterval) {
+    this.cacheInvalidationInterval = cacheInvalidationInterval;
+  }
+
+  public InvalidationBus getInvalidationBus() {
+    return invalidationBus;
+  }
+
+  //nullʾڵ,ҲʧЧ¼;ԭ߻ᱻر,ӦֹͣʱsetCacheInvalidationChannel(null)ͣ߳
+  public void setCacheInvalidationChannel(InvalidationChannel channel) {
+    if (invalidationBus != null) {
+      invalidationBus.close();
+    }
+    invalidationBus = channel == null ? null : new InvalidationBus(this, channel, cacheInvalidationInterval);
+  }
+
   public Integer getDefaultStatementTimeout() {
     return defaultStatementTimeout;
   }
@@ -283,6 +360,111 @@ public class Configuration {
     this.defaultFetchSize = defaultFetchSize;
   }
 
+  public boolean isBatchGroupingEnabled() {
+    return batchGroupingEnabled;
+  }
+
+  public void setBatchGroupingEnabled(boolean batchGroupingEnabled) {
+    this.batchGroupingEnabled = batchGroupingEnabled;
+  }
+
+  public Integer getBatchFlushRows() {
+    return batchFlushRows;
+  }
+
+  public void setBatchFlushRows(Integer batchFlushRows) {
+    this.batchFlushRows = batchFlushRows;
+  }
+
+  public Long getBatchFlushBytes() {
+    return batchFlushBytes;
+  }
+
+  public void setBatchFlushBytes(Long batchFlushBytes) {
+    this.batchFlushBytes = batchFlushBytes;
+  }
+
+  public boolean isBatchAsyncFlush() {
+    return batchAsyncFlush;
+  }
+
+  public void setBatchAsyncFlush(boolean batchAsyncFlush) {
+    this.batchAsyncFlush = batchAsyncFlush;
+  }
+
+  public int getDynamicSqlCacheSize() {
+    return dynamicSqlCacheSize;
+  }
+
+  public void setDynamicSqlCacheSize(int dynamicSqlCacheSize) {
+    this.dynamicSqlCacheSize = dynamicSqlCacheSize;
+  }
+
+  public int getMapperLoadingThreads() {
+    return mapperLoadingThreads;
+  }
+
+  public void setMapperLoadingThreads(int mapperLoadingThreads) {
+    this.mapperLoadingThreads = mapperLoadingThreads;
+  }
+
+  public boolean isLazyStatementLoading() {
+    return lazyStatementLoading;
+  }
+
+  public void setLazyStatementLoading(boolean lazyStatementLoading) {
+    this.lazyStatementLoading = lazyStatementLoading;
+  }
+
+  public int getAsyncMapperThreads() {
+    return asyncMapperThreads;
+  }
+
+  public synchronized void setAsyncMapperThreads(int asyncMapperThreads) {
+    this.asyncMapperThreads = asyncMapperThreads;
+  }
+
+  public int getAsyncMaxInFlight() {
+    return asyncMaxInFlight;
+  }
+
+  public synchronized void setAsyncMaxInFlight(int asyncMaxInFlight) {
+    this.asyncMaxInFlight = asyncMaxInFlight;
+    this.asyncMapperExecutor = null;
+  }
+
+  public synchronized ExecutorService getAsyncExecutorService() {
+    return asyncExecutorService;
+  }
+
+  //ԻӦԼ̳߳,Spring
+  public synchronized void setAsyncExecutorService(ExecutorService asyncExecutorService) {
+    this.asyncExecutorService = asyncExecutorService;
+    this.asyncMapperExecutor = null;
+  }
+
+  //һ첽ӳʱŽ̳߳
+  public synchronized AsyncMapperExecutor getAsyncMapperExecutor() {
+    if (asyncMapperExecutor == null) {
+      if (asyncExecutorService == null) {
+        asyncExecutorService = AsyncMapperExecutor.newDefaultExecutorService(asyncMapperThreads);
+      }
+      asyncMapperExecutor = new AsyncMapperExecutor(this, asyncExecutorService, asyncMaxInFlight);
+    }
+    return asyncMapperExecutor;
+  }
+
+  public ExpressionEngine getExpressionEngine() {
+    return expressionEngine;
+  }
+
+  public void setExpressionEngine(ExpressionEngine expressionEngine) {
+    if (expressionEngine == null) {
+      expressionEngine = new OgnlExpressionEngine();
+    }
+    this.expressionEngine = expressionEngine;
+  }
+
   public boolean isUseColumnLabel() {
     return useColumnLabel;
   }
@@ -361,6 +543,15 @@ public class Configuration {
     return interceptorChain.getInterceptors();
   }
 
+  public boolean isComposedInterceptors() {
+    return interceptorChain.isComposed();
+  }
+
+  //falseʱ˻ÿһPluginķʽ
+  public void setComposedInterceptors(boolean composedInterceptors) {
+    interceptorChain.setComposed(composedInterceptors);
+  }
+
   public LanguageDriverRegistry getLanguageRegistry() {
     return languageRegistry;
   }
@@ -415,7 +606,7 @@ public class Configuration {
       executor = new SimpleExecutor(this, transaction);
     }
     if (cacheEnabled) {
-      executor = new CachingExecutor(executor);
+      executor = new CachingExecutor(executor, cacheInvalidationByTable ? cacheDependencies : null, invalidationBus);
     }
     executor = (Executor) interceptorChain.pluginAll(executor);//,,Ӱ,ΪҪصĿǶ̬жϵ
     return executor;
@@ -483,6 +674,16 @@ public class Configuration {
     return resultMaps.containsKey(id);
   }
 
+  //ȡӳƻ
+  public RowMappingPlan getRowMappingPlan(String key) {
+    return rowMappingPlans.get(key);
+  }
+
+  //ӳƻ,ͬһkeyļƻһ,ŵĸȷŵҲûϵ
+  public void addRowMappingPlan(String key, RowMappingPlan plan) {
+    rowMappingPlans.put(key, plan);
+  }
+
   public void addParameterMap(ParameterMap pm) {
     parameterMaps.put(pm.getId(), pm);
   }
@@ -504,19 +705,40 @@ public class Configuration {
   }
 
   public void addMappedStatement(MappedStatement ms) {
+    //ѾǼǵӳظ(עXMLͬһid),ʱͱ
+    if (lazyStatements.containsKey(ms.getId()) && !ms.getId().equals(buildingLazyStatement)) {
+      throw new IllegalArgumentException("Mapped Statements collection already contains value for " + ms.getId());
+    }
     mappedStatements.put(ms.getId(), ms);
   }
 
   public Collection<String> getMappedStatementNames() {
     buildAllStatements();
+    buildAllLazyStatements();
     return mappedStatements.keySet();
   }
 
   public Collection<MappedStatement> getMappedStatements() {
     buildAllStatements();
+    buildAllLazyStatements();
     return mappedStatements.values();
   }
 
+  public void addLazyStatement(LazyStatement lazyStatement) {
+    if (mappedStatements.containsKey(lazyStatement.getId())) {
+      throw new IllegalArgumentException("Mapped Statements collection already contains value for " + lazyStatement.getId());
+    }
+    lazyStatements.put(lazyStatement.getId(), lazyStatement);
+  }
+
+  public boolean hasLazyStatement(String id) {
+    return lazyStatements.containsKey(id);
+  }
+
+  public LazyStatement getLazyStatement(String id) {
+    return lazyStatements.get(id);
+  }
+
   public Collection<XMLStatementBuilder> getIncompleteStatements() {
     return incompleteStatements;
   }
@@ -557,6 +779,10 @@ public class Configuration {
     if (validateIncompleteStatements) {
       buildAllStatements();
     }
+    //ӳټģʽµһõʱŹ
+    if (!lazyStatements.isEmpty() && lazyStatements.containsKey(id)) {
+      buildLazyStatement(lazyStatements.get(id));
+    }
     return mappedStatements.get(id);
   }
 
@@ -596,13 +822,38 @@ public class Configuration {
     if (validateIncompleteStatements) {
       buildAllStatements();
     }
-    return mappedStatements.containsKey(statementName);
+    return mappedStatements.containsKey(statementName) || lazyStatements.containsKey(statementName);
   }
 
   public void addCacheRef(String namespace, String referencedNamespace) {
     cacheRefMap.put(namespace, referencedNamespace);
   }
 
+  //XNodeMapperBuilderAssistant̰߳ȫ,ӳٹͬһл
+  protected void buildLazyStatement(LazyStatement lazyStatement) {
+    if (!lazyStatement.isBuilt()) {
+      synchronized (lazyStatements) {
+        buildingLazyStatement = lazyStatement.getId();
+        try {
+          lazyStatement.build();
+        } finally {
+          buildingLazyStatement = null;
+        }
+      }
+    }
+  }
+
+  protected void buildAllLazyStatements() {
+    if (!lazyStatements.isEmpty()) {
+      //ʱֵAmbiguity,԰Objectȡ
+      for (Object value : new ArrayList<Object>(lazyStatements.values())) {
+        if (value instanceof LazyStatement) {
+          buildLazyStatement((LazyStatement) value);
+        }
+      }
+    }
+  }
+
   /*
    * Parses all the unprocessed statement nodes in the cache. It is recommended
    * to call this method once all the mappers are added as it provides fail-fast
@@ -680,7 +931,8 @@ public class Configuration {
     }
   }
 
-  protected static class StrictMap<V> extends HashMap<String, V> {
+  //ConcurrentHashMap,ӳٹʱ߳̿ͬʱȫض
+  protected static class StrictMap<V> extends ConcurrentHashMap<String, V> {
 
     private static final long serialVersionUID = -4950446264854982944L;
     private String name;
@@ -707,22 +959,26 @@ public class Configuration {
 
     @SuppressWarnings("unchecked")
     public V put(String key, V value) {
-      if (containsKey(key)) {
+      //containsKeyput:JDK8ConcurrentHashMap.containsKeyǱǵget,мʱҲԭӵ
+      if (super.putIfAbsent(key, value) != null) {
         throw new IllegalArgumentException(name + " already contains value for " + key);
       }
       if (key.contains(".")) {
         final String shortKey = getShortName(key);
-        if (super.get(shortKey) == null) {
-          super.put(shortKey, value);
-        } else {
+        if (super.putIfAbsent(shortKey, value) != null) {
           super.put(shortKey, (V) new Ambiguity(shortKey));
         }
       }
-      return super.put(key, value);
+      return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key != null && super.get(key) != null;
     }
 
     public V get(Object key) {
-      V value = super.get(key);
+      V value = key == null ? null : super.get(key);
       if (value == null) {
         throw new IllegalArgumentException(name + " does not contain value for " + key);
       }
@@ -8,6 +8,8 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
 
   public DefaultSqlSessionFactory(Configuration configuration) {
     this.configuration = configuration;
+    //Ѿ,ʹĲһɲֻ
+    configuration.getTypeHandlerRegistry().freeze();
   }
 
   @Override
@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -31,6 +32,7 @@ import java.util.Set;
 
 import org.apache.ibatis.io.ResolverUtil;
 import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.session.ColumnarResult;
 
 /**
  * @author Clinton Begin
@@ -110,6 +112,9 @@ public class TypeAliasRegistry {
 
 	//还有个ResultSet型
     registerAlias("ResultSet", ResultSet.class);
+
+    //列式结果
+    registerAlias("columnar", ColumnarResult.class);
   }
 
   @SuppressWarnings("unchecked")
@@ -146,17 +151,26 @@ public class TypeAliasRegistry {
 
 	//扫描并注册包下所有继承于superType的类型别名
   public void registerAliases(String packageName, Class<?> superType){
+    for(Class<?> type : findAliasTypes(packageName, superType)){
+      registerAlias(type);
+    }
+  }
+
+	//扫描包下所有继承于superType,可以注册别名的类型
+  public Set<Class<?>> findAliasTypes(String packageName, Class<?> superType){
 		//TODO ResolverUtil
     ResolverUtil<Class<?>> resolverUtil = new ResolverUtil<Class<?>>();
     resolverUtil.find(new ResolverUtil.IsA(superType), packageName);
     Set<Class<? extends Class<?>>> typeSet = resolverUtil.getClasses();
+    Set<Class<?>> aliasTypes = new LinkedHashSet<Class<?>>();
     for(Class<?> type : typeSet){
       // Ignore inner classes and interfaces (including package-info.java)
       // Skip also inner classes. See issue #6
       if (!type.isAnonymousClass() && !type.isInterface() && !type.isMemberClass()) {
-        registerAlias(type);
+        aliasTypes.add(type);
       }
     }
+    return aliasTypes;
   }
 
 	//注册类型别名
@@ -20,13 +20,18 @@ import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.ibatis.io.ResolverUtil;
 
@@ -44,6 +49,8 @@ public final class TypeHandlerRegistry {
   private final Map<Type, Map<JdbcType, TypeHandler<?>>> TYPE_HANDLER_MAP = new HashMap<Type, Map<JdbcType, TypeHandler<?>>>();
   private final TypeHandler<Object> UNKNOWN_TYPE_HANDLER = new UnknownTypeHandler(this);
   private final Map<Class<?>, TypeHandler<?>> ALL_TYPE_HANDLERS_MAP = new HashMap<Class<?>, TypeHandler<?>>();
+  //freeze()之后的只读查找表,查找时不加锁;之后再注册就重建一张再发布
+  private volatile FrozenTable frozenTable;
 
   public TypeHandlerRegistry() {
     //构造函数里注册系统内置的类型处理器
@@ -162,6 +169,10 @@ public final class TypeHandlerRegistry {
   }
 
   public TypeHandler<?> getTypeHandler(JdbcType jdbcType) {
+    FrozenTable table = frozenTable;
+    if (table != null) {
+      return table.getJdbcTypeHandler(jdbcType);
+    }
     return JDBC_TYPE_HANDLER_MAP.get(jdbcType);
   }
 
@@ -175,6 +186,10 @@ public final class TypeHandlerRegistry {
 
   @SuppressWarnings("unchecked")
   private <T> TypeHandler<T> getTypeHandler(Type type, JdbcType jdbcType) {
+    FrozenTable table = frozenTable;
+    if (table != null) {
+      return (TypeHandler<T>) table.getTypeHandler(type, jdbcType);
+    }
     Map<JdbcType, TypeHandler<?>> jdbcHandlerMap = TYPE_HANDLER_MAP.get(type);
     TypeHandler<?> handler = null;
     if (jdbcHandlerMap != null) {
@@ -194,8 +209,27 @@ public final class TypeHandlerRegistry {
     return UNKNOWN_TYPE_HANDLER;
   }
 
-  public void register(JdbcType jdbcType, TypeHandler<?> handler) {
+  public synchronized void register(JdbcType jdbcType, TypeHandler<?> handler) {
     JDBC_TYPE_HANDLER_MAP.put(jdbcType, handler);
+    republish();
+  }
+
+  //配置加载完以后调用(DefaultSqlSessionFactory构造时),之后的查找走不可变的查找表
+  public synchronized void freeze() {
+    if (frozenTable == null) {
+      frozenTable = new FrozenTable(TYPE_HANDLER_MAP, JDBC_TYPE_HANDLER_MAP);
+    }
+  }
+
+  public boolean isFrozen() {
+    return frozenTable != null;
+  }
+
+  //冻结后还有注册(比如运行时才加载的映射器)就重建查找表,正在用旧表查找的线程不受影响
+  private void republish() {
+    if (frozenTable != null) {
+      frozenTable = new FrozenTable(TYPE_HANDLER_MAP, JDBC_TYPE_HANDLER_MAP);
+    }
   }
 
   //
@@ -262,7 +296,7 @@ public final class TypeHandlerRegistry {
     register((Type) type, jdbcType, handler);
   }
 
-  private void register(Type javaType, JdbcType jdbcType, TypeHandler<?> handler) {
+  private synchronized void register(Type javaType, JdbcType jdbcType, TypeHandler<?> handler) {
     if (javaType != null) {
       Map<JdbcType, TypeHandler<?>> map = TYPE_HANDLER_MAP.get(javaType);
       if (map == null) {
@@ -272,6 +306,7 @@ public final class TypeHandlerRegistry {
       map.put(jdbcType, handler);
     }
     ALL_TYPE_HANDLERS_MAP.put(handler.getClass(), handler);
+    republish();
   }
 
   //
@@ -331,15 +366,24 @@ public final class TypeHandlerRegistry {
   // scan
 
   public void register(String packageName) {
+    for (Class<?> type : findTypeHandlerTypes(packageName)) {
+      register(type);
+    }
+  }
+
+  //扫描包下所有可以注册的类型处理器
+  public Set<Class<?>> findTypeHandlerTypes(String packageName) {
     ResolverUtil<Class<?>> resolverUtil = new ResolverUtil<Class<?>>();
     resolverUtil.find(new ResolverUtil.IsA(TypeHandler.class), packageName);
     Set<Class<? extends Class<?>>> handlerSet = resolverUtil.getClasses();
+    Set<Class<?>> handlerTypes = new LinkedHashSet<Class<?>>();
     for (Class<?> type : handlerSet) {
       //Ignore inner classes and interfaces (including package-info.java) and abstract classes
       if (!type.isAnonymousClass() && !type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
-        register(type);
+        handlerTypes.add(type);
       }
     }
+    return handlerTypes;
   }
   
   // get information
@@ -350,5 +394,86 @@ public final class TypeHandlerRegistry {
   public Collection<TypeHandler<?>> getTypeHandlers() {
     return Collections.unmodifiableCollection(ALL_TYPE_HANDLERS_MAP.values());
   }
-  
+
+  //冻结后的查找表:类型按引用查找,JdbcType按ordinal做数组下标,没有对应JdbcType时退回null那一格的逻辑建表时就处理好了
+  private static final class FrozenTable {
+    private static final int NULL_JDBC_TYPE = JdbcType.values().length;
+    private static final TypeHandler<?>[] NO_HANDLERS = new TypeHandler<?>[NULL_JDBC_TYPE + 1];
+
+    private final Map<Class<?>, TypeHandler<?>[]> classHandlers = new IdentityHashMap<Class<?>, TypeHandler<?>[]>();
+    //TypeReference注册的参数化类型只能按equals查找
+    private final Map<Type, TypeHandler<?>[]> genericHandlers = new HashMap<Type, TypeHandler<?>[]>();
+    private final TypeHandler<?>[] jdbcTypeHandlers = new TypeHandler<?>[NULL_JDBC_TYPE + 1];
+    //没注册的类型:枚举每个类型只建一个EnumTypeHandler,其它的记下查不到
+    private final ConcurrentMap<Type, TypeHandler<?>[]> misses = new ConcurrentHashMap<Type, TypeHandler<?>[]>();
+
+    FrozenTable(Map<Type, Map<JdbcType, TypeHandler<?>>> typeHandlerMap, Map<JdbcType, TypeHandler<?>> jdbcTypeHandlerMap) {
+      for (Map.Entry<Type, Map<JdbcType, TypeHandler<?>>> entry : typeHandlerMap.entrySet()) {
+        Map<JdbcType, TypeHandler<?>> jdbcHandlerMap = entry.getValue();
+        TypeHandler<?> defaultHandler = jdbcHandlerMap.get(null);
+        TypeHandler<?>[] handlers = new TypeHandler<?>[NULL_JDBC_TYPE + 1];
+        for (JdbcType jdbcType : JdbcType.values()) {
+          TypeHandler<?> handler = jdbcHandlerMap.get(jdbcType);
+          handlers[jdbcType.ordinal()] = handler != null ? handler : defaultHandler;
+        }
+        handlers[NULL_JDBC_TYPE] = defaultHandler;
+        //枚举只注册了部分JdbcType时,其余的格子和没冻结时一样退回EnumTypeHandler,整个类型共用一个
+        if (isEnum(entry.getKey())) {
+          TypeHandler<?> enumHandler = null;
+          for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i] == null) {
+              if (enumHandler == null) {
+                enumHandler = new EnumTypeHandler((Class<?>) entry.getKey());
+              }
+              handlers[i] = enumHandler;
+            }
+          }
+        }
+        if (entry.getKey() instanceof Class) {
+          classHandlers.put((Class<?>) entry.getKey(), handlers);
+        } else {
+          genericHandlers.put(entry.getKey(), handlers);
+        }
+      }
+      for (Map.Entry<JdbcType, TypeHandler<?>> entry : jdbcTypeHandlerMap.entrySet()) {
+        jdbcTypeHandlers[entry.getKey().ordinal()] = entry.getValue();
+      }
+    }
+
+    TypeHandler<?> getTypeHandler(Type type, JdbcType jdbcType) {
+      if (type == null) {
+        return null;
+      }
+      TypeHandler<?>[] handlers = type instanceof Class ? classHandlers.get(type) : genericHandlers.get(type);
+      if (handlers == null) {
+        handlers = misses.get(type);
+        if (handlers == null) {
+          handlers = missedHandlers(type);
+          TypeHandler<?>[] existing = misses.putIfAbsent(type, handlers);
+          if (existing != null) {
+            handlers = existing;
+          }
+        }
+      }
+      return handlers[jdbcType == null ? NULL_JDBC_TYPE : jdbcType.ordinal()];
+    }
+
+    TypeHandler<?> getJdbcTypeHandler(JdbcType jdbcType) {
+      return jdbcType == null ? null : jdbcTypeHandlers[jdbcType.ordinal()];
+    }
+
+    private static boolean isEnum(Type type) {
+      return type instanceof Class && Enum.class.isAssignableFrom((Class<?>) type);
+    }
+
+    private TypeHandler<?>[] missedHandlers(Type type) {
+      if (isEnum(type)) {
+        TypeHandler<?>[] handlers = new TypeHandler<?>[NULL_JDBC_TYPE + 1];
+        Arrays.fill(handlers, new EnumTypeHandler((Class<?>) type));
+        return handlers;
+      }
+      return NO_HANDLERS;
+    }
+  }
+
 }